@@ -0,0 +1,140 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.SQLCodegenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Whole dataset evaluated through an embedded in-memory H2 database, once
+ * with a call per geometry, e.g. SELECT Area(?), and once with a call per
+ * batch of geometries, e.g. SELECT AreaBatch(?).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+	public enum Operation {
+
+		AREA("Area(?)", "AreaBatch(?)"),
+
+		BUFFER("Buffer(?, 20)", "BufferBatch(?, 20)"),
+
+		INTERSECTS("Intersects(?, ?)", "IntersectsBatch(?, ?)");
+
+		final String single;
+
+		final String batch;
+
+		Operation(String single, String batch) {
+			this.single = single;
+			this.batch = batch;
+		}
+
+		boolean hasQuery() {
+			return single.contains("?, ?");
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class DatabaseState {
+
+		@Param
+		public Operation operation;
+
+		@Param({ "100", "1000" })
+		public int batchSize;
+
+		Connection connection;
+
+		PreparedStatement single;
+
+		PreparedStatement batch;
+
+		byte[][] values;
+
+		byte[] query;
+
+		@Setup
+		public void open(DatasetState state) throws Exception {
+			Class.forName("org.h2.Driver");
+			connection = DriverManager.getConnection("jdbc:h2:mem:batch", "sa", "");
+			Statement st = connection.createStatement();
+			SQLCodegenerator.addSpatialFunctions(st);
+			st.close();
+			GeometryDataset data = state.data;
+			values = new byte[data.size()][];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = data.wkb(i);
+			}
+			query = data.neighbourWkb(data.size() / 2);
+			single = connection.prepareStatement("SELECT " + operation.single);
+			batch = connection.prepareStatement("SELECT " + operation.batch);
+			if (operation.hasQuery()) {
+				single.setBytes(1, query);
+				batch.setBytes(1, query);
+			}
+		}
+
+		@TearDown
+		public void close() throws SQLException {
+			single.close();
+			batch.close();
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public void perRow(DatabaseState db, Blackhole bh) throws SQLException {
+		int parameter = db.operation.hasQuery() ? 2 : 1;
+		for (byte[] value : db.values) {
+			db.single.setBytes(parameter, value);
+			ResultSet rs = db.single.executeQuery();
+			rs.next();
+			bh.consume(rs.getObject(1));
+			rs.close();
+		}
+	}
+
+	@Benchmark
+	public void batch(DatabaseState db, Blackhole bh) throws SQLException {
+		int parameter = db.operation.hasQuery() ? 2 : 1;
+		for (int start = 0; start < db.values.length; start += db.batchSize) {
+			Object[] chunk = new Object[Math.min(db.batchSize, db.values.length - start)];
+			System.arraycopy(db.values, start, chunk, 0, chunk.length);
+			db.batch.setObject(parameter, chunk);
+			ResultSet rs = db.batch.executeQuery();
+			rs.next();
+			bh.consume(rs.getObject(1));
+			rs.close();
+		}
+	}
+}
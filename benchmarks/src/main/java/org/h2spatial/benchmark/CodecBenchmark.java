@@ -0,0 +1,87 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the storage format alone : WKB decoding, WKB encoding and WKT
+ * parsing. Scores are given for one pass over the whole dataset.
+ *
+ * The round trip benchmarks decode and encode the shared dataset on one
+ * thread and on every core. The throughput of the second one, divided by the
+ * number of cores, shows how the per-thread codec scales.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	@Benchmark
+	public void decode(DatasetState state, Blackhole bh) throws Exception {
+		GeometryDataset data = state.data;
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(GeometryCodec.read(data.wkb(i)));
+		}
+	}
+
+	@Benchmark
+	public void encode(DatasetState state, Blackhole bh) throws Exception {
+		GeometryDataset data = state.data;
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(GeometryCodec.write(data.geometry(i), GeometryDataset.SRID));
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(1)
+	public void roundTripOneThread(DatasetState state, Blackhole bh)
+			throws Exception {
+		roundTrip(state.data, bh);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@Threads(Threads.MAX)
+	public void roundTripAllThreads(DatasetState state, Blackhole bh)
+			throws Exception {
+		roundTrip(state.data, bh);
+	}
+
+	private static void roundTrip(GeometryDataset data, Blackhole bh)
+			throws Exception {
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(GeometryCodec.write(GeometryCodec.read(data.wkb(i)),
+					GeometryDataset.SRID));
+		}
+	}
+
+	@Benchmark
+	public void decodeText(DatasetState state, Blackhole bh) throws Exception {
+		GeometryDataset data = state.data;
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(GeometryCodec.readText(data.wkt(i)));
+		}
+	}
+}
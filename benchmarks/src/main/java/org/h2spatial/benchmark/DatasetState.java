@@ -0,0 +1,41 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dataset shared by the benchmarks. The type, number of features and number
+ * of vertices per feature can be changed on the command line, e.g.
+ *
+ * java -jar target/benchmarks.jar -p geometryType=POLYGON -p size=100000 -p vertices=500
+ */
+@State(Scope.Benchmark)
+public class DatasetState {
+
+	@Param({ "POINT", "LINESTRING", "POLYGON" })
+	public String geometryType;
+
+	@Param({ "1000" })
+	public int size;
+
+	@Param({ "32" })
+	public int vertices;
+
+	public GeometryDataset data;
+
+	@Setup
+	public void generate() throws IOException {
+		data = new GeometryDataset(geometryType, size, vertices);
+	}
+}
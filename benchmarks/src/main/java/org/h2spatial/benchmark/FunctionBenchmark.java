@@ -0,0 +1,110 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Direct Java calls of every spatial function over the dataset.
+ *
+ * call runs GeoSpatialFunctions end to end, decode, compute and encode split
+ * the same work into its three stages. Scores are given for one pass over
+ * the whole dataset. Select some functions with -p function=BUFFER,AREA.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class FunctionState {
+
+		@Param
+		public SpatialFunction function;
+
+		Geometry[] first;
+
+		Geometry[] second;
+
+		Geometry[] results;
+
+		@Setup
+		public void prepare(DatasetState state) throws Exception {
+			GeometryDataset data = state.data;
+			first = new Geometry[data.size()];
+			second = new Geometry[data.size()];
+			results = new Geometry[data.size()];
+			for (int i = 0; i < data.size(); i++) {
+				first[i] = data.geometry(i);
+				if (function.isBinary()) {
+					second[i] = data.neighbour(i);
+				}
+				Object result = function.compute(first[i], second[i]);
+				if (result instanceof Geometry) {
+					results[i] = (Geometry) result;
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void call(DatasetState state, FunctionState fs, Blackhole bh)
+			throws Exception {
+		GeometryDataset data = state.data;
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(fs.function.call(data, i));
+		}
+	}
+
+	@Benchmark
+	public void decode(DatasetState state, FunctionState fs, Blackhole bh)
+			throws Exception {
+		GeometryDataset data = state.data;
+		boolean binary = fs.function.isBinary();
+		for (int i = 0; i < data.size(); i++) {
+			bh.consume(GeometryCodec.read(data.wkb(i)));
+			if (binary) {
+				bh.consume(GeometryCodec.read(data.neighbourWkb(i)));
+			}
+		}
+	}
+
+	@Benchmark
+	public void compute(FunctionState fs, Blackhole bh) throws Exception {
+		for (int i = 0; i < fs.first.length; i++) {
+			bh.consume(fs.function.compute(fs.first[i], fs.second[i]));
+		}
+	}
+
+	@Benchmark
+	public void encode(FunctionState fs, Blackhole bh) throws Exception {
+		for (int i = 0; i < fs.results.length; i++) {
+			if (fs.results[i] != null) {
+				bh.consume(GeometryCodec.write(fs.results[i], GeometryDataset.SRID));
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.h2spatial.codec.GeometryCodec;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Generates reproducible point, line or polygon datasets.
+ *
+ * Features are laid out on a grid whose cell size is close to the feature
+ * size, so that a geometry and its neighbour in the dataset overlap about half
+ * of the time. Binary functions are benchmarked on these (i, i + 1) pairs.
+ */
+public class GeometryDataset {
+
+	public static final int SRID = 27582;
+
+	static final double CELL_SIZE = 100;
+
+	private final Geometry[] geometries;
+
+	private final byte[][] wkb;
+
+	private final String[] wkt;
+
+	public GeometryDataset(String geometryType, int size, int vertices)
+			throws IOException {
+		GeometryFactory factory = new GeometryFactory();
+		Random random = new Random(42);
+		int columns = (int) Math.ceil(Math.sqrt(size));
+		geometries = new Geometry[size];
+		wkb = new byte[size][];
+		wkt = new String[size];
+		for (int i = 0; i < size; i++) {
+			double x = (i % columns) * CELL_SIZE + random.nextDouble() * CELL_SIZE;
+			double y = (i / columns) * CELL_SIZE + random.nextDouble() * CELL_SIZE;
+			Geometry geom = create(factory, random, geometryType, x, y, vertices);
+			geometries[i] = geom;
+			wkb[i] = GeometryCodec.write(geom, SRID);
+			wkt[i] = geom.toText();
+		}
+	}
+
+	public int size() {
+		return geometries.length;
+	}
+
+	public Geometry geometry(int i) {
+		return geometries[i];
+	}
+
+	public byte[] wkb(int i) {
+		return wkb[i];
+	}
+
+	public String wkt(int i) {
+		return wkt[i];
+	}
+
+	/**
+	 * The second argument given to binary functions for row i.
+	 */
+	public byte[] neighbourWkb(int i) {
+		return wkb[(i + 1) % wkb.length];
+	}
+
+	public Geometry neighbour(int i) {
+		return geometries[(i + 1) % geometries.length];
+	}
+
+	static Geometry create(GeometryFactory factory, Random random,
+			String geometryType, double x, double y, int vertices) {
+		if ("POINT".equals(geometryType)) {
+			return factory.createPoint(new Coordinate(x, y));
+		}
+		double radius = CELL_SIZE * (0.5 + random.nextDouble());
+		if ("LINESTRING".equals(geometryType)) {
+			Coordinate[] coords = new Coordinate[Math.max(2, vertices)];
+			for (int k = 0; k < coords.length; k++) {
+				double t = (double) k / (coords.length - 1);
+				coords[k] = new Coordinate(x - radius + 2 * radius * t, y
+						+ radius * Math.sin(t * 4 * Math.PI) * random.nextDouble());
+			}
+			return factory.createLineString(coords);
+		}
+		if ("POLYGON".equals(geometryType)) {
+			int n = Math.max(3, vertices);
+			Coordinate[] coords = new Coordinate[n + 1];
+			for (int k = 0; k < n; k++) {
+				double angle = 2 * Math.PI * k / n;
+				double r = radius * (0.7 + 0.3 * random.nextDouble());
+				coords[k] = new Coordinate(x + r * Math.cos(angle), y + r
+						* Math.sin(angle));
+			}
+			coords[n] = coords[0];
+			return factory.createPolygon(factory.createLinearRing(coords), null);
+		}
+		throw new IllegalArgumentException("Unknown geometry type : "
+				+ geometryType);
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * The k points nearest to a random location in an embedded in-memory H2
+ * database, read from the spatial index with NearestNeighbours and by
+ * sorting the Distance to every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestNeighbourBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class TableState {
+
+		@Param({ "1000", "10000", "100000" })
+		public int rows;
+
+		@Param({ "10" })
+		public int k;
+
+		Connection connection;
+
+		PreparedStatement nearest;
+
+		PreparedStatement scan;
+
+		final byte[][] queries = new byte[256][];
+
+		int next;
+
+		@Setup
+		public void open() throws Exception {
+			Class.forName("org.h2.Driver");
+			connection = DriverManager.getConnection("jdbc:h2:mem:knn", "sa", "");
+			Statement st = connection.createStatement();
+			SQLCodegenerator.addSpatialFunctions(st);
+			st.execute("DROP ALL OBJECTS");
+			st.execute("CREATE TABLE hydrants(gid INT PRIMARY KEY, the_geom BLOB)");
+			GeometryFactory factory = new GeometryFactory();
+			Random random = new Random(0);
+			PreparedStatement insert = connection
+					.prepareStatement("INSERT INTO hydrants VALUES(?, ?)");
+			for (int i = 0; i < rows; i++) {
+				insert.setInt(1, i);
+				insert.setBytes(2, GeometryCodec.write(factory.createPoint(new Coordinate(
+						random.nextDouble() * 10000, random.nextDouble() * 10000)), 0));
+				insert.execute();
+			}
+			insert.close();
+			st.execute("CALL CreateSpatialIndex('hydrants', 'the_geom')");
+			st.close();
+			for (int i = 0; i < queries.length; i++) {
+				queries[i] = GeometryCodec.write(factory.createPoint(new Coordinate(
+						random.nextDouble() * 10000, random.nextDouble() * 10000)), 0);
+			}
+			nearest = connection.prepareStatement("SELECT KEY, DISTANCE FROM"
+					+ " NearestNeighbours('hydrants', 'the_geom', ?, ?)");
+			scan = connection.prepareStatement("SELECT gid, Distance(the_geom, ?) d"
+					+ " FROM hydrants ORDER BY d LIMIT ?");
+		}
+
+		byte[] nextQuery() {
+			next = (next + 1) % queries.length;
+			return queries[next];
+		}
+
+		@TearDown
+		public void close() throws SQLException {
+			nearest.close();
+			scan.close();
+			connection.close();
+		}
+	}
+
+	private static void consume(PreparedStatement prep, byte[] query, int k, Blackhole bh)
+			throws SQLException {
+		prep.setBytes(1, query);
+		prep.setInt(2, k);
+		ResultSet rs = prep.executeQuery();
+		while (rs.next()) {
+			bh.consume(rs.getLong(1));
+		}
+		rs.close();
+	}
+
+	@Benchmark
+	public void nearestNeighbours(TableState state, Blackhole bh) throws SQLException {
+		consume(state.nearest, state.nextQuery(), state.k, bh);
+	}
+
+	@Benchmark
+	public void distanceScan(TableState state, Blackhole bh) throws SQLException {
+		consume(state.scan, state.nextQuery(), state.k, bh);
+	}
+}
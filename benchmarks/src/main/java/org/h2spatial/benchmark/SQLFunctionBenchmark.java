@@ -0,0 +1,94 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.SQLCodegenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Every spatial function called through an embedded in-memory H2 database,
+ * e.g. SELECT Buffer(the_geom, 20) FROM bench. The difference with
+ * FunctionBenchmark.call is the cost of the SQL layer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLFunctionBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class DatabaseState {
+
+		@Param
+		public SpatialFunction function;
+
+		Connection connection;
+
+		PreparedStatement query;
+
+		@Setup
+		public void open(DatasetState state) throws Exception {
+			Class.forName("org.h2.Driver");
+			connection = DriverManager.getConnection("jdbc:h2:mem:bench", "sa", "");
+			Statement st = connection.createStatement();
+			SQLCodegenerator.addSpatialFunctions(st);
+			st.execute("DROP TABLE IF EXISTS bench");
+			st.execute("CREATE TABLE bench(gid INT PRIMARY KEY, the_wkt VARCHAR, the_geom BLOB, the_geom2 BLOB)");
+			st.close();
+			GeometryDataset data = state.data;
+			PreparedStatement insert = connection
+					.prepareStatement("INSERT INTO bench VALUES(?, ?, ?, ?)");
+			for (int i = 0; i < data.size(); i++) {
+				insert.setInt(1, i);
+				insert.setString(2, data.wkt(i));
+				insert.setBytes(3, data.wkb(i));
+				insert.setBytes(4, data.neighbourWkb(i));
+				insert.execute();
+			}
+			insert.close();
+			query = connection.prepareStatement("SELECT " + function.sql()
+					+ " FROM bench");
+		}
+
+		@TearDown
+		public void close() throws SQLException {
+			query.close();
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public void query(DatabaseState db, Blackhole bh) throws SQLException {
+		ResultSet rs = db.query.executeQuery();
+		while (rs.next()) {
+			bh.consume(rs.getObject(1));
+		}
+		rs.close();
+	}
+}
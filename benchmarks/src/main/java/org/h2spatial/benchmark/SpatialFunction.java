@@ -0,0 +1,428 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import org.h2spatial.GeoSpatialFunctions;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * The SQL aliases registered by SQLCodegenerator.addSpatialFunctions that take
+ * geometry values.
+ *
+ * Each function can be run end to end through GeoSpatialFunctions (call), or
+ * restricted to its JTS part on already decoded geometries (compute), so that
+ * decode, compute and encode times can be reported separately. GeoVersion,
+ * LastGeoVersion, AddGeometryColumn and getSpatialTables don't work on
+ * geometries and are not part of the list. GeomFromText, AsBinary and Equals
+ * have no real compute stage : the WKT parsing of GeomFromText is measured by
+ * CodecBenchmark.decodeText.
+ */
+public enum SpatialFunction {
+
+	GEOM_FROM_TEXT("GeomFromText(the_wkt, 27582)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeomFromText(data.wkt(i), GeometryDataset.SRID);
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a;
+		}
+	},
+
+	TO_STRING("ToString(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.ToString(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.toString();
+		}
+	},
+
+	ASE_WKT("AseWKT(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.AseWKT(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.toText();
+		}
+	},
+
+	AS_TEXT("AsText(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.AsText(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.toText();
+		}
+	},
+
+	AS_BINARY("AsBinary(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.AsBinary(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a;
+		}
+	},
+
+	GEO_LENGTH("GeoLength(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeoLength(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getLength();
+		}
+	},
+
+	AREA("Area(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Area(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getArea();
+		}
+	},
+
+	NUM_POINTS("NumPoints(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.NumPoints(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getNumPoints();
+		}
+	},
+
+	DIMENSION("Dimension(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Dimension(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getDimension();
+		}
+	},
+
+	GEOMETRY_TYPE("GeometryType(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeometryType(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getGeometryType();
+		}
+	},
+
+	SRID("SRID(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.SRID(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getSRID();
+		}
+	},
+
+	IS_EMPTY("IsEmpty(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.IsEmpty(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.isEmpty();
+		}
+	},
+
+	IS_SIMPLE("IsSimple(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.IsSimple(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.isSimple();
+		}
+	},
+
+	IS_VALID("IsValid(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.IsValid(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.isValid();
+		}
+	},
+
+	BOUNDARY("Boundary(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Boundary(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getBoundary();
+		}
+	},
+
+	ENVELOPE("Envelope(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Envelope(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getEnvelope();
+		}
+	},
+
+	NUM_GEOMETRIES("NumGeometries(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.NumGeometries(data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getNumGeometries();
+		}
+	},
+
+	GEOMETRY_N("GeometryN(the_geom, 0)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeometryN(data.wkb(i), 0);
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.getGeometryN(0);
+		}
+	},
+
+	CONVEX_HULL("ConvexHull(the_geom)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.ConvexHull(null, data.wkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.convexHull();
+		}
+	},
+
+	BUFFER("Buffer(the_geom, 20)", false) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Buffer(null, data.wkb(i), 20);
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.buffer(20);
+		}
+	},
+
+	EQUALS("Equals(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Equals(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a == b;
+		}
+	},
+
+	DISJOINT("Disjoint(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Disjoint(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.disjoint(b);
+		}
+	},
+
+	TOUCHES("Touches(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Touches(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.touches(b);
+		}
+	},
+
+	WITHIN("Within(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Within(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.within(b);
+		}
+	},
+
+	OVERLAPS("Overlaps(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Overlaps(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.overlaps(b);
+		}
+	},
+
+	CROSSES("Crosses(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Crosses(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.crosses(b);
+		}
+	},
+
+	INTERSECTS("Intersects(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Intersects(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.intersects(b);
+		}
+	},
+
+	CONTAINS("Contains(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Contains(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.contains(b);
+		}
+	},
+
+	COVERS("Covers(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Covers(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.covers(b);
+		}
+	},
+
+	COVERED_BY("CoveredBy(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.CoveredBy(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.coveredBy(b);
+		}
+	},
+
+	RELATE("Relate(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Relate(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.relate(b).toString();
+		}
+	},
+
+	DISTANCE("Distance(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Distance(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.distance(b);
+		}
+	},
+
+	IS_WITHIN_DISTANCE("IsWithinDistance(the_geom, the_geom2, 20)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.IsWithinDistance(data.wkb(i), data.neighbourWkb(i), 20);
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.isWithinDistance(b, 20);
+		}
+	},
+
+	INTERSECTION("Intersection(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.Intersection(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.intersection(b);
+		}
+	},
+
+	GEOM_DIFFERENCE("GeomDifference(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeomDifference(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.difference(b);
+		}
+	},
+
+	GEOM_UNION("GeomUnion(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.GeomUnion(null, data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.union(b);
+		}
+	},
+
+	SYM_DIFFERENCE("SymDifference(the_geom, the_geom2)", true) {
+		Object call(GeometryDataset data, int i) throws Exception {
+			return GeoSpatialFunctions.SymDifference(data.wkb(i), data.neighbourWkb(i));
+		}
+
+		Object compute(Geometry a, Geometry b) throws Exception {
+			return a.symDifference(b);
+		}
+	};
+
+	private final String sql;
+
+	private final boolean binary;
+
+	private SpatialFunction(String sql, boolean binary) {
+		this.sql = sql;
+		this.binary = binary;
+	}
+
+	/**
+	 * The expression evaluated over the benchmark table, where the_wkt holds
+	 * the WKT of the_geom and the_geom2 the neighbour geometry.
+	 */
+	public String sql() {
+		return sql;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Runs the function through GeoSpatialFunctions on row i.
+	 */
+	abstract Object call(GeometryDataset data, int i) throws Exception;
+
+	/**
+	 * Runs only the JTS computation, b is null for unary functions.
+	 */
+	abstract Object compute(Geometry a, Geometry b) throws Exception;
+}
@@ -0,0 +1,118 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.tile.VectorTile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Vector tiles served per second from an embedded in-memory H2 database. The
+ * dataset is stored in Web Mercator near the origin, each call encodes the
+ * next tile of the zoom level covering it, with or without a spatial index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorTileBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class TileState {
+
+		@Param({ "12", "14", "16" })
+		public int zoom;
+
+		@Param({ "true", "false" })
+		public boolean index;
+
+		Connection connection;
+
+		final List<int[]> tiles = new ArrayList<int[]>();
+
+		int next;
+
+		@Setup
+		public void open(DatasetState state) throws Exception {
+			Class.forName("org.h2.Driver");
+			connection = DriverManager.getConnection("jdbc:h2:mem:tiles", "sa", "");
+			Statement st = connection.createStatement();
+			SQLCodegenerator.addSpatialFunctions(st);
+			st.execute("DROP ALL OBJECTS");
+			st.execute("CREATE TABLE bench(gid INT PRIMARY KEY, name VARCHAR, the_geom BLOB)");
+			GeometryDataset data = state.data;
+			PreparedStatement insert = connection
+					.prepareStatement("INSERT INTO bench VALUES(?, ?, ?)");
+			Envelope extent = new Envelope();
+			for (int i = 0; i < data.size(); i++) {
+				insert.setInt(1, i);
+				insert.setString(2, "feature" + i);
+				insert.setBytes(3, GeometryCodec.write(data.geometry(i), 3857));
+				insert.execute();
+				extent.expandToInclude(data.geometry(i).getEnvelopeInternal());
+			}
+			insert.close();
+			if (index) {
+				st.execute("CALL CreateSpatialIndex('bench', 'the_geom')");
+			}
+			st.close();
+			double size = 2 * VectorTile.WORLD_HALF_SIZE / (1 << zoom);
+			int minX = (int) ((extent.getMinX() + VectorTile.WORLD_HALF_SIZE) / size);
+			int maxX = (int) ((extent.getMaxX() + VectorTile.WORLD_HALF_SIZE) / size);
+			int minY = (int) ((VectorTile.WORLD_HALF_SIZE - extent.getMaxY()) / size);
+			int maxY = (int) ((VectorTile.WORLD_HALF_SIZE - extent.getMinY()) / size);
+			for (int x = minX; x <= maxX; x++) {
+				for (int y = minY; y <= maxY; y++) {
+					tiles.add(new int[] { x, y });
+				}
+			}
+		}
+
+		int[] nextTile() {
+			int[] tile = tiles.get(next);
+			next = (next + 1) % tiles.size();
+			return tile;
+		}
+
+		@TearDown
+		public void close() throws SQLException {
+			connection.close();
+		}
+	}
+
+	@Benchmark
+	public byte[] tile(TileState state) throws SQLException {
+		int[] tile = state.nextTile();
+		return VectorTile.encode(state.connection, "bench", "the_geom", state.zoom,
+				tile[0], tile[1]);
+	}
+}
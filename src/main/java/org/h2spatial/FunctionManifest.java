@@ -0,0 +1,81 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial;
+
+import java.util.Arrays;
+
+/**
+ * The SQL functions of GeoSpatialFunctions, each one registered as an alias
+ * of the same name.
+ *
+ * The list is written here instead of being read by reflection so the
+ * registration doesn't have to load and inspect the class. A function added
+ * to GeoSpatialFunctions must be added to this list, which is checked by the
+ * tests.
+ */
+public final class FunctionManifest {
+
+	public static final String CLASS_NAME = "org.h2spatial.GeoSpatialFunctions";
+
+	private static final String[] FUNCTIONS = {
+			"GeoVersion", "LastGeoVersion", "setWKBGeometry", "setWKTGeometry",
+			"getGeometry", "GeomFromText", "AddGeometryColumn", "ToString",
+			"AseWKT", "GeoLength", "Area", "NumPoints", "Dimension",
+			"GeometryType", "AsText", "AsBinary", "SRID", "IsEmpty", "IsSimple",
+			"Boundary", "Envelope", "NumGeometries", "GeometryN", "Equals",
+			"Disjoint", "Touches", "Within", "Overlaps", "Crosses", "Intersects",
+			"Contains", "Covers", "CoveredBy", "Relate", "Distance",
+			"Intersection", "GeomDifference", "GeomUnion", "UnionAggregate",
+			"ParallelUnionAggregate", "Extent", "Collect", "SymDifference",
+			"Buffer", "ConvexHull", "IsWithinDistance", "PrefilterStats",
+			"GeometryCacheStats", "IsValid", "CreateSpatialIndex",
+			"DropSpatialIndex", "RebuildSpatialIndex", "SpatialIndexLookup",
+			"SpatialJoin", "LoadGeometries", "ConvertGeometryColumn",
+			"EnableLayerStatistics", "RefreshLayerStatistics",
+			"DisableLayerStatistics", "LayerStatistics", "LayerExtent",
+			"LayerHistogram", "LayerSizeHistogram", "EstimateSelectivity",
+			"SetSpatialSetting", "SetSessionSpatialSetting",
+			"GetSpatialSettings", "SpatialCatalog", "getSpatialTables",
+			"EnableGeoStats", "GeoStats", "GeoStatsHistogram",
+			"ResetGeoStats", "CreateGeometryLevels", "DropGeometryLevels",
+			"GeometryLevels", "LevelColumnForScale",
+			"LevelColumnForResolution", "AsVectorTile", "TileEnvelope",
+			"AreaBatch", "GeoLengthBatch", "BufferBatch", "IntersectsBatch",
+			"ContainsBatch", "WithinBatch", "IsWithinDistanceBatch",
+			"CreateCoordinateCache", "DropCoordinateCache", "CachedArea",
+			"CachedLength", "CachedExtent", "CachedMeasures",
+			"CachedPointInPolygon", "NearestNeighbours", "AsGeoJSON", "AsGML",
+			"AsClob", "ExportGeoJSON", "HilbertKey", "ZOrderKey", "ClusterTable",
+			"DropClustering", "CurveKeyRanges", "DistanceJoin", "Transform",
+			"CreateSpatialRefSys", "ReprojectColumn" };
+
+	private static final String VERSION = GeoSpatialFunctions.GeoVersion()
+			+ "-" + Integer.toHexString(Arrays.hashCode(FUNCTIONS));
+
+	private FunctionManifest() {
+	}
+
+	public static String[] getFunctions() {
+		return FUNCTIONS.clone();
+	}
+
+	/**
+	 * @return the version of the functions followed by a hash of the list, so
+	 *         that a changed list is installed again.
+	 */
+	public static String getVersion() {
+		return VERSION;
+	}
+
+	/**
+	 * @return the method called by the alias of a function.
+	 */
+	public static String getJavaMethod(String function) {
+		return CLASS_NAME + "." + function;
+	}
+}
@@ -7,24 +7,69 @@
  */
 package org.h2spatial;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
 import org.h2.engine.Session;
+import org.h2.tools.SimpleResultSet;
+import org.h2spatial.aggregate.CollectAggregate;
+import org.h2spatial.aggregate.ExtentAggregate;
+import org.h2spatial.aggregate.UnionAggregate;
+import org.h2spatial.batch.BatchOperations;
+import org.h2spatial.cache.ColumnarLayer;
+import org.h2spatial.cache.CoordinateCache;
+import org.h2spatial.catalog.GeometryColumn;
+import org.h2spatial.catalog.SpatialCatalog;
+import org.h2spatial.crs.CoordinateTransform;
+import org.h2spatial.crs.Reprojection;
+import org.h2spatial.crs.SpatialRefSys;
+import org.h2spatial.curve.CurveClustering;
+import org.h2spatial.curve.CurveGrid;
+import org.h2spatial.curve.SpaceFillingCurve;
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.GeometryTextReader;
+import org.h2spatial.codec.TextFormat;
+import org.h2spatial.codec.WKBInspector;
+import org.h2spatial.export.GeoJSONExporter;
+import org.h2spatial.index.IndexVisitor;
+import org.h2spatial.index.NearestNeighbourSearch;
+import org.h2spatial.index.NeighbourVisitor;
+import org.h2spatial.index.SpatialIndex;
+import org.h2spatial.join.DistanceJoinVisitor;
+import org.h2spatial.join.JoinPredicate;
+import org.h2spatial.join.JoinVisitor;
+import org.h2spatial.join.SpatialJoin;
+import org.h2spatial.load.BulkLoader;
+import org.h2spatial.load.GeometryFormat;
+import org.h2spatial.load.LoadReport;
+import org.h2spatial.lod.GeometryLevels;
+import org.h2spatial.metrics.FunctionStats;
+import org.h2spatial.metrics.GeoStats;
+import org.h2spatial.metrics.LatencyHistogram;
+import org.h2spatial.metrics.Probe;
+import org.h2spatial.parallel.ParallelOperations;
+import org.h2spatial.predicate.EnvelopePrefilter;
+import org.h2spatial.predicate.PreparedGeometryCache;
+import org.h2spatial.predicate.PreparedPredicates;
+import org.h2spatial.stats.LayerStatistics;
+import org.h2spatial.tile.VectorTile;
+import org.h2spatial.util.GeometryColumns;
+import org.h2spatial.util.SQLUtils;
+import org.h2spatial.util.StorageConverter;
+import org.h2spatial.util.SpatialSettings;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKBReader;
-import com.vividsolutions.jts.io.WKBWriter;
-import com.vividsolutions.jts.io.WKTReader;
 
 /**
  * 
@@ -77,7 +122,10 @@ import com.vividsolutions.jts.io.WKTReader;
  * The spatial functions partially cover the OGC specification "Implementation Specification for Geographic information - Simple feature
  * access - Part 2: SQL option"
  *
- * The JTS geometry object is stored in WKB format in a BLOB datatype.
+ * The JTS geometry object is stored in a BLOB datatype, in the versioned
+ * format of StorageFormat : a header with the SRID and the bounding box,
+ * followed by WKB or by coordinates rounded to a fixed precision. Legacy WKB
+ * values are still read.
  *
  * A new domain called GEOMETRY is created to define the geometry datatype.
  *
@@ -104,6 +152,110 @@ import com.vividsolutions.jts.io.WKTReader;
  * 
  * SELECT buffer(the_geom, 20) FROM mySpatialTable;
  * 
+ * Create a spatial index and use it for a window query :
+ *
+ * CALL CreateSpatialIndex('mySpatialTable', 'the_geom');
+ *
+ * SELECT t.* FROM SpatialIndexLookup('mySpatialTable', 'the_geom', GeomFromText('POLYGON(...)', 1)) i,
+ * mySpatialTable t WHERE t.gid = i.KEY;
+ *
+ * The 10 rows nearest to a point, read from the same index :
+ *
+ * SELECT t.*, n.DISTANCE FROM NearestNeighbours('mySpatialTable', 'the_geom', GeomFromText('POINT(...)', 1), 10) n,
+ * mySpatialTable t WHERE t.gid = n.KEY ORDER BY n.DISTANCE;
+ *
+ * Join two tables, the memory used by the join is set in bytes :
+ *
+ * CALL SetSpatialSetting('JOIN_MEMORY', 268435456);
+ *
+ * SELECT * FROM SpatialJoin('parcels', 'the_geom', 'zones', 'the_geom', 'intersects');
+ *
+ * Find the buildings within 50 meters of a road, with their distance :
+ *
+ * SELECT * FROM DistanceJoin('buildings', 'the_geom', 'roads', 'the_geom', 50);
+ *
+ * Load a file of WKT, hexadecimal WKB or GeoJSON geometries (SRID 2154) into
+ * a new or existing table :
+ *
+ * CALL LoadGeometries('/data/parcels.geojson', 'geojson', 'parcels', 'the_geom', 2154);
+ *
+ * Convert a table whose geometries were written as plain WKB to the storage
+ * format, giving the SRID of its geometries :
+ *
+ * CALL ConvertGeometryColumn('mySpatialTable', 'the_geom', 1);
+ *
+ * Maintain the statistics of a layer and read its extent without a scan :
+ *
+ * CALL EnableLayerStatistics('parcels', 'the_geom');
+ *
+ * SELECT AsText(LayerExtent('parcels', 'the_geom'));
+ *
+ * List the geometry columns with their SRID, type and dimension :
+ *
+ * SELECT * FROM SpatialCatalog();
+ *
+ * Keep simplified copies of a geometry column and draw a map at 1:250000
+ * with the matching one :
+ *
+ * CALL CreateGeometryLevels('parcels', 'the_geom', '1, 10, 100');
+ *
+ * CALL LevelColumnForScale('parcels', 'the_geom', 250000);
+ *
+ * Serve the Mapbox vector tile 14/8145/5803 of a table in Web Mercator or in
+ * degrees (SRID 4326) :
+ *
+ * CALL AsVectorTile('parcels', 'the_geom', 14, 8145, 5803);
+ *
+ * Compute the areas of an array of geometries, or test an array of
+ * candidates against a query geometry, in a single call :
+ *
+ * SELECT AreaBatch((g1, g2, g3));
+ *
+ * SELECT IntersectsBatch(GeomFromText('POLYGON(...)', 1), (g1, g2, g3));
+ *
+ * Cache the coordinates of a column outside of the heap, then sum its areas
+ * without decoding the geometries :
+ *
+ * CALL CreateCoordinateCache('parcels', 'the_geom');
+ *
+ * CALL CachedArea('parcels', 'the_geom');
+ *
+ * Write a geometry as GeoJSON, or a whole table as a GeoJSON file :
+ *
+ * SELECT AsGeoJSON(the_geom) FROM mySpatialTable;
+ *
+ * CALL ExportGeoJSON('mySpatialTable', 'the_geom', '/data/mySpatialTable.geojson');
+ *
+ * Store the rows of a table in the order of a Hilbert curve of order 16, then
+ * read a window through the B-tree index of the curve keys :
+ *
+ * CALL ClusterTable('parcels', 'the_geom', 'hilbert', 16);
+ *
+ * SELECT p.* FROM CurveKeyRanges('parcels', 'the_geom', GeomFromText('POLYGON(...)', 1), 32) r, parcels p
+ * WHERE p.the_geom_curve_key BETWEEN r.KEY_MIN AND r.KEY_MAX AND Intersects(p.the_geom, ...);
+ *
+ * Reproject a geometry in degrees, then a whole column in Lambert 93, the
+ * systems being read from a local spatial_ref_sys table :
+ *
+ * SELECT AsText(Transform(the_geom, 4326)) FROM parcels;
+ *
+ * CALL CreateSpatialRefSys();
+ *
+ * CALL ReprojectColumn('parcels', 'the_geom', 2154);
+ *
+ * Aggregate the geometries given by a query :
+ *
+ * SELECT AsText(UnionAggregate('SELECT the_geom FROM parcels WHERE dept = 44'));
+ *
+ * Measure the calls of the spatial functions, then read and reset the
+ * statistics :
+ *
+ * CALL EnableGeoStats(true);
+ *
+ * SELECT * FROM GeoStats();
+ *
+ * CALL ResetGeoStats();
+ *
  * Display available functions :
  * 
  * SELECT * FROM INFORMATION_SCHEMA.FUNCTION_ALIASES
@@ -114,8 +266,6 @@ import com.vividsolutions.jts.io.WKTReader;
  * Create an independant tool to load gml file into H2 spatial. Curently you
  * can use geoSQLBuilder.
  * 
- * Improve spatial queries using spatial indexes.
- * 
  * Add geometry datatype in H2 database. Geometry in eWKB format.
  *
  * 
@@ -130,7 +280,7 @@ public class GeoSpatialFunctions {
 	}
 
 	public static String GeoVersion() {
-		return "1.0";
+		return "1.1";
 	}
 
 	public static String LastGeoVersion() {
@@ -139,10 +289,7 @@ public class GeoSpatialFunctions {
 
 	public static byte[] setWKBGeometry(Geometry arg0, int arg1)
 			throws IOException {
-		Geometry geom = arg0;
-		geom.setSRID(arg1);
-		WKBWriter wkbWriter = new WKBWriter(3, 2);
-		return wkbWriter.write(geom);
+		return GeometryCodec.write(arg0, arg1);
 	}
 
 	public static String setWKTGeometry(Geometry arg0, int arg1)
@@ -155,282 +302,1817 @@ public class GeoSpatialFunctions {
 
 	public static Geometry getGeometry(byte arg0[])
 			throws ClassNotFoundException, ParseException {
-		return wkbreader.read(arg0);
+		return GeometryCodec.read(arg0);
 	}
 
 	public static byte[] GeomFromText(String arg0, int arg1)
 			throws ParseException, IOException {
-		Geometry geom = (new WKTReader()).read(arg0);
-		return setWKBGeometry(geom, arg1);
+		Probe probe = GeoStats.enter("GeomFromText");
+		try {
+			Geometry geom = GeometryCodec.readText(arg0);
+			return probe.exit(setWKBGeometry(geom, arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static void AddGeometryColumn(Session session, String schemaName,
 			String tableName, String columnName, int srid, String geomType,
 			int geomDimension) throws SQLException {
-		Connection conn = session.createConnection(false);
-		Statement stat = conn.createStatement();
-		stat.execute((new StringBuilder("ALTER TABLE ")).append(tableName)
-				.append(" ADD ").append(columnName).append(" geometry;")
-				.toString());
-		String insertIntoGeometry_columns = "INSERT INTO geometry_columns  VALUES(?,?,?,?,?,?,?);";
-		PreparedStatement prep = conn
-				.prepareStatement(insertIntoGeometry_columns);
-		prep.setString(1, "");
-		prep.setString(2, "");
-		prep.setString(3, tableName);
-		prep.setString(4, columnName);
-		prep.setInt(5, srid);
-		prep.setString(6, geomType);
-		prep.setInt(7, geomDimension);
-		prep.execute();
-		prep.close();
-		stat.close();
+		Probe probe = GeoStats.enter("AddGeometryColumn");
+		try {
+			Connection conn = session.createConnection(false);
+			Statement stat = conn.createStatement();
+			stat.execute((new StringBuilder("ALTER TABLE ")).append(tableName)
+					.append(" ADD ").append(columnName).append(" geometry;")
+					.toString());
+			GeometryColumns.register(conn, tableName, columnName, srid, geomType,
+					geomDimension);
+			stat.close();
+			probe.exit();
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static String ToString(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.toString();
+		Probe probe = GeoStats.enter("ToString");
+		try {
+			return probe.exit(toText(arg0));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static String AseWKT(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.toText();
+		Probe probe = GeoStats.enter("AseWKT");
+		try {
+			return probe.exit(toText(arg0));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static double GeoLength(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getLength();
+		Probe probe = GeoStats.enter("GeoLength");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getLength());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static double Area(byte arg0[]) throws IOException, ParseException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getArea();
+		Probe probe = GeoStats.enter("Area");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getArea());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static int NumPoints(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getNumPoints();
+		Probe probe = GeoStats.enter("NumPoints");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.getNumPoints(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getNumPoints());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static int Dimension(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getDimension();
+		Probe probe = GeoStats.enter("Dimension");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.getDimension(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getDimension());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static String GeometryType(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getGeometryType();
+		Probe probe = GeoStats.enter("GeometryType");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.getGeometryType(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getGeometryType());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static String AsText(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.toText();
+		Probe probe = GeoStats.enter("AsText");
+		try {
+			return probe.exit(toText(arg0));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * WKT of a value, transcoded from its bytes without decoding the geometry
+	 * when they can be walked.
+	 */
+	private static String toText(byte arg0[]) throws ParseException {
+		if (WKBInspector.canInspect(arg0)) {
+			return GeometryTextReader.toString(arg0, TextFormat.WKT);
+		}
+		return GeometryCodec.read(arg0).toText();
+	}
+
+	/**
+	 * GeoJSON geometry object of a value, e.g {"type":"Point","coordinates":
+	 * [1,2]}.
+	 */
+	public static String AsGeoJSON(byte arg0[]) throws ParseException {
+		Probe probe = GeoStats.enter("AsGeoJSON");
+		try {
+			if (arg0 == null) {
+				probe.exit();
+				return null;
+			}
+			return probe.exit(GeometryTextReader.toString(arg0, TextFormat.GEOJSON));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * GML 2 element of a value, e.g <gml:Point srsName="EPSG:2154">
+	 * <gml:coordinates>1,2</gml:coordinates></gml:Point>.
+	 */
+	public static String AsGML(byte arg0[]) throws ParseException {
+		Probe probe = GeoStats.enter("AsGML");
+		try {
+			if (arg0 == null) {
+				probe.exit();
+				return null;
+			}
+			return probe.exit(GeometryTextReader.toString(arg0, TextFormat.GML));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Text of a value in a format, wkt, geojson or gml, as a CLOB produced
+	 * while H2 reads it, for the geometries too large for a string.
+	 *
+	 * e.g SELECT AsClob(the_geom, 'geojson') FROM coastlines
+	 */
+	public static Reader AsClob(byte arg0[], String format)
+			throws ParseException, SQLException {
+		Probe probe = GeoStats.enter("AsClob");
+		try {
+			TextFormat textFormat = TextFormat.get(format);
+			if (arg0 == null) {
+				probe.exit();
+				return null;
+			}
+			return probe.exit(new GeometryTextReader(arg0, textFormat));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] AsBinary(byte arg0[]) throws IOException,
 			ParseException {
-		return arg0;
+		Probe probe = GeoStats.enter("AsBinary");
+		try {
+			return probe.exit(GeometryCodec.toWKB(arg0));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static int SRID(byte arg0[]) throws IOException, ParseException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getSRID();
+		Probe probe = GeoStats.enter("SRID");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.getSRID(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getSRID());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean IsEmpty(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.isEmpty();
+		Probe probe = GeoStats.enter("IsEmpty");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.isEmpty(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.isEmpty());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean IsSimple(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.isSimple();
+		Probe probe = GeoStats.enter("IsSimple");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.isSimple());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] Boundary(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.getBoundary(), geom.getSRID());
+		Probe probe = GeoStats.enter("Boundary");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(geom.getBoundary(), geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] Envelope(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.getEnvelope(), geom.getSRID());
+		Probe probe = GeoStats.enter("Envelope");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(geom.getEnvelope(), geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static int NumGeometries(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.getNumGeometries();
+		Probe probe = GeoStats.enter("NumGeometries");
+		try {
+			if (WKBInspector.canInspect(arg0)) {
+				return probe.exit(WKBInspector.getNumGeometries(arg0));
+			}
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.getNumGeometries());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] GeometryN(byte arg0[], int arg1) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.getGeometryN(arg1), geom.getSRID());
+		Probe probe = GeoStats.enter("GeometryN");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(geom.getGeometryN(arg1), geom
+					.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Equals(byte arg0[], byte arg1[]) {
-		return arg0.equals(arg1);
+		Probe probe = GeoStats.enter("Equals");
+		try {
+			return probe.exit(arg0.equals(arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Disjoint(byte arg0[], byte arg1[])
 			throws IOException, ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.disjoint(geom2);
+		Probe probe = GeoStats.enter("Disjoint");
+		try {
+			if (EnvelopePrefilter.DISJOINT.canSkip(arg0, arg1)) {
+				return probe.exit(true);
+			}
+			return probe.exit(!PreparedPredicates.intersects(arg0, arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Touches(byte arg0[], byte arg1[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.touches(geom2);
+		Probe probe = GeoStats.enter("Touches");
+		try {
+			if (EnvelopePrefilter.TOUCHES.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.touches(geom2));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Within(byte arg0[], byte arg1[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.within(geom2);
+		Probe probe = GeoStats.enter("Within");
+		try {
+			if (EnvelopePrefilter.WITHIN.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			return probe.exit(PreparedPredicates.within(arg0, arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Overlaps(byte arg0[], byte arg1[])
 			throws IOException, ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.overlaps(geom2);
+		Probe probe = GeoStats.enter("Overlaps");
+		try {
+			if (EnvelopePrefilter.OVERLAPS.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.overlaps(geom2));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Crosses(byte arg0[], byte arg1[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.crosses(geom2);
+		Probe probe = GeoStats.enter("Crosses");
+		try {
+			if (EnvelopePrefilter.CROSSES.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.crosses(geom2));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Intersects(byte arg0[], byte arg1[])
 			throws IOException, ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.intersects(geom2);
+		Probe probe = GeoStats.enter("Intersects");
+		try {
+			if (EnvelopePrefilter.INTERSECTS.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			return probe.exit(PreparedPredicates.intersects(arg0, arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean Contains(byte arg0[], byte arg1[])
 			throws IOException, ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.contains(geom2);
+		Probe probe = GeoStats.enter("Contains");
+		try {
+			if (EnvelopePrefilter.CONTAINS.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			return probe.exit(PreparedPredicates.contains(arg0, arg1));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static boolean Covers(byte arg0[], byte arg1[]) throws IOException,
+			ParseException, ClassNotFoundException {
+		Probe probe = GeoStats.enter("Covers");
+		try {
+			if (EnvelopePrefilter.COVERS.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			return probe.exit(PreparedPredicates.covers(arg0, arg1));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static boolean CoveredBy(byte arg0[], byte arg1[])
+			throws IOException, ParseException, ClassNotFoundException {
+		Probe probe = GeoStats.enter("CoveredBy");
+		try {
+			if (EnvelopePrefilter.COVERED_BY.canSkip(arg0, arg1)) {
+				return probe.exit(false);
+			}
+			return probe.exit(PreparedPredicates.coveredBy(arg0, arg1));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static String Relate(byte arg0[], byte arg1[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.relate(geom2).toString();
+		Probe probe = GeoStats.enter("Relate");
+		try {
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.relate(geom2).toString());
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static double Distance(byte arg0[], byte arg1[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.distance(geom2);
+		Probe probe = GeoStats.enter("Distance");
+		try {
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.distance(geom2));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] Intersection(byte arg0[], byte arg1[])
 			throws IOException, ParseException, SQLException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.intersection(getGeometry(arg1)), geom
-				.getSRID());
+		Probe probe = GeoStats.enter("Intersection");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(geom.intersection(getGeometry(arg1)),
+					geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] GeomDifference(byte arg0[], byte arg1[])
 			throws IOException, ParseException, SQLException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.difference(getGeometry(arg1)), geom
-				.getSRID());
+		Probe probe = GeoStats.enter("GeomDifference");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(geom.difference(getGeometry(arg1)),
+					geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
-	public static byte[] GeomUnion(byte arg0[], byte arg1[])
+	/**
+	 * Union of two geometries, computed by the worker threads when they have
+	 * more points than the PARALLEL_THRESHOLD setting.
+	 */
+	public static byte[] GeomUnion(Connection conn, byte arg0[], byte arg1[])
 			throws IOException, ParseException, SQLException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.union(getGeometry(arg1)), geom.getSRID());
+		Probe probe = GeoStats.enter("GeomUnion");
+		try {
+			Geometry geom = getGeometry(arg0);
+			Geometry other = getGeometry(arg1);
+			int parallelism = ParallelOperations.getParallelism(conn, geom
+					.getNumPoints()
+					+ other.getNumPoints());
+			return probe.exit(setWKBGeometry(ParallelOperations.union(geom, other,
+					parallelism), geom.getSRID()));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Union of the first column of a query, e.g.
+	 * UnionAggregate('SELECT the_geom FROM parcels WHERE dept = 44').
+	 */
+	public static byte[] UnionAggregate(Connection conn, String query)
+			throws SQLException {
+		Probe probe = GeoStats.enter("UnionAggregate");
+		try {
+			return probe.exit(new UnionAggregate(false).aggregate(conn, query));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * UnionAggregate with the batches merged on several threads.
+	 */
+	public static byte[] ParallelUnionAggregate(Connection conn, String query)
+			throws SQLException {
+		Probe probe = GeoStats.enter("ParallelUnionAggregate");
+		try {
+			return probe.exit(new UnionAggregate(true).aggregate(conn, query));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Bounding box of the first column of a query.
+	 */
+	public static byte[] Extent(Connection conn, String query)
+			throws SQLException {
+		Probe probe = GeoStats.enter("Extent");
+		try {
+			return probe.exit(new ExtentAggregate().aggregate(conn, query));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Multi geometry or collection of the first column of a query.
+	 */
+	public static byte[] Collect(Connection conn, String query)
+			throws SQLException {
+		Probe probe = GeoStats.enter("Collect");
+		try {
+			return probe.exit(new CollectAggregate().aggregate(conn, query));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static byte[] SymDifference(byte arg0[], byte arg1[])
 			throws IOException, ParseException, SQLException,
 			ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return setWKBGeometry(geom.symDifference(getGeometry(arg1)), geom
-				.getSRID());
+		Probe probe = GeoStats.enter("SymDifference");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(setWKBGeometry(
+					geom.symDifference(getGeometry(arg1)), geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
-	public static byte[] Buffer(byte arg0[], double arg1) throws IOException,
-			ParseException, SQLException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geomBuffer = geom.buffer(arg1);
-		return setWKBGeometry(geomBuffer, geom.getSRID());
+	/**
+	 * Buffer of a geometry, the parts of a large multi geometry being
+	 * buffered by the worker threads.
+	 */
+	public static byte[] Buffer(Connection conn, byte arg0[], double arg1)
+			throws IOException, ParseException, SQLException,
+			ClassNotFoundException {
+		Probe probe = GeoStats.enter("Buffer");
+		try {
+			Geometry geom = getGeometry(arg0);
+			Geometry geomBuffer = ParallelOperations.buffer(geom, arg1,
+					ParallelOperations.getParallelism(conn, geom.getNumPoints()));
+			return probe.exit(setWKBGeometry(geomBuffer, geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
-	public static byte[] ConvexHull(byte arg0[]) throws IOException,
-			ParseException, SQLException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry result = geom.convexHull();
-		return setWKBGeometry(result, geom.getSRID());
+	public static byte[] ConvexHull(Connection conn, byte arg0[])
+			throws IOException, ParseException, SQLException,
+			ClassNotFoundException {
+		Probe probe = GeoStats.enter("ConvexHull");
+		try {
+			Geometry geom = getGeometry(arg0);
+			Geometry result = ParallelOperations.convexHull(geom,
+					ParallelOperations.getParallelism(conn, geom.getNumPoints()));
+			return probe.exit(setWKBGeometry(result, geom.getSRID()));
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean IsWithinDistance(byte arg0[], byte arg1[], double arg2)
 			throws IOException, ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		Geometry geom2 = getGeometry(arg1);
-		return geom.isWithinDistance(geom2, arg2);
+		Probe probe = GeoStats.enter("IsWithinDistance");
+		try {
+			if (EnvelopePrefilter.IS_WITHIN_DISTANCE.canSkip(arg0, arg1, arg2)) {
+				return probe.exit(false);
+			}
+			Geometry geom = getGeometry(arg0);
+			Geometry geom2 = getGeometry(arg1);
+			return probe.exit(geom.isWithinDistance(geom2, arg2));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Number of pairs evaluated by the envelope prefilter of each binary
+	 * predicate, and number of pairs answered without decoding.
+	 */
+	public static ResultSet PrefilterStats() throws SQLException {
+		Probe probe = GeoStats.enter("PrefilterStats");
+		try {
+			SimpleResultSet rs = new SimpleResultSet();
+			rs.addColumn("PREDICATE", Types.VARCHAR, 255, 0);
+			rs.addColumn("EVALUATIONS", Types.BIGINT, 19, 0);
+			rs.addColumn("ELIMINATED", Types.BIGINT, 19, 0);
+			for (EnvelopePrefilter prefilter : EnvelopePrefilter.values()) {
+				rs.addRow(new Object[] { prefilter.name(),
+						Long.valueOf(prefilter.getEvaluations()),
+						Long.valueOf(prefilter.getEliminations()) });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Size and efficiency of the cache of prepared geometries used by the
+	 * predicates when an argument repeats.
+	 */
+	public static ResultSet GeometryCacheStats() throws SQLException {
+		Probe probe = GeoStats.enter("GeometryCacheStats");
+		try {
+			PreparedGeometryCache cache = PreparedGeometryCache.getDefault();
+			SimpleResultSet rs = new SimpleResultSet();
+			rs.addColumn("ENTRIES", Types.INTEGER, 10, 0);
+			rs.addColumn("MEMORY", Types.BIGINT, 19, 0);
+			rs.addColumn("HITS", Types.BIGINT, 19, 0);
+			rs.addColumn("MISSES", Types.BIGINT, 19, 0);
+			rs.addColumn("EVICTIONS", Types.BIGINT, 19, 0);
+			rs.addColumn("HIT_RATE", Types.DOUBLE, 17, 0);
+			rs.addRow(new Object[] { Integer.valueOf(cache.size()),
+					Long.valueOf(cache.getMemoryUsage()),
+					Long.valueOf(cache.getHits()), Long.valueOf(cache.getMisses()),
+					Long.valueOf(cache.getEvictions()),
+					Double.valueOf(cache.getHitRate()) });
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
 	}
 
 	public static boolean IsValid(byte arg0[]) throws IOException,
 			ParseException, ClassNotFoundException {
-		Geometry geom = getGeometry(arg0);
-		return geom.isValid();
+		Probe probe = GeoStats.enter("IsValid");
+		try {
+			Geometry geom = getGeometry(arg0);
+			return probe.exit(geom.isValid());
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Builds a persistent R-tree on a geometry column. The table needs an
+	 * integer primary key.
+	 *
+	 * e.g CALL CreateSpatialIndex('parcels', 'the_geom')
+	 */
+	public static void CreateSpatialIndex(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("CreateSpatialIndex");
+		try {
+			SpatialIndex.create(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
 	}
 
-	public static String getSpatialTables(Session session) throws SQLException {
-		Connection con = session.createConnection(false);
-		DatabaseMetaData databaseMeta = con.getMetaData();
-		String type[] = { "TABLE", "VIEW" };
-		ResultSet tables = databaseMeta.getTables(con.getCatalog(), null, "%",
-				type);
-		List spatialTableName = new ArrayList();
-		while (tables.next()) {
-			String tableName = tables.getString("TABLE_NAME");
-			String query = (new StringBuilder("select * from ")).append(
-					tableName).toString();
-			Statement stmt = con.createStatement();
-			ResultSet rs = stmt.executeQuery(query);
-			ResultSetMetaData rsmd = rs.getMetaData();
-			int nbCols = rsmd.getColumnCount();
-			for (int i = 1; i <= nbCols; i++) {
-				String typeSQL = rsmd.getColumnTypeName(i);
-				if (typeSQL.equals("GEOMETRY"))
-					spatialTableName.add(tableName);
+	public static void DropSpatialIndex(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("DropSpatialIndex");
+		try {
+			SpatialIndex.get(conn, tableName, columnName).drop(conn);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Packs the rows changed since the index was built into the tree.
+	 */
+	public static void RebuildSpatialIndex(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("RebuildSpatialIndex");
+		try {
+			SpatialIndex.get(conn, tableName, columnName).rebuild(conn);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Primary keys of the rows whose envelope intersects the envelope of the
+	 * geometry, read from the spatial index of the column.
+	 *
+	 * e.g SELECT p.* FROM SpatialIndexLookup('parcels', 'the_geom',
+	 * GeomFromText('POLYGON(...)', 2154)) i, parcels p WHERE p.gid = i.KEY
+	 */
+	public static ResultSet SpatialIndexLookup(Connection conn,
+			String tableName, String columnName, byte arg0[])
+			throws SQLException, ParseException {
+		final SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("SpatialIndexLookup");
+		try {
+			SpatialIndex index = SpatialIndex.get(conn, tableName, columnName);
+			index.query(conn, GeometryCodec.readEnvelope(arg0), new IndexVisitor() {
+				public void visit(long key) throws SQLException {
+					rs.addRow(new Object[] { Long.valueOf(key) });
+				}
+			});
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Primary keys of the k rows nearest to a geometry and their distance,
+	 * closest first. The spatial index of the column is used when there is
+	 * one, otherwise the column is read into an in-memory tree.
+	 *
+	 * e.g SELECT h.*, n.DISTANCE FROM NearestNeighbours('hydrants',
+	 * 'the_geom', GeomFromText('POINT(...)', 2154), 10) n, hydrants h WHERE
+	 * h.gid = n.KEY
+	 */
+	public static ResultSet NearestNeighbours(Connection conn,
+			String tableName, String columnName, byte arg0[], int k)
+			throws SQLException, ParseException {
+		final SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY", Types.BIGINT, 19, 0);
+		rs.addColumn("DISTANCE", Types.DOUBLE, 17, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("NearestNeighbours");
+		try {
+			NearestNeighbourSearch search = new NearestNeighbourSearch(conn,
+					tableName, columnName);
+			search.search(conn, GeometryCodec.read(arg0), k, new NeighbourVisitor() {
+				public void visit(long key, double distance) throws SQLException {
+					rs.addRow(new Object[] { Long.valueOf(key),
+							new Double(distance) });
+				}
+			});
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Primary keys of the rows of two tables matching a predicate, one of
+	 * intersects, contains, within, covers, coveredBy, touches, overlaps or
+	 * crosses, evaluated as predicate(a, b).
+	 *
+	 * e.g SELECT p.*, z.name FROM SpatialJoin('parcels', 'the_geom', 'zones',
+	 * 'the_geom', 'within') j, parcels p, zones z WHERE p.gid = j.KEY_A AND
+	 * z.gid = j.KEY_B
+	 */
+	public static ResultSet SpatialJoin(Connection conn, String tableA,
+			String columnA, String tableB, String columnB, String predicate)
+			throws SQLException {
+		final SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY_A", Types.BIGINT, 19, 0);
+		rs.addColumn("KEY_B", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("SpatialJoin");
+		try {
+			SpatialJoin join = new SpatialJoin(conn, tableA, columnA, tableB,
+					columnB, JoinPredicate.get(predicate), SpatialSettings
+							.get(SpatialSettings.JOIN_MEMORY));
+			join.run(conn, new JoinVisitor() {
+				public void visit(long keyA, long keyB) throws SQLException {
+					rs.addRow(new Object[] { Long.valueOf(keyA), Long.valueOf(keyB) });
+				}
+			});
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Primary keys of the rows of two tables within a distance of each
+	 * other, with their distance.
+	 *
+	 * e.g SELECT b.*, j.DISTANCE FROM DistanceJoin('buildings', 'the_geom',
+	 * 'roads', 'the_geom', 50) j, buildings b WHERE b.gid = j.KEY_A
+	 */
+	public static ResultSet DistanceJoin(Connection conn, String tableA,
+			String columnA, String tableB, String columnB, double distance)
+			throws SQLException {
+		final SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY_A", Types.BIGINT, 19, 0);
+		rs.addColumn("KEY_B", Types.BIGINT, 19, 0);
+		rs.addColumn("DISTANCE", Types.DOUBLE, 17, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("DistanceJoin");
+		try {
+			SpatialJoin join = new SpatialJoin(conn, tableA, columnA, tableB,
+					columnB, distance, SpatialSettings
+							.get(SpatialSettings.JOIN_MEMORY));
+			join.run(conn, new DistanceJoinVisitor() {
+				public void visit(long keyA, long keyB, double d)
+						throws SQLException {
+					rs.addRow(new Object[] { Long.valueOf(keyA),
+							Long.valueOf(keyB), new Double(d) });
+				}
+			});
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Loads a file with BulkLoader and gives the number of rows and the
+	 * loading rate. The batch and commit sizes are the LOAD_BATCH_SIZE and
+	 * LOAD_COMMIT_SIZE settings, the rows committed before a failure being
+	 * kept.
+	 */
+	public static ResultSet LoadGeometries(Connection conn, String fileName,
+			String format, String tableName, String columnName, int srid)
+			throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("ROWS", Types.BIGINT, 19, 0);
+		rs.addColumn("MILLIS", Types.BIGINT, 19, 0);
+		rs.addColumn("ROWS_PER_SECOND", Types.DOUBLE, 17, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("LoadGeometries");
+		try {
+			LoadReport report = new BulkLoader(conn, tableName, columnName, srid)
+					.load(new File(fileName), GeometryFormat.get(format));
+			rs.addRow(new Object[] { Long.valueOf(report.getRows()),
+					Long.valueOf(report.getMillis()),
+					Double.valueOf(report.getRowsPerSecond()) });
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Writes a table to a GeoJSON file as a FeatureCollection, the other
+	 * columns being the properties of the features, and gives the number of
+	 * features.
+	 *
+	 * e.g CALL ExportGeoJSON('parcels', 'the_geom', '/data/parcels.geojson')
+	 */
+	public static long ExportGeoJSON(Connection conn, String tableName,
+			String columnName, String fileName) throws SQLException,
+			IOException {
+		Probe probe = GeoStats.enter("ExportGeoJSON");
+		try {
+			return probe.exit(new GeoJSONExporter(conn, tableName, columnName)
+					.export(conn, new File(fileName)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Rewrites the legacy WKB values of a column in the storage format, the
+	 * values without an embedded SRID get arg0.
+	 *
+	 * @return the number of converted rows.
+	 */
+	public static int ConvertGeometryColumn(Connection conn, String tableName,
+			String columnName, int arg0) throws SQLException {
+		Probe probe = GeoStats.enter("ConvertGeometryColumn");
+		try {
+			return probe.exit(StorageConverter.convert(conn, tableName,
+					columnName, arg0));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Computes the statistics of a geometry column, kept up to date by a
+	 * trigger from then on.
+	 */
+	public static void EnableLayerStatistics(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("EnableLayerStatistics");
+		try {
+			LayerStatistics.enable(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Computes again the statistics, with an exact extent and a histogram
+	 * grid covering it.
+	 */
+	public static void RefreshLayerStatistics(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("RefreshLayerStatistics");
+		try {
+			LayerStatistics.refresh(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static void DisableLayerStatistics(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("DisableLayerStatistics");
+		try {
+			LayerStatistics.disable(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Feature count, extent, vertex count and value sizes of a geometry
+	 * column, read from its statistics.
+	 */
+	public static ResultSet LayerStatistics(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("ROW_COUNT", Types.BIGINT, 19, 0);
+		rs.addColumn("MIN_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MIN_Y", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_Y", Types.DOUBLE, 17, 0);
+		rs.addColumn("EXTENT_EXACT", Types.BOOLEAN, 1, 0);
+		rs.addColumn("AVG_POINTS", Types.DOUBLE, 17, 0);
+		rs.addColumn("TOTAL_SIZE", Types.BIGINT, 19, 0);
+		rs.addColumn("AVG_SIZE", Types.DOUBLE, 17, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("LayerStatistics");
+		try {
+			LayerStatistics stats = LayerStatistics.getSummary(conn, tableName,
+					columnName);
+			Envelope extent = stats.getExtent();
+			boolean empty = extent.isNull();
+			rs.addRow(new Object[] { Long.valueOf(stats.getRowCount()),
+					empty ? null : new Double(extent.getMinX()),
+					empty ? null : new Double(extent.getMinY()),
+					empty ? null : new Double(extent.getMaxX()),
+					empty ? null : new Double(extent.getMaxY()),
+					Boolean.valueOf(stats.isExtentExact()),
+					new Double(stats.getAveragePoints()),
+					Long.valueOf(stats.getTotalSize()),
+					new Double(stats.getAverageSize()) });
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Extent of a geometry column read from its statistics, null if the
+	 * column has no geometry.
+	 *
+	 * e.g SELECT AsText(LayerExtent('parcels', 'the_geom'))
+	 */
+	public static byte[] LayerExtent(Connection conn, String tableName,
+			String columnName) throws SQLException, IOException {
+		Probe probe = GeoStats.enter("LayerExtent");
+		try {
+			LayerStatistics stats = LayerStatistics.getSummary(conn, tableName,
+					columnName);
+			if (stats.getExtent().isNull()) {
+				probe.exit();
+				return null;
 			}
+			GeometryColumn column = SpatialCatalog.getColumn(conn, tableName,
+					columnName);
+			return probe.exit(setWKBGeometry(new GeometryFactory().toGeometry(stats
+					.getExtent()), column == null ? 0 : column.getSRID()));
+		} finally {
+			probe.close();
+		}
+	}
 
+	/**
+	 * Non empty cells of the spatial histogram of a geometry column.
+	 */
+	public static ResultSet LayerHistogram(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("MIN_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MIN_Y", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_Y", Types.DOUBLE, 17, 0);
+		rs.addColumn("ROW_COUNT", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("LayerHistogram");
+		try {
+			LayerStatistics stats = LayerStatistics.get(conn, tableName,
+					columnName);
+			long[] cells = stats.getCells();
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] > 0) {
+					Envelope env = stats.getCellEnvelope(i);
+					rs.addRow(new Object[] { new Double(env.getMinX()),
+							new Double(env.getMinY()), new Double(env.getMaxX()),
+							new Double(env.getMaxY()), Long.valueOf(cells[i]) });
+				}
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Distribution of the sizes of the stored values of a geometry column,
+	 * by power of two.
+	 */
+	public static ResultSet LayerSizeHistogram(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("MIN_SIZE", Types.BIGINT, 19, 0);
+		rs.addColumn("MAX_SIZE", Types.BIGINT, 19, 0);
+		rs.addColumn("ROW_COUNT", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("LayerSizeHistogram");
+		try {
+			long[] sizes = LayerStatistics.get(conn, tableName, columnName)
+					.getSizes();
+			for (int i = 0; i < sizes.length; i++) {
+				if (sizes[i] > 0) {
+					rs.addRow(new Object[] {
+							Long.valueOf(i == 0 ? 0 : 1L << (i - 1)),
+							Long.valueOf((1L << i) - 1), Long.valueOf(sizes[i]) });
+				}
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
 		}
-		return spatialTableName.toString();
 	}
 
-	static WKBReader wkbreader = new WKBReader();
+	/**
+	 * Estimated fraction of the rows of a geometry column in the envelope of
+	 * a geometry, from the spatial histogram.
+	 */
+	public static double EstimateSelectivity(Connection conn,
+			String tableName, String columnName, byte arg0[])
+			throws SQLException, ParseException {
+		Probe probe = GeoStats.enter("EstimateSelectivity");
+		try {
+			return probe.exit(LayerStatistics.get(conn, tableName, columnName)
+					.estimateSelectivity(GeometryCodec.readEnvelope(arg0)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static void SetSpatialSetting(String name, long value)
+			throws SQLException {
+		Probe probe = GeoStats.enter("SetSpatialSetting");
+		try {
+			SpatialSettings.set(name, value);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Changes a setting for the current session only, e.g.
+	 * SetSessionSpatialSetting('MAX_PARALLELISM', 2).
+	 */
+	public static void SetSessionSpatialSetting(Connection conn, String name,
+			long value) throws SQLException {
+		Probe probe = GeoStats.enter("SetSessionSpatialSetting");
+		try {
+			SpatialSettings.set(conn, name, value);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static ResultSet GetSpatialSettings() throws SQLException {
+		Probe probe = GeoStats.enter("GetSpatialSettings");
+		try {
+			SimpleResultSet rs = new SimpleResultSet();
+			rs.addColumn("NAME", Types.VARCHAR, 255, 0);
+			rs.addColumn("VALUE", Types.BIGINT, 19, 0);
+			for (Map.Entry<String, Long> setting : SpatialSettings
+					.getAll().entrySet()) {
+				rs.addRow(new Object[] { setting.getKey(), setting.getValue() });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Geometry columns of the database, read from the cached spatial catalog.
+	 *
+	 * e.g SELECT * FROM SpatialCatalog() WHERE SRID = 2154
+	 */
+	public static ResultSet SpatialCatalog(Connection conn)
+			throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("TABLE_SCHEMA", Types.VARCHAR, 255, 0);
+		rs.addColumn("TABLE_NAME", Types.VARCHAR, 255, 0);
+		rs.addColumn("COLUMN_NAME", Types.VARCHAR, 255, 0);
+		rs.addColumn("SRID", Types.INTEGER, 10, 0);
+		rs.addColumn("TYPE", Types.VARCHAR, 255, 0);
+		rs.addColumn("DIMENSION", Types.INTEGER, 10, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("SpatialCatalog");
+		try {
+			for (GeometryColumn column : SpatialCatalog.getColumns(conn)) {
+				rs.addRow(new Object[] { column.getSchemaName(),
+						column.getTableName(), column.getColumnName(),
+						Integer.valueOf(column.getSRID()),
+						column.getGeometryType(),
+						Integer.valueOf(column.getDimension()) });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static String getSpatialTables(Connection conn) throws SQLException {
+		Probe probe = GeoStats.enter("getSpatialTables");
+		try {
+			return probe.exit(new ArrayList<String>(SpatialCatalog
+					.getTableNames(conn)).toString());
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Adds to a table the geometries of a column simplified at each tolerance
+	 * of a list, kept in sync by a trigger.
+	 *
+	 * e.g CALL CreateGeometryLevels('parcels', 'the_geom', '1, 10, 100')
+	 */
+	public static void CreateGeometryLevels(Connection conn,
+			String tableName, String columnName, String tolerances)
+			throws SQLException {
+		Probe probe = GeoStats.enter("CreateGeometryLevels");
+		try {
+			GeometryLevels.create(conn, tableName, columnName, GeometryLevels
+					.parseTolerances(tolerances));
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static void DropGeometryLevels(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("DropGeometryLevels");
+		try {
+			GeometryLevels.drop(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Levels of detail of a geometry column, level 0 being the column.
+	 */
+	public static ResultSet GeometryLevels(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("LEVEL", Types.INTEGER, 10, 0);
+		rs.addColumn("TOLERANCE", Types.DOUBLE, 17, 0);
+		rs.addColumn("COLUMN_NAME", Types.VARCHAR, 255, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("GeometryLevels");
+		try {
+			GeometryLevels levels = GeometryLevels.get(conn, tableName,
+					columnName);
+			for (int level = 0; level <= levels.getLevelCount(); level++) {
+				rs.addRow(new Object[] { Integer.valueOf(level),
+						new Double(levels.getTolerance(level)),
+						levels.getColumnName(level) });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Column of the level of detail to draw a map at the scale 1 /
+	 * scaleDenominator, for coordinates in meters.
+	 *
+	 * e.g LevelColumnForScale('parcels', 'the_geom', 250000) gives
+	 * THE_GEOM_LOD2, then SELECT THE_GEOM_LOD2 FROM parcels WHERE ...
+	 */
+	public static String LevelColumnForScale(Connection conn,
+			String tableName, String columnName, double scaleDenominator)
+			throws SQLException {
+		Probe probe = GeoStats.enter("LevelColumnForScale");
+		try {
+			GeometryLevels levels = GeometryLevels.get(conn, tableName,
+					columnName);
+			return probe.exit(levels.getColumnName(levels
+					.getLevelForScale(scaleDenominator)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Column of the level of detail to draw a map whose pixels are
+	 * unitsPerPixel wide, for coordinates in any unit.
+	 */
+	public static String LevelColumnForResolution(Connection conn,
+			String tableName, String columnName, double unitsPerPixel)
+			throws SQLException {
+		Probe probe = GeoStats.enter("LevelColumnForResolution");
+		try {
+			GeometryLevels levels = GeometryLevels.get(conn, tableName,
+					columnName);
+			return probe.exit(levels.getColumnName(levels
+					.getLevel(unitsPerPixel)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Mapbox vector tile z/x/y of a geometry column, with a single layer
+	 * named after the table, empty if no geometry crosses the tile.
+	 *
+	 * e.g SELECT AsVectorTile('parcels', 'the_geom', 14, 8145, 5803)
+	 */
+	public static byte[] AsVectorTile(Connection conn, String tableName,
+			String columnName, int z, int x, int y) throws SQLException {
+		Probe probe = GeoStats.enter("AsVectorTile");
+		try {
+			return probe.exit(VectorTile.encode(conn, tableName, columnName, z,
+					x, y));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Envelope of the tile z/x/y, in Web Mercator (SRID 3857).
+	 */
+	public static byte[] TileEnvelope(int z, int x, int y)
+			throws SQLException, IOException {
+		Probe probe = GeoStats.enter("TileEnvelope");
+		try {
+			return probe.exit(setWKBGeometry(new GeometryFactory()
+					.toGeometry(VectorTile.getEnvelope(z, x, y)), 3857));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Area of each geometry of an array, null for a null element.
+	 *
+	 * e.g SELECT AreaBatch((g1, g2, g3))
+	 */
+	public static Object[] AreaBatch(Connection conn, Object[] values)
+			throws SQLException {
+		Probe probe = GeoStats.enter("AreaBatch");
+		try {
+			return probe.exit(BatchOperations.area(values,
+					BatchOperations.getParallelism(conn, values.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static Object[] GeoLengthBatch(Connection conn, Object[] values)
+			throws SQLException {
+		Probe probe = GeoStats.enter("GeoLengthBatch");
+		try {
+			return probe.exit(BatchOperations.length(values,
+					BatchOperations.getParallelism(conn, values.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static Object[] BufferBatch(Connection conn, Object[] values,
+			double distance) throws SQLException {
+		Probe probe = GeoStats.enter("BufferBatch");
+		try {
+			return probe.exit(BatchOperations.buffer(values, distance,
+					BatchOperations.getParallelism(conn, values.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * For each candidate of the array, true if it intersects the query
+	 * geometry.
+	 */
+	public static Object[] IntersectsBatch(Connection conn, byte[] query,
+			Object[] candidates) throws SQLException {
+		Probe probe = GeoStats.enter("IntersectsBatch");
+		try {
+			return probe.exit(BatchOperations.intersects(query, candidates,
+					BatchOperations.getParallelism(conn, candidates.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * For each candidate of the array, true if the query geometry contains
+	 * it.
+	 */
+	public static Object[] ContainsBatch(Connection conn, byte[] query,
+			Object[] candidates) throws SQLException {
+		Probe probe = GeoStats.enter("ContainsBatch");
+		try {
+			return probe.exit(BatchOperations.contains(query, candidates,
+					BatchOperations.getParallelism(conn, candidates.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * For each candidate of the array, true if the query geometry is within
+	 * it.
+	 */
+	public static Object[] WithinBatch(Connection conn, byte[] query,
+			Object[] candidates) throws SQLException {
+		Probe probe = GeoStats.enter("WithinBatch");
+		try {
+			return probe.exit(BatchOperations.within(query, candidates,
+					BatchOperations.getParallelism(conn, candidates.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static Object[] IsWithinDistanceBatch(Connection conn,
+			byte[] query, Object[] candidates, double distance)
+			throws SQLException {
+		Probe probe = GeoStats.enter("IsWithinDistanceBatch");
+		try {
+			return probe.exit(BatchOperations.isWithinDistance(query,
+					candidates, distance, BatchOperations.getParallelism(conn,
+							candidates.length)));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Loads a geometry column in an off-heap columnar cache, kept valid by a
+	 * trigger, for the Cached functions.
+	 */
+	public static void CreateCoordinateCache(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("CreateCoordinateCache");
+		try {
+			CoordinateCache.create(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static void DropCoordinateCache(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("DropCoordinateCache");
+		try {
+			CoordinateCache.drop(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Sum of the areas of a cached column, as SELECT SUM(Area(the_geom)).
+	 */
+	public static double CachedArea(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("CachedArea");
+		try {
+			ColumnarLayer layer = CoordinateCache.get(conn, tableName,
+					columnName).getLayer(conn);
+			double area = 0;
+			for (int i = 0; i < layer.size(); i++) {
+				area += layer.getArea(i);
+			}
+			return probe.exit(area);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Sum of the lengths of a cached column, as SELECT
+	 * SUM(GeoLength(the_geom)).
+	 */
+	public static double CachedLength(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("CachedLength");
+		try {
+			ColumnarLayer layer = CoordinateCache.get(conn, tableName,
+					columnName).getLayer(conn);
+			double length = 0;
+			for (int i = 0; i < layer.size(); i++) {
+				length += layer.getLength(i);
+			}
+			return probe.exit(length);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Extent of a cached column, null if the column has no geometry.
+	 */
+	public static byte[] CachedExtent(Connection conn, String tableName,
+			String columnName) throws SQLException, IOException {
+		Probe probe = GeoStats.enter("CachedExtent");
+		try {
+			Envelope extent = CoordinateCache.get(conn, tableName, columnName)
+					.getLayer(conn).getExtent();
+			if (extent == null) {
+				probe.exit();
+				return null;
+			}
+			GeometryColumn column = SpatialCatalog.getColumn(conn, tableName,
+					columnName);
+			return probe.exit(setWKBGeometry(new GeometryFactory()
+					.toGeometry(extent), column == null ? 0 : column.getSRID()));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Key, area, length and envelope of each row of a cached column.
+	 *
+	 * e.g SELECT p.name, m.AREA FROM CachedMeasures('parcels', 'the_geom') m,
+	 * parcels p WHERE p.gid = m.KEY
+	 */
+	public static ResultSet CachedMeasures(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY", Types.BIGINT, 19, 0);
+		rs.addColumn("AREA", Types.DOUBLE, 17, 0);
+		rs.addColumn("LENGTH", Types.DOUBLE, 17, 0);
+		rs.addColumn("MIN_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MIN_Y", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_X", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_Y", Types.DOUBLE, 17, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("CachedMeasures");
+		try {
+			ColumnarLayer layer = CoordinateCache.get(conn, tableName,
+					columnName).getLayer(conn);
+			for (int i = 0; i < layer.size(); i++) {
+				if (!layer.hasGeometry(i)) {
+					continue;
+				}
+				rs.addRow(new Object[] { Long.valueOf(layer.getKey(i)),
+						new Double(layer.getArea(i)),
+						new Double(layer.getLength(i)),
+						new Double(layer.getMinX(i)), new Double(layer.getMinY(i)),
+						new Double(layer.getMaxX(i)), new Double(layer.getMaxY(i)) });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Keys of the rows of a cached column whose polygons contain the point
+	 * (x, y) in their interior.
+	 */
+	public static ResultSet CachedPointInPolygon(Connection conn,
+			String tableName, String columnName, double x, double y)
+			throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("CachedPointInPolygon");
+		try {
+			ColumnarLayer layer = CoordinateCache.get(conn, tableName,
+					columnName).getLayer(conn);
+			for (int i = 0; i < layer.size(); i++) {
+				if (layer.contains(i, x, y)) {
+					rs.addRow(new Object[] { Long.valueOf(layer.getKey(i)) });
+				}
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Key of the center of the envelope of a geometry on a Hilbert curve of
+	 * 2^order x 2^order cells laid over an extent, null for an empty
+	 * geometry.
+	 *
+	 * e.g SELECT HilbertKey(the_geom, 0, 0, 1000, 1000, 16) FROM parcels
+	 */
+	public static Long HilbertKey(byte arg0[], double minX, double minY,
+			double maxX, double maxY, int order) throws SQLException {
+		Probe probe = GeoStats.enter("HilbertKey");
+		try {
+			Long key = new CurveGrid(SpaceFillingCurve.HILBERT, order, minX,
+					minY, maxX, maxY).key(arg0);
+			probe.exit();
+			return key;
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Key of the center of the envelope of a geometry on a Z-order curve,
+	 * as HilbertKey.
+	 */
+	public static Long ZOrderKey(byte arg0[], double minX, double minY,
+			double maxX, double maxY, int order) throws SQLException {
+		Probe probe = GeoStats.enter("ZOrderKey");
+		try {
+			Long key = new CurveGrid(SpaceFillingCurve.ZORDER, order, minX, minY,
+					maxX, maxY).key(arg0);
+			probe.exit();
+			return key;
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Writes a table again in the order of a 'hilbert' or 'zorder' curve laid
+	 * over the extent of a geometry column, its keys being kept in the
+	 * indexed column COLUMN_CURVE_KEY. The table is replaced by a new one, so
+	 * the call needs exclusive access to the database and fails when other
+	 * sessions are connected.
+	 *
+	 * @return the number of rows written.
+	 */
+	public static long ClusterTable(Connection conn, String tableName,
+			String columnName, String curve, int order) throws SQLException {
+		Probe probe = GeoStats.enter("ClusterTable");
+		try {
+			return probe.exit(CurveClustering.cluster(conn, tableName,
+					columnName, SpaceFillingCurve.get(curve), order));
+		} finally {
+			probe.close();
+		}
+	}
+
+	public static void DropClustering(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		Probe probe = GeoStats.enter("DropClustering");
+		try {
+			CurveClustering.drop(conn, tableName, columnName);
+			probe.exit();
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * At most maxRanges ranges of curve keys holding the rows of a clustered
+	 * column whose envelope intersects the envelope of arg0, to be read
+	 * through the index of the key column.
+	 */
+	public static ResultSet CurveKeyRanges(Connection conn, String tableName,
+			String columnName, byte arg0[], int maxRanges)
+			throws SQLException, ParseException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("KEY_MIN", Types.BIGINT, 19, 0);
+		rs.addColumn("KEY_MAX", Types.BIGINT, 19, 0);
+		if (SQLUtils.isColumnListConnection(conn)) {
+			return rs;
+		}
+		Probe probe = GeoStats.enter("CurveKeyRanges");
+		try {
+			Envelope window = WKBInspector.canInspect(arg0) ? WKBInspector
+					.getEnvelope(arg0) : GeometryCodec.read(arg0)
+					.getEnvelopeInternal();
+			long[] ranges = CurveClustering.get(conn, tableName, columnName)
+					.ranges(window, maxRanges);
+			for (int i = 0; i < ranges.length; i += 2) {
+				rs.addRow(new Object[] { Long.valueOf(ranges[i]),
+						Long.valueOf(ranges[i + 1]) });
+			}
+			return probe.exit(rs);
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Geometry converted from its SRID into the coordinate reference system
+	 * of arg1, null for a null geometry. The transform of each pair of SRID is
+	 * built once and reused by the following calls.
+	 *
+	 * e.g SELECT Transform(the_geom, 4326) FROM parcels
+	 */
+	public static byte[] Transform(Connection conn, byte arg0[], int arg1)
+			throws IOException, ParseException, SQLException,
+			ClassNotFoundException {
+		if (arg0 == null) {
+			return null;
+		}
+		Probe probe = GeoStats.enter("Transform");
+		try {
+			Geometry geom = getGeometry(arg0);
+			if (geom.getSRID() == arg1) {
+				return probe.exit(arg0);
+			}
+			if (geom.getSRID() == 0) {
+				throw new SQLException("The geometry has no SRID");
+			}
+			CoordinateTransform transform = SpatialRefSys.getTransform(conn, geom
+					.getSRID(), arg1);
+			return probe.exit(setWKBGeometry(transform.transform(geom, arg1),
+					arg1));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Creates the spatial_ref_sys table with the known coordinate reference
+	 * systems, rows can then be added for other systems as proj4
+	 * definitions.
+	 *
+	 * @return the number of systems added.
+	 */
+	public static int CreateSpatialRefSys(Connection conn) throws SQLException {
+		Probe probe = GeoStats.enter("CreateSpatialRefSys");
+		try {
+			return probe.exit(SpatialRefSys.createTable(conn));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Rewrites a geometry column in the coordinate reference system of arg0,
+	 * the rows being transformed by the worker threads, and registers the
+	 * new SRID in geometry_columns.
+	 *
+	 * @return the number of transformed rows.
+	 */
+	public static long ReprojectColumn(Connection conn, String tableName,
+			String columnName, int arg0) throws SQLException {
+		Probe probe = GeoStats.enter("ReprojectColumn");
+		try {
+			return probe.exit(Reprojection.reproject(conn, tableName, columnName,
+					arg0));
+		} finally {
+			probe.close();
+		}
+	}
+
+	/**
+	 * Starts or stops the collection of the statistics read by GeoStats().
+	 */
+	public static void EnableGeoStats(boolean enabled) {
+		GeoStats.setEnabled(enabled);
+	}
+
+	/**
+	 * Calls, errors, bytes decoded, time spent in each phase and latency
+	 * percentiles of the spatial functions called since the last reset,
+	 * followed by the hit rate of the prepared geometry cache and of the
+	 * envelope prefilter of each predicate. The percentiles are the upper
+	 * bounds of power of two buckets, the errors include the running calls.
+	 *
+	 * e.g SELECT * FROM GeoStats() ORDER BY COMPUTE_MS DESC
+	 */
+	public static ResultSet GeoStats() throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("NAME", Types.VARCHAR, 255, 0);
+		rs.addColumn("CALLS", Types.BIGINT, 19, 0);
+		rs.addColumn("ERRORS", Types.BIGINT, 19, 0);
+		rs.addColumn("BYTES_DECODED", Types.BIGINT, 19, 0);
+		rs.addColumn("DECODE_MS", Types.DOUBLE, 17, 0);
+		rs.addColumn("COMPUTE_MS", Types.DOUBLE, 17, 0);
+		rs.addColumn("ENCODE_MS", Types.DOUBLE, 17, 0);
+		rs.addColumn("P50_US", Types.DOUBLE, 17, 0);
+		rs.addColumn("P95_US", Types.DOUBLE, 17, 0);
+		rs.addColumn("P99_US", Types.DOUBLE, 17, 0);
+		rs.addColumn("HIT_RATE", Types.DOUBLE, 17, 0);
+		for (FunctionStats stats : GeoStats.getAll()) {
+			LatencyHistogram total = stats.getTotal();
+			rs.addRow(new Object[] { stats.getName(),
+					Long.valueOf(stats.getCalls()),
+					Long.valueOf(stats.getErrors()),
+					Long.valueOf(stats.getBytesDecoded()),
+					new Double(stats.getDecode().getTotalNanos() / 1e6),
+					new Double(stats.getCompute().getTotalNanos() / 1e6),
+					new Double(stats.getEncode().getTotalNanos() / 1e6),
+					new Double(total.getPercentile(0.5) / 1e3),
+					new Double(total.getPercentile(0.95) / 1e3),
+					new Double(total.getPercentile(0.99) / 1e3), null });
+		}
+		PreparedGeometryCache cache = PreparedGeometryCache.getDefault();
+		rs.addRow(new Object[] { "PreparedGeometryCache",
+				Long.valueOf(cache.getHits() + cache.getMisses()), null, null,
+				null, null, null, null, null, null,
+				new Double(cache.getHitRate()) });
+		for (EnvelopePrefilter prefilter : EnvelopePrefilter.values()) {
+			long evaluations = prefilter.getEvaluations();
+			double rate = evaluations == 0 ? 0 : (double) prefilter
+					.getEliminations()
+					/ evaluations;
+			rs.addRow(new Object[] { "EnvelopePrefilter." + prefilter.name(),
+					Long.valueOf(evaluations), null, null, null, null, null,
+					null, null, null, new Double(rate) });
+		}
+		return rs;
+	}
+
+	/**
+	 * Non empty buckets of the latency histograms of a function, for the
+	 * DECODE, COMPUTE, ENCODE and TOTAL phases.
+	 */
+	public static ResultSet GeoStatsHistogram(String name)
+			throws SQLException {
+		SimpleResultSet rs = new SimpleResultSet();
+		rs.addColumn("PHASE", Types.VARCHAR, 255, 0);
+		rs.addColumn("MIN_US", Types.DOUBLE, 17, 0);
+		rs.addColumn("MAX_US", Types.DOUBLE, 17, 0);
+		rs.addColumn("CALLS", Types.BIGINT, 19, 0);
+		FunctionStats stats = GeoStats.get(name);
+		if (stats == null) {
+			return rs;
+		}
+		String[] phases = { "DECODE", "COMPUTE", "ENCODE", "TOTAL" };
+		LatencyHistogram[] histograms = { stats.getDecode(),
+				stats.getCompute(), stats.getEncode(), stats.getTotal() };
+		for (int i = 0; i < phases.length; i++) {
+			for (int j = 0; j < LatencyHistogram.BUCKETS; j++) {
+				long count = histograms[i].getCount(j);
+				if (count > 0) {
+					rs.addRow(new Object[] { phases[i],
+							new Double(LatencyHistogram.getLowerBound(j) / 1e3),
+							new Double(LatencyHistogram.getUpperBound(j) / 1e3),
+							Long.valueOf(count) });
+				}
+			}
+		}
+		return rs;
+	}
+
+	/**
+	 * Sets to zero the statistics of the functions and the counters of the
+	 * prepared geometry cache and of the envelope prefilters.
+	 */
+	public static void ResetGeoStats() {
+		GeoStats.reset();
+		PreparedGeometryCache.getDefault().resetCounters();
+		EnvelopePrefilter.resetCounters();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial;
+
+/**
+ * Outcome of the registration of the spatial functions.
+ */
+public class RegistrationReport {
+
+	private final String installedVersion;
+
+	private final String version;
+
+	private final int created;
+
+	private final int dropped;
+
+	private final long nanos;
+
+	RegistrationReport(String installedVersion, String version, int created,
+			int dropped, long nanos) {
+		this.installedVersion = installedVersion;
+		this.version = version;
+		this.created = created;
+		this.dropped = dropped;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @return the version found in the database, null if the functions were
+	 *         never registered by this version marker.
+	 */
+	public String getInstalledVersion() {
+		return installedVersion;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the installed version was already the current one.
+	 */
+	public boolean isUpToDate() {
+		return version.equals(installedVersion);
+	}
+
+	public int getCreated() {
+		return created;
+	}
+
+	public int getDropped() {
+		return dropped;
+	}
+
+	public double getMillis() {
+		return nanos / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return "Spatial functions " + version + " : " + created
+				+ " created, " + dropped + " dropped in " + getMillis()
+				+ " ms";
+	}
+}
@@ -7,18 +7,29 @@
  */
 package org.h2spatial;
 
-import java.lang.reflect.Method;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * This class can be used to build a sql script for H2 spatial functions.
+ * This class registers the H2 spatial functions listed in the
+ * FunctionManifest as aliases.
+ *
+ * The version of the installed functions is kept in the SPATIAL_METADATA
+ * table. When it is the current one nothing else is read, otherwise only the
+ * missing or changed aliases are created and the aliases of removed functions
+ * are dropped, in a single batch.
  *
  * @author Erwan Bocher
  */
 
 public class SQLCodegenerator {
 
-    static Method[] methods = GeoSpatialFunctions.class.getDeclaredMethods();
+    public static final String METADATA = "SPATIAL_METADATA";
+
+    static final String VERSION_KEY = "FUNCTIONS_VERSION";
 
     public static void main(String[] args) {
 
@@ -34,7 +45,7 @@ public class SQLCodegenerator {
             Statement st = con.createStatement();
 
             // 2. Add the functions
-            addSpatialFunctions(st);
+            System.out.println(addSpatialFunctions(st));
 
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -47,55 +58,121 @@ public class SQLCodegenerator {
 
     }
 
-    /*
-     * Create java code to add function copy/paste into
-     * GeoSpatialFunctionsAddRemove to upload it
+    /**
+     * Creates or updates the aliases of the spatial functions, this can be
+     * called each time a database is opened.
      */
-    public static void addSpatialFunctions(Statement st) throws SQLException {
+    public static RegistrationReport addSpatialFunctions(Statement st)
+            throws SQLException {
+        long start = System.nanoTime();
+        String version = FunctionManifest.getVersion();
+        String installed = getInstalledVersion(st);
+        if (version.equals(installed)) {
+            return new RegistrationReport(installed, version, 0, 0,
+                    System.nanoTime() - start);
+        }
 
+        Map<String, String> functions = new HashMap<String, String>();
+        for (String function : FunctionManifest.getFunctions()) {
+            functions.put(function.toUpperCase(), function);
+        }
+        Set<String> current = new HashSet<String>();
+        int dropped = 0;
         ResultSet result = st
-                .executeQuery("SELECT * FROM INFORMATION_SCHEMA.FUNCTION_ALIASES WHERE ALIAS_NAME='GEOVERSION';");
-
-        // we need to test if the geospatial functions exist
-
-        if (result.next() == false) {
+                .executeQuery("SELECT ALIAS_NAME, JAVA_CLASS, JAVA_METHOD FROM INFORMATION_SCHEMA.FUNCTION_ALIASES");
+        try {
+            while (result.next()) {
+                String alias = result.getString(1);
+                String javaMethod = result.getString(2) + "."
+                        + result.getString(3);
+                String function = functions.get(alias);
+                if (function != null
+                        && FunctionManifest.getJavaMethod(function).equals(
+                                javaMethod)) {
+                    current.add(alias);
+                } else if (function != null
+                        || result.getString(2).equals(
+                                FunctionManifest.CLASS_NAME)) {
+                    // a function removed from the manifest or an alias of the
+                    // same name calling another method
+                    st.addBatch("DROP ALIAS " + alias);
+                    dropped++;
+                }
+            }
+        } finally {
+            result.close();
+        }
 
+        if (installed == null) {
             // This method is used to limit the number of blob files.
             // The data access is increased.
-
-            st.executeUpdate("SET LOG 0");
-            st.executeUpdate("SET MAX_LENGTH_INPLACE_LOB 200000");
-
-            for (int k = 0; k < GeoSpatialFunctions.class.getDeclaredMethods().length; k++) {
-
-                String function = "CREATE ALIAS ";
-
-                String functionName = methods[k].getName();
-                String functionClass = methods[k].getDeclaringClass().getName();
-
-                String complete = (function + functionName + " FOR " + "\""
-                        + functionClass + "." + functionName + "\"");
-
-                st.execute(complete);
+            st.addBatch("SET MAX_LENGTH_INPLACE_LOB 200000");
+        }
+        int created = 0;
+        for (Map.Entry<String, String> function : functions.entrySet()) {
+            if (!current.contains(function.getKey())) {
+                st.addBatch("CREATE ALIAS " + function.getValue() + " FOR \""
+                        + FunctionManifest.getJavaMethod(function.getValue())
+                        + "\"");
+                created++;
             }
+        }
+        st.addBatch("CREATE TABLE IF NOT EXISTS " + METADATA
+                + "(NAME VARCHAR PRIMARY KEY, VALUE VARCHAR)");
+        st.addBatch("DELETE FROM " + METADATA + " WHERE NAME = '"
+                + VERSION_KEY + "'");
+        st.addBatch("INSERT INTO " + METADATA + " VALUES('" + VERSION_KEY
+                + "', '" + version + "')");
+
+        Connection con = st.getConnection();
+        boolean autoCommit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            st.executeBatch();
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            st.clearBatch();
+            con.setAutoCommit(autoCommit);
+        }
+        return new RegistrationReport(installed, version, created, dropped,
+                System.nanoTime() - start);
+    }
 
-        } else {
-            System.out.println("The spatial functions exist");
+    /**
+     * @return the version of the registered functions, null if there is no
+     *         version marker.
+     */
+    static String getInstalledVersion(Statement st) throws SQLException {
+        ResultSet result = st
+                .executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = 'PUBLIC' AND TABLE_NAME = '"
+                        + METADATA + "'");
+        try {
+            result.next();
+            if (result.getInt(1) == 0) {
+                return null;
+            }
+        } finally {
+            result.close();
+        }
+        result = st.executeQuery("SELECT VALUE FROM " + METADATA
+                + " WHERE NAME = '" + VERSION_KEY + "'");
+        try {
+            return result.next() ? result.getString(1) : null;
+        } finally {
+            result.close();
         }
     }
 
-    /*
-     * Create java code to drop function copy paste into
-     * GeoSpatialFunctionsAddRemove to upload it
+    /**
+     * Drops the aliases of the spatial functions and the version marker.
      */
     public static void dropGenerator(Statement st) throws SQLException {
-        String[] statDrop = new String[GeoSpatialFunctions.class
-                .getDeclaredMethods().length];
-
-        for (int k = 0; k < GeoSpatialFunctions.class.getDeclaredMethods().length; k++) {
-            String function = "DROP ALIAS ";
-            String functionName = methods[k].getName();
-            st.execute(function + functionName);
+        for (String function : FunctionManifest.getFunctions()) {
+            st.execute("DROP ALIAS IF EXISTS " + function);
         }
+        st.execute("DROP TABLE IF EXISTS " + METADATA);
     }
-}
\ No newline at end of file
+}
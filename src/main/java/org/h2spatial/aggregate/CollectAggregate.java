@@ -0,0 +1,117 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.aggregate;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.StorageFormat;
+import org.h2spatial.codec.WKBBuffer;
+import org.h2spatial.codec.WKBInspector;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Collection of the added geometries, a MultiPoint, MultiLineString or
+ * MultiPolygon when they are all points, lines or polygons and a
+ * GeometryCollection otherwise.
+ *
+ * A WKB collection is a header followed by the WKB of its parts, so the WKB
+ * body of each added value is appended as it is and only the headers are
+ * written at the end. Only the values stored with a fixed precision are
+ * decoded, to be written again as WKB.
+ */
+public class CollectAggregate extends GeometryAggregate {
+
+	private static final int EWKB_Z = 0x80000000;
+
+	private final WKBBuffer parts = new WKBBuffer();
+
+	private final double[] partEnvelope = new double[4];
+
+	private final Envelope envelope = new Envelope();
+
+	private int count;
+
+	private int typeCode;
+
+	private boolean hasZ;
+
+	private int srid;
+
+	@Override
+	public void add(byte[] value) throws SQLException {
+		if (value == null) {
+			return;
+		}
+		if (!WKBInspector.canInspect(value)) {
+			Geometry geom = read(value);
+			value = write(geom, geom.getSRID());
+		}
+		int partType = WKBInspector.getTypeCode(value);
+		if (count == 0) {
+			typeCode = partType;
+			srid = WKBInspector.getSRID(value);
+		} else if (typeCode != partType) {
+			typeCode = WKBInspector.GEOMETRYCOLLECTION;
+		}
+		hasZ |= WKBInspector.getCoordinateDimension(value) > 2;
+		if (WKBInspector.getEnvelope(value, partEnvelope)) {
+			envelope.expandToInclude(partEnvelope[0], partEnvelope[1]);
+			envelope.expandToInclude(partEnvelope[2], partEnvelope[3]);
+		}
+		int offset = StorageFormat.getWKBOffset(value);
+		if (offset < 0) {
+			try {
+				value = GeometryCodec.writeWKB(read(value));
+			} catch (IOException e) {
+				throw new SQLException(e.getMessage(), e);
+			}
+			offset = 0;
+		}
+		parts.write(value, offset, value.length - offset);
+		count++;
+	}
+
+	/**
+	 * @return the SRID of the first geometry.
+	 */
+	public int getSRID() {
+		return srid;
+	}
+
+	@Override
+	public byte[] getResult() {
+		if (count == 0) {
+			return null;
+		}
+		int collectionType;
+		switch (typeCode) {
+		case WKBInspector.POINT:
+			collectionType = WKBInspector.MULTIPOINT;
+			break;
+		case WKBInspector.LINESTRING:
+			collectionType = WKBInspector.MULTILINESTRING;
+			break;
+		case WKBInspector.POLYGON:
+			collectionType = WKBInspector.MULTIPOLYGON;
+			break;
+		default:
+			collectionType = WKBInspector.GEOMETRYCOLLECTION;
+		}
+		WKBBuffer result = new WKBBuffer();
+		StorageFormat.writeHeader(result, srid, hasZ, envelope, 0);
+		result.writeByte(1);
+		result.writeInt(hasZ ? collectionType | EWKB_Z : collectionType);
+		result.writeInt(count);
+		result.write(parts.toByteArray(), parts.size());
+		return result.toByteArray();
+	}
+}
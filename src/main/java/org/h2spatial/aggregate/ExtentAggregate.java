@@ -0,0 +1,84 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.aggregate;
+
+import java.sql.SQLException;
+
+import org.h2spatial.codec.WKBInspector;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Bounding box of the added geometries, given as a polygon (a point or a
+ * line when the box is degenerate).
+ *
+ * Only the minimum and maximum coordinates are kept, they are streamed from
+ * the WKB values without building the geometries.
+ */
+public class ExtentAggregate extends GeometryAggregate {
+
+	private static final GeometryFactory FACTORY = new GeometryFactory();
+
+	private final double[] env = new double[4];
+
+	private double minX = Double.POSITIVE_INFINITY;
+
+	private double minY = Double.POSITIVE_INFINITY;
+
+	private double maxX = Double.NEGATIVE_INFINITY;
+
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	private int srid;
+
+	private boolean first = true;
+
+	@Override
+	public void add(byte[] wkb) throws SQLException {
+		if (wkb == null) {
+			return;
+		}
+		if (WKBInspector.canInspect(wkb)) {
+			if (first) {
+				srid = WKBInspector.getSRID(wkb);
+				first = false;
+			}
+			if (WKBInspector.getEnvelope(wkb, env)) {
+				expand(env[0], env[1], env[2], env[3]);
+			}
+		} else {
+			Geometry geom = read(wkb);
+			if (first) {
+				srid = geom.getSRID();
+				first = false;
+			}
+			Envelope e = geom.getEnvelopeInternal();
+			if (!e.isNull()) {
+				expand(e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY());
+			}
+		}
+	}
+
+	private void expand(double x0, double y0, double x1, double y1) {
+		minX = Math.min(minX, x0);
+		minY = Math.min(minY, y0);
+		maxX = Math.max(maxX, x1);
+		maxY = Math.max(maxY, y1);
+	}
+
+	@Override
+	public byte[] getResult() throws SQLException {
+		if (minX > maxX) {
+			return null;
+		}
+		return write(FACTORY.toGeometry(new Envelope(minX, maxX, minY, maxY)),
+				srid);
+	}
+}
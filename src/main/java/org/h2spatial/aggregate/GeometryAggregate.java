@@ -0,0 +1,70 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.aggregate;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2spatial.codec.GeometryCodec;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Accumulates stored geometries one by one and gives a single geometry.
+ *
+ * H2 has no user defined aggregates, the SQL functions run a query and give
+ * its first column to the aggregate.
+ */
+public abstract class GeometryAggregate {
+
+	/**
+	 * Adds a stored value, null values are ignored.
+	 */
+	public abstract void add(byte[] wkb) throws SQLException;
+
+	/**
+	 * @return the stored result, null if no geometry was added.
+	 */
+	public abstract byte[] getResult() throws SQLException;
+
+	/**
+	 * Adds the first column of every row of a query and gives the result.
+	 */
+	public byte[] aggregate(Connection conn, String query) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(query);
+			while (rs.next()) {
+				add(rs.getBytes(1));
+			}
+		} finally {
+			st.close();
+		}
+		return getResult();
+	}
+
+	static Geometry read(byte[] wkb) throws SQLException {
+		try {
+			return GeometryCodec.read(wkb);
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	static byte[] write(Geometry geom, int srid) throws SQLException {
+		try {
+			return GeometryCodec.write(geom, srid);
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+}
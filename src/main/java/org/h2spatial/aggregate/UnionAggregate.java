@@ -0,0 +1,144 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.aggregate;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.h2spatial.util.ParallelExecutor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Union of the added geometries.
+ *
+ * The decoded geometries are buffered and every full batch is merged with
+ * the JTS cascaded union. The union of a batch goes into the buffer of the
+ * next level, where it is merged in turn with the unions of the following
+ * batches. At most a batch of geometries is kept per level and nothing is
+ * encoded before the final result.
+ *
+ * In parallel mode the batches are merged on the shared worker threads while
+ * the next rows are read.
+ */
+public class UnionAggregate extends GeometryAggregate {
+
+	/**
+	 * Number of geometries merged by a cascaded union.
+	 */
+	static final int BATCH_SIZE = 512;
+
+	private final boolean parallel;
+
+	private final int batchSize;
+
+	private final LinkedList<UnionTask> running = new LinkedList<UnionTask>();
+
+	/**
+	 * Geometries waiting for a union, by level.
+	 */
+	private final List<List<Geometry>> levels = new ArrayList<List<Geometry>>();
+
+	private int srid;
+
+	private boolean first = true;
+
+	public UnionAggregate(boolean parallel) {
+		this(parallel, BATCH_SIZE);
+	}
+
+	UnionAggregate(boolean parallel, int batchSize) {
+		this.parallel = parallel;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void add(byte[] wkb) throws SQLException {
+		if (wkb == null) {
+			return;
+		}
+		Geometry geom = read(wkb);
+		if (first) {
+			srid = geom.getSRID();
+			first = false;
+		}
+		if (!geom.isEmpty()) {
+			push(geom, 0);
+		}
+	}
+
+	private void push(Geometry geom, int level) throws SQLException {
+		if (level == levels.size()) {
+			levels.add(new ArrayList<Geometry>(batchSize));
+		}
+		List<Geometry> pending = levels.get(level);
+		pending.add(geom);
+		if (pending.size() < batchSize) {
+			return;
+		}
+		levels.set(level, new ArrayList<Geometry>(batchSize));
+		UnionTask task = new UnionTask(pending, level + 1);
+		if (parallel) {
+			task.future = ParallelExecutor.submit(task);
+			running.add(task);
+			int maxRunning = 2 * ParallelExecutor.getParallelism();
+			while (running.size() > maxRunning) {
+				complete(running.removeFirst());
+			}
+		} else {
+			push(task.call(), task.level);
+		}
+	}
+
+	private void complete(UnionTask task) throws SQLException {
+		push(ParallelExecutor.get(task.future), task.level);
+	}
+
+	@Override
+	public byte[] getResult() throws SQLException {
+		while (!running.isEmpty()) {
+			complete(running.removeFirst());
+		}
+		List<Geometry> remaining = new ArrayList<Geometry>();
+		for (List<Geometry> pending : levels) {
+			remaining.addAll(pending);
+		}
+		if (remaining.isEmpty()) {
+			return null;
+		}
+		Geometry result = remaining.size() == 1 ? remaining.get(0)
+				: UnaryUnionOp.union(remaining);
+		return write(result, srid);
+	}
+
+	/**
+	 * Cascaded union of a batch, its result goes to the given level.
+	 */
+	static final class UnionTask implements Callable<Geometry> {
+
+		private final List<Geometry> geometries;
+
+		final int level;
+
+		Future<Geometry> future;
+
+		UnionTask(List<Geometry> geometries, int level) {
+			this.geometries = geometries;
+			this.level = level;
+		}
+
+		public Geometry call() {
+			return UnaryUnionOp.union(geometries);
+		}
+	}
+}
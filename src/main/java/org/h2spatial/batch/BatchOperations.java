@@ -0,0 +1,280 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.batch;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.WKBInspector;
+import org.h2spatial.predicate.EnvelopePrefilter;
+import org.h2spatial.util.ParallelExecutor;
+import org.h2spatial.util.SQLUtils;
+import org.h2spatial.util.SpatialSettings;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Functions applied to each element of an array of stored geometries, the
+ * result being an array of the same length with null for a null element.
+ *
+ * A single call replaces one function call per row: the arguments are
+ * converted once, the query geometry of a predicate is decoded and prepared
+ * once, and the candidates whose envelope answers the predicate are not
+ * decoded. Arrays of at least BATCH_PARALLEL_THRESHOLD elements are cut into
+ * ranges evaluated by the worker threads, each one with its own codec state.
+ */
+public final class BatchOperations {
+
+	/**
+	 * Number of ranges per thread, so that a slow range doesn't leave the
+	 * other threads idle.
+	 */
+	static final int RANGES_PER_THREAD = 4;
+
+	private BatchOperations() {
+	}
+
+	public static Object[] area(Object[] values, int parallelism)
+			throws SQLException {
+		return run(values, parallelism, new ValueOperation() {
+			Object apply(byte[] value) throws ParseException {
+				return new Double(GeometryCodec.read(value).getArea());
+			}
+		});
+	}
+
+	public static Object[] length(Object[] values, int parallelism)
+			throws SQLException {
+		return run(values, parallelism, new ValueOperation() {
+			Object apply(byte[] value) throws ParseException {
+				return new Double(GeometryCodec.read(value).getLength());
+			}
+		});
+	}
+
+	public static Object[] buffer(Object[] values, final double distance,
+			int parallelism) throws SQLException {
+		return run(values, parallelism, new ValueOperation() {
+			Object apply(byte[] value) throws ParseException, IOException {
+				Geometry geom = GeometryCodec.read(value);
+				return GeometryCodec.write(geom.buffer(distance), geom
+						.getSRID());
+			}
+		});
+	}
+
+	/**
+	 * @return for each candidate, true if it intersects the query.
+	 */
+	public static Object[] intersects(byte[] query, Object[] candidates,
+			int parallelism) throws SQLException {
+		return run(candidates, parallelism, new Predicate(query,
+				EnvelopePrefilter.INTERSECTS, 0) {
+			boolean evaluate(PreparedGeometry prepared, Geometry candidate) {
+				return prepared.intersects(candidate);
+			}
+		});
+	}
+
+	/**
+	 * @return for each candidate, true if the query contains it.
+	 */
+	public static Object[] contains(byte[] query, Object[] candidates,
+			int parallelism) throws SQLException {
+		return run(candidates, parallelism, new Predicate(query,
+				EnvelopePrefilter.CONTAINS, 0) {
+			boolean evaluate(PreparedGeometry prepared, Geometry candidate) {
+				return prepared.contains(candidate);
+			}
+		});
+	}
+
+	/**
+	 * @return for each candidate, true if the query is within it.
+	 */
+	public static Object[] within(byte[] query, Object[] candidates,
+			int parallelism) throws SQLException {
+		return run(candidates, parallelism, new Predicate(query,
+				EnvelopePrefilter.WITHIN, 0) {
+			boolean evaluate(PreparedGeometry prepared, Geometry candidate) {
+				return prepared.within(candidate);
+			}
+		});
+	}
+
+	/**
+	 * @return for each candidate, true if it is within the distance of the
+	 *         query.
+	 */
+	public static Object[] isWithinDistance(byte[] query,
+			Object[] candidates, final double distance, int parallelism)
+			throws SQLException {
+		return run(candidates, parallelism, new Predicate(query,
+				EnvelopePrefilter.IS_WITHIN_DISTANCE, distance) {
+			boolean evaluate(PreparedGeometry prepared, Geometry candidate) {
+				return prepared.getGeometry().isWithinDistance(candidate,
+						distance);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of threads to use for an array, 1 if it is
+	 *         processed sequentially.
+	 */
+	public static int getParallelism(Connection conn, int length) {
+		if (length < SpatialSettings.get(conn,
+				SpatialSettings.BATCH_PARALLEL_THRESHOLD)) {
+			return 1;
+		}
+		return (int) Math.min(ParallelExecutor.getParallelism(),
+				SpatialSettings.get(conn, SpatialSettings.MAX_PARALLELISM));
+	}
+
+	static Object[] run(Object[] values, int parallelism,
+			final Operation operation) throws SQLException {
+		final Object[] results = new Object[values.length];
+		final byte[][] bytes = new byte[values.length][];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = SQLUtils.toBytes(values[i]);
+		}
+		if (parallelism < 2) {
+			operation.apply(bytes, results, 0, bytes.length);
+			return results;
+		}
+		int ranges = Math.min(values.length, parallelism * RANGES_PER_THREAD);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(ranges);
+		for (int i = 0; i < ranges; i++) {
+			final int start = (int) ((long) values.length * i / ranges);
+			final int end = (int) ((long) values.length * (i + 1) / ranges);
+			tasks.add(new Callable<Void>() {
+				public Void call() throws SQLException {
+					operation.apply(bytes, results, start, end);
+					return null;
+				}
+			});
+		}
+		ParallelExecutor.invokeAll(tasks, parallelism);
+		return results;
+	}
+
+	/**
+	 * Operation evaluated on a range of the values, by a single thread.
+	 */
+	abstract static class Operation {
+
+		/**
+		 * Stores the results of the non null values from start to end.
+		 */
+		abstract void apply(byte[][] values, Object[] results, int start,
+				int end) throws SQLException;
+	}
+
+	/**
+	 * Function of a single stored value.
+	 */
+	abstract static class ValueOperation extends Operation {
+
+		@Override
+		void apply(byte[][] values, Object[] results, int start, int end)
+				throws SQLException {
+			try {
+				for (int i = start; i < end; i++) {
+					if (values[i] != null) {
+						results[i] = apply(values[i]);
+					}
+				}
+			} catch (ParseException e) {
+				throw new SQLException("Invalid geometry : " + e.getMessage());
+			} catch (IOException e) {
+				throw new SQLException(e.getMessage(), e);
+			}
+		}
+
+		abstract Object apply(byte[] value) throws ParseException,
+				IOException;
+	}
+
+	/**
+	 * Predicate between a query geometry and each candidate. The query is
+	 * decoded once, and prepared once per range since a prepared geometry
+	 * can't be shared between threads.
+	 */
+	abstract static class Predicate extends Operation {
+
+		private final byte[] query;
+
+		private final EnvelopePrefilter prefilter;
+
+		private final double distance;
+
+		private final double[] envelope;
+
+		private Geometry geometry;
+
+		Predicate(byte[] query, EnvelopePrefilter prefilter, double distance) {
+			this.query = query;
+			this.prefilter = prefilter;
+			this.distance = distance;
+			double[] env = new double[4];
+			this.envelope = query != null && WKBInspector.canInspect(query)
+					&& WKBInspector.getEnvelope(query, env) ? env : null;
+		}
+
+		@Override
+		void apply(byte[][] values, Object[] results, int start, int end)
+				throws SQLException {
+			if (query == null) {
+				return;
+			}
+			Geometry geom;
+			synchronized (this) {
+				if (geometry == null) {
+					try {
+						geometry = GeometryCodec.read(query);
+					} catch (ParseException e) {
+						throw new SQLException("Invalid geometry : "
+								+ e.getMessage());
+					}
+					geometry.getEnvelopeInternal();
+				}
+				geom = geometry;
+			}
+			PreparedGeometry prepared = null;
+			try {
+				for (int i = start; i < end; i++) {
+					if (values[i] == null) {
+						continue;
+					}
+					if (prefilter.canSkip(envelope, values[i], distance)) {
+						results[i] = Boolean.FALSE;
+						continue;
+					}
+					if (prepared == null) {
+						prepared = PreparedGeometryFactory.prepare(geom);
+					}
+					results[i] = Boolean.valueOf(evaluate(prepared,
+							GeometryCodec.read(values[i])));
+				}
+			} catch (ParseException e) {
+				throw new SQLException("Invalid geometry : " + e.getMessage());
+			}
+		}
+
+		abstract boolean evaluate(PreparedGeometry prepared,
+				Geometry candidate);
+	}
+}
@@ -0,0 +1,514 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2spatial.codec.GeometryCodec;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Geometries of a column in a columnar layout, in a file mapped outside of
+ * the Java heap.
+ *
+ * The file holds, after a header, the x y coordinates of all the geometries
+ * as one array of doubles, then the key and the envelope of each feature,
+ * the type of each part (point, line or polygon) and three offset arrays:
+ * the first part of each feature, the first ring of each part and the first
+ * coordinate of each ring. A polygon part has its shell then its holes, a
+ * line or a point part has a single ring. A null or empty geometry has no
+ * part and a NaN envelope.
+ *
+ * The measures are computed on the mapped values without creating a
+ * geometry. The layer is immutable and can be read by several threads.
+ */
+public final class ColumnarLayer {
+
+	public static final int POINT = 0;
+
+	public static final int LINE = 1;
+
+	public static final int POLYGON = 2;
+
+	static final int MAGIC = 0x48325343;
+
+	static final int HEADER_SIZE = 32;
+
+	private final File file;
+
+	private final MappedByteBuffer data;
+
+	private final int featureCount;
+
+	private final int partCount;
+
+	private final int ringCount;
+
+	private final int coordinateCount;
+
+	private final int keyOffset;
+
+	private final int envelopeOffset;
+
+	private final int partTypeOffset;
+
+	private final int featurePartOffset;
+
+	private final int partRingOffset;
+
+	private final int ringCoordinateOffset;
+
+	private ColumnarLayer(File file, MappedByteBuffer data) throws IOException {
+		this.file = file;
+		this.data = data;
+		if (data.getInt(0) != MAGIC) {
+			throw new IOException("Not a coordinate cache : " + file);
+		}
+		featureCount = data.getInt(4);
+		partCount = data.getInt(8);
+		ringCount = data.getInt(12);
+		coordinateCount = data.getInt(16);
+		keyOffset = HEADER_SIZE + 16 * coordinateCount;
+		envelopeOffset = keyOffset + 8 * featureCount;
+		partTypeOffset = envelopeOffset + 32 * featureCount;
+		featurePartOffset = partTypeOffset + 4 * partCount;
+		partRingOffset = featurePartOffset + 4 * (featureCount + 1);
+		ringCoordinateOffset = partRingOffset + 4 * (partCount + 1);
+	}
+
+	/**
+	 * Writes the rows of a result set, a key and a stored geometry each, into
+	 * a new file and maps it.
+	 */
+	static ColumnarLayer write(ResultSet rs, File file) throws SQLException,
+			IOException {
+		Writer writer = new Writer(file);
+		try {
+			while (rs.next()) {
+				long key = rs.getLong(1);
+				byte[] value = rs.getBytes(2);
+				writer.add(key, value == null ? null : GeometryCodec
+						.read(value));
+			}
+			writer.finish();
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		} finally {
+			writer.close();
+		}
+		return open(file);
+	}
+
+	static ColumnarLayer open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Coordinate cache larger than 2 GB : "
+						+ file);
+			}
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			data.order(ByteOrder.nativeOrder());
+			return new ColumnarLayer(file, data);
+		} finally {
+			// the mapping stays valid once the file is closed
+			raf.close();
+		}
+	}
+
+	public int size() {
+		return featureCount;
+	}
+
+	public int getPartCount() {
+		return partCount;
+	}
+
+	public int getCoordinateCount() {
+		return coordinateCount;
+	}
+
+	/**
+	 * @return the size of the mapped file, in bytes.
+	 */
+	public long getMappedSize() {
+		return data.capacity();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	public long getKey(int feature) {
+		return data.getLong(keyOffset + 8 * feature);
+	}
+
+	public double getMinX(int feature) {
+		return data.getDouble(envelopeOffset + 32 * feature);
+	}
+
+	public double getMinY(int feature) {
+		return data.getDouble(envelopeOffset + 32 * feature + 8);
+	}
+
+	public double getMaxX(int feature) {
+		return data.getDouble(envelopeOffset + 32 * feature + 16);
+	}
+
+	public double getMaxY(int feature) {
+		return data.getDouble(envelopeOffset + 32 * feature + 24);
+	}
+
+	/**
+	 * @return false for a null or empty geometry.
+	 */
+	public boolean hasGeometry(int feature) {
+		return getFirstPart(feature + 1) > getFirstPart(feature);
+	}
+
+	int getPartType(int part) {
+		return data.getInt(partTypeOffset + 4 * part);
+	}
+
+	private int getFirstPart(int feature) {
+		return data.getInt(featurePartOffset + 4 * feature);
+	}
+
+	private int getFirstRing(int part) {
+		return data.getInt(partRingOffset + 4 * part);
+	}
+
+	private int getFirstCoordinate(int ring) {
+		return data.getInt(ringCoordinateOffset + 4 * ring);
+	}
+
+	private double getX(int coordinate) {
+		return data.getDouble(HEADER_SIZE + 16 * coordinate);
+	}
+
+	private double getY(int coordinate) {
+		return data.getDouble(HEADER_SIZE + 16 * coordinate + 8);
+	}
+
+	/**
+	 * @return the area of the polygons of a feature, as Geometry.getArea.
+	 */
+	public double getArea(int feature) {
+		double area = 0;
+		for (int part = getFirstPart(feature); part < getFirstPart(feature + 1); part++) {
+			if (getPartType(part) != POLYGON) {
+				continue;
+			}
+			int shell = getFirstRing(part);
+			area += Math.abs(getSignedArea(shell));
+			for (int hole = shell + 1; hole < getFirstRing(part + 1); hole++) {
+				area -= Math.abs(getSignedArea(hole));
+			}
+		}
+		return area;
+	}
+
+	/**
+	 * @return the length of the lines and the perimeter of the polygons of a
+	 *         feature, as Geometry.getLength.
+	 */
+	public double getLength(int feature) {
+		double length = 0;
+		for (int part = getFirstPart(feature); part < getFirstPart(feature + 1); part++) {
+			if (getPartType(part) == POINT) {
+				continue;
+			}
+			for (int ring = getFirstRing(part); ring < getFirstRing(part + 1); ring++) {
+				int end = getFirstCoordinate(ring + 1);
+				for (int i = getFirstCoordinate(ring) + 1; i < end; i++) {
+					double dx = getX(i) - getX(i - 1);
+					double dy = getY(i) - getY(i - 1);
+					length += Math.sqrt(dx * dx + dy * dy);
+				}
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Shoelace formula, relative to the first point to keep the precision of
+	 * large coordinates.
+	 */
+	private double getSignedArea(int ring) {
+		int start = getFirstCoordinate(ring);
+		int end = getFirstCoordinate(ring + 1);
+		double x0 = getX(start);
+		double y0 = getY(start);
+		double sum = 0;
+		for (int i = start + 1; i < end - 1; i++) {
+			sum += (getX(i) - x0) * (getY(i + 1) - y0) - (getX(i + 1) - x0)
+					* (getY(i) - y0);
+		}
+		return sum / 2;
+	}
+
+	/**
+	 * @return true if the point is in the interior of a polygon of the
+	 *         feature, false on its boundary, as Geometry.contains(point).
+	 */
+	public boolean contains(int feature, double x, double y) {
+		if (!(x >= getMinX(feature) && x <= getMaxX(feature)
+				&& y >= getMinY(feature) && y <= getMaxY(feature))) {
+			return false;
+		}
+		boolean inside = false;
+		for (int part = getFirstPart(feature); part < getFirstPart(feature + 1); part++) {
+			if (getPartType(part) != POLYGON) {
+				continue;
+			}
+			boolean inPart = false;
+			for (int ring = getFirstRing(part); ring < getFirstRing(part + 1); ring++) {
+				int location = locate(ring, x, y);
+				if (location == 0) {
+					return false;
+				}
+				if (location > 0) {
+					inPart = !inPart;
+				}
+			}
+			inside |= inPart;
+		}
+		return inside;
+	}
+
+	/**
+	 * Crossing number test of a closed ring.
+	 *
+	 * @return 1 inside, -1 outside, 0 on the ring.
+	 */
+	private int locate(int ring, double x, double y) {
+		int end = getFirstCoordinate(ring + 1);
+		boolean inside = false;
+		double x1 = getX(getFirstCoordinate(ring));
+		double y1 = getY(getFirstCoordinate(ring));
+		for (int i = getFirstCoordinate(ring) + 1; i < end; i++) {
+			double x0 = x1;
+			double y0 = y1;
+			x1 = getX(i);
+			y1 = getY(i);
+			if ((x - x0) * (y1 - y0) == (x1 - x0) * (y - y0)
+					&& x >= Math.min(x0, x1) && x <= Math.max(x0, x1)
+					&& y >= Math.min(y0, y1) && y <= Math.max(y0, y1)) {
+				return 0;
+			}
+			if ((y0 > y) != (y1 > y)
+					&& x < x0 + (y - y0) * (x1 - x0) / (y1 - y0)) {
+				inside = !inside;
+			}
+		}
+		return inside ? 1 : -1;
+	}
+
+	/**
+	 * @return the extent of all the features, null if none has a geometry.
+	 */
+	public Envelope getExtent() {
+		Envelope extent = new Envelope();
+		for (int i = 0; i < featureCount; i++) {
+			if (hasGeometry(i)) {
+				extent.expandToInclude(getMinX(i), getMinY(i));
+				extent.expandToInclude(getMaxX(i), getMaxY(i));
+			}
+		}
+		return extent.isNull() ? null : extent;
+	}
+
+	/**
+	 * Writes the sections of the file: the coordinates are streamed to the
+	 * file as they come, the much smaller arrays are kept until the end.
+	 */
+	static final class Writer {
+
+		private final RandomAccessFile raf;
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16)
+				.order(ByteOrder.nativeOrder());
+
+		private long[] keys = new long[256];
+
+		private double[] envelopes = new double[4 * 256];
+
+		private int[] partTypes = new int[256];
+
+		private int[] featureParts = new int[257];
+
+		private int[] partRings = new int[257];
+
+		private int[] ringCoordinates = new int[257];
+
+		private int featureCount;
+
+		private int partCount;
+
+		private int ringCount;
+
+		private int coordinateCount;
+
+		Writer(File file) throws IOException {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			channel = raf.getChannel();
+			channel.position(HEADER_SIZE);
+		}
+
+		void add(long key, Geometry geom) throws IOException {
+			if (featureCount == keys.length) {
+				keys = Arrays.copyOf(keys, featureCount * 2);
+				envelopes = Arrays.copyOf(envelopes, featureCount * 8);
+				featureParts = Arrays.copyOf(featureParts, featureCount * 2 + 1);
+			}
+			keys[featureCount] = key;
+			Envelope env = geom == null ? new Envelope() : geom
+					.getEnvelopeInternal();
+			boolean empty = env.isNull();
+			envelopes[4 * featureCount] = empty ? Double.NaN : env.getMinX();
+			envelopes[4 * featureCount + 1] = empty ? Double.NaN : env.getMinY();
+			envelopes[4 * featureCount + 2] = empty ? Double.NaN : env.getMaxX();
+			envelopes[4 * featureCount + 3] = empty ? Double.NaN : env.getMaxY();
+			if (!empty) {
+				addParts(geom);
+			}
+			featureCount++;
+			featureParts[featureCount] = partCount;
+		}
+
+		private void addParts(Geometry geom) throws IOException {
+			if (geom.isEmpty()) {
+				return;
+			}
+			if (geom instanceof Point) {
+				addPart(POINT);
+				addRing(geom.getCoordinates());
+			} else if (geom instanceof LineString) {
+				addPart(LINE);
+				addRing(geom.getCoordinates());
+			} else if (geom instanceof Polygon) {
+				Polygon polygon = (Polygon) geom;
+				addPart(POLYGON);
+				addRing(polygon.getExteriorRing().getCoordinates());
+				for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+					addRing(polygon.getInteriorRingN(i).getCoordinates());
+				}
+			} else {
+				for (int i = 0; i < geom.getNumGeometries(); i++) {
+					addParts(geom.getGeometryN(i));
+				}
+			}
+		}
+
+		private void addPart(int type) {
+			if (partCount == partTypes.length) {
+				partTypes = Arrays.copyOf(partTypes, partCount * 2);
+				partRings = Arrays.copyOf(partRings, partCount * 2 + 1);
+			}
+			partTypes[partCount++] = type;
+			partRings[partCount] = ringCount;
+		}
+
+		private void addRing(Coordinate[] coordinates) throws IOException {
+			if (ringCount + 1 == ringCoordinates.length) {
+				ringCoordinates = Arrays.copyOf(ringCoordinates, ringCount * 2 + 1);
+			}
+			for (Coordinate c : coordinates) {
+				if (buffer.remaining() < 16) {
+					flush();
+				}
+				buffer.putDouble(c.x);
+				buffer.putDouble(c.y);
+			}
+			coordinateCount += coordinates.length;
+			if (coordinateCount < 0) {
+				throw new IOException("Too many coordinates");
+			}
+			ringCount++;
+			ringCoordinates[ringCount] = coordinateCount;
+			partRings[partCount] = ringCount;
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		void finish() throws IOException {
+			for (int i = 0; i < featureCount; i++) {
+				putLong(keys[i]);
+			}
+			for (int i = 0; i < 4 * featureCount; i++) {
+				putDouble(envelopes[i]);
+			}
+			putInts(partTypes, partCount);
+			putInts(featureParts, featureCount + 1);
+			putInts(partRings, partCount + 1);
+			putInts(ringCoordinates, ringCount + 1);
+			flush();
+			buffer.putInt(MAGIC);
+			buffer.putInt(featureCount);
+			buffer.putInt(partCount);
+			buffer.putInt(ringCount);
+			buffer.putInt(coordinateCount);
+			buffer.flip();
+			channel.write(buffer, 0);
+			buffer.clear();
+		}
+
+		private void putLong(long value) throws IOException {
+			if (buffer.remaining() < 8) {
+				flush();
+			}
+			buffer.putLong(value);
+		}
+
+		private void putDouble(double value) throws IOException {
+			if (buffer.remaining() < 8) {
+				flush();
+			}
+			buffer.putDouble(value);
+		}
+
+		private void putInts(int[] values, int count) throws IOException {
+			for (int i = 0; i < count; i++) {
+				if (buffer.remaining() < 4) {
+					flush();
+				}
+				buffer.putInt(values[i]);
+			}
+		}
+
+		void close() throws IOException {
+			raf.close();
+		}
+	}
+}
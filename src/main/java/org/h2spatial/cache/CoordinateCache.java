@@ -0,0 +1,332 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.engine.Session;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * Optional cache of a geometry column in a ColumnarLayer, for the scans
+ * computing measures on the whole column.
+ *
+ * The cached columns are listed in the COORDINATE_CACHES table. The layer
+ * itself is kept in a temporary file, built on the first use after the
+ * cache is created or the database is opened. A trigger writes a new version
+ * of the column into the registry on each insert, update and delete of the
+ * table, in the transaction of the change, and a layer is used only while
+ * the version it was built from is the current one. A change rolled back
+ * gives back the previous version, so a layer built from it is built again.
+ */
+public class CoordinateCache {
+
+	public static final String REGISTRY = "COORDINATE_CACHES";
+
+	/**
+	 * Loaded layers of each database, by table and column.
+	 */
+	private static final Map<Object, Map<String, CoordinateCache>> CACHES = new WeakHashMap<Object, Map<String, CoordinateCache>>();
+
+	private static final AtomicLong BUILDS = new AtomicLong();
+
+	/**
+	 * Versions written by the triggers, never given twice, so that a version
+	 * rolled back can't be written again by another change. The layers don't
+	 * outlive the JVM, starting from the clock keeps above the versions left
+	 * by a previous one.
+	 */
+	private static final AtomicLong VERSIONS = new AtomicLong(System
+			.currentTimeMillis() << 16);
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final String keyColumn;
+
+	private ColumnarLayer layer;
+
+	private long layerVersion;
+
+	CoordinateCache(String tableName, String columnName, String keyColumn) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.keyColumn = keyColumn;
+	}
+
+	/**
+	 * Registers the column, creates the trigger invalidating its layer and
+	 * builds it.
+	 */
+	public static CoordinateCache create(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		if (find(conn, tableName, columnName) != null) {
+			throw new SQLException("The coordinates of " + tableName + "."
+					+ columnName + " are already cached");
+		}
+		String keyColumn = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + REGISTRY
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR,"
+				+ " KEY_COLUMN VARCHAR, VERSION BIGINT,"
+				+ " PRIMARY KEY(TABLE_NAME, COLUMN_NAME))");
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ REGISTRY + " VALUES(?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			insert.setString(3, keyColumn);
+			insert.setLong(4, VERSIONS.incrementAndGet());
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+		CoordinateCache cache = get(conn, tableName, columnName);
+		SQLUtils.execute(conn, "CREATE TRIGGER " + cache.getTriggerName()
+				+ " AFTER INSERT, UPDATE, DELETE ON " + tableName
+				+ " FOR EACH ROW CALL \""
+				+ CoordinateCacheTrigger.class.getName() + "\"");
+		cache.getLayer(conn);
+		return cache;
+	}
+
+	/**
+	 * Drops the trigger and the layer file.
+	 */
+	public static void drop(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		CoordinateCache cache = get(conn, tableName, columnName);
+		SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS "
+				+ cache.getTriggerName());
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ REGISTRY + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			delete.setString(1, cache.tableName);
+			delete.setString(2, cache.columnName);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+		synchronized (CACHES) {
+			Map<String, CoordinateCache> caches = CACHES
+					.get(getDatabaseKey(conn));
+			if (caches != null) {
+				caches.remove(key(cache.tableName, cache.columnName));
+			}
+		}
+		cache.release();
+	}
+
+	/**
+	 * @return the cache of a column, or null if it isn't cached.
+	 */
+	public static CoordinateCache find(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		String keyColumn = null;
+		if (SQLUtils.tableExists(conn, REGISTRY)) {
+			PreparedStatement select = conn.prepareStatement("SELECT"
+					+ " KEY_COLUMN FROM " + REGISTRY + " WHERE TABLE_NAME = ?"
+					+ " AND COLUMN_NAME = ?");
+			try {
+				select.setString(1, tableName);
+				select.setString(2, columnName);
+				ResultSet rs = select.executeQuery();
+				if (rs.next()) {
+					keyColumn = rs.getString(1);
+				}
+			} finally {
+				select.close();
+			}
+		}
+		String key = key(tableName, columnName);
+		CoordinateCache stale = null;
+		try {
+			synchronized (CACHES) {
+				Object databaseKey = getDatabaseKey(conn);
+				Map<String, CoordinateCache> caches = CACHES.get(databaseKey);
+				if (caches == null) {
+					caches = new HashMap<String, CoordinateCache>();
+					CACHES.put(databaseKey, caches);
+				}
+				CoordinateCache cache = caches.get(key);
+				if (cache != null
+						&& (keyColumn == null || !cache.keyColumn
+								.equals(keyColumn))) {
+					// the registry was dropped or changed by another way
+					stale = caches.remove(key);
+					cache = null;
+				}
+				if (cache == null && keyColumn != null) {
+					cache = new CoordinateCache(tableName, columnName,
+							keyColumn);
+					caches.put(key, cache);
+				}
+				return cache;
+			}
+		} finally {
+			if (stale != null) {
+				stale.release();
+			}
+		}
+	}
+
+	/**
+	 * @return the cache of a column, an exception is thrown if it isn't
+	 *         cached.
+	 */
+	public static CoordinateCache get(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		CoordinateCache cache = find(conn, tableName, columnName);
+		if (cache == null) {
+			throw new SQLException("No coordinate cache on " + tableName
+					+ "." + columnName);
+		}
+		return cache;
+	}
+
+	/**
+	 * The database of an embedded connection, the URL of a remote one.
+	 */
+	private static Object getDatabaseKey(Connection conn) throws SQLException {
+		Session session = SQLUtils.getSession(conn);
+		if (session != null) {
+			return session.getDatabase();
+		}
+		return conn.getMetaData().getURL();
+	}
+
+	private static String key(String tableName, String columnName) {
+		return tableName + "." + columnName;
+	}
+
+	/**
+	 * Writes a new version of the column, in the transaction of the change.
+	 */
+	static void invalidate(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		PreparedStatement update = conn.prepareStatement("UPDATE " + REGISTRY
+				+ " SET VERSION = ? WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			update.setLong(1, VERSIONS.incrementAndGet());
+			update.setString(2, tableName);
+			update.setString(3, columnName);
+			update.execute();
+		} finally {
+			update.close();
+		}
+	}
+
+	/**
+	 * @return the version of the column seen by the connection.
+	 */
+	private long readVersion(Connection conn) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT VERSION FROM "
+				+ REGISTRY + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			if (!rs.next()) {
+				throw new SQLException("No coordinate cache on " + tableName
+						+ "." + columnName);
+			}
+			return rs.getLong(1);
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * @return the layer of the column, built again if the version seen by
+	 *         the connection isn't the one it was built from.
+	 */
+	public ColumnarLayer getLayer(Connection conn) throws SQLException {
+		// may wait for the transaction of another session changing the
+		// table, which could itself be waiting for this cache
+		return getLayer(conn, readVersion(conn));
+	}
+
+	private synchronized ColumnarLayer getLayer(Connection conn, long current)
+			throws SQLException {
+		if (layer != null && layerVersion == current) {
+			return layer;
+		}
+		release();
+		File file = null;
+		Statement st = conn.createStatement();
+		try {
+			file = File.createTempFile("h2spatial-", ".coordinates");
+			file.deleteOnExit();
+			ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", "
+					+ columnName + " FROM " + tableName);
+			layer = ColumnarLayer.write(rs, file);
+			layerVersion = current;
+			BUILDS.incrementAndGet();
+			return layer;
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		} finally {
+			st.close();
+			if (layer == null && file != null) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the layer and deletes its file. The mapping stays valid for
+	 * the scans still reading it.
+	 */
+	private synchronized void release() {
+		if (layer != null) {
+			layer.getFile().delete();
+			layer = null;
+		}
+	}
+
+	/**
+	 * @return the number of layers built since the start of the JVM.
+	 */
+	public static long getBuildCount() {
+		return BUILDS.get();
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public String getKeyColumn() {
+		return keyColumn;
+	}
+
+	public String getTriggerName() {
+		return tableName + "_" + columnName + "_CACHE_TRG";
+	}
+}
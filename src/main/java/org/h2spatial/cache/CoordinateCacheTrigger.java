@@ -0,0 +1,55 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.cache;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * Writes a new version of a cached column when its table is modified. The
+ * values aren't read, the layer is built again on its next use.
+ */
+public class CoordinateCacheTrigger implements Trigger {
+
+	private String tableName;
+
+	private String columnName;
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT COLUMN_NAME"
+				+ " FROM " + CoordinateCache.REGISTRY + " WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				CoordinateCache candidate = CoordinateCache.get(conn,
+						tableName, rs.getString(1));
+				if (candidate.getTriggerName().equals(triggerName)) {
+					this.tableName = tableName;
+					this.columnName = candidate.getColumnName();
+				}
+			}
+		} finally {
+			select.close();
+		}
+		if (columnName == null) {
+			throw new SQLException("No coordinate cache for the trigger "
+					+ triggerName);
+		}
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		CoordinateCache.invalidate(conn, tableName, columnName);
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.catalog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * Invalidates the spatial catalog when geometry_columns is modified.
+ */
+public class CatalogTrigger implements Trigger {
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		SpatialCatalog.invalidate();
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.catalog;
+
+/**
+ * A geometry column of the spatial catalog.
+ */
+public final class GeometryColumn {
+
+	private final String schemaName;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final int srid;
+
+	private final String geometryType;
+
+	private final int dimension;
+
+	private final boolean registered;
+
+	GeometryColumn(String schemaName, String tableName, String columnName,
+			int srid, String geometryType, int dimension, boolean registered) {
+		this.schemaName = schemaName;
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.srid = srid;
+		this.geometryType = geometryType;
+		this.dimension = dimension;
+		this.registered = registered;
+	}
+
+	public String getSchemaName() {
+		return schemaName;
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public int getSRID() {
+		return srid;
+	}
+
+	public String getGeometryType() {
+		return geometryType;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * @return true if the column has a row in geometry_columns, false if it
+	 *         was detected from a stored value.
+	 */
+	public boolean isRegistered() {
+		return registered;
+	}
+
+	@Override
+	public String toString() {
+		return tableName + "." + columnName;
+	}
+}
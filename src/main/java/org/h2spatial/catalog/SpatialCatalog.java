@@ -0,0 +1,342 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.catalog;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2spatial.codec.WKBInspector;
+import org.h2spatial.util.GeometryColumns;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * Cached list of the geometry columns of a database.
+ *
+ * The catalog is built from the column metadata and the geometry_columns
+ * table. A registered column gives its SRID, type and dimension, rows of
+ * dropped tables or columns are ignored. The binary columns that aren't
+ * registered are listed when their first non null value is a geometry, with
+ * the SRID and dimension of that value.
+ *
+ * The catalog is kept until the schema changes. For an embedded database this
+ * is checked on the meta modification counter of H2, so a lookup doesn't run
+ * any query. Other connections compare a fingerprint of
+ * INFORMATION_SCHEMA.TABLES. Changes to geometry_columns are seen through
+ * the CatalogTrigger or a call to invalidate. The binary columns that held
+ * no value when the catalog was built are read again on each lookup, the
+ * catalog being built again once one of them holds a value.
+ */
+public final class SpatialCatalog {
+
+	public static final String TRIGGER = "GEOMETRY_COLUMNS_CATALOG";
+
+	private static final String FINGERPRINT = "SELECT COUNT(*), SUM(ID), MAX(ID)"
+			+ " FROM INFORMATION_SCHEMA.TABLES";
+
+	private static final String[] TABLE_TYPES = { "TABLE", "VIEW" };
+
+	private static final Map<Object, Snapshot> SNAPSHOTS = new WeakHashMap<Object, Snapshot>();
+
+	private static final AtomicLong GENERATION = new AtomicLong();
+
+	private SpatialCatalog() {
+	}
+
+	/**
+	 * @return the geometry columns, in metadata order.
+	 */
+	public static List<GeometryColumn> getColumns(Connection conn)
+			throws SQLException {
+		return getSnapshot(conn).columns;
+	}
+
+	/**
+	 * @return the geometry column, or null if the column isn't a geometry
+	 *         column.
+	 */
+	public static GeometryColumn getColumn(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		return getSnapshot(conn).byName.get(key(SQLUtils.normalize(tableName),
+				SQLUtils.normalize(columnName)));
+	}
+
+	/**
+	 * @return the names of the tables with at least one geometry column.
+	 */
+	public static Set<String> getTableNames(Connection conn)
+			throws SQLException {
+		return getSnapshot(conn).tableNames;
+	}
+
+	/**
+	 * Drops every cached catalog, they are rebuilt on the next lookup.
+	 */
+	public static void invalidate() {
+		GENERATION.incrementAndGet();
+	}
+
+	/**
+	 * Creates the trigger invalidating the catalog on geometry_columns.
+	 */
+	public static void installTrigger(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "CREATE TRIGGER IF NOT EXISTS " + TRIGGER
+				+ " AFTER INSERT, UPDATE, DELETE ON " + GeometryColumns.TABLE
+				+ " FOR EACH ROW CALL \"" + CatalogTrigger.class.getName()
+				+ "\"");
+	}
+
+	private static Snapshot getSnapshot(Connection conn) throws SQLException {
+		long generation = GENERATION.get();
+		Session session = SQLUtils.getSession(conn);
+		Object key;
+		long version;
+		if (session != null) {
+			Database database = session.getDatabase();
+			key = database;
+			version = database.getModificationMetaId();
+		} else {
+			key = conn.getMetaData().getURL();
+			version = getFingerprint(conn);
+		}
+		Snapshot snapshot;
+		synchronized (SNAPSHOTS) {
+			snapshot = SNAPSHOTS.get(key);
+		}
+		if (snapshot != null && snapshot.version == version
+				&& snapshot.generation == generation
+				&& !hasValue(conn, snapshot.empty)) {
+			return snapshot;
+		}
+		List<String[]> empty = new ArrayList<String[]>();
+		snapshot = new Snapshot(version, generation, load(conn, empty), empty);
+		synchronized (SNAPSHOTS) {
+			SNAPSHOTS.put(key, snapshot);
+		}
+		return snapshot;
+	}
+
+	private static long getFingerprint(Connection conn) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(FINGERPRINT);
+			rs.next();
+			return rs.getLong(1) * 31 * 31 + rs.getLong(2) * 31 + rs.getLong(3);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * @param empty
+	 *            receives the schema, table and column names of the binary
+	 *            columns without any value.
+	 */
+	private static List<GeometryColumn> load(Connection conn,
+			List<String[]> empty) throws SQLException {
+		DatabaseMetaData meta = conn.getMetaData();
+		Map<String, Boolean> tables = new HashMap<String, Boolean>();
+		ResultSet rs = meta.getTables(null, null, "%", TABLE_TYPES);
+		try {
+			while (rs.next()) {
+				tables.put(rs.getString("TABLE_SCHEM") + "."
+						+ rs.getString("TABLE_NAME"), Boolean.valueOf("TABLE"
+						.equals(rs.getString("TABLE_TYPE"))));
+			}
+		} finally {
+			rs.close();
+		}
+		Map<String, Object[]> registered = loadRegistered(conn);
+		List<GeometryColumn> columns = new ArrayList<GeometryColumn>();
+		rs = meta.getColumns(null, null, "%", "%");
+		try {
+			while (rs.next()) {
+				String schemaName = rs.getString("TABLE_SCHEM");
+				String tableName = rs.getString("TABLE_NAME");
+				Boolean isTable = tables.get(schemaName + "." + tableName);
+				if (isTable == null) {
+					continue;
+				}
+				String columnName = rs.getString("COLUMN_NAME");
+				Object[] row = registered.get(key(tableName, columnName));
+				if (row != null) {
+					columns.add(new GeometryColumn(schemaName, tableName,
+							columnName, ((Number) row[0]).intValue(),
+							(String) row[1], ((Number) row[2]).intValue(), true));
+				} else if (isTable.booleanValue()
+						&& isBinary(rs.getInt("DATA_TYPE"))) {
+					GeometryColumn column = sample(conn, schemaName,
+							tableName, columnName, empty);
+					if (column != null) {
+						columns.add(column);
+					}
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return columns;
+	}
+
+	/**
+	 * @return the SRID, type and dimension of the registered columns.
+	 */
+	private static Map<String, Object[]> loadRegistered(Connection conn)
+			throws SQLException {
+		Map<String, Object[]> registered = new HashMap<String, Object[]>();
+		if (!SQLUtils.tableExists(conn, GeometryColumns.TABLE)) {
+			return registered;
+		}
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT F_TABLE_NAME,"
+					+ " F_GEOMETRY_COLUMN, SRID, TYPE, COORD_DIMENSION FROM "
+					+ GeometryColumns.TABLE);
+			while (rs.next()) {
+				String tableName = rs.getString(1);
+				String columnName = rs.getString(2);
+				if (tableName == null || columnName == null) {
+					continue;
+				}
+				registered.put(key(SQLUtils.normalize(tableName), SQLUtils
+						.normalize(columnName)), new Object[] {
+						Integer.valueOf(rs.getInt(3)), rs.getString(4),
+						Integer.valueOf(rs.getInt(5)) });
+			}
+		} finally {
+			st.close();
+		}
+		return registered;
+	}
+
+	private static boolean isBinary(int dataType) {
+		switch (dataType) {
+		case Types.BLOB:
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @return the column if its first non null value is a geometry.
+	 */
+	private static GeometryColumn sample(Connection conn, String schemaName,
+			String tableName, String columnName, List<String[]> empty)
+			throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(selectValue(schemaName, tableName,
+					columnName));
+			if (!rs.next()) {
+				empty.add(new String[] { schemaName, tableName, columnName });
+				return null;
+			}
+			byte[] value = rs.getBytes(1);
+			if (!WKBInspector.canInspect(value)) {
+				return null;
+			}
+			return new GeometryColumn(schemaName, tableName, columnName,
+					WKBInspector.getSRID(value), "GEOMETRY", WKBInspector
+							.getCoordinateDimension(value), false);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * @return true if one of the columns holds a value.
+	 */
+	private static boolean hasValue(Connection conn, List<String[]> columns)
+			throws SQLException {
+		if (columns.isEmpty()) {
+			return false;
+		}
+		Statement st = conn.createStatement();
+		try {
+			for (String[] names : columns) {
+				ResultSet rs = st.executeQuery(selectValue(names[0], names[1],
+						names[2]));
+				if (rs.next()) {
+					return true;
+				}
+				rs.close();
+			}
+			return false;
+		} finally {
+			st.close();
+		}
+	}
+
+	private static String selectValue(String schemaName, String tableName,
+			String columnName) {
+		return "SELECT \"" + columnName + "\" FROM \"" + schemaName + "\".\""
+				+ tableName + "\" WHERE \"" + columnName
+				+ "\" IS NOT NULL LIMIT 1";
+	}
+
+	private static String key(String tableName, String columnName) {
+		return tableName + "." + columnName;
+	}
+
+	/**
+	 * The catalog of a database at a schema version.
+	 */
+	private static final class Snapshot {
+
+		final long version;
+
+		final long generation;
+
+		final List<GeometryColumn> columns;
+
+		final Map<String, GeometryColumn> byName = new HashMap<String, GeometryColumn>();
+
+		final Set<String> tableNames;
+
+		/**
+		 * The binary columns without any value, which may hold geometries
+		 * later.
+		 */
+		final List<String[]> empty;
+
+		Snapshot(long version, long generation, List<GeometryColumn> columns,
+				List<String[]> empty) {
+			this.version = version;
+			this.generation = generation;
+			this.empty = empty;
+			this.columns = Collections.unmodifiableList(columns);
+			Set<String> names = new LinkedHashSet<String>();
+			for (GeometryColumn column : columns) {
+				String key = key(column.getTableName(), column.getColumnName());
+				if (!byName.containsKey(key)) {
+					byName.put(key, column);
+				}
+				names.add(column.getTableName());
+			}
+			this.tableNames = Collections.unmodifiableSet(names);
+		}
+	}
+}
@@ -0,0 +1,278 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Fixed precision body of the storage format.
+ *
+ * The structure is the one of little endian WKB, with the COMPACT flag in
+ * every type, but each coordinate is rounded to 1 / scale and written as the
+ * zigzag variable length difference with the previous coordinate of the
+ * geometry. Neighbouring vertices usually take 2 to 4 bytes per ordinate
+ * instead of 8.
+ */
+final class DeltaEncoding {
+
+	/**
+	 * Largest rounded ordinate, so that differences can't overflow.
+	 */
+	private static final double MAX_VALUE = (double) (1L << 52);
+
+	private DeltaEncoding() {
+	}
+
+	/**
+	 * @return true if the ordinate can be rounded at this scale.
+	 */
+	static boolean fits(double value, double scale) {
+		return Math.abs(value * scale) < MAX_VALUE;
+	}
+
+	/**
+	 * @return the ordinate as it is decoded.
+	 */
+	static double round(double value, double scale) {
+		return Math.round(value * scale) / scale;
+	}
+
+	static void write(WKBBuffer buffer, Geometry geom, double scale,
+			boolean hasZ) {
+		new Writer(buffer, scale, hasZ).write(geom);
+	}
+
+	static Geometry read(byte[] src, int offset, double scale,
+			GeometryFactory factory) throws ParseException {
+		return new Reader(src, offset, scale, factory).readGeometry();
+	}
+
+	/**
+	 * Encodes a geometry, keeping the previous rounded coordinate.
+	 */
+	private static final class Writer {
+
+		private final WKBBuffer buffer;
+
+		private final double scale;
+
+		private final boolean hasZ;
+
+		private long x;
+
+		private long y;
+
+		private long z;
+
+		Writer(WKBBuffer buffer, double scale, boolean hasZ) {
+			this.buffer = buffer;
+			this.scale = scale;
+			this.hasZ = hasZ;
+		}
+
+		void write(Geometry geom) {
+			int type;
+			if (geom instanceof Point) {
+				type = WKBInspector.POINT;
+			} else if (geom instanceof LineString) {
+				type = WKBInspector.LINESTRING;
+			} else if (geom instanceof Polygon) {
+				type = WKBInspector.POLYGON;
+			} else if (geom instanceof MultiPoint) {
+				type = WKBInspector.MULTIPOINT;
+			} else if (geom instanceof MultiLineString) {
+				type = WKBInspector.MULTILINESTRING;
+			} else if (geom instanceof MultiPolygon) {
+				type = WKBInspector.MULTIPOLYGON;
+			} else {
+				type = WKBInspector.GEOMETRYCOLLECTION;
+			}
+			buffer.writeByte(1);
+			buffer.writeInt(type | WKBInspector.COMPACT
+					| (hasZ ? WKBInspector.EWKB_Z : 0));
+			switch (type) {
+			case WKBInspector.POINT:
+				writeCoordinates(((Point) geom).getCoordinateSequence(), false);
+				break;
+			case WKBInspector.LINESTRING:
+				writeCoordinates(((LineString) geom).getCoordinateSequence(),
+						true);
+				break;
+			case WKBInspector.POLYGON:
+				Polygon polygon = (Polygon) geom;
+				if (polygon.isEmpty()) {
+					buffer.writeInt(0);
+					break;
+				}
+				buffer.writeInt(1 + polygon.getNumInteriorRing());
+				writeCoordinates(polygon.getExteriorRing()
+						.getCoordinateSequence(), true);
+				for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+					writeCoordinates(polygon.getInteriorRingN(i)
+							.getCoordinateSequence(), true);
+				}
+				break;
+			default:
+				GeometryCollection collection = (GeometryCollection) geom;
+				buffer.writeInt(collection.getNumGeometries());
+				for (int i = 0; i < collection.getNumGeometries(); i++) {
+					write(collection.getGeometryN(i));
+				}
+			}
+		}
+
+		private void writeCoordinates(CoordinateSequence seq, boolean count) {
+			int size = seq.size();
+			if (count) {
+				buffer.writeInt(size);
+			}
+			for (int i = 0; i < size; i++) {
+				long nx = Math.round(seq.getOrdinate(i, 0) * scale);
+				long ny = Math.round(seq.getOrdinate(i, 1) * scale);
+				buffer.writeVarLong(nx - x);
+				buffer.writeVarLong(ny - y);
+				x = nx;
+				y = ny;
+				if (hasZ) {
+					long nz = Math.round(seq.getOrdinate(i, 2) * scale);
+					buffer.writeVarLong(nz - z);
+					z = nz;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes a geometry written by the Writer.
+	 */
+	private static final class Reader {
+
+		private final byte[] src;
+
+		private int pos;
+
+		private final double scale;
+
+		private final GeometryFactory factory;
+
+		private long x;
+
+		private long y;
+
+		private long z;
+
+		Reader(byte[] src, int offset, double scale, GeometryFactory factory) {
+			this.src = src;
+			this.pos = offset;
+			this.scale = scale;
+			this.factory = factory;
+		}
+
+		Geometry readGeometry() throws ParseException {
+			pos++;
+			int rawType = readInt();
+			boolean hasZ = (rawType & WKBInspector.EWKB_Z) != 0;
+			switch (rawType & 0xff) {
+			case WKBInspector.POINT:
+				return factory.createPoint(readCoordinates(1, hasZ)[0]);
+			case WKBInspector.LINESTRING:
+				return factory.createLineString(readCoordinates(readInt(), hasZ));
+			case WKBInspector.POLYGON:
+				return readPolygon(hasZ);
+			case WKBInspector.MULTIPOINT:
+				Point[] points = new Point[readInt()];
+				for (int i = 0; i < points.length; i++) {
+					points[i] = (Point) readGeometry();
+				}
+				return factory.createMultiPoint(points);
+			case WKBInspector.MULTILINESTRING:
+				LineString[] lines = new LineString[readInt()];
+				for (int i = 0; i < lines.length; i++) {
+					lines[i] = (LineString) readGeometry();
+				}
+				return factory.createMultiLineString(lines);
+			case WKBInspector.MULTIPOLYGON:
+				Polygon[] polygons = new Polygon[readInt()];
+				for (int i = 0; i < polygons.length; i++) {
+					polygons[i] = (Polygon) readGeometry();
+				}
+				return factory.createMultiPolygon(polygons);
+			case WKBInspector.GEOMETRYCOLLECTION:
+				Geometry[] geometries = new Geometry[readInt()];
+				for (int i = 0; i < geometries.length; i++) {
+					geometries[i] = readGeometry();
+				}
+				return factory.createGeometryCollection(geometries);
+			default:
+				throw new ParseException("Unknown geometry type : "
+						+ (rawType & 0xff));
+			}
+		}
+
+		private Polygon readPolygon(boolean hasZ) {
+			int rings = readInt();
+			if (rings == 0) {
+				return factory.createPolygon(null, null);
+			}
+			LinearRing shell = factory.createLinearRing(readCoordinates(
+					readInt(), hasZ));
+			LinearRing[] holes = new LinearRing[rings - 1];
+			for (int i = 0; i < holes.length; i++) {
+				holes[i] = factory.createLinearRing(readCoordinates(readInt(),
+						hasZ));
+			}
+			return factory.createPolygon(shell, holes);
+		}
+
+		private Coordinate[] readCoordinates(int count, boolean hasZ) {
+			Coordinate[] coordinates = new Coordinate[count];
+			for (int i = 0; i < count; i++) {
+				x += readVarLong();
+				y += readVarLong();
+				double cz = Double.NaN;
+				if (hasZ) {
+					z += readVarLong();
+					cz = z / scale;
+				}
+				coordinates[i] = new Coordinate(x / scale, y / scale, cz);
+			}
+			return coordinates;
+		}
+
+		private int readInt() {
+			int value = (src[pos] & 0xff) | (src[pos + 1] & 0xff) << 8
+					| (src[pos + 2] & 0xff) << 16 | (src[pos + 3] & 0xff) << 24;
+			pos += 4;
+			return value;
+		}
+
+		private long readVarLong() {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = src[pos++];
+				v |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return (v >>> 1) ^ -(v & 1);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import java.io.IOException;
+
+import org.h2spatial.metrics.GeoStats;
+import org.h2spatial.util.SpatialSettings;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Single entry point used to decode and encode the geometries stored in the
+ * GEOMETRY domain.
+ *
+ * Geometries are written in the StorageFormat, with the precision of the
+ * STORAGE_PRECISION setting. Values written by earlier versions as plain WKB
+ * are still read.
+ *
+ * JTS readers and writers keep their parse state in instance fields so they
+ * can't be shared between H2 sessions. Each thread gets its own reader, writer
+ * and output buffer, created on first use and reused for every following
+ * call.
+ *
+ * When GeoStats is enabled the time spent decoding and encoding is added to
+ * the function running on the thread.
+ */
+public final class GeometryCodec {
+
+	public static final int BYTE_ORDER = ByteOrderValues.LITTLE_ENDIAN;
+
+	private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return new Context();
+		}
+	};
+
+	private GeometryCodec() {
+	}
+
+	/**
+	 * Decodes a stored value, in the storage format or legacy WKB, into a JTS
+	 * geometry.
+	 */
+	public static Geometry read(byte[] value) throws ParseException {
+		if (!GeoStats.isEnabled()) {
+			return decode(value);
+		}
+		long start = System.nanoTime();
+		Geometry geom = decode(value);
+		GeoStats.recordDecode(System.nanoTime() - start, value.length);
+		return geom;
+	}
+
+	private static Geometry decode(byte[] value) throws ParseException {
+		Context context = CONTEXT.get();
+		if (StorageFormat.isStorageFormat(value)) {
+			return StorageFormat.read(value, context.wkbReader, context.factory);
+		}
+		return context.wkbReader.read(value);
+	}
+
+	/**
+	 * Encodes a geometry after having set its SRID.
+	 */
+	public static byte[] write(Geometry geom, int srid) throws IOException {
+		return write(geom, srid, SpatialSettings
+				.get(SpatialSettings.STORAGE_PRECISION));
+	}
+
+	/**
+	 * @param scale
+	 *            the coordinates are rounded to 1 / scale, 0 keeps them as
+	 *            doubles.
+	 */
+	public static byte[] write(Geometry geom, int srid, double scale)
+			throws IOException {
+		if (!GeoStats.isEnabled()) {
+			return encode(geom, srid, scale);
+		}
+		long start = System.nanoTime();
+		byte[] value = encode(geom, srid, scale);
+		GeoStats.recordEncode(System.nanoTime() - start);
+		return value;
+	}
+
+	private static byte[] encode(Geometry geom, int srid, double scale)
+			throws IOException {
+		geom.setSRID(srid);
+		Context context = CONTEXT.get();
+		WKBBuffer buffer = context.buffer;
+		buffer.reset();
+		StorageFormat.write(buffer, geom, srid, scale, context.wkbWriter2D,
+				context.wkbWriter3D);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * Encodes a geometry as standard WKB, of dimension 3 if it has z values.
+	 */
+	public static byte[] writeWKB(Geometry geom) throws IOException {
+		Context context = CONTEXT.get();
+		WKBBuffer buffer = context.buffer;
+		buffer.reset();
+		(StorageFormat.hasZ(geom) ? context.wkbWriter3D : context.wkbWriter2D).write(geom, buffer);
+		return buffer.toByteArray();
+	}
+
+	/**
+	 * @return a stored value as standard WKB, without the storage format
+	 *         header.
+	 */
+	public static byte[] toWKB(byte[] value) throws ParseException,
+			IOException {
+		int offset = StorageFormat.getWKBOffset(value);
+		if (offset == 0) {
+			return value;
+		}
+		if (offset < 0) {
+			return writeWKB(read(value));
+		}
+		byte[] wkb = new byte[value.length - offset];
+		System.arraycopy(value, offset, wkb, 0, wkb.length);
+		return wkb;
+	}
+
+	/**
+	 * Envelope of a stored value, read from its header or streamed from the
+	 * WKB coordinates when possible and from the decoded geometry otherwise.
+	 * A null envelope is returned for an empty geometry.
+	 */
+	public static Envelope readEnvelope(byte[] value) throws ParseException {
+		if (WKBInspector.canInspect(value)) {
+			return WKBInspector.getEnvelope(value);
+		}
+		return read(value).getEnvelopeInternal();
+	}
+
+	/**
+	 * Parses a WKT string.
+	 */
+	public static Geometry readText(String wkt) throws ParseException {
+		if (!GeoStats.isEnabled()) {
+			return CONTEXT.get().wktReader.read(wkt);
+		}
+		long start = System.nanoTime();
+		Geometry geom = CONTEXT.get().wktReader.read(wkt);
+		GeoStats.recordDecode(System.nanoTime() - start, wkt.length());
+		return geom;
+	}
+
+	/**
+	 * Per thread codec state.
+	 */
+	private static final class Context {
+
+		final GeometryFactory factory = new GeometryFactory();
+
+		final WKBReader wkbReader = new WKBReader(factory);
+
+		final WKBWriter wkbWriter2D = new WKBWriter(2, BYTE_ORDER);
+
+		final WKBWriter wkbWriter3D = new WKBWriter(3, BYTE_ORDER);
+
+		final WKTReader wktReader = new WKTReader(factory);
+
+		final WKBBuffer buffer = new WKBBuffer();
+	}
+}
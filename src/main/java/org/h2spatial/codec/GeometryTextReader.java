@@ -0,0 +1,127 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Text of a stored value, transcoded from its bytes as it is read.
+ *
+ * The value is walked by a WKBCursor and the text of each event is produced
+ * when the previous one has been read, so that only a few coordinates are
+ * held in memory whatever the size of the geometry. Returned by a function,
+ * the reader gives a CLOB that H2 stores as it reads it.
+ */
+public final class GeometryTextReader extends Reader {
+
+	private final WKBCursor cursor;
+
+	private final TextFormat format;
+
+	private final TextFormat.Numbers numbers = new TextFormat.Numbers();
+
+	private final StringBuffer pending = new StringBuffer();
+
+	private int position;
+
+	private boolean done;
+
+	/**
+	 * @throws ParseException
+	 *             if the value can't be walked, which GeometryCodec.read
+	 *             would reject as well.
+	 */
+	public GeometryTextReader(byte[] value, TextFormat format)
+			throws ParseException {
+		if (!WKBInspector.canInspect(value)) {
+			throw new ParseException("Invalid geometry value");
+		}
+		this.cursor = new WKBCursor(value);
+		this.format = format;
+	}
+
+	/**
+	 * @return the whole text of a value, for the values small enough to be
+	 *         returned as a string.
+	 */
+	public static String toString(byte[] value, TextFormat format)
+			throws ParseException {
+		GeometryTextReader reader = new GeometryTextReader(value, format);
+		StringBuffer text = new StringBuffer(value.length * 2);
+		while (reader.fill()) {
+			text.append(reader.pending);
+			reader.pending.setLength(0);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Writes the text of a value, one event at a time.
+	 */
+	public static void write(byte[] value, TextFormat format, Writer out)
+			throws ParseException, IOException {
+		GeometryTextReader reader = new GeometryTextReader(value, format);
+		char[] buffer = new char[4096];
+		int n;
+		while ((n = reader.read(buffer, 0, buffer.length)) > 0) {
+			out.write(buffer, 0, n);
+		}
+	}
+
+	/**
+	 * Produces the text of the next event into the pending buffer.
+	 *
+	 * @return false at the end of the value.
+	 */
+	private boolean fill() {
+		if (done) {
+			return false;
+		}
+		int event = cursor.next();
+		if (event == WKBCursor.END) {
+			done = true;
+			return false;
+		}
+		format.append(cursor, event, pending, numbers);
+		return true;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int n = 0;
+		while (n < len) {
+			if (position == pending.length()) {
+				pending.setLength(0);
+				position = 0;
+				if (!fill()) {
+					break;
+				}
+				continue;
+			}
+			int count = Math.min(len - n, pending.length() - position);
+			pending.getChars(position, position + count, cbuf, off + n);
+			position += count;
+			n += count;
+		}
+		return n == 0 ? -1 : n;
+	}
+
+	@Override
+	public void close() {
+		done = true;
+		pending.setLength(0);
+		position = 0;
+	}
+}
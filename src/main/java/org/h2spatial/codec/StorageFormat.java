@@ -0,0 +1,266 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import java.io.IOException;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.io.InStream;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * Layout of the values stored in the GEOMETRY domain.
+ *
+ * <pre>
+ * byte    magic 'G', legacy WKB values start with a byte order 0 or 1
+ * byte    version
+ * byte    flags : 1 z, 2 bounding box, 4 fixed precision
+ * byte    reserved
+ * int     SRID
+ * 4 double minX, minY, maxX, maxY, unless the geometry is empty
+ * double  scale, with the fixed precision flag
+ * body    little endian WKB of the real dimension (2 or 3), or the
+ *         DeltaEncoding of the coordinates rounded to 1 / scale
+ * </pre>
+ *
+ * All the numbers are little endian. WKBInspector reads the header and walks
+ * the body, GeometryCodec decodes both this format and legacy WKB.
+ */
+public final class StorageFormat {
+
+	public static final byte MAGIC = 'G';
+
+	public static final int VERSION = 1;
+
+	static final int FLAG_Z = 1;
+
+	static final int FLAG_BBOX = 2;
+
+	static final int FLAG_PRECISION = 4;
+
+	static final int HEADER_SIZE = 8;
+
+	private StorageFormat() {
+	}
+
+	/**
+	 * @return true if the value is in this format, false for legacy WKB.
+	 */
+	public static boolean isStorageFormat(byte[] value) {
+		return value != null && value.length > 0 && value[0] == MAGIC;
+	}
+
+	static boolean isStorageFormat(Object src, int offset) {
+		return WKBInspector.get(src, offset) == MAGIC;
+	}
+
+	/**
+	 * @return true if the header is valid and fits before limit.
+	 */
+	static boolean checkHeader(Object src, int offset, int limit) {
+		if (offset + HEADER_SIZE > limit
+				|| WKBInspector.get(src, offset + 1) != VERSION
+				|| (flags(src, offset) & ~(FLAG_Z | FLAG_BBOX | FLAG_PRECISION)) != 0) {
+			return false;
+		}
+		return bodyOffset(src, offset) < limit;
+	}
+
+	static int flags(Object src, int offset) {
+		return WKBInspector.get(src, offset + 2) & 0xff;
+	}
+
+	static int srid(Object src, int offset) {
+		return WKBInspector.readInt(src, offset + 4, true);
+	}
+
+	static int bodyOffset(Object src, int offset) {
+		int flags = flags(src, offset);
+		int pos = offset + HEADER_SIZE;
+		if ((flags & FLAG_BBOX) != 0) {
+			pos += 32;
+		}
+		if ((flags & FLAG_PRECISION) != 0) {
+			pos += 8;
+		}
+		return pos;
+	}
+
+	/**
+	 * Reads the stored bounding box into env.
+	 *
+	 * @return false for an empty geometry, which has no bounding box.
+	 */
+	static boolean envelope(Object src, int offset, double[] env) {
+		if ((flags(src, offset) & FLAG_BBOX) == 0) {
+			WKBInspector.initEnvelope(env);
+			return false;
+		}
+		for (int i = 0; i < 4; i++) {
+			env[i] = WKBInspector.readDouble(src, offset + HEADER_SIZE + 8 * i,
+					true);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a geometry.
+	 *
+	 * @param scale
+	 *            the fixed precision of the coordinates, e.g. 1000 for
+	 *            millimetres on a metric projection, or 0 to store doubles.
+	 *            Geometries that can't be rounded at this scale are stored
+	 *            with doubles.
+	 */
+	static void write(WKBBuffer buffer, Geometry geom, int srid, double scale,
+			WKBWriter writer2D, WKBWriter writer3D) throws IOException {
+		boolean hasZ = false;
+		boolean fits = scale > 0
+				&& !(geom instanceof Point && geom.isEmpty());
+		Coordinate[] coordinates = geom.getCoordinates();
+		for (Coordinate c : coordinates) {
+			if (!Double.isNaN(c.z)) {
+				hasZ = true;
+			}
+			if (fits) {
+				fits = DeltaEncoding.fits(c.x, scale)
+						&& DeltaEncoding.fits(c.y, scale);
+			}
+		}
+		if (fits && hasZ) {
+			for (Coordinate c : coordinates) {
+				if (!DeltaEncoding.fits(c.z, scale)) {
+					fits = false;
+					break;
+				}
+			}
+		}
+		Envelope env;
+		if (fits) {
+			// the bounding box of the rounded coordinates, as they are decoded
+			env = new Envelope();
+			for (Coordinate c : coordinates) {
+				env.expandToInclude(DeltaEncoding.round(c.x, scale),
+						DeltaEncoding.round(c.y, scale));
+			}
+		} else {
+			env = geom.getEnvelopeInternal();
+		}
+		writeHeader(buffer, srid, hasZ, env, fits ? scale : 0);
+		if (fits) {
+			DeltaEncoding.write(buffer, geom, scale, hasZ);
+		} else {
+			(hasZ ? writer3D : writer2D).write(geom, buffer);
+		}
+	}
+
+	/**
+	 * @return true if a coordinate has a z value.
+	 */
+	static boolean hasZ(Geometry geom) {
+		for (Coordinate c : geom.getCoordinates()) {
+			if (!Double.isNaN(c.z)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the header of a value, its body must follow.
+	 *
+	 * @param env
+	 *            the envelope of the geometry, null or a null envelope if it
+	 *            is empty.
+	 * @param scale
+	 *            the scale of a fixed precision body, 0 for a WKB body.
+	 */
+	public static void writeHeader(WKBBuffer buffer, int srid, boolean hasZ,
+			Envelope env, double scale) {
+		boolean bbox = env != null && !env.isNull();
+		buffer.writeByte(MAGIC);
+		buffer.writeByte(VERSION);
+		buffer.writeByte((hasZ ? FLAG_Z : 0) | (bbox ? FLAG_BBOX : 0)
+				| (scale > 0 ? FLAG_PRECISION : 0));
+		buffer.writeByte(0);
+		buffer.writeInt(srid);
+		if (bbox) {
+			buffer.writeDouble(env.getMinX());
+			buffer.writeDouble(env.getMinY());
+			buffer.writeDouble(env.getMaxX());
+			buffer.writeDouble(env.getMaxY());
+		}
+		if (scale > 0) {
+			buffer.writeDouble(scale);
+		}
+	}
+
+	static Geometry read(byte[] value, WKBReader reader,
+			GeometryFactory factory) throws ParseException {
+		if (!checkHeader(value, 0, value.length)) {
+			throw new ParseException("Unsupported geometry storage format");
+		}
+		int body = bodyOffset(value, 0);
+		Geometry geom;
+		if ((flags(value, 0) & FLAG_PRECISION) != 0) {
+			double scale = WKBInspector.readDouble(value, body - 8, true);
+			geom = DeltaEncoding.read(value, body, scale, factory);
+		} else {
+			try {
+				geom = reader.read(new ArrayInStream(value, body));
+			} catch (IOException e) {
+				throw new ParseException(e.getMessage());
+			}
+		}
+		geom.setSRID(srid(value, 0));
+		return geom;
+	}
+
+	/**
+	 * @return the offset of the WKB body of a value, 0 for legacy WKB and -1
+	 *         for a fixed precision body.
+	 */
+	public static int getWKBOffset(byte[] value) {
+		if (!isStorageFormat(value)) {
+			return 0;
+		}
+		if ((flags(value, 0) & FLAG_PRECISION) != 0) {
+			return -1;
+		}
+		return bodyOffset(value, 0);
+	}
+
+	/**
+	 * Reads a byte array from an offset.
+	 */
+	private static final class ArrayInStream implements InStream {
+
+		private final byte[] src;
+
+		private int pos;
+
+		ArrayInStream(byte[] src, int offset) {
+			this.src = src;
+			this.pos = offset;
+		}
+
+		public void read(byte[] buf) throws IOException {
+			if (pos + buf.length > src.length) {
+				throw new IOException("Unexpected end of the geometry");
+			}
+			System.arraycopy(src, pos, buf, 0, buf.length);
+			pos += buf.length;
+		}
+	}
+}
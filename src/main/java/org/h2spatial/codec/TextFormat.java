@@ -0,0 +1,272 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import java.sql.SQLException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.FieldPosition;
+
+/**
+ * Text formats written by the GeometryTextReader, each one turning the
+ * events of a WKBCursor into text.
+ */
+public enum TextFormat {
+
+	/**
+	 * Well-known text, as written by Geometry.toText() : two dimensions, and
+	 * numbers written with up to 16 decimals.
+	 */
+	WKT {
+		@Override
+		void append(WKBCursor cursor, int event, StringBuffer out,
+				Numbers numbers) {
+			int type = cursor.getType();
+			switch (event) {
+			case WKBCursor.GEOMETRY_START:
+				if (cursor.getIndex() > 0) {
+					out.append(", ");
+				}
+				int parent = cursor.getParentType();
+				if (parent == 0 || parent == WKBInspector.GEOMETRYCOLLECTION) {
+					out.append(WKT_NAMES[type]).append(' ');
+				}
+				if (cursor.isEmpty()) {
+					out.append("EMPTY");
+				} else if (type != WKBInspector.LINESTRING) {
+					out.append('(');
+				}
+				break;
+			case WKBCursor.SEQUENCE_START:
+				if (cursor.getIndex() > 0) {
+					out.append(", ");
+				}
+				out.append('(');
+				break;
+			case WKBCursor.COORDINATE:
+				if (cursor.getIndex() > 0) {
+					out.append(", ");
+				}
+				numbers.append(cursor.getX(), out);
+				out.append(' ');
+				numbers.append(cursor.getY(), out);
+				break;
+			case WKBCursor.SEQUENCE_END:
+				out.append(')');
+				break;
+			case WKBCursor.GEOMETRY_END:
+				if (!cursor.isEmpty() && type != WKBInspector.LINESTRING) {
+					out.append(')');
+				}
+				break;
+			}
+		}
+	},
+	/**
+	 * GeoJSON geometry object, with a z when the geometry has one.
+	 */
+	GEOJSON {
+		@Override
+		void append(WKBCursor cursor, int event, StringBuffer out,
+				Numbers numbers) {
+			int type = cursor.getType();
+			boolean tagged = cursor.getParentType() == 0
+					|| cursor.getParentType() == WKBInspector.GEOMETRYCOLLECTION;
+			switch (event) {
+			case WKBCursor.GEOMETRY_START:
+				if (cursor.getIndex() > 0) {
+					out.append(',');
+				}
+				if (tagged) {
+					out.append("{\"type\":\"").append(GEOJSON_NAMES[type]);
+					out.append(type == WKBInspector.GEOMETRYCOLLECTION ? "\",\"geometries\":"
+							: "\",\"coordinates\":");
+				}
+				if (cursor.isEmpty()) {
+					out.append(tagged ? "[]}" : "[]");
+				} else if (type != WKBInspector.POINT
+						&& type != WKBInspector.LINESTRING) {
+					out.append('[');
+				}
+				break;
+			case WKBCursor.SEQUENCE_START:
+				if (cursor.getIndex() > 0) {
+					out.append(',');
+				}
+				out.append('[');
+				break;
+			case WKBCursor.COORDINATE:
+				if (cursor.getIndex() > 0) {
+					out.append(',');
+				}
+				out.append('[');
+				appendNumber(cursor.getX(), out, numbers);
+				out.append(',');
+				appendNumber(cursor.getY(), out, numbers);
+				if (!Double.isNaN(cursor.getZ())) {
+					out.append(',');
+					appendNumber(cursor.getZ(), out, numbers);
+				}
+				out.append(']');
+				break;
+			case WKBCursor.SEQUENCE_END:
+				out.append(']');
+				break;
+			case WKBCursor.GEOMETRY_END:
+				if (cursor.isEmpty()) {
+					break;
+				}
+				if (type != WKBInspector.POINT
+						&& type != WKBInspector.LINESTRING) {
+					out.append(']');
+				}
+				if (tagged) {
+					out.append('}');
+				}
+				break;
+			}
+		}
+
+		private void appendNumber(double value, StringBuffer out,
+				Numbers numbers) {
+			if (Double.isNaN(value) || Double.isInfinite(value)) {
+				out.append("null");
+			} else {
+				numbers.append(value, out);
+			}
+		}
+	},
+	/**
+	 * GML 2 geometry, with the SRID as an EPSG srsName on the outer element.
+	 */
+	GML {
+		@Override
+		void append(WKBCursor cursor, int event, StringBuffer out,
+				Numbers numbers) {
+			int type = cursor.getType();
+			switch (event) {
+			case WKBCursor.GEOMETRY_START:
+				if (cursor.getDepth() > 0) {
+					out.append("<gml:").append(
+							GML_MEMBERS[cursor.getParentType()]).append('>');
+				}
+				out.append("<gml:").append(GML_NAMES[type]);
+				if (cursor.getDepth() == 0 && cursor.getSRID() > 0) {
+					out.append(" srsName=\"EPSG:").append(cursor.getSRID())
+							.append('"');
+				}
+				if (cursor.isEmpty()) {
+					out.append("/>");
+				} else {
+					out.append('>');
+					if (type == WKBInspector.POINT) {
+						out.append("<gml:coordinates>");
+					}
+				}
+				break;
+			case WKBCursor.SEQUENCE_START:
+				if (type == WKBInspector.POLYGON) {
+					out.append(cursor.getIndex() == 0 ? "<gml:outerBoundaryIs>"
+							: "<gml:innerBoundaryIs>");
+					out.append("<gml:LinearRing>");
+				}
+				out.append("<gml:coordinates>");
+				break;
+			case WKBCursor.COORDINATE:
+				if (cursor.getIndex() > 0) {
+					out.append(' ');
+				}
+				numbers.append(cursor.getX(), out);
+				out.append(',');
+				numbers.append(cursor.getY(), out);
+				if (!Double.isNaN(cursor.getZ())) {
+					out.append(',');
+					numbers.append(cursor.getZ(), out);
+				}
+				break;
+			case WKBCursor.SEQUENCE_END:
+				out.append("</gml:coordinates>");
+				if (type == WKBInspector.POLYGON) {
+					out.append("</gml:LinearRing>");
+					out.append(cursor.getIndex() == 0 ? "</gml:outerBoundaryIs>"
+							: "</gml:innerBoundaryIs>");
+				}
+				break;
+			case WKBCursor.GEOMETRY_END:
+				if (!cursor.isEmpty()) {
+					if (type == WKBInspector.POINT) {
+						out.append("</gml:coordinates>");
+					}
+					out.append("</gml:").append(GML_NAMES[type]).append('>');
+				}
+				if (cursor.getDepth() > 0) {
+					out.append("</gml:").append(
+							GML_MEMBERS[cursor.getParentType()]).append('>');
+				}
+				break;
+			}
+		}
+	};
+
+	private static final String[] WKT_NAMES = { null, "POINT", "LINESTRING",
+			"POLYGON", "MULTIPOINT", "MULTILINESTRING", "MULTIPOLYGON",
+			"GEOMETRYCOLLECTION" };
+
+	private static final String[] GEOJSON_NAMES = { null, "Point",
+			"LineString", "Polygon", "MultiPoint", "MultiLineString",
+			"MultiPolygon", "GeometryCollection" };
+
+	private static final String[] GML_NAMES = { null, "Point", "LineString",
+			"Polygon", "MultiPoint", "MultiLineString", "MultiPolygon",
+			"MultiGeometry" };
+
+	/**
+	 * Member element of each collection type.
+	 */
+	private static final String[] GML_MEMBERS = { null, null, null, null,
+			"pointMember", "lineStringMember", "polygonMember",
+			"geometryMember" };
+
+	/**
+	 * Appends the text of an event.
+	 *
+	 * @param numbers
+	 *            the format of the ordinates, not shared between threads.
+	 */
+	abstract void append(WKBCursor cursor, int event, StringBuffer out,
+			Numbers numbers);
+
+	/**
+	 * Format of the ordinates, as the one of the JTS WKTWriter for the
+	 * floating precision model.
+	 */
+	static final class Numbers {
+
+		private final DecimalFormat format;
+
+		private final FieldPosition field = new FieldPosition(0);
+
+		Numbers() {
+			DecimalFormatSymbols symbols = new DecimalFormatSymbols();
+			symbols.setDecimalSeparator('.');
+			format = new DecimalFormat("0.################", symbols);
+		}
+
+		void append(double value, StringBuffer out) {
+			format.format(value, out, field);
+		}
+	}
+
+	public static TextFormat get(String name) throws SQLException {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new SQLException("Unsupported format : " + name);
+		}
+	}
+}
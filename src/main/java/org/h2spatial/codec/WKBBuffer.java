@@ -0,0 +1,116 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import com.vividsolutions.jts.io.OutStream;
+
+/**
+ * Growable byte buffer used as the target of a WKB writer.
+ *
+ * The buffer is meant to be reused : reset() keeps the backing array so the
+ * next geometry is encoded without reallocation. A buffer that grew beyond
+ * MAX_RETAINED_CAPACITY while encoding a very large geometry is shrunk back on
+ * reset so that a thread does not keep megabytes alive for nothing.
+ */
+public class WKBBuffer implements OutStream {
+
+	static final int INITIAL_CAPACITY = 256;
+
+	static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+	private byte[] buf;
+
+	private int count;
+
+	public WKBBuffer() {
+		buf = new byte[INITIAL_CAPACITY];
+	}
+
+	public void write(byte[] bytes, int length) {
+		write(bytes, 0, length);
+	}
+
+	public void write(byte[] bytes, int offset, int length) {
+		ensureCapacity(count + length);
+		System.arraycopy(bytes, offset, buf, count, length);
+		count += length;
+	}
+
+	public void writeByte(int b) {
+		ensureCapacity(count + 1);
+		buf[count++] = (byte) b;
+	}
+
+	/**
+	 * Writes a little endian int.
+	 */
+	public void writeInt(int value) {
+		ensureCapacity(count + 4);
+		buf[count++] = (byte) value;
+		buf[count++] = (byte) (value >> 8);
+		buf[count++] = (byte) (value >> 16);
+		buf[count++] = (byte) (value >> 24);
+	}
+
+	/**
+	 * Writes a little endian double.
+	 */
+	public void writeDouble(double value) {
+		long bits = Double.doubleToLongBits(value);
+		writeInt((int) bits);
+		writeInt((int) (bits >>> 32));
+	}
+
+	/**
+	 * Writes a zigzag encoded variable length long, 1 byte for values
+	 * between -64 and 63.
+	 */
+	public void writeVarLong(long value) {
+		long v = (value << 1) ^ (value >> 63);
+		ensureCapacity(count + 10);
+		while ((v & ~0x7fL) != 0) {
+			buf[count++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[count++] = (byte) v;
+	}
+
+	public void reset() {
+		count = 0;
+		if (buf.length > MAX_RETAINED_CAPACITY) {
+			buf = new byte[INITIAL_CAPACITY];
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int capacity() {
+		return buf.length;
+	}
+
+	/**
+	 * Returns a copy of the written bytes. The copy is required because the
+	 * array is handed to H2 which keeps it as a BLOB value.
+	 */
+	public byte[] toByteArray() {
+		byte[] result = new byte[count];
+		System.arraycopy(buf, 0, result, 0, count);
+		return result;
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > buf.length) {
+			int newCapacity = Math.max(buf.length << 1, minCapacity);
+			byte[] newBuf = new byte[newCapacity];
+			System.arraycopy(buf, 0, newBuf, 0, count);
+			buf = newBuf;
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+/**
+ * Walks a stored value as a sequence of events, one coordinate at a time,
+ * without building the JTS geometry.
+ *
+ * A geometry is a GEOMETRY_START, its content and a GEOMETRY_END. The content
+ * of a point is a COORDINATE, the one of a line string a sequence and the one
+ * of a polygon a sequence per ring, each sequence being a SEQUENCE_START, its
+ * coordinates and a SEQUENCE_END. The content of a collection is its members.
+ * An empty geometry has no content.
+ *
+ * The walk keeps its own stack so that it can stop after any event, which
+ * lets a reader produce the text of a geometry on demand. Values must have
+ * passed WKBInspector.canInspect.
+ */
+final class WKBCursor {
+
+	static final int END = 0;
+
+	static final int GEOMETRY_START = 1;
+
+	static final int SEQUENCE_START = 2;
+
+	static final int COORDINATE = 3;
+
+	static final int SEQUENCE_END = 4;
+
+	static final int GEOMETRY_END = 5;
+
+	private final byte[] src;
+
+	private final int srid;
+
+	/**
+	 * Scale of the delta encoded coordinates, 0 for doubles.
+	 */
+	private final double scale;
+
+	private int pos;
+
+	private long deltaX;
+
+	private long deltaY;
+
+	private long deltaZ;
+
+	private boolean started;
+
+	/**
+	 * Stack of the geometries being walked.
+	 */
+	private int depth = -1;
+
+	private int[] rawTypes = new int[4];
+
+	private boolean[] littles = new boolean[4];
+
+	private boolean[] empties = new boolean[4];
+
+	/**
+	 * Index of each geometry in its collection.
+	 */
+	private int[] indexes = new int[4];
+
+	/**
+	 * Members, rings or coordinates of each geometry still to come.
+	 */
+	private int[] remaining = new int[4];
+
+	/**
+	 * Members, rings or coordinates of each geometry already given.
+	 */
+	private int[] given = new int[4];
+
+	private int coordinatesLeft = -1;
+
+	private int coordinateIndex;
+
+	private int sequenceIndex;
+
+	// the current event
+
+	private int type;
+
+	private int parentType;
+
+	private int eventDepth;
+
+	private boolean empty;
+
+	private boolean hasZ;
+
+	private int index;
+
+	private double x;
+
+	private double y;
+
+	private double z;
+
+	WKBCursor(byte[] value) {
+		this.src = value;
+		this.srid = WKBInspector.getSRID(value);
+		this.pos = WKBInspector.start(value, 0);
+		if (StorageFormat.isStorageFormat(value, 0)
+				&& (StorageFormat.flags(value, 0) & StorageFormat.FLAG_PRECISION) != 0) {
+			scale = WKBInspector.readDouble(value, pos - 8, true);
+		} else {
+			scale = 0;
+		}
+	}
+
+	/**
+	 * @return the next event, END after the GEOMETRY_END of the value.
+	 */
+	int next() {
+		if (depth < 0) {
+			if (started) {
+				return END;
+			}
+			started = true;
+			push(0);
+			return GEOMETRY_START;
+		}
+		if (coordinatesLeft >= 0) {
+			if (coordinatesLeft > 0) {
+				coordinatesLeft--;
+				index = coordinateIndex++;
+				readCoordinate();
+				return COORDINATE;
+			}
+			coordinatesLeft = -1;
+			index = sequenceIndex;
+			return SEQUENCE_END;
+		}
+		if (remaining[depth] == 0) {
+			current();
+			index = indexes[depth];
+			depth--;
+			return GEOMETRY_END;
+		}
+		remaining[depth]--;
+		int child = given[depth]++;
+		switch (rawTypes[depth] & 0xff) {
+		case WKBInspector.POINT:
+			current();
+			index = 0;
+			readCoordinate();
+			return COORDINATE;
+		case WKBInspector.LINESTRING:
+		case WKBInspector.POLYGON:
+			current();
+			index = child;
+			sequenceIndex = child;
+			coordinateIndex = 0;
+			coordinatesLeft = WKBInspector.readInt(src, pos, littles[depth]);
+			pos += 4;
+			return SEQUENCE_START;
+		default:
+			push(child);
+			return GEOMETRY_START;
+		}
+	}
+
+	/**
+	 * Enters the geometry at the current position.
+	 */
+	private void push(int memberIndex) {
+		int start = pos;
+		int rawType = WKBInspector.rawType(src, pos);
+		boolean little = WKBInspector.isLittleEndian(src, pos);
+		boolean isEmpty = WKBInspector.empty(src, pos);
+		pos = WKBInspector.bodyOffset(src, pos);
+		depth++;
+		ensureCapacity();
+		rawTypes[depth] = rawType;
+		littles[depth] = little;
+		empties[depth] = isEmpty;
+		indexes[depth] = memberIndex;
+		given[depth] = 0;
+		int code = rawType & 0xff;
+		if (isEmpty) {
+			remaining[depth] = 0;
+			pos = WKBInspector.end(src, start, Integer.MAX_VALUE);
+		} else if (code == WKBInspector.POINT
+				|| code == WKBInspector.LINESTRING) {
+			remaining[depth] = 1;
+		} else {
+			remaining[depth] = WKBInspector.readInt(src, pos, little);
+			pos += 4;
+		}
+		current();
+		index = memberIndex;
+	}
+
+	/**
+	 * Describes the geometry at the top of the stack in the event.
+	 */
+	private void current() {
+		type = rawTypes[depth] & 0xff;
+		parentType = depth > 0 ? rawTypes[depth - 1] & 0xff : 0;
+		eventDepth = depth;
+		empty = empties[depth];
+		hasZ = (rawTypes[depth] & WKBInspector.EWKB_Z) != 0;
+	}
+
+	private void ensureCapacity() {
+		if (depth < rawTypes.length) {
+			return;
+		}
+		int length = rawTypes.length * 2;
+		rawTypes = copy(rawTypes, length);
+		indexes = copy(indexes, length);
+		remaining = copy(remaining, length);
+		given = copy(given, length);
+		boolean[] newLittles = new boolean[length];
+		boolean[] newEmpties = new boolean[length];
+		System.arraycopy(littles, 0, newLittles, 0, littles.length);
+		System.arraycopy(empties, 0, newEmpties, 0, empties.length);
+		littles = newLittles;
+		empties = newEmpties;
+	}
+
+	private static int[] copy(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+
+	private void readCoordinate() {
+		int rawType = rawTypes[depth];
+		if ((rawType & WKBInspector.COMPACT) != 0) {
+			deltaX += readVarLong();
+			deltaY += readVarLong();
+			x = deltaX / scale;
+			y = deltaY / scale;
+			z = Double.NaN;
+			if (hasZ) {
+				deltaZ += readVarLong();
+				z = deltaZ / scale;
+			}
+			return;
+		}
+		boolean little = littles[depth];
+		x = WKBInspector.readDouble(src, pos, little);
+		y = WKBInspector.readDouble(src, pos + 8, little);
+		z = hasZ ? WKBInspector.readDouble(src, pos + 16, little) : Double.NaN;
+		pos += 8 * WKBInspector.ordinates(rawType);
+	}
+
+	private long readVarLong() {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = src[pos++];
+			v |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	int getSRID() {
+		return srid;
+	}
+
+	/**
+	 * @return the depth of the geometry of the event, 0 for the value itself.
+	 */
+	int getDepth() {
+		return eventDepth;
+	}
+
+	/**
+	 * @return the WKB type code of the geometry of the event.
+	 */
+	int getType() {
+		return type;
+	}
+
+	/**
+	 * @return the type code of the collection holding the geometry of the
+	 *         event, 0 for the value itself.
+	 */
+	int getParentType() {
+		return parentType;
+	}
+
+	boolean isEmpty() {
+		return empty;
+	}
+
+	boolean hasZ() {
+		return hasZ;
+	}
+
+	/**
+	 * @return the index of the geometry in its collection, of the sequence in
+	 *         its polygon or of the coordinate in its sequence.
+	 */
+	int getIndex() {
+		return index;
+	}
+
+	double getX() {
+		return x;
+	}
+
+	double getY() {
+		return y;
+	}
+
+	/**
+	 * @return the z of the coordinate, NaN when there is none.
+	 */
+	double getZ() {
+		return z;
+	}
+}
@@ -0,0 +1,528 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import java.nio.ByteBuffer;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Reads geometry metadata directly from a WKB value without building the JTS
+ * geometry.
+ *
+ * Header values (SRID, type) are read at a fixed offset, counts are obtained
+ * by walking the structure and skipping the coordinates. Nothing is
+ * allocated. Both plain WKB and EWKB (z flag and embedded SRID) are supported,
+ * in either byte order, from a byte array or from a ByteBuffer starting at its
+ * position.
+ *
+ * The envelope is streamed from the coordinates, only the outer ring of the
+ * polygons is read.
+ *
+ * Values in the StorageFormat are read too : the SRID and the envelope come
+ * from the header, the other methods walk the body, whose coordinates are
+ * skipped whether they are doubles or delta encoded.
+ *
+ * canInspect validates the whole structure. The other methods expect a value
+ * that passed this check, callers fall back to a full decode otherwise.
+ */
+public final class WKBInspector {
+
+	public static final int POINT = 1;
+
+	public static final int LINESTRING = 2;
+
+	public static final int POLYGON = 3;
+
+	public static final int MULTIPOINT = 4;
+
+	public static final int MULTILINESTRING = 5;
+
+	public static final int MULTIPOLYGON = 6;
+
+	public static final int GEOMETRYCOLLECTION = 7;
+
+	static final int EWKB_Z = 0x80000000;
+
+	static final int EWKB_M = 0x40000000;
+
+	static final int EWKB_SRID = 0x20000000;
+
+	/**
+	 * Type flag of the geometries of a delta encoded StorageFormat body.
+	 */
+	static final int COMPACT = 0x10000000;
+
+	private static final String[] TYPE_NAMES = { null, "Point", "LineString",
+			"Polygon", "MultiPoint", "MultiLineString", "MultiPolygon",
+			"GeometryCollection" };
+
+	private WKBInspector() {
+	}
+
+	public static boolean canInspect(byte[] wkb) {
+		return wkb != null && wkb.length > 0 && valid(wkb, 0, wkb.length);
+	}
+
+	public static boolean canInspect(ByteBuffer wkb) {
+		return wkb != null && wkb.hasRemaining()
+				&& valid(wkb, wkb.position(), wkb.limit());
+	}
+
+	/**
+	 * @return the SRID stored in an EWKB header, 0 when there is none.
+	 */
+	public static int getSRID(byte[] wkb) {
+		return valueSRID(wkb, 0);
+	}
+
+	public static int getSRID(ByteBuffer wkb) {
+		return valueSRID(wkb, wkb.position());
+	}
+
+	/**
+	 * @return the WKB type code, between POINT and GEOMETRYCOLLECTION.
+	 */
+	public static int getTypeCode(byte[] wkb) {
+		return typeCode(wkb, start(wkb, 0));
+	}
+
+	public static int getTypeCode(ByteBuffer wkb) {
+		return typeCode(wkb, start(wkb, wkb.position()));
+	}
+
+	/**
+	 * @return the type name, as given by Geometry.getGeometryType().
+	 */
+	public static String getGeometryType(byte[] wkb) {
+		return TYPE_NAMES[typeCode(wkb, start(wkb, 0))];
+	}
+
+	public static String getGeometryType(ByteBuffer wkb) {
+		return TYPE_NAMES[typeCode(wkb, start(wkb, wkb.position()))];
+	}
+
+	/**
+	 * @return the topological dimension, as given by Geometry.getDimension().
+	 */
+	public static int getDimension(byte[] wkb) {
+		return dimension(wkb, start(wkb, 0));
+	}
+
+	public static int getDimension(ByteBuffer wkb) {
+		return dimension(wkb, start(wkb, wkb.position()));
+	}
+
+	/**
+	 * @return the number of ordinates of the coordinates, 2 for xy, 3 with a
+	 *         z or an m and 4 with both.
+	 */
+	public static int getCoordinateDimension(byte[] wkb) {
+		return ordinates(rawType(wkb, start(wkb, 0)));
+	}
+
+	public static int getCoordinateDimension(ByteBuffer wkb) {
+		return ordinates(rawType(wkb, start(wkb, wkb.position())));
+	}
+
+	public static boolean isEmpty(byte[] wkb) {
+		return empty(wkb, start(wkb, 0));
+	}
+
+	public static boolean isEmpty(ByteBuffer wkb) {
+		return empty(wkb, start(wkb, wkb.position()));
+	}
+
+	/**
+	 * @return the number of parts of a collection, 1 for a single geometry.
+	 */
+	public static int getNumGeometries(byte[] wkb) {
+		return numGeometries(wkb, start(wkb, 0));
+	}
+
+	public static int getNumGeometries(ByteBuffer wkb) {
+		return numGeometries(wkb, start(wkb, wkb.position()));
+	}
+
+	public static int getNumPoints(byte[] wkb) {
+		return numPoints(wkb, start(wkb, 0));
+	}
+
+	public static int getNumPoints(ByteBuffer wkb) {
+		return numPoints(wkb, start(wkb, wkb.position()));
+	}
+
+	/**
+	 * Computes the envelope of the geometry into env, as minX, minY, maxX,
+	 * maxY.
+	 *
+	 * @return false if the geometry has no coordinate, env is then left with
+	 *         infinite bounds.
+	 */
+	public static boolean getEnvelope(byte[] wkb, double[] env) {
+		return valueEnvelope(wkb, 0, env);
+	}
+
+	public static boolean getEnvelope(ByteBuffer wkb, double[] env) {
+		return valueEnvelope(wkb, wkb.position(), env);
+	}
+
+	/**
+	 * @return the envelope of the geometry, a null envelope for an empty one.
+	 */
+	public static Envelope getEnvelope(byte[] wkb) {
+		double[] env = new double[4];
+		if (!getEnvelope(wkb, env)) {
+			return new Envelope();
+		}
+		return new Envelope(env[0], env[2], env[1], env[3]);
+	}
+
+	private static boolean valid(Object src, int offset, int limit) {
+		if (StorageFormat.isStorageFormat(src, offset)) {
+			return StorageFormat.checkHeader(src, offset, limit)
+					&& end(src, StorageFormat.bodyOffset(src, offset), limit) > 0;
+		}
+		return end(src, offset, limit) > 0;
+	}
+
+	/**
+	 * @return the offset of the geometry of a value, after the header of the
+	 *         storage format.
+	 */
+	static int start(Object src, int offset) {
+		if (StorageFormat.isStorageFormat(src, offset)) {
+			return StorageFormat.bodyOffset(src, offset);
+		}
+		return offset;
+	}
+
+	private static int valueSRID(Object src, int offset) {
+		if (StorageFormat.isStorageFormat(src, offset)) {
+			return StorageFormat.srid(src, offset);
+		}
+		return srid(src, offset);
+	}
+
+	private static boolean valueEnvelope(Object src, int offset, double[] env) {
+		if (StorageFormat.isStorageFormat(src, offset)) {
+			return StorageFormat.envelope(src, offset, env);
+		}
+		initEnvelope(env);
+		envelope(src, offset, env);
+		return env[0] <= env[2];
+	}
+
+	/**
+	 * The source is either a byte[] or a ByteBuffer, so that a single
+	 * implementation of the walk serves both without wrapping.
+	 */
+	static byte get(Object src, int index) {
+		if (src instanceof byte[]) {
+			return ((byte[]) src)[index];
+		}
+		return ((ByteBuffer) src).get(index);
+	}
+
+	static int readInt(Object src, int offset, boolean littleEndian) {
+		int b0 = get(src, offset) & 0xff;
+		int b1 = get(src, offset + 1) & 0xff;
+		int b2 = get(src, offset + 2) & 0xff;
+		int b3 = get(src, offset + 3) & 0xff;
+		if (littleEndian) {
+			return (b3 << 24) | (b2 << 16) | (b1 << 8) | b0;
+		}
+		return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+	}
+
+	static double readDouble(Object src, int offset, boolean littleEndian) {
+		long high = readInt(src, offset + (littleEndian ? 4 : 0), littleEndian) & 0xffffffffL;
+		long low = readInt(src, offset + (littleEndian ? 0 : 4), littleEndian) & 0xffffffffL;
+		return Double.longBitsToDouble((high << 32) | low);
+	}
+
+	static boolean isLittleEndian(Object src, int offset) {
+		return get(src, offset) == 1;
+	}
+
+	static int rawType(Object src, int offset) {
+		return readInt(src, offset + 1, isLittleEndian(src, offset));
+	}
+
+	static int typeCode(Object src, int offset) {
+		return rawType(src, offset) & 0xff;
+	}
+
+	/**
+	 * Number of ordinates per coordinate.
+	 */
+	static int ordinates(int rawType) {
+		int ordinates = 2;
+		if ((rawType & EWKB_Z) != 0) {
+			ordinates++;
+		}
+		if ((rawType & EWKB_M) != 0) {
+			ordinates++;
+		}
+		return ordinates;
+	}
+
+	/**
+	 * Offset of the geometry body, after the byte order, the type and the
+	 * optional SRID.
+	 */
+	static int bodyOffset(Object src, int offset) {
+		return (rawType(src, offset) & EWKB_SRID) != 0 ? offset + 9 : offset + 5;
+	}
+
+	static int srid(Object src, int offset) {
+		if ((rawType(src, offset) & EWKB_SRID) == 0) {
+			return 0;
+		}
+		return readInt(src, offset + 5, isLittleEndian(src, offset));
+	}
+
+	/**
+	 * Validates the geometry starting at offset.
+	 *
+	 * @return the offset following the geometry, or -1 if the bytes between
+	 *         offset and limit are not a geometry that can be inspected.
+	 */
+	static int end(Object src, int offset, int limit) {
+		if (offset + 5 > limit) {
+			return -1;
+		}
+		byte order = get(src, offset);
+		if (order != 0 && order != 1) {
+			return -1;
+		}
+		boolean little = order == 1;
+		int rawType = readInt(src, offset + 1, little);
+		int type = rawType & 0xff;
+		if (type < POINT || type > GEOMETRYCOLLECTION
+				|| (rawType & 0x0fffff00) != 0) {
+			return -1;
+		}
+		int pos = offset + 5;
+		if ((rawType & EWKB_SRID) != 0) {
+			pos += 4;
+		}
+		if (type == POINT) {
+			return skipCoordinates(src, pos, 1, rawType, limit);
+		}
+		if (pos + 4 > limit) {
+			return -1;
+		}
+		int count = readInt(src, pos, little);
+		pos += 4;
+		if (count < 0) {
+			return -1;
+		}
+		switch (type) {
+		case LINESTRING:
+			return skipCoordinates(src, pos, count, rawType, limit);
+		case POLYGON:
+			for (int i = 0; i < count && pos > 0; i++) {
+				if (pos + 4 > limit) {
+					return -1;
+				}
+				int n = readInt(src, pos, little);
+				if (n < 0) {
+					return -1;
+				}
+				pos = skipCoordinates(src, pos + 4, n, rawType, limit);
+			}
+			return pos;
+		default:
+			for (int i = 0; i < count && pos > 0; i++) {
+				int next = end(src, pos, limit);
+				if (next > 0 && type != GEOMETRYCOLLECTION
+						&& typeCode(src, pos) != type - 3) {
+					return -1;
+				}
+				pos = next;
+			}
+			return pos;
+		}
+	}
+
+	/**
+	 * @return the offset following count coordinates, -1 if they go beyond
+	 *         limit.
+	 */
+	private static int skipCoordinates(Object src, int pos, int count,
+			int rawType, int limit) {
+		if ((rawType & COMPACT) == 0) {
+			long end = pos + (long) count * 8 * ordinates(rawType);
+			return end <= limit ? (int) end : -1;
+		}
+		long varints = (long) count * ordinates(rawType);
+		for (long i = 0; i < varints; i++) {
+			do {
+				if (pos >= limit) {
+					return -1;
+				}
+			} while ((get(src, pos++) & 0x80) != 0);
+		}
+		return pos;
+	}
+
+	static int dimension(Object src, int offset) {
+		switch (typeCode(src, offset)) {
+		case POINT:
+		case MULTIPOINT:
+			return 0;
+		case LINESTRING:
+		case MULTILINESTRING:
+			return 1;
+		case POLYGON:
+		case MULTIPOLYGON:
+			return 2;
+		default:
+			int dimension = -1;
+			int pos = bodyOffset(src, offset);
+			int count = readInt(src, pos, isLittleEndian(src, offset));
+			pos += 4;
+			for (int i = 0; i < count; i++) {
+				dimension = Math.max(dimension, dimension(src, pos));
+				pos = end(src, pos, Integer.MAX_VALUE);
+			}
+			return dimension;
+		}
+	}
+
+	static boolean empty(Object src, int offset) {
+		int type = typeCode(src, offset);
+		if (type == POINT) {
+			return false;
+		}
+		boolean little = isLittleEndian(src, offset);
+		int pos = bodyOffset(src, offset);
+		int count = readInt(src, pos, little);
+		pos += 4;
+		if (type == LINESTRING) {
+			return count == 0;
+		}
+		if (type == POLYGON) {
+			return count == 0 || readInt(src, pos, little) == 0;
+		}
+		for (int i = 0; i < count; i++) {
+			if (!empty(src, pos)) {
+				return false;
+			}
+			pos = end(src, pos, Integer.MAX_VALUE);
+		}
+		return true;
+	}
+
+	static int numGeometries(Object src, int offset) {
+		int type = typeCode(src, offset);
+		if (type < MULTIPOINT) {
+			return 1;
+		}
+		return readInt(src, bodyOffset(src, offset), isLittleEndian(src,
+				offset));
+	}
+
+	static int numPoints(Object src, int offset) {
+		int rawType = rawType(src, offset);
+		int type = rawType & 0xff;
+		if (type == POINT) {
+			return 1;
+		}
+		boolean little = isLittleEndian(src, offset);
+		int pos = bodyOffset(src, offset);
+		int count = readInt(src, pos, little);
+		pos += 4;
+		if (type == LINESTRING) {
+			return count;
+		}
+		int numPoints = 0;
+		if (type == POLYGON) {
+			for (int i = 0; i < count; i++) {
+				int n = readInt(src, pos, little);
+				numPoints += n;
+				pos = skipCoordinates(src, pos + 4, n, rawType, Integer.MAX_VALUE);
+			}
+			return numPoints;
+		}
+		for (int i = 0; i < count; i++) {
+			numPoints += numPoints(src, pos);
+			pos = end(src, pos, Integer.MAX_VALUE);
+		}
+		return numPoints;
+	}
+
+	static void initEnvelope(double[] env) {
+		env[0] = Double.POSITIVE_INFINITY;
+		env[1] = Double.POSITIVE_INFINITY;
+		env[2] = Double.NEGATIVE_INFINITY;
+		env[3] = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Expands env with the coordinates of the geometry starting at offset.
+	 * NaN ordinates are ignored.
+	 *
+	 * @return the offset following the geometry.
+	 */
+	static int envelope(Object src, int offset, double[] env) {
+		int rawType = rawType(src, offset);
+		int type = rawType & 0xff;
+		boolean little = isLittleEndian(src, offset);
+		int coordSize = 8 * ordinates(rawType);
+		int pos = bodyOffset(src, offset);
+		if (type == POINT) {
+			expand(src, pos, 1, coordSize, little, env);
+			return pos + coordSize;
+		}
+		int count = readInt(src, pos, little);
+		pos += 4;
+		switch (type) {
+		case LINESTRING:
+			expand(src, pos, count, coordSize, little, env);
+			return pos + count * coordSize;
+		case POLYGON:
+			for (int i = 0; i < count; i++) {
+				int n = readInt(src, pos, little);
+				pos += 4;
+				if (i == 0) {
+					expand(src, pos, n, coordSize, little, env);
+				}
+				pos += n * coordSize;
+			}
+			return pos;
+		default:
+			for (int i = 0; i < count; i++) {
+				pos = envelope(src, pos, env);
+			}
+			return pos;
+		}
+	}
+
+	private static void expand(Object src, int pos, int count, int coordSize,
+			boolean little, double[] env) {
+		for (int i = 0; i < count; i++) {
+			double x = readDouble(src, pos, little);
+			double y = readDouble(src, pos + 8, little);
+			if (x < env[0]) {
+				env[0] = x;
+			}
+			if (y < env[1]) {
+				env[1] = y;
+			}
+			if (x > env[2]) {
+				env[2] = x;
+			}
+			if (y > env[3]) {
+				env[3] = y;
+			}
+			pos += coordSize;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Coordinate reference system read from a proj4 definition.
+ *
+ * The longlat, merc, tmerc, utm and lcc projections are supported, on an
+ * ellipsoid given by +ellps, +datum, +a with +b or +rf, or +R. The datum is
+ * given by +towgs84 with 3 or 7 parameters, the position vector convention
+ * of proj4, a system without one being converted without datum shift as
+ * proj4 does. +nadgrids=@null, used by Web Mercator, also disables the shift,
+ * the other grids are not supported.
+ *
+ * Geographic coordinates are longitudes and latitudes in degrees, projected
+ * ones are in the unit of +units or +to_meter, meters by default.
+ */
+public final class CoordinateSystem {
+
+	private static final Map<String, Double> PRIME_MERIDIANS = new HashMap<String, Double>();
+
+	static {
+		PRIME_MERIDIANS.put("greenwich", Double.valueOf(0));
+		PRIME_MERIDIANS.put("paris", Double.valueOf(2.337229166667));
+		PRIME_MERIDIANS.put("lisbon", Double.valueOf(-9.131906111111));
+		PRIME_MERIDIANS.put("madrid", Double.valueOf(-3.687938888889));
+		PRIME_MERIDIANS.put("rome", Double.valueOf(12.452333333333));
+		PRIME_MERIDIANS.put("bern", Double.valueOf(7.439583333333));
+		PRIME_MERIDIANS.put("brussels", Double.valueOf(4.367975));
+		PRIME_MERIDIANS.put("ferro", Double.valueOf(-17.666666666667));
+	}
+
+	private static final Map<String, Double> UNITS = new HashMap<String, Double>();
+
+	static {
+		UNITS.put("m", Double.valueOf(1));
+		UNITS.put("km", Double.valueOf(1000));
+		UNITS.put("ft", Double.valueOf(0.3048));
+		UNITS.put("us-ft", Double.valueOf(1200.0 / 3937));
+	}
+
+	private final String definition;
+
+	private final Ellipsoid ellipsoid;
+
+	/**
+	 * Helmert parameters to WGS84 with the rotations in radians and the
+	 * scale as a factor minus 1, null if the datum is unknown.
+	 */
+	private final double[] toWgs84;
+
+	/**
+	 * Longitude of the prime meridian from Greenwich, in radians.
+	 */
+	private final double primeMeridian;
+
+	/**
+	 * Projection, null for a geographic system.
+	 */
+	private final Projection projection;
+
+	private final double toMeter;
+
+	private CoordinateSystem(String definition, Ellipsoid ellipsoid,
+			double[] toWgs84, double primeMeridian, Projection projection,
+			double toMeter) {
+		this.definition = definition;
+		this.ellipsoid = ellipsoid;
+		this.toWgs84 = toWgs84;
+		this.primeMeridian = primeMeridian;
+		this.projection = projection;
+		this.toMeter = toMeter;
+	}
+
+	/**
+	 * Parses a proj4 definition, e.g. "+proj=utm +zone=31 +datum=WGS84".
+	 */
+	public static CoordinateSystem parse(String definition)
+			throws SQLException {
+		Map<String, String> params = new HashMap<String, String>();
+		for (String token : definition.trim().split("\\s+")) {
+			if (token.length() == 0) {
+				continue;
+			}
+			if (token.charAt(0) != '+') {
+				throw new SQLException("Invalid proj4 parameter : " + token);
+			}
+			int eq = token.indexOf('=');
+			if (eq < 0) {
+				params.put(token.substring(1).toLowerCase(), "");
+			} else {
+				params.put(token.substring(1, eq).toLowerCase(), token
+						.substring(eq + 1));
+			}
+		}
+		String name = params.get("proj");
+		if (name == null) {
+			throw new SQLException("No projection in : " + definition);
+		}
+		Ellipsoid ellipsoid = Ellipsoid.WGS84;
+		double[] toWgs84 = null;
+		String datum = params.get("datum");
+		if (datum != null) {
+			if (datum.equalsIgnoreCase("WGS84")) {
+				toWgs84 = new double[7];
+			} else if (datum.equalsIgnoreCase("NAD83")) {
+				ellipsoid = Ellipsoid.GRS80;
+				toWgs84 = new double[7];
+			} else {
+				throw new SQLException("Unsupported datum : " + datum);
+			}
+		}
+		if (params.containsKey("ellps")) {
+			ellipsoid = Ellipsoid.get(params.get("ellps"));
+		}
+		if (params.containsKey("r")) {
+			double r = getDouble(params, "r", 0);
+			ellipsoid = new Ellipsoid(r, r);
+		} else if (params.containsKey("a")) {
+			double a = getDouble(params, "a", 0);
+			if (params.containsKey("b")) {
+				ellipsoid = new Ellipsoid(a, getDouble(params, "b", 0));
+			} else {
+				ellipsoid = Ellipsoid.flattened(a, getDouble(params, "rf", 0));
+			}
+		}
+		if (params.containsKey("towgs84")) {
+			toWgs84 = parseToWgs84(params.get("towgs84"));
+		}
+		String grids = params.get("nadgrids");
+		if (grids != null) {
+			if (!grids.equals("@null")) {
+				throw new SQLException("Unsupported grid shift : " + grids);
+			}
+			toWgs84 = null;
+		}
+		double primeMeridian = 0;
+		String pm = params.get("pm");
+		if (pm != null) {
+			Double named = PRIME_MERIDIANS.get(pm.toLowerCase());
+			primeMeridian = Math.toRadians(named != null ? named.doubleValue()
+					: getDouble(params, "pm", 0));
+		}
+		double toMeter = 1;
+		if (params.containsKey("to_meter")) {
+			toMeter = getDouble(params, "to_meter", 1);
+		} else if (params.containsKey("units")) {
+			Double unit = UNITS.get(params.get("units").toLowerCase());
+			if (unit == null) {
+				throw new SQLException("Unsupported unit : "
+						+ params.get("units"));
+			}
+			toMeter = unit.doubleValue();
+		}
+		return new CoordinateSystem(definition, ellipsoid, toWgs84,
+				primeMeridian, createProjection(name, params, ellipsoid),
+				toMeter);
+	}
+
+	private static Projection createProjection(String name,
+			Map<String, String> params, Ellipsoid ellipsoid)
+			throws SQLException {
+		double lam0 = getAngle(params, "lon_0");
+		double phi0 = getAngle(params, "lat_0");
+		double k0 = getDouble(params, "k_0", getDouble(params, "k", 1));
+		double x0 = getDouble(params, "x_0", 0);
+		double y0 = getDouble(params, "y_0", 0);
+		if (name.equals("longlat") || name.equals("latlong")
+				|| name.equals("lonlat") || name.equals("latlon")) {
+			return null;
+		} else if (name.equals("merc")) {
+			return new MercatorProjection(ellipsoid, lam0, k0, getAngle(
+					params, "lat_ts"), x0, y0);
+		} else if (name.equals("tmerc")) {
+			return new TransverseMercatorProjection(ellipsoid, lam0, phi0, k0,
+					x0, y0);
+		} else if (name.equals("utm")) {
+			int zone = (int) getDouble(params, "zone", 0);
+			if (zone < 1 || zone > 60) {
+				throw new SQLException("Invalid UTM zone : "
+						+ params.get("zone"));
+			}
+			return new TransverseMercatorProjection(ellipsoid, Math
+					.toRadians(zone * 6 - 183), 0, 0.9996, 500000, params
+					.containsKey("south") ? 10000000 : 0);
+		} else if (name.equals("lcc")) {
+			double phi1 = getAngle(params, "lat_1");
+			double phi2 = params.containsKey("lat_2") ? getAngle(params,
+					"lat_2") : phi1;
+			if (!params.containsKey("lat_0")) {
+				phi0 = phi1;
+			}
+			return new LambertConformalConic(ellipsoid, lam0, phi0, phi1,
+					phi2, k0, x0, y0);
+		}
+		throw new SQLException("Unsupported projection : " + name);
+	}
+
+	private static double[] parseToWgs84(String value) throws SQLException {
+		String[] values = value.split(",");
+		if (values.length != 3 && values.length != 7) {
+			throw new SQLException("Invalid towgs84 : " + value);
+		}
+		double[] params = new double[7];
+		try {
+			for (int i = 0; i < values.length; i++) {
+				params[i] = Double.parseDouble(values[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid towgs84 : " + value);
+		}
+		// rotations in arc seconds, scale in parts per million
+		for (int i = 3; i < 6; i++) {
+			params[i] = Math.toRadians(params[i] / 3600);
+		}
+		params[6] /= 1e6;
+		return params;
+	}
+
+	private static double getDouble(Map<String, String> params, String name,
+			double defaultValue) throws SQLException {
+		String value = params.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid value of +" + name + " : " + value);
+		}
+	}
+
+	private static double getAngle(Map<String, String> params, String name)
+			throws SQLException {
+		return Math.toRadians(getDouble(params, name, 0));
+	}
+
+	/**
+	 * @return true if converting between the two systems goes through
+	 *         geocentric coordinates, both datums being known and different.
+	 */
+	boolean needsDatumShift(CoordinateSystem other) {
+		if (toWgs84 == null || other.toWgs84 == null) {
+			return false;
+		}
+		return !Arrays.equals(toWgs84, other.toWgs84)
+				|| !ellipsoid.equals(other.ellipsoid);
+	}
+
+	/**
+	 * Applies the Helmert transformation of the datum to WGS84.
+	 */
+	void toWgs84(double[] xyz) {
+		double[] p = toWgs84;
+		double x = xyz[0];
+		double y = xyz[1];
+		double z = xyz[2];
+		double m = 1 + p[6];
+		xyz[0] = p[0] + m * (x - p[5] * y + p[4] * z);
+		xyz[1] = p[1] + m * (p[5] * x + y - p[3] * z);
+		xyz[2] = p[2] + m * (-p[4] * x + p[3] * y + z);
+	}
+
+	/**
+	 * Applies the inverse of toWgs84, the rotations being small angles.
+	 */
+	void fromWgs84(double[] xyz) {
+		double[] p = toWgs84;
+		double m = 1 + p[6];
+		double x = (xyz[0] - p[0]) / m;
+		double y = (xyz[1] - p[1]) / m;
+		double z = (xyz[2] - p[2]) / m;
+		xyz[0] = x + p[5] * y - p[4] * z;
+		xyz[1] = -p[5] * x + y + p[3] * z;
+		xyz[2] = p[4] * x - p[3] * y + z;
+	}
+
+	public String getDefinition() {
+		return definition;
+	}
+
+	public Ellipsoid getEllipsoid() {
+		return ellipsoid;
+	}
+
+	public double getPrimeMeridian() {
+		return primeMeridian;
+	}
+
+	public Projection getProjection() {
+		return projection;
+	}
+
+	public double getToMeter() {
+		return toMeter;
+	}
+
+	public boolean isGeographic() {
+		return projection == null;
+	}
+}
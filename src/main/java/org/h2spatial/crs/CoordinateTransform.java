@@ -0,0 +1,155 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import java.sql.SQLException;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Conversion of the coordinates of a source system into a target system.
+ *
+ * A projected point is brought back to its longitude and latitude, moved to
+ * the target datum through geocentric coordinates when the datums differ,
+ * then projected in the target system. The z values are kept, the datum
+ * shift being computed on the ellipsoid.
+ *
+ * The steps are chosen once when the transform is built, a transform only
+ * reads its fields and can be shared by several threads. The coordinates of
+ * a geometry are overwritten sequence by sequence.
+ */
+public final class CoordinateTransform {
+
+	private final CoordinateSystem source;
+
+	private final CoordinateSystem target;
+
+	private final boolean identity;
+
+	private final boolean datumShift;
+
+	public CoordinateTransform(CoordinateSystem source, CoordinateSystem target) {
+		this.source = source;
+		this.target = target;
+		this.identity = source.getDefinition().trim().equals(
+				target.getDefinition().trim());
+		this.datumShift = source.needsDatumShift(target);
+	}
+
+	/**
+	 * Transforms the point p[0], p[1] in place.
+	 *
+	 * @param xyz
+	 *            work array of at least 3 values.
+	 */
+	public void transform(double[] p, double[] xyz) throws SQLException {
+		if (identity) {
+			return;
+		}
+		double x = p[0];
+		double y = p[1];
+		Projection projection = source.getProjection();
+		if (projection == null) {
+			p[0] = Math.toRadians(x);
+			p[1] = Math.toRadians(y);
+		} else {
+			p[0] = x * source.getToMeter();
+			p[1] = y * source.getToMeter();
+			projection.inverse(p);
+		}
+		p[0] += source.getPrimeMeridian();
+		if (datumShift) {
+			source.getEllipsoid().toGeocentric(p[0], p[1], 0, xyz);
+			source.toWgs84(xyz);
+			target.fromWgs84(xyz);
+			target.getEllipsoid().toGeodetic(xyz, p);
+		}
+		p[0] -= target.getPrimeMeridian();
+		projection = target.getProjection();
+		if (projection == null) {
+			p[0] = Math.toDegrees(p[0]);
+			p[1] = Math.toDegrees(p[1]);
+		} else {
+			projection.forward(p);
+			p[0] /= target.getToMeter();
+			p[1] /= target.getToMeter();
+		}
+		if (Double.isNaN(p[0]) || Double.isNaN(p[1])
+				|| Double.isInfinite(p[0]) || Double.isInfinite(p[1])) {
+			throw new SQLException("Coordinate out of the domain of the"
+					+ " projection : " + x + " " + y);
+		}
+	}
+
+	/**
+	 * Transforms the x and y of every coordinate of a sequence in place.
+	 */
+	public void transform(CoordinateSequence seq) throws SQLException {
+		if (identity) {
+			return;
+		}
+		double[] p = new double[2];
+		double[] xyz = new double[3];
+		int size = seq.size();
+		for (int i = 0; i < size; i++) {
+			p[0] = seq.getOrdinate(i, CoordinateSequence.X);
+			p[1] = seq.getOrdinate(i, CoordinateSequence.Y);
+			transform(p, xyz);
+			seq.setOrdinate(i, CoordinateSequence.X, p[0]);
+			seq.setOrdinate(i, CoordinateSequence.Y, p[1]);
+		}
+	}
+
+	/**
+	 * Transforms the coordinates of a geometry in place.
+	 *
+	 * @return the geometry, with the given SRID.
+	 */
+	public Geometry transform(Geometry geom, int srid) throws SQLException {
+		if (!identity) {
+			transformParts(geom);
+			geom.geometryChanged();
+		}
+		geom.setSRID(srid);
+		return geom;
+	}
+
+	private void transformParts(Geometry geom) throws SQLException {
+		if (geom instanceof Point) {
+			transform(((Point) geom).getCoordinateSequence());
+		} else if (geom instanceof LineString) {
+			transform(((LineString) geom).getCoordinateSequence());
+		} else if (geom instanceof Polygon) {
+			Polygon polygon = (Polygon) geom;
+			transform(polygon.getExteriorRing().getCoordinateSequence());
+			for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+				transform(polygon.getInteriorRingN(i).getCoordinateSequence());
+			}
+		} else {
+			for (int i = 0; i < geom.getNumGeometries(); i++) {
+				transformParts(geom.getGeometryN(i));
+			}
+		}
+	}
+
+	public CoordinateSystem getSource() {
+		return source;
+	}
+
+	public CoordinateSystem getTarget() {
+		return target;
+	}
+
+	public boolean isIdentity() {
+		return identity;
+	}
+}
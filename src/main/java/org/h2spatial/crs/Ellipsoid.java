@@ -0,0 +1,149 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import java.sql.SQLException;
+
+/**
+ * Ellipsoid of revolution given by its semi-major and semi-minor axes.
+ */
+public final class Ellipsoid {
+
+	public static final Ellipsoid WGS84 = flattened(6378137, 298.257223563);
+
+	public static final Ellipsoid GRS80 = flattened(6378137, 298.257222101);
+
+	/**
+	 * Clarke 1880 (IGN), the ellipsoid of the French NTF datum.
+	 */
+	public static final Ellipsoid CLARKE_1880_IGN = new Ellipsoid(6378249.2,
+			6356515);
+
+	public static final Ellipsoid INTERNATIONAL = flattened(6378388, 297);
+
+	public static final Ellipsoid BESSEL = flattened(6377397.155, 299.1528128);
+
+	private final double a;
+
+	private final double b;
+
+	/**
+	 * Square of the first eccentricity.
+	 */
+	private final double es;
+
+	public Ellipsoid(double a, double b) {
+		this.a = a;
+		this.b = b;
+		this.es = 1 - (b * b) / (a * a);
+	}
+
+	/**
+	 * @param rf
+	 *            the inverse flattening, 0 for a sphere.
+	 */
+	public static Ellipsoid flattened(double a, double rf) {
+		return new Ellipsoid(a, rf == 0 ? a : a * (1 - 1 / rf));
+	}
+
+	/**
+	 * @return the ellipsoid of a proj4 +ellps name.
+	 */
+	public static Ellipsoid get(String name) throws SQLException {
+		if (name.equalsIgnoreCase("WGS84")) {
+			return WGS84;
+		} else if (name.equalsIgnoreCase("GRS80")) {
+			return GRS80;
+		} else if (name.equalsIgnoreCase("clrk80ign")) {
+			return CLARKE_1880_IGN;
+		} else if (name.equalsIgnoreCase("intl")) {
+			return INTERNATIONAL;
+		} else if (name.equalsIgnoreCase("bessel")) {
+			return BESSEL;
+		}
+		throw new SQLException("Unsupported ellipsoid : " + name);
+	}
+
+	public double getA() {
+		return a;
+	}
+
+	public double getB() {
+		return b;
+	}
+
+	public double getEs() {
+		return es;
+	}
+
+	public double getE() {
+		return Math.sqrt(es);
+	}
+
+	public double getFlattening() {
+		return (a - b) / a;
+	}
+
+	public boolean isSphere() {
+		return es == 0;
+	}
+
+	/**
+	 * Converts geodetic coordinates, in radians and meters, into geocentric
+	 * coordinates.
+	 */
+	void toGeocentric(double lam, double phi, double h, double[] xyz) {
+		double sinPhi = Math.sin(phi);
+		double cosPhi = Math.cos(phi);
+		double n = a / Math.sqrt(1 - es * sinPhi * sinPhi);
+		xyz[0] = (n + h) * cosPhi * Math.cos(lam);
+		xyz[1] = (n + h) * cosPhi * Math.sin(lam);
+		xyz[2] = (n * (1 - es) + h) * sinPhi;
+	}
+
+	/**
+	 * Converts geocentric coordinates into the longitude and latitude, in
+	 * radians, written in lamPhi.
+	 */
+	void toGeodetic(double[] xyz, double[] lamPhi) {
+		double x = xyz[0];
+		double y = xyz[1];
+		double z = xyz[2];
+		double p = Math.sqrt(x * x + y * y);
+		double phi = Math.atan2(z, p * (1 - es));
+		// converges to a micrometer within a few rounds near the surface
+		for (int i = 0; i < 10; i++) {
+			double sinPhi = Math.sin(phi);
+			double n = a / Math.sqrt(1 - es * sinPhi * sinPhi);
+			double next = Math.atan2(z + es * n * sinPhi, p);
+			if (Math.abs(next - phi) < 1e-14) {
+				phi = next;
+				break;
+			}
+			phi = next;
+		}
+		lamPhi[0] = Math.atan2(y, x);
+		lamPhi[1] = phi;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Ellipsoid)) {
+			return false;
+		}
+		Ellipsoid other = (Ellipsoid) o;
+		return a == other.a && b == other.b;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(a) * 31
+				+ Double.doubleToLongBits(b);
+		return (int) (bits ^ (bits >>> 32));
+	}
+}
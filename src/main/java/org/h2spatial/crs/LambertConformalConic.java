@@ -0,0 +1,76 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+/**
+ * Lambert conformal conic projection (proj4 lcc), secant to two standard
+ * parallels, or tangent to one with a scale factor when they are the same,
+ * as in the French Lambert 93 and Lambert zone II.
+ */
+final class LambertConformalConic extends Projection {
+
+	private final double n;
+
+	/**
+	 * a * k0 * F of the formulas of Snyder.
+	 */
+	private final double c;
+
+	private final double rho0;
+
+	LambertConformalConic(Ellipsoid ellipsoid, double lam0, double phi0,
+			double phi1, double phi2, double k0, double x0, double y0) {
+		super(ellipsoid, lam0, phi0, k0, x0, y0);
+		double sin1 = Math.sin(phi1);
+		double m1 = msfn(sin1, Math.cos(phi1), es);
+		double t1 = tsfn(phi1, sin1, e);
+		if (Math.abs(phi1 - phi2) < 1e-10) {
+			n = sin1;
+		} else {
+			double sin2 = Math.sin(phi2);
+			n = Math.log(m1 / msfn(sin2, Math.cos(phi2), es))
+					/ Math.log(t1 / tsfn(phi2, sin2, e));
+		}
+		c = a * k0 * m1 / (n * Math.pow(t1, n));
+		rho0 = rho(phi0);
+	}
+
+	private double rho(double phi) {
+		if (Math.abs(Math.abs(phi) - HALF_PI) < 1e-12) {
+			return phi * n > 0 ? 0 : Double.POSITIVE_INFINITY;
+		}
+		return c * Math.pow(tsfn(phi, Math.sin(phi), e), n);
+	}
+
+	@Override
+	public void forward(double[] p) {
+		double rho = rho(p[1]);
+		double theta = n * adjustLongitude(p[0] - lam0);
+		p[0] = x0 + rho * Math.sin(theta);
+		p[1] = y0 + rho0 - rho * Math.cos(theta);
+	}
+
+	@Override
+	public void inverse(double[] p) {
+		double x = p[0] - x0;
+		double y = rho0 - (p[1] - y0);
+		double rho = Math.sqrt(x * x + y * y);
+		if (n < 0) {
+			rho = -rho;
+			x = -x;
+			y = -y;
+		}
+		if (rho == 0) {
+			p[0] = lam0;
+			p[1] = n > 0 ? HALF_PI : -HALF_PI;
+			return;
+		}
+		p[0] = adjustLongitude(Math.atan2(x, y) / n + lam0);
+		p[1] = phi2(Math.pow(rho / c, 1 / n), e);
+	}
+}
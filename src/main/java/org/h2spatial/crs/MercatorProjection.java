@@ -0,0 +1,47 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+/**
+ * Mercator projection (proj4 merc), spherical when the ellipsoid is a sphere
+ * as for Web Mercator. A latitude of true scale replaces the scale factor.
+ */
+final class MercatorProjection extends Projection {
+
+	MercatorProjection(Ellipsoid ellipsoid, double lam0, double k0,
+			double latTs, double x0, double y0) {
+		super(ellipsoid, lam0, 0, latTs == 0 ? k0 : msfn(Math.sin(latTs), Math
+				.cos(latTs), ellipsoid.getEs()), x0, y0);
+	}
+
+	@Override
+	public void forward(double[] p) {
+		double lam = adjustLongitude(p[0] - lam0);
+		double phi = p[1];
+		double y;
+		if (es == 0) {
+			y = Math.log(Math.tan(0.25 * Math.PI + 0.5 * phi));
+		} else {
+			y = -Math.log(tsfn(phi, Math.sin(phi), e));
+		}
+		p[0] = x0 + a * k0 * lam;
+		p[1] = Math.abs(phi) >= HALF_PI ? Double.NaN : y0 + a * k0 * y;
+	}
+
+	@Override
+	public void inverse(double[] p) {
+		double x = (p[0] - x0) / (a * k0);
+		double y = (p[1] - y0) / (a * k0);
+		p[0] = adjustLongitude(x + lam0);
+		if (es == 0) {
+			p[1] = HALF_PI - 2 * Math.atan(Math.exp(-y));
+		} else {
+			p[1] = phi2(Math.exp(-y), e);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+/**
+ * Map projection of an ellipsoid onto the plane.
+ *
+ * The geographic coordinates are the longitude from the prime meridian of
+ * the coordinate system and the latitude, in radians. The projected ones are
+ * in meters and include the false easting and northing. A point outside of
+ * the domain of the projection gives an infinite or NaN coordinate.
+ *
+ * A projection only reads its final fields, so a single instance can be used
+ * by several threads.
+ */
+public abstract class Projection {
+
+	static final double HALF_PI = Math.PI / 2;
+
+	final double a;
+
+	final double es;
+
+	final double e;
+
+	final double lam0;
+
+	final double phi0;
+
+	final double k0;
+
+	final double x0;
+
+	final double y0;
+
+	Projection(Ellipsoid ellipsoid, double lam0, double phi0, double k0,
+			double x0, double y0) {
+		this.a = ellipsoid.getA();
+		this.es = ellipsoid.getEs();
+		this.e = ellipsoid.getE();
+		this.lam0 = lam0;
+		this.phi0 = phi0;
+		this.k0 = k0;
+		this.x0 = x0;
+		this.y0 = y0;
+	}
+
+	/**
+	 * Projects the longitude and latitude lamPhi[0], lamPhi[1] into x and y,
+	 * written in the same array.
+	 */
+	public abstract void forward(double[] lamPhi);
+
+	/**
+	 * Gives the longitude and latitude of the projected point xy[0], xy[1],
+	 * written in the same array.
+	 */
+	public abstract void inverse(double[] xy);
+
+	/**
+	 * @return a longitude brought back into [-PI, PI].
+	 */
+	static double adjustLongitude(double lam) {
+		if (Math.abs(lam) <= Math.PI) {
+			return lam;
+		}
+		return lam - 2 * Math.PI * Math.floor((lam + Math.PI) / (2 * Math.PI));
+	}
+
+	/**
+	 * @return the radius of the parallel phi on the unit ellipsoid.
+	 */
+	static double msfn(double sinPhi, double cosPhi, double es) {
+		return cosPhi / Math.sqrt(1 - es * sinPhi * sinPhi);
+	}
+
+	/**
+	 * @return the isometric function t of the latitude phi.
+	 */
+	static double tsfn(double phi, double sinPhi, double e) {
+		double con = e * sinPhi;
+		return Math.tan(0.5 * (HALF_PI - phi))
+				/ Math.pow((1 - con) / (1 + con), 0.5 * e);
+	}
+
+	/**
+	 * @return the latitude whose isometric function is ts.
+	 */
+	static double phi2(double ts, double e) {
+		double phi = HALF_PI - 2 * Math.atan(ts);
+		for (int i = 0; i < 15; i++) {
+			double con = e * Math.sin(phi);
+			double next = HALF_PI - 2
+					* Math.atan(ts * Math.pow((1 - con) / (1 + con), 0.5 * e));
+			if (Math.abs(next - phi) < 1e-14) {
+				return next;
+			}
+			phi = next;
+		}
+		return phi;
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.h2spatial.catalog.GeometryColumn;
+import org.h2spatial.catalog.SpatialCatalog;
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.WKBInspector;
+import org.h2spatial.util.GeometryColumns;
+import org.h2spatial.util.ParallelExecutor;
+import org.h2spatial.util.SQLUtils;
+import org.h2spatial.util.SpatialSettings;
+
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Rewrites a geometry column in another coordinate reference system.
+ *
+ * The rows are read by chunks of LOAD_COMMIT_SIZE values. The transforms of
+ * a chunk are looked up by the calling thread, then its values are decoded,
+ * transformed and encoded by the worker threads, each one with its own codec
+ * state, and written back by a JDBC batch followed by a commit. A failure
+ * rolls back the current chunk only, the chunks already committed keep
+ * their new coordinates and are skipped when the call is made again.
+ */
+public final class Reprojection {
+
+	/**
+	 * Number of slices of a chunk per thread, so that a slow slice doesn't
+	 * leave the other threads idle.
+	 */
+	static final int SLICES_PER_THREAD = 4;
+
+	private Reprojection() {
+	}
+
+	/**
+	 * @return the number of transformed rows, the values already in the
+	 *         target SRID being left as they are.
+	 */
+	public static long reproject(Connection conn, String tableName,
+			String columnName, int targetSrid) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		String keyColumn = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+		SpatialRefSys.getCoordinateSystem(conn, targetSrid);
+		int chunkSize = (int) SpatialSettings.get(conn,
+				SpatialSettings.LOAD_COMMIT_SIZE);
+		int parallelism = (int) Math.min(ParallelExecutor.getParallelism(),
+				SpatialSettings.get(conn, SpatialSettings.MAX_PARALLELISM));
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		Statement st = conn.createStatement();
+		PreparedStatement update = conn.prepareStatement("UPDATE " + tableName
+				+ " SET " + columnName + " = ? WHERE " + keyColumn + " = ?");
+		long transformed = 0;
+		boolean done = false;
+		try {
+			ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", "
+					+ columnName + " FROM " + tableName + " WHERE "
+					+ columnName + " IS NOT NULL");
+			Chunk chunk = new Chunk(chunkSize);
+			while (rs.next()) {
+				byte[] value = rs.getBytes(2);
+				int srid = getSRID(value);
+				if (srid == targetSrid) {
+					continue;
+				}
+				if (srid == 0) {
+					throw new SQLException("The geometry of the row "
+							+ rs.getLong(1) + " has no SRID");
+				}
+				chunk.add(rs.getLong(1), value, SpatialRefSys.getTransform(conn,
+						srid, targetSrid));
+				if (chunk.size == chunkSize) {
+					transformed += chunk.write(update, targetSrid, parallelism);
+					conn.commit();
+				}
+			}
+			transformed += chunk.write(update, targetSrid, parallelism);
+			conn.commit();
+			done = true;
+		} finally {
+			update.close();
+			st.close();
+			if (!done) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(autoCommit);
+		}
+		GeometryColumn column = SpatialCatalog.getColumn(conn, tableName,
+				columnName);
+		if (column != null && column.isRegistered()) {
+			GeometryColumns.register(conn, tableName, columnName, targetSrid,
+					column.getGeometryType(), column.getDimension());
+		}
+		return transformed;
+	}
+
+	/**
+	 * @return the SRID of a stored value, read from its header when possible.
+	 */
+	static int getSRID(byte[] value) throws SQLException {
+		if (WKBInspector.canInspect(value)) {
+			return WKBInspector.getSRID(value);
+		}
+		try {
+			return GeometryCodec.read(value).getSRID();
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Rows waiting to be transformed, with the transform of each one.
+	 */
+	private static final class Chunk {
+
+		final long[] keys;
+
+		final byte[][] values;
+
+		final CoordinateTransform[] transforms;
+
+		int size;
+
+		Chunk(int capacity) {
+			keys = new long[capacity];
+			values = new byte[capacity][];
+			transforms = new CoordinateTransform[capacity];
+		}
+
+		void add(long key, byte[] value, CoordinateTransform transform) {
+			keys[size] = key;
+			values[size] = value;
+			transforms[size] = transform;
+			size++;
+		}
+
+		/**
+		 * Transforms the values in place, on the worker threads, and adds
+		 * them to the batch of the update.
+		 *
+		 * @return the number of written rows.
+		 */
+		int write(PreparedStatement update, final int targetSrid,
+				int parallelism) throws SQLException {
+			int slices = Math.min(size, parallelism * SLICES_PER_THREAD);
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for (int i = 0; i < slices; i++) {
+				final int start = (int) ((long) size * i / slices);
+				final int end = (int) ((long) size * (i + 1) / slices);
+				tasks.add(new Callable<Object>() {
+					public Object call() throws SQLException, ParseException,
+							IOException {
+						for (int j = start; j < end; j++) {
+							values[j] = GeometryCodec.write(transforms[j]
+									.transform(GeometryCodec.read(values[j]),
+											targetSrid), targetSrid);
+						}
+						return null;
+					}
+				});
+			}
+			ParallelExecutor.invokeAll(tasks, parallelism);
+			for (int i = 0; i < size; i++) {
+				update.setBytes(1, values[i]);
+				update.setLong(2, keys[i]);
+				update.addBatch();
+				values[i] = null;
+				transforms[i] = null;
+			}
+			update.executeBatch();
+			int written = size;
+			size = 0;
+			return written;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.table.Table;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * The spatial_ref_sys table, one row per coordinate reference system with
+ * its SRID, authority, name and proj4 definition.
+ *
+ * The table is created with the systems known by this class: WGS 84, ETRS89,
+ * RGF93, NTF, Web and World Mercator, Lambert 93, Lambert zone II, the
+ * conic conformal zones CC42 to CC50 and the UTM zones. Rows can be added for
+ * other systems using the supported projections. A database without the table
+ * uses the known systems.
+ *
+ * The systems and the transforms between them are cached per database, a
+ * transform being built once for each pair of SRID. The cache is dropped
+ * when the schema or the rows of the table change, H2 giving the table a new
+ * modification id on a rollback too, so the definitions read from a change
+ * rolled back aren't kept.
+ */
+public final class SpatialRefSys {
+
+	public static final String TABLE = "SPATIAL_REF_SYS";
+
+	private static final Map<Integer, String[]> KNOWN = new LinkedHashMap<Integer, String[]>();
+
+	static {
+		known(4326, "WGS 84", "+proj=longlat +datum=WGS84 +no_defs");
+		known(4258, "ETRS89", "+proj=longlat +ellps=GRS80"
+				+ " +towgs84=0,0,0,0,0,0,0 +no_defs");
+		known(4171, "RGF93", "+proj=longlat +ellps=GRS80"
+				+ " +towgs84=0,0,0,0,0,0,0 +no_defs");
+		known(4275, "NTF", "+proj=longlat +a=6378249.2 +b=6356515"
+				+ " +towgs84=-168,-60,320,0,0,0,0 +no_defs");
+		known(3857, "WGS 84 / Pseudo-Mercator", "+proj=merc +a=6378137"
+				+ " +b=6378137 +lat_ts=0 +lon_0=0 +x_0=0 +y_0=0 +k=1"
+				+ " +units=m +nadgrids=@null +no_defs");
+		known(3395, "WGS 84 / World Mercator", "+proj=merc +lon_0=0 +k=1"
+				+ " +x_0=0 +y_0=0 +datum=WGS84 +units=m +no_defs");
+		known(2154, "RGF93 / Lambert-93", "+proj=lcc +lat_1=49 +lat_2=44"
+				+ " +lat_0=46.5 +lon_0=3 +x_0=700000 +y_0=6600000"
+				+ " +ellps=GRS80 +towgs84=0,0,0,0,0,0,0 +units=m +no_defs");
+		known(27572, "NTF (Paris) / Lambert zone II", "+proj=lcc"
+				+ " +lat_1=46.8 +lat_0=46.8 +lon_0=0 +k_0=0.99987742"
+				+ " +x_0=600000 +y_0=2200000 +a=6378249.2 +b=6356515"
+				+ " +towgs84=-168,-60,320,0,0,0,0 +pm=paris +units=m"
+				+ " +no_defs");
+		for (int zone = 42; zone <= 50; zone++) {
+			known(3900 + zone, "RGF93 / CC" + zone, "+proj=lcc +lat_1="
+					+ (zone - 0.75) + " +lat_2=" + (zone + 0.75) + " +lat_0="
+					+ zone + " +lon_0=3 +x_0=1700000 +y_0="
+					+ ((zone - 41) * 1000000 + 200000) + " +ellps=GRS80"
+					+ " +towgs84=0,0,0,0,0,0,0 +units=m +no_defs");
+		}
+		for (int zone = 28; zone <= 38; zone++) {
+			known(25800 + zone, "ETRS89 / UTM zone " + zone + "N",
+					"+proj=utm +zone=" + zone + " +ellps=GRS80"
+							+ " +towgs84=0,0,0,0,0,0,0 +units=m +no_defs");
+		}
+		for (int zone = 1; zone <= 60; zone++) {
+			known(32600 + zone, "WGS 84 / UTM zone " + zone + "N",
+					"+proj=utm +zone=" + zone + " +datum=WGS84 +units=m"
+							+ " +no_defs");
+			known(32700 + zone, "WGS 84 / UTM zone " + zone + "S",
+					"+proj=utm +zone=" + zone + " +south +datum=WGS84"
+							+ " +units=m +no_defs");
+		}
+	}
+
+	private static final Map<Object, Snapshot> SNAPSHOTS = new WeakHashMap<Object, Snapshot>();
+
+	private SpatialRefSys() {
+	}
+
+	private static void known(int srid, String name, String definition) {
+		KNOWN.put(Integer.valueOf(srid), new String[] { name, definition });
+	}
+
+	/**
+	 * @return the known systems, as SRID mapped to their name and proj4
+	 *         definition.
+	 */
+	public static Map<Integer, String[]> getKnownSystems() {
+		return Collections.unmodifiableMap(KNOWN);
+	}
+
+	/**
+	 * Creates the table if needed and adds the known systems it doesn't have.
+	 *
+	 * @return the number of systems added.
+	 */
+	public static int createTable(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + TABLE
+				+ "(SRID INT PRIMARY KEY, AUTH_NAME VARCHAR, AUTH_SRID INT,"
+				+ " SRTEXT VARCHAR, PROJ4TEXT VARCHAR)");
+		PreparedStatement select = conn.prepareStatement("SELECT COUNT(*)"
+				+ " FROM " + TABLE + " WHERE SRID = ?");
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ TABLE + " VALUES(?, 'EPSG', ?, ?, ?)");
+		int added = 0;
+		try {
+			for (Map.Entry<Integer, String[]> system : KNOWN.entrySet()) {
+				int srid = system.getKey().intValue();
+				select.setInt(1, srid);
+				ResultSet rs = select.executeQuery();
+				rs.next();
+				if (rs.getInt(1) > 0) {
+					continue;
+				}
+				insert.setInt(1, srid);
+				insert.setInt(2, srid);
+				insert.setString(3, system.getValue()[0]);
+				insert.setString(4, system.getValue()[1]);
+				insert.addBatch();
+				added++;
+			}
+			insert.executeBatch();
+		} finally {
+			select.close();
+			insert.close();
+		}
+		return added;
+	}
+
+	/**
+	 * @return the system of a SRID, read from the table or else from the
+	 *         known systems.
+	 */
+	public static CoordinateSystem getCoordinateSystem(Connection conn,
+			int srid) throws SQLException {
+		Snapshot snapshot = getSnapshot(conn);
+		Integer key = Integer.valueOf(srid);
+		CoordinateSystem system = snapshot.systems.get(key);
+		if (system == null) {
+			system = CoordinateSystem.parse(getDefinition(conn, snapshot,
+					srid));
+			snapshot.systems.put(key, system);
+		}
+		return system;
+	}
+
+	/**
+	 * @return the transform between two SRID, built on first use.
+	 */
+	public static CoordinateTransform getTransform(Connection conn,
+			int sourceSrid, int targetSrid) throws SQLException {
+		Snapshot snapshot = getSnapshot(conn);
+		Long key = Long.valueOf(((long) sourceSrid << 32)
+				| (targetSrid & 0xffffffffL));
+		CoordinateTransform transform = snapshot.transforms.get(key);
+		if (transform == null) {
+			transform = new CoordinateTransform(getCoordinateSystem(conn,
+					sourceSrid), getCoordinateSystem(conn, targetSrid));
+			snapshot.transforms.put(key, transform);
+		}
+		return transform;
+	}
+
+	private static String getDefinition(Connection conn, Snapshot snapshot,
+			int srid) throws SQLException {
+		if (snapshot.hasTable) {
+			PreparedStatement select = conn.prepareStatement("SELECT"
+					+ " PROJ4TEXT FROM " + TABLE + " WHERE SRID = ?");
+			try {
+				select.setInt(1, srid);
+				ResultSet rs = select.executeQuery();
+				if (rs.next() && rs.getString(1) != null) {
+					return rs.getString(1);
+				}
+			} finally {
+				select.close();
+			}
+		}
+		String[] system = KNOWN.get(Integer.valueOf(srid));
+		if (system == null) {
+			throw new SQLException("Unknown SRID : " + srid);
+		}
+		return system[1];
+	}
+
+	/**
+	 * A connection without an H2 session gets a new snapshot on each call.
+	 */
+	private static Snapshot getSnapshot(Connection conn) throws SQLException {
+		Session session = SQLUtils.getSession(conn);
+		if (session == null) {
+			return new Snapshot(0, 0, SQLUtils.tableExists(conn, TABLE));
+		}
+		Database database = session.getDatabase();
+		long version = database.getModificationMetaId();
+		// looked up at each call, a snapshot can't refer to the database
+		Table table = database.getSchema(Constants.SCHEMA_MAIN)
+				.findTableOrView(session, TABLE);
+		long dataVersion = table == null ? -1 : table
+				.getMaxDataModificationId();
+		Snapshot snapshot;
+		synchronized (SNAPSHOTS) {
+			snapshot = SNAPSHOTS.get(database);
+		}
+		if (snapshot != null && snapshot.version == version
+				&& snapshot.dataVersion == dataVersion) {
+			return snapshot;
+		}
+		snapshot = new Snapshot(version, dataVersion, table != null);
+		synchronized (SNAPSHOTS) {
+			SNAPSHOTS.put(database, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Systems and transforms of a database, valid for a version of its
+	 * schema and of the rows of the table.
+	 */
+	private static final class Snapshot {
+
+		final long version;
+
+		final long dataVersion;
+
+		final boolean hasTable;
+
+		final Map<Integer, CoordinateSystem> systems = new ConcurrentHashMap<Integer, CoordinateSystem>();
+
+		final Map<Long, CoordinateTransform> transforms = new ConcurrentHashMap<Long, CoordinateTransform>();
+
+		Snapshot(long version, long dataVersion, boolean hasTable) {
+			this.version = version;
+			this.dataVersion = dataVersion;
+			this.hasTable = hasTable;
+		}
+	}
+}
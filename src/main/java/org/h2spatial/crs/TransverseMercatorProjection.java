@@ -0,0 +1,109 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+/**
+ * Transverse Mercator projection (proj4 tmerc and utm), with the series of
+ * Kruger in the third flattening n up to n^3, which stay below the
+ * millimeter within a few thousand kilometers of the central meridian.
+ */
+final class TransverseMercatorProjection extends Projection {
+
+	/**
+	 * Radius of the rectifying sphere.
+	 */
+	private final double r;
+
+	private final double[] alpha;
+
+	private final double[] beta;
+
+	private final double[] delta;
+
+	/**
+	 * 2 sqrt(n) / (1 + n), the eccentricity written with n.
+	 */
+	private final double en;
+
+	/**
+	 * Northing of the latitude of origin.
+	 */
+	private final double m0;
+
+	TransverseMercatorProjection(Ellipsoid ellipsoid, double lam0,
+			double phi0, double k0, double x0, double y0) {
+		super(ellipsoid, lam0, phi0, k0, x0, y0);
+		double f = ellipsoid.getFlattening();
+		double n = f / (2 - f);
+		double n2 = n * n;
+		double n3 = n2 * n;
+		r = a / (1 + n) * (1 + n2 / 4 + n2 * n2 / 64);
+		alpha = new double[] { n / 2 - 2 * n2 / 3 + 5 * n3 / 16,
+				13 * n2 / 48 - 3 * n3 / 5, 61 * n3 / 240 };
+		beta = new double[] { n / 2 - 2 * n2 / 3 + 37 * n3 / 96,
+				n2 / 48 + n3 / 15, 17 * n3 / 480 };
+		delta = new double[] { 2 * n - 2 * n2 / 3 - 2 * n3,
+				7 * n2 / 3 - 8 * n3 / 5, 56 * n3 / 15 };
+		en = 2 * Math.sqrt(n) / (1 + n);
+		double[] origin = { lam0, phi0 };
+		project(origin);
+		m0 = origin[1];
+	}
+
+	/**
+	 * Gives the unscaled x, y of the Kruger series from the central meridian
+	 * and the equator.
+	 */
+	private void project(double[] p) {
+		double lam = adjustLongitude(p[0] - lam0);
+		double sinPhi = Math.sin(p[1]);
+		double t = Math.sinh(atanh(sinPhi) - en * atanh(en * sinPhi));
+		double xi = Math.atan2(t, Math.cos(lam));
+		double eta = atanh(Math.sin(lam) / Math.sqrt(1 + t * t));
+		double x = eta;
+		double y = xi;
+		for (int j = 0; j < 3; j++) {
+			double k = 2 * (j + 1);
+			x += alpha[j] * Math.cos(k * xi) * Math.sinh(k * eta);
+			y += alpha[j] * Math.sin(k * xi) * Math.cosh(k * eta);
+		}
+		p[0] = r * x;
+		p[1] = r * y;
+	}
+
+	@Override
+	public void forward(double[] p) {
+		project(p);
+		p[0] = x0 + k0 * p[0];
+		p[1] = y0 + k0 * (p[1] - m0);
+	}
+
+	@Override
+	public void inverse(double[] p) {
+		double xi = ((p[1] - y0) / k0 + m0) / r;
+		double eta = (p[0] - x0) / (k0 * r);
+		double xi1 = xi;
+		double eta1 = eta;
+		for (int j = 0; j < 3; j++) {
+			double k = 2 * (j + 1);
+			xi1 -= beta[j] * Math.sin(k * xi) * Math.cosh(k * eta);
+			eta1 -= beta[j] * Math.cos(k * xi) * Math.sinh(k * eta);
+		}
+		double chi = Math.asin(Math.sin(xi1) / Math.cosh(eta1));
+		double phi = chi;
+		for (int j = 0; j < 3; j++) {
+			phi += delta[j] * Math.sin(2 * (j + 1) * chi);
+		}
+		p[0] = adjustLongitude(lam0 + Math.atan2(Math.sinh(eta1), Math.cos(xi1)));
+		p[1] = phi;
+	}
+
+	private static double atanh(double x) {
+		return 0.5 * Math.log((1 + x) / (1 - x));
+	}
+}
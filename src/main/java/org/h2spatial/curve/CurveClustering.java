@@ -0,0 +1,407 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.curve;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.h2spatial.util.SQLUtils;
+import org.h2spatial.util.SpatialSettings;
+import org.h2spatial.util.TableDefinition;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Stores the rows of a table in the order of a space-filling curve, so that
+ * the features close on the map are close in the database file too.
+ *
+ * The key of each row on the curve is kept in the indexed column
+ * COLUMN_CURVE_KEY, computed by a trigger before each insert and update. The
+ * table is written again in the order of the keys when clustered, into a new
+ * table put in place of the old one, the rows added later are appended, so a
+ * table can be clustered again once it has changed a lot. Clustering needs
+ * exclusive access to the database, see TableDefinition. Only a file
+ * database keeps the rows where they were written, an in-memory table reuses
+ * the freed rows in any order.
+ *
+ * A key is given by the center of the envelope of the geometry, so a window
+ * is widened by the largest half size of the envelopes before being turned
+ * into key ranges, which the trigger keeps up to date in the
+ * CURVE_CLUSTERING table with the grid of each column.
+ */
+public class CurveClustering {
+
+	public static final String REGISTRY = "CURVE_CLUSTERING";
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final CurveGrid grid;
+
+	private final double halfWidth;
+
+	private final double halfHeight;
+
+	CurveClustering(String tableName, String columnName, CurveGrid grid,
+			double halfWidth, double halfHeight) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.grid = grid;
+		this.halfWidth = halfWidth;
+		this.halfHeight = halfHeight;
+	}
+
+	/**
+	 * Lays a curve of the given order over the extent of a column, keys its
+	 * rows and writes them again in the order of their keys. A clustered
+	 * column gets the new curve over its current extent.
+	 *
+	 * @return the number of rows written.
+	 */
+	public static long cluster(Connection conn, String tableName,
+			String columnName, SpaceFillingCurve curve, int order)
+			throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		TableDefinition.checkReplaceable(conn, tableName);
+		CurveClustering previous = find(conn, tableName, columnName);
+		CurveClustering clustering = scan(conn, tableName, columnName, curve,
+				order);
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + REGISTRY
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR, CURVE VARCHAR,"
+				+ " GRID_ORDER INT, MIN_X DOUBLE, MIN_Y DOUBLE, MAX_X DOUBLE,"
+				+ " MAX_Y DOUBLE, HALF_WIDTH DOUBLE, HALF_HEIGHT DOUBLE,"
+				+ " PRIMARY KEY(TABLE_NAME, COLUMN_NAME))");
+		if (previous != null) {
+			// the trigger keeps the grid it was created with
+			SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS "
+					+ previous.getTriggerName());
+			delete(conn, tableName, columnName);
+		} else {
+			SQLUtils.execute(conn, "ALTER TABLE " + tableName + " ADD "
+					+ clustering.getKeyColumn() + " BIGINT");
+			SQLUtils.execute(conn, "CREATE INDEX "
+					+ clustering.getIndexName() + " ON " + tableName + "("
+					+ clustering.getKeyColumn() + ")");
+		}
+		clustering.insert(conn);
+		SQLUtils.execute(conn, "CREATE TRIGGER "
+				+ clustering.getTriggerName() + " BEFORE INSERT, UPDATE ON "
+				+ tableName + " FOR EACH ROW CALL \""
+				+ CurveClusteringTrigger.class.getName() + "\"");
+		return clustering.rewrite(conn);
+	}
+
+	/**
+	 * Drops the trigger, the key column and its index.
+	 */
+	public static void drop(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		CurveClustering clustering = get(conn, tableName, columnName);
+		SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS "
+				+ clustering.getTriggerName());
+		SQLUtils.execute(conn, "DROP INDEX IF EXISTS "
+				+ clustering.getIndexName());
+		SQLUtils.execute(conn, "ALTER TABLE " + clustering.tableName
+				+ " DROP COLUMN " + clustering.getKeyColumn());
+		delete(conn, clustering.tableName, clustering.columnName);
+	}
+
+	/**
+	 * @return the clustering of a column, or null if it isn't clustered.
+	 */
+	public static CurveClustering find(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		if (!SQLUtils.tableExists(conn, REGISTRY)) {
+			return null;
+		}
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		PreparedStatement select = conn.prepareStatement("SELECT CURVE,"
+				+ " GRID_ORDER, MIN_X, MIN_Y, MAX_X, MAX_Y, HALF_WIDTH,"
+				+ " HALF_HEIGHT FROM " + REGISTRY + " WHERE TABLE_NAME = ?"
+				+ " AND COLUMN_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			if (!rs.next()) {
+				return null;
+			}
+			CurveGrid grid = new CurveGrid(SpaceFillingCurve.get(rs
+					.getString(1)), rs.getInt(2), rs.getDouble(3), rs
+					.getDouble(4), rs.getDouble(5), rs.getDouble(6));
+			return new CurveClustering(tableName, columnName, grid, rs
+					.getDouble(7), rs.getDouble(8));
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * @return the clustering of a column, an exception is thrown if it isn't
+	 *         clustered.
+	 */
+	public static CurveClustering get(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		CurveClustering clustering = find(conn, tableName, columnName);
+		if (clustering == null) {
+			throw new SQLException(tableName + "." + columnName
+					+ " isn't clustered");
+		}
+		return clustering;
+	}
+
+	/**
+	 * Computes the extent of a column and the largest half size of its
+	 * envelopes.
+	 */
+	private static CurveClustering scan(Connection conn, String tableName,
+			String columnName, SpaceFillingCurve curve, int order)
+			throws SQLException {
+		Envelope extent = new Envelope();
+		double halfWidth = 0;
+		double halfHeight = 0;
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT " + columnName + " FROM "
+					+ tableName + " WHERE " + columnName + " IS NOT NULL");
+			while (rs.next()) {
+				Envelope env = CurveGrid.envelope(rs.getBytes(1));
+				if (!env.isNull()) {
+					extent.expandToInclude(env);
+					halfWidth = Math.max(halfWidth, env.getWidth() / 2);
+					halfHeight = Math.max(halfHeight, env.getHeight() / 2);
+				}
+			}
+		} finally {
+			st.close();
+		}
+		if (extent.isNull()) {
+			extent.init(0, 0, 0, 0);
+		}
+		return new CurveClustering(tableName, columnName, new CurveGrid(
+				curve, order, extent.getMinX(), extent.getMinY(), extent
+						.getMaxX(), extent.getMaxY()), halfWidth, halfHeight);
+	}
+
+	/**
+	 * Writes the rows with their keys into a new table, in the order of the
+	 * keys, and puts it in place of the table. The triggers of the table
+	 * don't fire, so the rows keep the values they derive from the geometry,
+	 * and their primary keys, which the spatial index refers to.
+	 */
+	private long rewrite(Connection conn) throws SQLException {
+		TableDefinition definition = TableDefinition.read(conn, tableName);
+		String keys = tableName + "_CURVE_KEYS";
+		String copy = tableName + "_CURVE_COPY";
+		definition.createCopy(conn, keys);
+		boolean done = false;
+		try {
+			writeKeys(conn, keys);
+			definition.createCopy(conn, copy);
+			Statement st = conn.createStatement();
+			long rows;
+			try {
+				rows = st.executeUpdate("INSERT INTO " + copy
+						+ " SELECT * FROM " + keys + " ORDER BY "
+						+ getKeyColumn());
+			} finally {
+				st.close();
+			}
+			definition.replaceWith(conn, copy);
+			done = true;
+			return rows;
+		} finally {
+			SQLUtils.execute(conn, "DROP TABLE IF EXISTS " + keys);
+			// once the table is dropped, its rows are in the copy
+			if (!done && SQLUtils.tableExists(conn, tableName)) {
+				SQLUtils.execute(conn, "DROP TABLE IF EXISTS " + copy);
+			}
+		}
+	}
+
+	/**
+	 * Copies the rows of the table with the key of their geometry.
+	 */
+	private void writeKeys(Connection conn, String keys) throws SQLException {
+		int geometryIndex = SQLUtils.getColumnPosition(conn, tableName,
+				columnName) + 1;
+		int keyIndex = SQLUtils.getColumnPosition(conn, tableName,
+				getKeyColumn()) + 1;
+		int commitSize = (int) SpatialSettings.get(conn,
+				SpatialSettings.LOAD_COMMIT_SIZE);
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		Statement st = conn.createStatement();
+		PreparedStatement insert = null;
+		try {
+			ResultSet rs = st.executeQuery("SELECT * FROM " + tableName);
+			ResultSetMetaData meta = rs.getMetaData();
+			int count = meta.getColumnCount();
+			StringBuilder sql = new StringBuilder("INSERT INTO " + keys
+					+ " VALUES(");
+			for (int i = 1; i <= count; i++) {
+				sql.append(i == 1 ? "?" : ", ?");
+			}
+			insert = conn.prepareStatement(sql.append(')').toString());
+			int rows = 0;
+			while (rs.next()) {
+				byte[] value = rs.getBytes(geometryIndex);
+				for (int i = 1; i <= count; i++) {
+					int type = meta.getColumnType(i);
+					if (i == geometryIndex) {
+						insert.setBytes(i, value);
+					} else if (i == keyIndex) {
+						Long key = grid.key(value);
+						if (key == null) {
+							insert.setNull(i, Types.BIGINT);
+						} else {
+							insert.setLong(i, key.longValue());
+						}
+					} else if (type == Types.BLOB) {
+						insert.setBytes(i, rs.getBytes(i));
+					} else if (type == Types.CLOB) {
+						insert.setString(i, rs.getString(i));
+					} else if (rs.getObject(i) == null) {
+						insert.setNull(i, type);
+					} else {
+						insert.setObject(i, rs.getObject(i));
+					}
+				}
+				insert.addBatch();
+				if (++rows % commitSize == 0) {
+					insert.executeBatch();
+					conn.commit();
+				}
+			}
+			insert.executeBatch();
+			conn.commit();
+		} finally {
+			if (insert != null) {
+				insert.close();
+			}
+			st.close();
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	private void insert(Connection conn) throws SQLException {
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ REGISTRY + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			insert.setString(3, grid.getCurve().name());
+			insert.setInt(4, grid.getOrder());
+			insert.setDouble(5, grid.getMinX());
+			insert.setDouble(6, grid.getMinY());
+			insert.setDouble(7, grid.getMaxX());
+			insert.setDouble(8, grid.getMaxY());
+			insert.setDouble(9, halfWidth);
+			insert.setDouble(10, halfHeight);
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+	}
+
+	private static void delete(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ REGISTRY + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			delete.setString(1, tableName);
+			delete.setString(2, columnName);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+	}
+
+	/**
+	 * Records a larger envelope, read again from the registry so that a
+	 * rolled back change is not kept.
+	 */
+	static void widen(Connection conn, String tableName, String columnName,
+			Envelope env) throws SQLException {
+		double width = env.getWidth() / 2;
+		double height = env.getHeight() / 2;
+		CurveClustering clustering = get(conn, tableName, columnName);
+		if (width <= clustering.halfWidth && height <= clustering.halfHeight) {
+			return;
+		}
+		PreparedStatement update = conn.prepareStatement("UPDATE " + REGISTRY
+				+ " SET HALF_WIDTH = ?, HALF_HEIGHT = ?"
+				+ " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			update.setDouble(1, Math.max(width, clustering.halfWidth));
+			update.setDouble(2, Math.max(height, clustering.halfHeight));
+			update.setString(3, tableName);
+			update.setString(4, columnName);
+			update.execute();
+		} finally {
+			update.close();
+		}
+	}
+
+	/**
+	 * @return the key ranges holding every row whose envelope intersects a
+	 *         window, as start, end pairs, inclusive.
+	 */
+	public long[] ranges(Envelope window, int maxRanges) throws SQLException {
+		if (window.isNull()) {
+			return new long[0];
+		}
+		Envelope widened = new Envelope(window);
+		widened.expandBy(halfWidth, halfHeight);
+		return grid.ranges(widened, maxRanges);
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public CurveGrid getGrid() {
+		return grid;
+	}
+
+	public double getHalfWidth() {
+		return halfWidth;
+	}
+
+	public double getHalfHeight() {
+		return halfHeight;
+	}
+
+	public String getKeyColumn() {
+		return columnName + "_CURVE_KEY";
+	}
+
+	public String getIndexName() {
+		return tableName + "_" + columnName + "_CURVE_IDX";
+	}
+
+	public String getTriggerName() {
+		return tableName + "_" + columnName + "_CURVE_TRG";
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.curve;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Writes the curve key of the geometry into the row being inserted or
+ * updated, and records an envelope larger than the ones of the table.
+ */
+public class CurveClusteringTrigger implements Trigger {
+
+	private CurveClustering clustering;
+
+	private int geometryPosition;
+
+	private int keyPosition;
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT COLUMN_NAME"
+				+ " FROM " + CurveClustering.REGISTRY
+				+ " WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				CurveClustering candidate = CurveClustering.get(conn,
+						tableName, rs.getString(1));
+				if (candidate.getTriggerName().equals(triggerName)) {
+					clustering = candidate;
+				}
+			}
+		} finally {
+			select.close();
+		}
+		if (clustering == null) {
+			throw new SQLException("No curve clustering for the trigger "
+					+ triggerName);
+		}
+		geometryPosition = SQLUtils.getColumnPosition(conn, tableName,
+				clustering.getColumnName());
+		keyPosition = SQLUtils.getColumnPosition(conn, tableName, clustering
+				.getKeyColumn());
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		// a value given as a stream can be read only once
+		byte[] value = SQLUtils.toBytes(newRow[geometryPosition]);
+		newRow[geometryPosition] = value;
+		if (value == null) {
+			newRow[keyPosition] = null;
+			return;
+		}
+		Envelope env = CurveGrid.envelope(value);
+		if (env.isNull()) {
+			newRow[keyPosition] = null;
+			return;
+		}
+		newRow[keyPosition] = Long.valueOf(clustering.getGrid().key(
+				(env.getMinX() + env.getMaxX()) / 2,
+				(env.getMinY() + env.getMaxY()) / 2));
+		// points never widen the windows
+		if (env.getWidth() > 0 || env.getHeight() > 0) {
+			CurveClustering.widen(conn, clustering.getTableName(), clustering
+					.getColumnName(), env);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.curve;
+
+import java.sql.SQLException;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.WKBInspector;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * A space-filling curve laid over an extent, giving a geometry the key of the
+ * cell holding the center of its envelope.
+ *
+ * The extent is divided in 2^order x 2^order cells. A center outside of it
+ * gets the key of the nearest border cell, so the keys stay valid for the
+ * geometries added after the extent was chosen, they are only less
+ * selective.
+ */
+public final class CurveGrid {
+
+	private final SpaceFillingCurve curve;
+
+	private final int order;
+
+	private final double minX;
+
+	private final double minY;
+
+	private final double maxX;
+
+	private final double maxY;
+
+	private final double scaleX;
+
+	private final double scaleY;
+
+	private final long lastCell;
+
+	public CurveGrid(SpaceFillingCurve curve, int order, double minX,
+			double minY, double maxX, double maxY) throws SQLException {
+		if (order < 1 || order > SpaceFillingCurve.MAX_ORDER) {
+			throw new SQLException("The order of the grid must be between 1"
+					+ " and " + SpaceFillingCurve.MAX_ORDER);
+		}
+		if (!(minX <= maxX) || !(minY <= maxY) || Double.isInfinite(minX)
+				|| Double.isInfinite(minY) || Double.isInfinite(maxX)
+				|| Double.isInfinite(maxY)) {
+			throw new SQLException("Invalid extent : " + minX + " " + minY
+					+ ", " + maxX + " " + maxY);
+		}
+		this.curve = curve;
+		this.order = order;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.lastCell = (1L << order) - 1;
+		// a flat extent puts everything in its first cells
+		this.scaleX = maxX > minX ? (lastCell + 1) / (maxX - minX) : 0;
+		this.scaleY = maxY > minY ? (lastCell + 1) / (maxY - minY) : 0;
+	}
+
+	/**
+	 * @return the key of a stored value, null for a null or empty geometry.
+	 */
+	public Long key(byte[] value) throws SQLException {
+		if (value == null) {
+			return null;
+		}
+		Envelope env = envelope(value);
+		if (env.isNull()) {
+			return null;
+		}
+		return Long.valueOf(key((env.getMinX() + env.getMaxX()) / 2, (env
+				.getMinY() + env.getMaxY()) / 2));
+	}
+
+	/**
+	 * @return the envelope of a stored value, read without decoding it when
+	 *         possible.
+	 */
+	static Envelope envelope(byte[] value) throws SQLException {
+		if (WKBInspector.canInspect(value)) {
+			return WKBInspector.getEnvelope(value);
+		}
+		try {
+			return GeometryCodec.read(value).getEnvelopeInternal();
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the key of the cell holding (x, y).
+	 */
+	public long key(double x, double y) {
+		return curve.encode(cellX(x), cellY(y), order);
+	}
+
+	/**
+	 * @return the ranges of the keys of the cells crossing an envelope, as
+	 *         start, end pairs, inclusive. The geometries whose center is in
+	 *         the envelope have a key in one of them.
+	 */
+	public long[] ranges(Envelope env, int maxRanges) throws SQLException {
+		if (maxRanges < 1) {
+			throw new SQLException("At least one range is expected");
+		}
+		if (env.isNull()) {
+			return new long[0];
+		}
+		return curve.ranges(new long[] { cellX(env.getMinX()),
+				cellY(env.getMinY()), cellX(env.getMaxX()),
+				cellY(env.getMaxY()) }, order, maxRanges);
+	}
+
+	private long cellX(double x) {
+		return clamp(Math.floor((x - minX) * scaleX));
+	}
+
+	private long cellY(double y) {
+		return clamp(Math.floor((y - minY) * scaleY));
+	}
+
+	private long clamp(double cell) {
+		if (!(cell > 0)) {
+			return 0;
+		}
+		return cell >= lastCell ? lastCell : (long) cell;
+	}
+
+	public SpaceFillingCurve getCurve() {
+		return curve;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.curve;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Curves visiting every cell of a 2^order x 2^order grid, the key of a cell
+ * being its rank along the curve.
+ *
+ * Both curves visit the four quarters of a square one after the other, so
+ * the cells of any quadtree square have consecutive keys, which is what lets
+ * a box be turned into a few key ranges.
+ */
+public enum SpaceFillingCurve {
+
+	/**
+	 * Hilbert curve, whose consecutive cells are always adjacent.
+	 */
+	HILBERT {
+		@Override
+		public long encode(long x, long y, int order) {
+			long key = 0;
+			for (long s = 1L << (order - 1); s > 0; s >>= 1) {
+				int rx = (x & s) != 0 ? 1 : 0;
+				int ry = (y & s) != 0 ? 1 : 0;
+				key += s * s * ((3 * rx) ^ ry);
+				// rotates the quarter so that its curve starts at (0, 0)
+				if (ry == 0) {
+					if (rx == 1) {
+						x = s - 1 - (x & (s - 1));
+						y = s - 1 - (y & (s - 1));
+					}
+					long t = x;
+					x = y;
+					y = t;
+				}
+			}
+			return key;
+		}
+	},
+	/**
+	 * Z-order (Morton) curve, interleaving the bits of x and y.
+	 */
+	ZORDER {
+		@Override
+		public long encode(long x, long y, int order) {
+			return spread(x) | (spread(y) << 1);
+		}
+
+		/**
+		 * @return the 32 low bits of v moved to the even bits.
+		 */
+		private long spread(long v) {
+			v &= 0xffffffffL;
+			v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+			v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+			v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+			v = (v | (v << 2)) & 0x3333333333333333L;
+			return (v | (v << 1)) & 0x5555555555555555L;
+		}
+	};
+
+	/**
+	 * Largest order, whose keys use 62 bits.
+	 */
+	public static final int MAX_ORDER = 31;
+
+	/**
+	 * @return the key of the cell (x, y), both in [0, 2^order).
+	 */
+	public abstract long encode(long x, long y, int order);
+
+	/**
+	 * Covers the cells of a box with ranges of keys, walking the quadtree
+	 * down from the whole grid. A square inside the box gives the range of
+	 * its keys, a square crossing it is divided while the number of ranges
+	 * stays below maxRanges, and given whole otherwise.
+	 *
+	 * @param box
+	 *            the cells minX, minY, maxX, maxY, inclusive.
+	 * @return the sorted and disjoint ranges as start, end pairs, inclusive.
+	 *         They hold every cell of the box and, once maxRanges reached,
+	 *         some cells around it.
+	 */
+	public long[] ranges(long[] box, int order, int maxRanges) {
+		List<long[]> ranges = new ArrayList<long[]>();
+		// squares crossing the box, as x, y in cells of the current level
+		List<long[]> crossing = new ArrayList<long[]>();
+		crossing.add(new long[] { 0, 0 });
+		for (int level = 0; !crossing.isEmpty(); level++) {
+			int shift = order - level;
+			List<long[]> next = new ArrayList<long[]>();
+			for (long[] square : crossing) {
+				long minX = square[0] << shift;
+				long minY = square[1] << shift;
+				long maxX = minX + (1L << shift) - 1;
+				long maxY = minY + (1L << shift) - 1;
+				if (maxX < box[0] || minX > box[2] || maxY < box[1]
+						|| minY > box[3]) {
+					continue;
+				}
+				if (shift == 0 || (minX >= box[0] && maxX <= box[2]
+						&& minY >= box[1] && maxY <= box[3])) {
+					ranges.add(range(square, shift, order));
+				} else {
+					next.add(square);
+				}
+			}
+			if (ranges.size() + 4 * next.size() > maxRanges) {
+				for (long[] square : next) {
+					ranges.add(range(square, shift, order));
+				}
+				break;
+			}
+			crossing.clear();
+			for (long[] square : next) {
+				for (int i = 0; i < 4; i++) {
+					crossing.add(new long[] { square[0] * 2 + (i & 1),
+							square[1] * 2 + (i >> 1) });
+				}
+			}
+		}
+		return merge(ranges);
+	}
+
+	/**
+	 * @return the keys of a square of 2^shift x 2^shift cells.
+	 */
+	private long[] range(long[] square, int shift, int order) {
+		long size = 1L << (2 * shift);
+		long start = encode(square[0] << shift, square[1] << shift, order)
+				& ~(size - 1);
+		return new long[] { start, start + size - 1 };
+	}
+
+	private static long[] merge(List<long[]> ranges) {
+		long[][] sorted = ranges.toArray(new long[ranges.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			public int compare(long[] r1, long[] r2) {
+				return r1[0] < r2[0] ? -1 : (r1[0] == r2[0] ? 0 : 1);
+			}
+		});
+		long[] merged = new long[2 * sorted.length];
+		int n = 0;
+		for (long[] range : sorted) {
+			if (n > 0 && range[0] <= merged[n - 1] + 1) {
+				merged[n - 1] = Math.max(merged[n - 1], range[1]);
+			} else {
+				merged[n++] = range[0];
+				merged[n++] = range[1];
+			}
+		}
+		return Arrays.copyOf(merged, n);
+	}
+
+	public static SpaceFillingCurve get(String name) throws SQLException {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new SQLException("Unsupported curve : " + name);
+		}
+	}
+}
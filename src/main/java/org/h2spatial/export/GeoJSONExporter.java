@@ -0,0 +1,212 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.export;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.h2spatial.codec.GeometryTextReader;
+import org.h2spatial.codec.TextFormat;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Writes a table as a GeoJSON FeatureCollection.
+ *
+ * The rows are written as they are read, each geometry being transcoded from
+ * its stored bytes by a GeometryTextReader, so the memory used doesn't depend
+ * on the size of the table. The other columns are the properties of the
+ * features, except the binary ones, and an integer primary key is their id.
+ */
+public class GeoJSONExporter {
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final String keyColumn;
+
+	public GeoJSONExporter(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		this.tableName = tableName;
+		this.columnName = columnName;
+		String key;
+		try {
+			key = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+		} catch (SQLException e) {
+			// features without id
+			key = null;
+		}
+		this.keyColumn = key;
+	}
+
+	/**
+	 * Writes the collection to a UTF-8 file.
+	 *
+	 * @return the number of features written.
+	 */
+	public long export(Connection conn, File file) throws SQLException,
+			IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(file), "UTF-8"));
+		try {
+			return export(conn, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the collection, one feature per line.
+	 *
+	 * @return the number of features written.
+	 */
+	public long export(Connection conn, Writer out) throws SQLException,
+			IOException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT * FROM " + tableName);
+			ResultSetMetaData meta = rs.getMetaData();
+			int columns = meta.getColumnCount();
+			int geometry = 0;
+			int key = 0;
+			boolean[] properties = new boolean[columns + 1];
+			for (int i = 1; i <= columns; i++) {
+				String name = meta.getColumnName(i);
+				if (name.equalsIgnoreCase(columnName)) {
+					geometry = i;
+				} else {
+					if (name.equalsIgnoreCase(keyColumn)) {
+						key = i;
+					}
+					properties[i] = !isBinary(meta.getColumnType(i));
+				}
+			}
+			out.write("{\"type\":\"FeatureCollection\",\"features\":[");
+			long count = 0;
+			while (rs.next()) {
+				out.write(count == 0 ? "\n" : ",\n");
+				out.write("{\"type\":\"Feature\"");
+				if (key > 0) {
+					out.write(",\"id\":");
+					out.write(rs.getString(key));
+				}
+				out.write(",\"geometry\":");
+				byte[] wkb = rs.getBytes(geometry);
+				if (wkb == null) {
+					out.write("null");
+				} else {
+					try {
+						GeometryTextReader.write(wkb, TextFormat.GEOJSON, out);
+					} catch (ParseException e) {
+						throw new SQLException(e.getMessage(), e);
+					}
+				}
+				out.write(",\"properties\":{");
+				boolean first = true;
+				for (int i = 1; i <= columns; i++) {
+					if (!properties[i]) {
+						continue;
+					}
+					if (!first) {
+						out.write(',');
+					}
+					first = false;
+					writeString(out, meta.getColumnName(i));
+					out.write(':');
+					writeValue(out, rs.getObject(i));
+				}
+				out.write("}}");
+				count++;
+			}
+			out.write("\n]}\n");
+			return count;
+		} finally {
+			st.close();
+		}
+	}
+
+	private static boolean isBinary(int type) {
+		switch (type) {
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static void writeValue(Writer out, Object value)
+			throws IOException, SQLException {
+		if (value == null) {
+			out.write("null");
+		} else if (value instanceof Boolean) {
+			out.write(value.toString());
+		} else if (value instanceof Number) {
+			double d = ((Number) value).doubleValue();
+			out.write(Double.isNaN(d) || Double.isInfinite(d) ? "null"
+					: value.toString());
+		} else if (value instanceof Clob) {
+			Clob clob = (Clob) value;
+			writeString(out, clob.getSubString(1, (int) clob.length()));
+		} else {
+			writeString(out, value.toString());
+		}
+	}
+
+	private static void writeString(Writer out, String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", Integer.valueOf(c)));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * An envelope and the reference it points to : the primary key of a row in a
+ * leaf node, the id of a child node otherwise.
+ */
+public class IndexEntry {
+
+	/**
+	 * Encoded size of an entry : 4 doubles and a long.
+	 */
+	static final int SIZE = 40;
+
+	final double minX;
+
+	final double minY;
+
+	final double maxX;
+
+	final double maxY;
+
+	final long ref;
+
+	public IndexEntry(double minX, double minY, double maxX, double maxY,
+			long ref) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.ref = ref;
+	}
+
+	public long getRef() {
+		return ref;
+	}
+
+	public Envelope getEnvelope() {
+		return new Envelope(minX, maxX, minY, maxY);
+	}
+
+	double centreX() {
+		return (minX + maxX) / 2;
+	}
+
+	double centreY() {
+		return (minY + maxY) / 2;
+	}
+
+	public boolean intersects(Envelope env) {
+		return !(env.getMinX() > maxX || env.getMaxX() < minX
+				|| env.getMinY() > maxY || env.getMaxY() < minY);
+	}
+
+	/**
+	 * Distance between the envelope of the entry and env, 0 if they
+	 * intersect.
+	 */
+	public double distance(Envelope env) {
+		double dx = Math.max(0, Math.max(env.getMinX() - maxX, minX
+				- env.getMaxX()));
+		double dy = Math.max(0, Math.max(env.getMinY() - maxY, minY
+				- env.getMaxY()));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Entry covering all the given entries and pointing to ref.
+	 */
+	static IndexEntry union(List<IndexEntry> entries, long ref) {
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (IndexEntry entry : entries) {
+			minX = Math.min(minX, entry.minX);
+			minY = Math.min(minY, entry.minY);
+			maxX = Math.max(maxX, entry.maxX);
+			maxY = Math.max(maxY, entry.maxY);
+		}
+		return new IndexEntry(minX, minY, maxX, maxY, ref);
+	}
+
+	static byte[] encode(List<IndexEntry> entries) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				4 + entries.size() * SIZE);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(entries.size());
+		for (IndexEntry entry : entries) {
+			out.writeDouble(entry.minX);
+			out.writeDouble(entry.minY);
+			out.writeDouble(entry.maxX);
+			out.writeDouble(entry.maxY);
+			out.writeLong(entry.ref);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static List<IndexEntry> decode(byte[] node) {
+		ByteBuffer in = ByteBuffer.wrap(node);
+		int count = in.getInt();
+		List<IndexEntry> entries = new ArrayList<IndexEntry>(count);
+		for (int i = 0; i < count; i++) {
+			entries.add(new IndexEntry(in.getDouble(), in.getDouble(), in
+					.getDouble(), in.getDouble(), in.getLong()));
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Queries of a spatial index, with the statements prepared once for all the
+ * queries of a function call.
+ *
+ * The keys found in the tree are looked up in the delta table by chunks, the
+ * rows changed since the build being given by the delta table only, which is
+ * read by the window of each query. Nothing is read from the delta table
+ * when it is empty. A reader used by many queries, as a join, reads the delta
+ * table once with loadDelta.
+ */
+public class IndexReader {
+
+	/**
+	 * Number of keys looked up in the delta table by a single query.
+	 */
+	static final int CHUNK_SIZE = 256;
+
+	private final SpatialIndex index;
+
+	private final Statement st;
+
+	private final PreparedStatement nodes;
+
+	private final PreparedStatement delta;
+
+	/**
+	 * The rows changed since the build, if loaded by loadDelta.
+	 */
+	private Map<Long, IndexEntry> loaded;
+
+	IndexReader(Connection conn, SpatialIndex index) throws SQLException {
+		this.index = index;
+		st = conn.createStatement();
+		boolean hasDelta;
+		try {
+			ResultSet rs = st.executeQuery("SELECT KEY FROM "
+					+ index.getDeltaTable() + " LIMIT 1");
+			hasDelta = rs.next();
+			rs.close();
+		} catch (SQLException e) {
+			st.close();
+			throw e;
+		}
+		nodes = index.prepareNodeQuery(conn);
+		delta = !hasDelta ? null : conn.prepareStatement("SELECT KEY FROM "
+				+ index.getDeltaTable() + " WHERE MINX <= ? AND MAXX >= ?"
+				+ " AND MINY <= ? AND MAXY >= ?");
+	}
+
+	/**
+	 * Reads the delta table into memory for the following queries. Its size
+	 * is bounded by the rebuild of the index.
+	 */
+	public void loadDelta() throws SQLException {
+		if (delta != null) {
+			loaded = index.readDelta(st.getConnection());
+		}
+	}
+
+	/**
+	 * Visits the keys of the rows whose envelope intersects env.
+	 */
+	public void query(Envelope env, IndexVisitor visitor) throws SQLException {
+		if (env.isNull()) {
+			return;
+		}
+		if (index.getRootId() >= 0) {
+			List<Long> found = new ArrayList<Long>();
+			List<Integer> stack = new ArrayList<Integer>();
+			stack.add(Integer.valueOf(index.getRootId()));
+			while (!stack.isEmpty()) {
+				int nodeId = stack.remove(stack.size() - 1).intValue();
+				nodes.setInt(1, nodeId);
+				ResultSet rs = nodes.executeQuery();
+				rs.next();
+				boolean leaf = rs.getBoolean(1);
+				for (IndexEntry entry : IndexEntry.decode(rs.getBytes(2))) {
+					if (!entry.intersects(env)) {
+						continue;
+					}
+					if (!leaf) {
+						stack.add(Integer.valueOf((int) entry.ref));
+					} else if (delta == null) {
+						visitor.visit(entry.ref);
+					} else if (loaded != null) {
+						if (!loaded.containsKey(Long.valueOf(entry.ref))) {
+							visitor.visit(entry.ref);
+						}
+					} else {
+						found.add(Long.valueOf(entry.ref));
+						if (found.size() == CHUNK_SIZE) {
+							visitUnchanged(found, visitor);
+						}
+					}
+				}
+				rs.close();
+			}
+			visitUnchanged(found, visitor);
+		}
+		if (loaded != null) {
+			for (IndexEntry entry : loaded.values()) {
+				if (entry != null && entry.intersects(env)) {
+					visitor.visit(entry.ref);
+				}
+			}
+		} else if (delta != null) {
+			delta.setDouble(1, env.getMaxX());
+			delta.setDouble(2, env.getMinX());
+			delta.setDouble(3, env.getMaxY());
+			delta.setDouble(4, env.getMinY());
+			ResultSet rs = delta.executeQuery();
+			while (rs.next()) {
+				visitor.visit(rs.getLong(1));
+			}
+			rs.close();
+		}
+	}
+
+	/**
+	 * Visits the keys found in the tree which aren't in the delta table, and
+	 * clears them.
+	 */
+	private void visitUnchanged(List<Long> keys, IndexVisitor visitor)
+			throws SQLException {
+		if (keys.isEmpty()) {
+			return;
+		}
+		StringBuilder select = new StringBuilder("SELECT KEY FROM "
+				+ index.getDeltaTable() + " WHERE KEY IN (");
+		for (int i = 0; i < keys.size(); i++) {
+			if (i > 0) {
+				select.append(", ");
+			}
+			select.append(keys.get(i));
+		}
+		Set<Long> changed = new HashSet<Long>();
+		ResultSet rs = st.executeQuery(select.append(")").toString());
+		while (rs.next()) {
+			changed.add(Long.valueOf(rs.getLong(1)));
+		}
+		rs.close();
+		for (Long key : keys) {
+			if (!changed.contains(key)) {
+				visitor.visit(key.longValue());
+			}
+		}
+		keys.clear();
+	}
+
+	public void close() throws SQLException {
+		st.close();
+		nodes.close();
+		if (delta != null) {
+			delta.close();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the primary keys found by a spatial index query.
+ */
+public interface IndexVisitor {
+
+	void visit(long key) throws SQLException;
+}
@@ -0,0 +1,276 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.AbstractNode;
+import com.vividsolutions.jts.index.strtree.ItemBoundable;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Search of the k rows of a table nearest to a geometry.
+ *
+ * The tree is traversed best first : nodes and rows wait in a queue ordered
+ * by the distance between their envelope and the envelope of the query, which
+ * is never more than the distance to their geometries. A row taken from the
+ * queue is decoded and goes back with its exact distance, and a row taken
+ * with its exact distance is nearer than everything left in the queue. Only
+ * the rows whose envelope is nearer than the k-th neighbour are decoded.
+ *
+ * The persistent spatial index of the column is used when there is one,
+ * reading a few nodes per query. Otherwise the column is read once into an
+ * in-memory STR tree.
+ */
+public class NearestNeighbourSearch {
+
+	private static final int NODE = 0;
+
+	private static final int ROW = 1;
+
+	private static final int EXACT = 2;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final String keyColumn;
+
+	private final SpatialIndex index;
+
+	private int nodeReads;
+
+	private int refinements;
+
+	public NearestNeighbourSearch(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		this.tableName = tableName;
+		this.columnName = columnName;
+		if (SQLUtils.tableExists(conn, SpatialIndex.REGISTRY)) {
+			index = SpatialIndex.find(conn, tableName, columnName);
+		} else {
+			index = null;
+		}
+		keyColumn = index != null ? index.getKeyColumn() : SQLUtils
+				.getIntegerPrimaryKey(conn, tableName);
+	}
+
+	/**
+	 * Gives the k rows nearest to the query to the visitor, closest first.
+	 * Null and empty geometries are never given.
+	 */
+	public void search(Connection conn, Geometry query, int k,
+			NeighbourVisitor visitor) throws SQLException {
+		nodeReads = 0;
+		refinements = 0;
+		if (k <= 0 || query.isEmpty()) {
+			return;
+		}
+		if (index != null) {
+			searchIndex(conn, query, k, visitor);
+		} else {
+			searchTree(conn, query, k, visitor);
+		}
+	}
+
+	private void searchIndex(Connection conn, Geometry query, int k,
+			NeighbourVisitor visitor) throws SQLException {
+		Envelope env = query.getEnvelopeInternal();
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		Map<Long, IndexEntry> delta = index.readDelta(conn);
+		for (IndexEntry entry : delta.values()) {
+			if (entry != null) {
+				queue.add(new Candidate(entry.distance(env), ROW, entry.ref,
+						null));
+			}
+		}
+		if (index.getRootId() >= 0) {
+			queue.add(new Candidate(0, NODE, index.getRootId(), null));
+		}
+		PreparedStatement nodes = index.prepareNodeQuery(conn);
+		PreparedStatement values = conn.prepareStatement("SELECT "
+				+ columnName + " FROM " + tableName + " WHERE " + keyColumn
+				+ " = ?");
+		try {
+			int found = 0;
+			while (found < k && !queue.isEmpty()) {
+				Candidate candidate = queue.poll();
+				if (candidate.type == NODE) {
+					nodes.setInt(1, (int) candidate.ref);
+					ResultSet rs = nodes.executeQuery();
+					rs.next();
+					nodeReads++;
+					boolean leaf = rs.getBoolean(1);
+					for (IndexEntry entry : IndexEntry.decode(rs.getBytes(2))) {
+						if (!leaf) {
+							queue.add(new Candidate(entry.distance(env), NODE,
+									entry.ref, null));
+						} else if (!delta.containsKey(Long.valueOf(entry.ref))) {
+							queue.add(new Candidate(entry.distance(env), ROW,
+									entry.ref, null));
+						}
+					}
+					rs.close();
+				} else if (candidate.type == ROW) {
+					values.setLong(1, candidate.ref);
+					ResultSet rs = values.executeQuery();
+					byte[] wkb = rs.next() ? rs.getBytes(1) : null;
+					rs.close();
+					if (wkb != null) {
+						refine(query, candidate.ref, read(wkb), queue);
+					}
+				} else {
+					visitor.visit(candidate.ref, candidate.distance);
+					found++;
+				}
+			}
+		} finally {
+			nodes.close();
+			values.close();
+		}
+	}
+
+	private void searchTree(Connection conn, Geometry query, int k,
+			NeighbourVisitor visitor) throws SQLException {
+		STRtree tree = new STRtree();
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", "
+					+ columnName + " FROM " + tableName + " WHERE "
+					+ columnName + " IS NOT NULL");
+			while (rs.next()) {
+				Geometry geom = read(rs.getBytes(2));
+				if (!geom.isEmpty()) {
+					tree.insert(geom.getEnvelopeInternal(), new Candidate(0,
+							ROW, rs.getLong(1), geom));
+				}
+			}
+		} finally {
+			st.close();
+		}
+		Envelope env = query.getEnvelopeInternal();
+		PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		queue.add(new Candidate(0, NODE, 0, tree.getRoot()));
+		int found = 0;
+		while (found < k && !queue.isEmpty()) {
+			Candidate candidate = queue.poll();
+			if (candidate.type == NODE) {
+				nodeReads++;
+				for (Object child : ((AbstractNode) candidate.item)
+						.getChildBoundables()) {
+					if (child instanceof AbstractNode) {
+						AbstractNode node = (AbstractNode) child;
+						queue.add(new Candidate(((Envelope) node.getBounds())
+								.distance(env), NODE, 0, node));
+					} else {
+						ItemBoundable item = (ItemBoundable) child;
+						Candidate row = (Candidate) item.getItem();
+						queue.add(new Candidate(((Envelope) item.getBounds())
+								.distance(env), ROW, row.ref, row.item));
+					}
+				}
+			} else if (candidate.type == ROW) {
+				refine(query, candidate.ref, (Geometry) candidate.item, queue);
+			} else {
+				visitor.visit(candidate.ref, candidate.distance);
+				found++;
+			}
+		}
+	}
+
+	private void refine(Geometry query, long key, Geometry geom,
+			PriorityQueue<Candidate> queue) {
+		if (geom.isEmpty()) {
+			return;
+		}
+		refinements++;
+		queue.add(new Candidate(query.distance(geom), EXACT, key, null));
+	}
+
+	private static Geometry read(byte[] wkb) throws SQLException {
+		try {
+			return GeometryCodec.read(wkb);
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return true if the search reads the persistent spatial index of the
+	 *         column.
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+
+	/**
+	 * @return the number of tree nodes read by the last search.
+	 */
+	public int getNodeReads() {
+		return nodeReads;
+	}
+
+	/**
+	 * @return the number of exact distances computed by the last search.
+	 */
+	public int getRefinements() {
+		return refinements;
+	}
+
+	/**
+	 * A node, a row known by the distance to its envelope or a row known by
+	 * its exact distance.
+	 */
+	private static final class Candidate implements Comparable<Candidate> {
+
+		final double distance;
+
+		final int type;
+
+		final long ref;
+
+		final Object item;
+
+		Candidate(double distance, int type, long ref, Object item) {
+			this.distance = distance;
+			this.type = type;
+			this.ref = ref;
+			this.item = item;
+		}
+
+		public int compareTo(Candidate other) {
+			int cmp = Double.compare(distance, other.distance);
+			if (cmp != 0) {
+				return cmp;
+			}
+			// at the same distance, results first so the search ends sooner
+			if (type != other.type) {
+				return other.type - type;
+			}
+			return ref < other.ref ? -1 : (ref == other.ref ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the nearest rows found by a NearestNeighbourSearch, closest first.
+ */
+public interface NeighbourVisitor {
+
+	void visit(long key, double distance) throws SQLException;
+}
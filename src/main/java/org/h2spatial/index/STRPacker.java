@@ -0,0 +1,60 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sort-Tile-Recursive packing of the entries of one tree level into nodes.
+ *
+ * Entries are sorted on the x of their centre and cut into vertical slices,
+ * each slice is sorted on y and cut into nodes of at most capacity entries.
+ */
+public final class STRPacker {
+
+	private static final Comparator<IndexEntry> X_ORDER = new Comparator<IndexEntry>() {
+		public int compare(IndexEntry e1, IndexEntry e2) {
+			return Double.compare(e1.centreX(), e2.centreX());
+		}
+	};
+
+	private static final Comparator<IndexEntry> Y_ORDER = new Comparator<IndexEntry>() {
+		public int compare(IndexEntry e1, IndexEntry e2) {
+			return Double.compare(e1.centreY(), e2.centreY());
+		}
+	};
+
+	private STRPacker() {
+	}
+
+	public static List<List<IndexEntry>> pack(List<IndexEntry> entries,
+			int capacity) {
+		List<List<IndexEntry>> nodes = new ArrayList<List<IndexEntry>>();
+		if (entries.isEmpty()) {
+			return nodes;
+		}
+		List<IndexEntry> sorted = new ArrayList<IndexEntry>(entries);
+		Collections.sort(sorted, X_ORDER);
+		int nodeCount = (sorted.size() + capacity - 1) / capacity;
+		int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+		int sliceSize = sliceCount * capacity;
+		for (int start = 0; start < sorted.size(); start += sliceSize) {
+			List<IndexEntry> slice = new ArrayList<IndexEntry>(sorted.subList(
+					start, Math.min(start + sliceSize, sorted.size())));
+			Collections.sort(slice, Y_ORDER);
+			for (int i = 0; i < slice.size(); i += capacity) {
+				nodes.add(new ArrayList<IndexEntry>(slice.subList(i, Math.min(
+						i + capacity, slice.size()))));
+			}
+		}
+		return nodes;
+	}
+}
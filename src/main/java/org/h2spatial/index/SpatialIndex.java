@@ -0,0 +1,427 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Persistent R-tree on the geometry column of a table, stored in H2 tables.
+ *
+ * The tree is packed with the STR algorithm when the index is built. Each
+ * node is a row of the node table, named TABLE_COLUMN_RTREE, holding the
+ * encoded entries of the node. Leaf entries point to the integer primary key
+ * of the indexed table. A query reads the nodes it needs by their id, so only
+ * a few rows are read for a small window whatever the size of the table.
+ *
+ * Rows inserted, updated or deleted after the build are recorded by a trigger
+ * in the delta table TABLE_COLUMN_RTREE_DELTA, which queries merge with the
+ * tree. Rebuilding the index packs them into the tree and empties the delta
+ * table. The trigger rebuilds the index itself when the delta table grows
+ * past an eighth of the tree, or past DELTA_REBUILD_ROWS rows for a small
+ * table.
+ *
+ * Indexes are listed in the SPATIAL_INDEXES table.
+ */
+public class SpatialIndex {
+
+	public static final String REGISTRY = "SPATIAL_INDEXES";
+
+	public static final int NODE_CAPACITY = 64;
+
+	public static final int DELTA_REBUILD_ROWS = 1024;
+
+	public static final int DELTA_REBUILD_RATIO = 8;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final String keyColumn;
+
+	private int rootId;
+
+	private int height;
+
+	private long size;
+
+	SpatialIndex(String tableName, String columnName, String keyColumn,
+			int rootId, int height, long size) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.keyColumn = keyColumn;
+		this.rootId = rootId;
+		this.height = height;
+		this.size = size;
+	}
+
+	/**
+	 * Creates and builds the index of a geometry column.
+	 */
+	public static SpatialIndex create(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		if (find(conn, tableName, columnName) != null) {
+			throw new SQLException("The column " + tableName + "."
+					+ columnName + " is already indexed");
+		}
+		String keyColumn = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+		createRegistry(conn);
+		SpatialIndex index = new SpatialIndex(tableName, columnName,
+				keyColumn, -1, 0, 0);
+		SQLUtils.execute(conn, "CREATE TABLE " + index.getNodeTable()
+				+ "(NODE_ID INT PRIMARY KEY, LEAF BOOLEAN, ENTRIES BLOB)");
+		SQLUtils.execute(conn, "CREATE TABLE " + index.getDeltaTable()
+				+ "(KEY BIGINT PRIMARY KEY, MINX DOUBLE, MINY DOUBLE, "
+				+ "MAXX DOUBLE, MAXY DOUBLE)");
+		index.build(conn);
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ REGISTRY + " VALUES(?, ?, ?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			insert.setString(3, keyColumn);
+			insert.setInt(4, index.rootId);
+			insert.setInt(5, index.height);
+			insert.setLong(6, index.size);
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+		SQLUtils.execute(conn, "CREATE TRIGGER " + index.getTriggerName()
+				+ " AFTER INSERT, UPDATE, DELETE ON " + tableName
+				+ " FOR EACH ROW CALL \""
+				+ SpatialIndexTrigger.class.getName() + "\"");
+		return index;
+	}
+
+	/**
+	 * @return the index of the column, or null if it is not indexed.
+	 */
+	public static SpatialIndex find(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		// a DDL statement would commit the transaction of the caller
+		if (!SQLUtils.tableExists(conn, REGISTRY)) {
+			return null;
+		}
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		PreparedStatement select = conn.prepareStatement("SELECT KEY_COLUMN, "
+				+ "ROOT_ID, HEIGHT, ENTRY_COUNT FROM " + REGISTRY
+				+ " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			if (!rs.next()) {
+				return null;
+			}
+			return new SpatialIndex(tableName, columnName, rs.getString(1),
+					rs.getInt(2), rs.getInt(3), rs.getLong(4));
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * @return the index of the column, an exception is thrown if it is not
+	 *         indexed.
+	 */
+	public static SpatialIndex get(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		SpatialIndex index = find(conn, tableName, columnName);
+		if (index == null) {
+			throw new SQLException("No spatial index on " + tableName + "."
+					+ columnName);
+		}
+		return index;
+	}
+
+	static void createRegistry(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + REGISTRY
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR, "
+				+ "KEY_COLUMN VARCHAR, ROOT_ID INT, HEIGHT INT, "
+				+ "ENTRY_COUNT BIGINT, PRIMARY KEY(TABLE_NAME, COLUMN_NAME))");
+	}
+
+	public void drop(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS " + getTriggerName());
+		SQLUtils.execute(conn, "DROP TABLE IF EXISTS " + getNodeTable());
+		SQLUtils.execute(conn, "DROP TABLE IF EXISTS " + getDeltaTable());
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ REGISTRY + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			delete.setString(1, tableName);
+			delete.setString(2, columnName);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+	}
+
+	/**
+	 * Packs the current content of the table into a new tree.
+	 */
+	public void rebuild(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "DELETE FROM " + getNodeTable());
+		SQLUtils.execute(conn, "DELETE FROM " + getDeltaTable());
+		build(conn);
+		PreparedStatement update = conn.prepareStatement("UPDATE " + REGISTRY
+				+ " SET ROOT_ID = ?, HEIGHT = ?, ENTRY_COUNT = ?"
+				+ " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			update.setInt(1, rootId);
+			update.setInt(2, height);
+			update.setLong(3, size);
+			update.setString(4, tableName);
+			update.setString(5, columnName);
+			update.execute();
+		} finally {
+			update.close();
+		}
+	}
+
+	private void build(Connection conn) throws SQLException {
+		List<IndexEntry> level = readEntries(conn);
+		size = level.size();
+		rootId = -1;
+		height = 0;
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ getNodeTable() + " VALUES(?, ?, ?)");
+		try {
+			int nodeId = 0;
+			boolean leaf = true;
+			while (!level.isEmpty()) {
+				height++;
+				List<IndexEntry> parents = new ArrayList<IndexEntry>();
+				for (List<IndexEntry> node : STRPacker.pack(level,
+						NODE_CAPACITY)) {
+					insert.setInt(1, nodeId);
+					insert.setBoolean(2, leaf);
+					insert.setBytes(3, IndexEntry.encode(node));
+					insert.execute();
+					parents.add(IndexEntry.union(node, nodeId));
+					nodeId++;
+				}
+				if (parents.size() == 1) {
+					rootId = nodeId - 1;
+					break;
+				}
+				level = parents;
+				leaf = false;
+			}
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		} finally {
+			insert.close();
+		}
+	}
+
+	private List<IndexEntry> readEntries(Connection conn) throws SQLException {
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", "
+					+ columnName + " FROM " + tableName + " WHERE "
+					+ columnName + " IS NOT NULL");
+			while (rs.next()) {
+				IndexEntry entry = createEntry(rs.getLong(1), rs.getBytes(2));
+				if (entry != null) {
+					entries.add(entry);
+				}
+			}
+		} finally {
+			st.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the leaf entry of a geometry, null for an empty geometry.
+	 */
+	static IndexEntry createEntry(long key, byte[] wkb) throws SQLException {
+		Envelope env;
+		try {
+			env = GeometryCodec.readEnvelope(wkb);
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+		if (env.isNull()) {
+			return null;
+		}
+		return new IndexEntry(env.getMinX(), env.getMinY(), env.getMaxX(),
+				env.getMaxY(), key);
+	}
+
+	/**
+	 * Visits the keys of the rows whose envelope intersects env.
+	 */
+	public void query(Connection conn, Envelope env, IndexVisitor visitor)
+			throws SQLException {
+		IndexReader reader = openReader(conn);
+		try {
+			reader.query(env, visitor);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @return a reader for the queries of a statement, to be closed by the
+	 *         caller.
+	 */
+	public IndexReader openReader(Connection conn) throws SQLException {
+		return new IndexReader(conn, this);
+	}
+
+	PreparedStatement prepareNodeQuery(Connection conn) throws SQLException {
+		return conn.prepareStatement("SELECT LEAF, ENTRIES FROM "
+				+ getNodeTable() + " WHERE NODE_ID = ?");
+	}
+
+	/**
+	 * @return the rows changed since the last build. A deleted row maps to
+	 *         null.
+	 */
+	Map<Long, IndexEntry> readDelta(Connection conn) throws SQLException {
+		Map<Long, IndexEntry> delta = new HashMap<Long, IndexEntry>();
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT KEY, MINX, MINY, MAXX, MAXY FROM "
+					+ getDeltaTable());
+			while (rs.next()) {
+				long key = rs.getLong(1);
+				double minX = rs.getDouble(2);
+				IndexEntry entry = null;
+				if (!rs.wasNull()) {
+					entry = new IndexEntry(minX, rs.getDouble(3), rs
+							.getDouble(4), rs.getDouble(5), key);
+				}
+				delta.put(Long.valueOf(key), entry);
+			}
+		} finally {
+			st.close();
+		}
+		return delta;
+	}
+
+	long countDelta(Connection conn) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM "
+					+ getDeltaTable());
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * @return the number of rows the delta table may hold before the index
+	 *         is rebuilt.
+	 */
+	long getDeltaLimit() {
+		return Math.max(DELTA_REBUILD_ROWS, size / DELTA_REBUILD_RATIO);
+	}
+
+	/**
+	 * Records a change of the indexed table.
+	 *
+	 * @param entry
+	 *            the new leaf entry of the row, null if the row was deleted
+	 *            or its geometry is null or empty.
+	 */
+	void recordChange(Connection conn, long key, IndexEntry entry)
+			throws SQLException {
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ getDeltaTable() + " WHERE KEY = ?");
+		try {
+			delete.setLong(1, key);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ getDeltaTable() + " VALUES(?, ?, ?, ?, ?)");
+		try {
+			insert.setLong(1, key);
+			if (entry != null) {
+				insert.setDouble(2, entry.minX);
+				insert.setDouble(3, entry.minY);
+				insert.setDouble(4, entry.maxX);
+				insert.setDouble(5, entry.maxY);
+			} else {
+				for (int i = 2; i <= 5; i++) {
+					insert.setNull(i, Types.DOUBLE);
+				}
+			}
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public String getKeyColumn() {
+		return keyColumn;
+	}
+
+	int getRootId() {
+		return rootId;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of entries packed in the tree at the last build.
+	 */
+	public long size() {
+		return size;
+	}
+
+	public String getNodeTable() {
+		return tableName + "_" + columnName + "_RTREE";
+	}
+
+	public String getDeltaTable() {
+		return getNodeTable() + "_DELTA";
+	}
+
+	public String getTriggerName() {
+		return getNodeTable() + "_TRG";
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2.api.Trigger;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * Records the rows changed in an indexed table into the delta table of the
+ * spatial index.
+ *
+ * The index may be rebuilt by RebuildSpatialIndex or by another session, so
+ * its registry row is read again when the delta limit is reached, the limit
+ * depending on the size of the tree.
+ */
+public class SpatialIndexTrigger implements Trigger {
+
+	private SpatialIndex index;
+
+	private int keyPosition;
+
+	private int geometryPosition;
+
+	/**
+	 * Changes recorded since the delta table was last counted, added to its
+	 * count. Changes of the same row are counted again.
+	 */
+	private long deltaRows;
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT COLUMN_NAME FROM "
+				+ SpatialIndex.REGISTRY + " WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				SpatialIndex candidate = SpatialIndex.get(conn, tableName, rs
+						.getString(1));
+				if (candidate.getTriggerName().equals(triggerName)) {
+					index = candidate;
+				}
+			}
+		} finally {
+			select.close();
+		}
+		if (index == null) {
+			throw new SQLException("No spatial index for the trigger "
+					+ triggerName);
+		}
+		keyPosition = SQLUtils.getColumnPosition(conn, tableName, index
+				.getKeyColumn());
+		geometryPosition = SQLUtils.getColumnPosition(conn, tableName, index
+				.getColumnName());
+		deltaRows = index.countDelta(conn);
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		// BLOB values are given as streams, read only once
+		byte[] wkb = newRow == null ? null : SQLUtils
+				.toBytes(newRow[geometryPosition]);
+		if (oldRow != null) {
+			long oldKey = ((Number) oldRow[keyPosition]).longValue();
+			if (newRow == null
+					|| ((Number) newRow[keyPosition]).longValue() != oldKey) {
+				recordChange(conn, oldKey, null);
+			} else if (Arrays.equals(SQLUtils
+					.toBytes(oldRow[geometryPosition]), wkb)) {
+				// an update of the other columns leaves the tree as it is
+				return;
+			}
+		}
+		if (newRow != null) {
+			long key = ((Number) newRow[keyPosition]).longValue();
+			recordChange(conn, key, wkb == null ? null : SpatialIndex
+					.createEntry(key, wkb));
+		}
+		if (deltaRows > index.getDeltaLimit()) {
+			index = SpatialIndex.get(conn, index.getTableName(), index
+					.getColumnName());
+			deltaRows = index.countDelta(conn);
+			// a row changed several times was counted several times, the
+			// delta table is counted again after half the limit at least
+			if (deltaRows > index.getDeltaLimit() / 2) {
+				index.rebuild(conn);
+				deltaRows = 0;
+			}
+		}
+	}
+
+	private void recordChange(Connection conn, long key, IndexEntry entry)
+			throws SQLException {
+		index.recordChange(conn, key, entry);
+		deltaRows++;
+	}
+}
@@ -0,0 +1,106 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.join;
+
+import java.sql.SQLException;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+
+/**
+ * Predicates accepted by a spatial join, evaluated as predicate(a, b) for a
+ * row a of the first table and a row b of the second table.
+ *
+ * The prepared geometry may come from either table, the converse predicate
+ * is used when it comes from the second one. All these predicates need
+ * intersecting envelopes.
+ */
+public enum JoinPredicate {
+
+	INTERSECTS {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return prepared.intersects(other);
+		}
+	},
+	CONTAINS {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return preparedFirst ? prepared.contains(other) : prepared
+					.within(other);
+		}
+	},
+	WITHIN {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return preparedFirst ? prepared.within(other) : prepared
+					.contains(other);
+		}
+	},
+	COVERS {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return preparedFirst ? prepared.covers(other) : prepared
+					.coveredBy(other);
+		}
+	},
+	COVEREDBY {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return preparedFirst ? prepared.coveredBy(other) : prepared
+					.covers(other);
+		}
+	},
+	TOUCHES {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return prepared.touches(other);
+		}
+	},
+	OVERLAPS {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return prepared.overlaps(other);
+		}
+	},
+	CROSSES {
+		@Override
+		boolean evaluate(PreparedGeometry prepared, Geometry other,
+				boolean preparedFirst) {
+			return prepared.crosses(other);
+		}
+	};
+
+	/**
+	 * @param preparedFirst
+	 *            true if the prepared geometry comes from the first table.
+	 */
+	abstract boolean evaluate(PreparedGeometry prepared, Geometry other,
+			boolean preparedFirst);
+
+	/**
+	 * @param name
+	 *            the predicate name, e.g. 'intersects'.
+	 */
+	public static JoinPredicate get(String name) throws SQLException {
+		String key = name.trim().toUpperCase().replace("_", "");
+		for (JoinPredicate predicate : values()) {
+			if (predicate.name().equals(key)) {
+				return predicate;
+			}
+		}
+		throw new SQLException("Unsupported join predicate : " + name);
+	}
+}
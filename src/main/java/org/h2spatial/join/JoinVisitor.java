@@ -0,0 +1,19 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.join;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the matching pairs of a spatial join, always from the thread that
+ * runs the join.
+ */
+public interface JoinVisitor {
+
+	void visit(long keyA, long keyB) throws SQLException;
+}
@@ -0,0 +1,638 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.join;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.index.IndexReader;
+import org.h2spatial.index.IndexVisitor;
+import org.h2spatial.index.SpatialIndex;
+import org.h2spatial.util.ParallelExecutor;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Spatial join of two tables on a predicate, giving the primary keys of the
+ * matching rows.
+ *
+ * The smaller table is decoded into an in-memory STR tree, then the other
+ * table is streamed once and its rows are evaluated by batches on the shared
+ * worker threads: each row is decoded and prepared once, then tested against
+ * the tree candidates whose envelope intersects its own. When the decoded
+ * table goes over the memory budget, it is split into partitions and the
+ * other table is streamed once per partition.
+ *
+ * When the larger table has a spatial index and is much larger than the
+ * other one, the smaller table is streamed instead and each of its rows looks
+ * up its candidates in the index, so that the larger table is only read
+ * around the rows of the smaller one.
+ *
+ * A distance join matches the rows within a distance of each other: the
+ * envelopes are grown by the distance to find the candidates, a candidate
+ * intersecting the prepared geometry is at distance 0, and the distance of
+ * the others is computed. The pairs are given with their distance.
+ */
+public class SpatialJoin {
+
+	/**
+	 * Number of streamed rows evaluated by a task.
+	 */
+	static final int BATCH_SIZE = 256;
+
+	/**
+	 * Estimated size of a tree entry without its coordinates.
+	 */
+	static final int BYTES_PER_ENTRY = 160;
+
+	/**
+	 * Estimated size of a decoded coordinate.
+	 */
+	static final int BYTES_PER_POINT = 48;
+
+	/**
+	 * Ratio of the row counts from which the larger table is read through its
+	 * spatial index rather than streamed.
+	 */
+	static final int INDEX_RATIO = 64;
+
+	/**
+	 * Number of candidates read by a single query of the indexed table.
+	 */
+	static final int CHUNK_SIZE = 500;
+
+	private final Side a;
+
+	private final Side b;
+
+	/**
+	 * Predicate of the join, null for a distance join.
+	 */
+	private final JoinPredicate predicate;
+
+	private final double distance;
+
+	private final long memoryBudget;
+
+	private boolean indexed;
+
+	private int partitions;
+
+	private long candidates;
+
+	private long matches;
+
+	/**
+	 * @param memoryBudget
+	 *            estimated memory, in bytes, for a partition of the table
+	 *            loaded in memory.
+	 */
+	public SpatialJoin(Connection conn, String tableA, String columnA,
+			String tableB, String columnB, JoinPredicate predicate,
+			long memoryBudget) throws SQLException {
+		this.a = new Side(conn, tableA, columnA);
+		this.b = new Side(conn, tableB, columnB);
+		this.predicate = predicate;
+		this.distance = 0;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Distance join, matching the rows within distance of each other.
+	 */
+	public SpatialJoin(Connection conn, String tableA, String columnA,
+			String tableB, String columnB, double distance, long memoryBudget)
+			throws SQLException {
+		if (!(distance >= 0) || Double.isInfinite(distance)) {
+			throw new SQLException("Invalid distance : " + distance);
+		}
+		this.a = new Side(conn, tableA, columnA);
+		this.b = new Side(conn, tableB, columnB);
+		this.predicate = null;
+		this.distance = distance;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Runs the join, the pairs are given to the visitor in no particular
+	 * order.
+	 */
+	public void run(Connection conn, JoinVisitor visitor) throws SQLException {
+		run(conn, visitor, null);
+	}
+
+	/**
+	 * Runs a distance join, the pairs are given to the visitor with their
+	 * distance in no particular order.
+	 */
+	public void run(Connection conn, DistanceJoinVisitor visitor)
+			throws SQLException {
+		if (predicate != null) {
+			throw new SQLException("Not a distance join");
+		}
+		run(conn, null, visitor);
+	}
+
+	private void run(Connection conn, JoinVisitor visitor,
+			DistanceJoinVisitor distanceVisitor) throws SQLException {
+		indexed = false;
+		partitions = 0;
+		candidates = 0;
+		matches = 0;
+		long countA = a.count(conn);
+		long countB = b.count(conn);
+		boolean loadFirst = countA <= countB;
+		Side loaded = loadFirst ? a : b;
+		Side streamed = loadFirst ? b : a;
+		SpatialIndex index = null;
+		if (Math.min(countA, countB) * INDEX_RATIO <= Math.max(countA, countB)) {
+			index = streamed.findIndex(conn);
+		}
+		if (index != null) {
+			indexed = true;
+			probeIndex(conn, loaded, streamed, index, loadFirst, visitor,
+					distanceVisitor);
+			return;
+		}
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(loaded.select());
+			STRtree tree = new STRtree();
+			long memory = 0;
+			int size = 0;
+			while (rs.next()) {
+				byte[] wkb = rs.getBytes(2);
+				Geometry geom = read(wkb);
+				if (geom.isEmpty()) {
+					continue;
+				}
+				long entryMemory = BYTES_PER_ENTRY + (long) geom.getNumPoints()
+						* BYTES_PER_POINT;
+				if (size > 0 && memory + entryMemory > memoryBudget) {
+					probe(conn, tree, streamed, !loadFirst, visitor,
+							distanceVisitor);
+					tree = new STRtree();
+					memory = 0;
+					size = 0;
+				}
+				tree.insert(geom.getEnvelopeInternal(), new Item(rs.getLong(1),
+						geom));
+				memory += entryMemory;
+				size++;
+			}
+			if (size > 0) {
+				probe(conn, tree, streamed, !loadFirst, visitor,
+						distanceVisitor);
+			}
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Streams a table against one partition.
+	 */
+	private void probe(Connection conn, STRtree tree, Side streamed,
+			boolean streamedFirst, JoinVisitor visitor,
+			DistanceJoinVisitor distanceVisitor) throws SQLException {
+		partitions++;
+		tree.build();
+		int maxPending = 2 * ParallelExecutor.getParallelism();
+		LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(streamed.select());
+			Batch batch = new Batch(tree, streamedFirst);
+			while (rs.next()) {
+				batch.add(rs.getLong(1), rs.getBytes(2));
+				if (batch.size == BATCH_SIZE) {
+					pending.add(ParallelExecutor.submit(batch));
+					batch = new Batch(tree, streamedFirst);
+					if (pending.size() >= maxPending) {
+						emit(ParallelExecutor.get(pending.removeFirst()),
+								visitor, distanceVisitor);
+					}
+				}
+			}
+			if (batch.size > 0) {
+				pending.add(ParallelExecutor.submit(batch));
+			}
+			while (!pending.isEmpty()) {
+				emit(ParallelExecutor.get(pending.removeFirst()), visitor,
+						distanceVisitor);
+			}
+		} finally {
+			for (Future<Batch> future : pending) {
+				future.cancel(false);
+			}
+			st.close();
+		}
+	}
+
+	/**
+	 * Streams the smaller table, the candidates of each row being read
+	 * through the spatial index of the larger one.
+	 */
+	private void probeIndex(Connection conn, Side streamed, Side indexedSide,
+			SpatialIndex index, boolean streamedFirst, JoinVisitor visitor,
+			DistanceJoinVisitor distanceVisitor) throws SQLException {
+		int maxPending = 2 * ParallelExecutor.getParallelism();
+		LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+		Statement st = conn.createStatement();
+		Statement fetch = conn.createStatement();
+		IndexReader reader = index.openReader(conn);
+		try {
+			reader.loadDelta();
+			ResultSet rs = st.executeQuery(streamed.select());
+			Batch batch = new Batch(null, streamedFirst);
+			final List<Long> keys = new ArrayList<Long>();
+			while (rs.next()) {
+				byte[] wkb = rs.getBytes(2);
+				Envelope env = readEnvelope(wkb);
+				if (env.isNull()) {
+					continue;
+				}
+				env.expandBy(distance);
+				keys.clear();
+				reader.query(env, new IndexVisitor() {
+					public void visit(long key) {
+						keys.add(Long.valueOf(key));
+					}
+				});
+				if (keys.isEmpty()) {
+					continue;
+				}
+				long[] candidateKeys = new long[keys.size()];
+				for (int i = 0; i < candidateKeys.length; i++) {
+					candidateKeys[i] = keys.get(i).longValue();
+				}
+				batch.add(rs.getLong(1), wkb, candidateKeys,
+						new byte[candidateKeys.length][]);
+				if (batch.size == BATCH_SIZE) {
+					fetchCandidates(fetch, indexedSide, index, batch);
+					pending.add(ParallelExecutor.submit(batch));
+					batch = new Batch(null, streamedFirst);
+					if (pending.size() >= maxPending) {
+						emit(ParallelExecutor.get(pending.removeFirst()),
+								visitor, distanceVisitor);
+					}
+				}
+			}
+			if (batch.size > 0) {
+				fetchCandidates(fetch, indexedSide, index, batch);
+				pending.add(ParallelExecutor.submit(batch));
+			}
+			while (!pending.isEmpty()) {
+				emit(ParallelExecutor.get(pending.removeFirst()), visitor,
+						distanceVisitor);
+			}
+		} finally {
+			for (Future<Batch> future : pending) {
+				future.cancel(false);
+			}
+			reader.close();
+			fetch.close();
+			st.close();
+		}
+	}
+
+	/**
+	 * Reads the candidates of the rows of a batch, by chunks of keys.
+	 */
+	private void fetchCandidates(Statement fetch, Side indexedSide,
+			SpatialIndex index, Batch batch) throws SQLException {
+		Map<Long, byte[]> values = new HashMap<Long, byte[]>();
+		List<Long> keys = new ArrayList<Long>();
+		for (int i = 0; i < batch.size; i++) {
+			for (long key : batch.candidateKeys[i]) {
+				if (!values.containsKey(Long.valueOf(key))) {
+					values.put(Long.valueOf(key), null);
+					keys.add(Long.valueOf(key));
+				}
+			}
+		}
+		StringBuilder select = new StringBuilder("SELECT ");
+		select.append(index.getKeyColumn()).append(", ").append(
+				indexedSide.columnName).append(" FROM ").append(
+				indexedSide.tableName).append(" WHERE ").append(
+				index.getKeyColumn()).append(" IN (");
+		for (int start = 0; start < keys.size(); start += CHUNK_SIZE) {
+			StringBuilder chunk = new StringBuilder(select);
+			int end = Math.min(keys.size(), start + CHUNK_SIZE);
+			for (int i = start; i < end; i++) {
+				if (i > start) {
+					chunk.append(", ");
+				}
+				chunk.append(keys.get(i));
+			}
+			chunk.append(")");
+			ResultSet rs = fetch.executeQuery(chunk.toString());
+			while (rs.next()) {
+				values.put(Long.valueOf(rs.getLong(1)), rs.getBytes(2));
+			}
+			rs.close();
+		}
+		for (int i = 0; i < batch.size; i++) {
+			long[] candidateKeys = batch.candidateKeys[i];
+			for (int j = 0; j < candidateKeys.length; j++) {
+				batch.candidateValues[i][j] = values.get(Long
+						.valueOf(candidateKeys[j]));
+			}
+		}
+	}
+
+	private void emit(Batch batch, JoinVisitor visitor,
+			DistanceJoinVisitor distanceVisitor) throws SQLException {
+		candidates += batch.candidates;
+		matches += batch.pairCount / 2;
+		long[] pairs = batch.pairs;
+		for (int i = 0; i < batch.pairCount; i += 2) {
+			if (distanceVisitor != null) {
+				distanceVisitor.visit(pairs[i], pairs[i + 1],
+						batch.distances[i / 2]);
+			} else {
+				visitor.visit(pairs[i], pairs[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * @return the distance of two geometries if at most the distance of the
+	 *         join, an infinite distance otherwise.
+	 */
+	private double distance(PreparedGeometry prepared, Geometry other) {
+		Geometry geom = prepared.getGeometry();
+		if (geom.getEnvelopeInternal().distance(other.getEnvelopeInternal()) > distance) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (prepared.intersects(other)) {
+			return 0;
+		}
+		double d = geom.distance(other);
+		return d <= distance ? d : Double.POSITIVE_INFINITY;
+	}
+
+	private static Envelope readEnvelope(byte[] wkb) throws SQLException {
+		try {
+			Envelope env = GeometryCodec.readEnvelope(wkb);
+			return env == null ? new Envelope() : new Envelope(env);
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	static Geometry read(byte[] wkb) throws SQLException {
+		try {
+			return GeometryCodec.read(wkb);
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return true if the last run read the larger table through its spatial
+	 *         index.
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * @return the number of partitions of the last run.
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * @return the number of pairs with intersecting envelopes of the last run.
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return the number of matching pairs of the last run.
+	 */
+	public long getMatches() {
+		return matches;
+	}
+
+	/**
+	 * A joined table and its geometry column.
+	 */
+	static final class Side {
+
+		final String tableName;
+
+		final String columnName;
+
+		final String keyColumn;
+
+		Side(Connection conn, String tableName, String columnName)
+				throws SQLException {
+			this.tableName = SQLUtils.normalize(tableName);
+			this.columnName = SQLUtils.normalize(columnName);
+			this.keyColumn = SQLUtils.getIntegerPrimaryKey(conn, this.tableName);
+		}
+
+		/**
+		 * @return the spatial index of the column, null if it has none.
+		 */
+		SpatialIndex findIndex(Connection conn) throws SQLException {
+			if (!SQLUtils.tableExists(conn, SpatialIndex.REGISTRY)) {
+				return null;
+			}
+			return SpatialIndex.find(conn, tableName, columnName);
+		}
+
+		String select() {
+			return "SELECT " + keyColumn + ", " + columnName + " FROM "
+					+ tableName + " WHERE " + columnName + " IS NOT NULL";
+		}
+
+		long count(Connection conn) throws SQLException {
+			Statement st = conn.createStatement();
+			try {
+				ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM "
+						+ tableName);
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				st.close();
+			}
+		}
+	}
+
+	/**
+	 * A decoded row of the partition loaded in memory. The geometries are
+	 * only read by the tasks.
+	 */
+	static final class Item {
+
+		final long key;
+
+		final Geometry geometry;
+
+		Item(long key, Geometry geometry) {
+			this.key = key;
+			this.geometry = geometry;
+		}
+	}
+
+	/**
+	 * Streamed rows evaluated by one task, the matching keys are stored as
+	 * (keyA, keyB) pairs. The candidates come from the tree of the loaded
+	 * partition, or were read through a spatial index with each row.
+	 */
+	final class Batch implements Callable<Batch> {
+
+		private final STRtree tree;
+
+		private final boolean streamedFirst;
+
+		private final long[] keys = new long[BATCH_SIZE];
+
+		private final byte[][] values = new byte[BATCH_SIZE][];
+
+		private final long[][] candidateKeys;
+
+		private final byte[][][] candidateValues;
+
+		int size;
+
+		long[] pairs = new long[64];
+
+		/**
+		 * Distance of each pair of a distance join.
+		 */
+		double[] distances;
+
+		int pairCount;
+
+		long candidates;
+
+		/**
+		 * @param tree
+		 *            the loaded partition, null when the candidates are given
+		 *            with the rows.
+		 */
+		Batch(STRtree tree, boolean streamedFirst) {
+			this.tree = tree;
+			this.streamedFirst = streamedFirst;
+			this.candidateKeys = tree == null ? new long[BATCH_SIZE][] : null;
+			this.candidateValues = tree == null ? new byte[BATCH_SIZE][][]
+					: null;
+			this.distances = predicate == null ? new double[32] : null;
+		}
+
+		void add(long key, byte[] wkb) {
+			keys[size] = key;
+			values[size] = wkb;
+			size++;
+		}
+
+		void add(long key, byte[] wkb, long[] keys, byte[][] values) {
+			candidateKeys[size] = keys;
+			candidateValues[size] = values;
+			add(key, wkb);
+		}
+
+		public Batch call() throws SQLException, ParseException {
+			for (int i = 0; i < size; i++) {
+				List<?> items;
+				if (tree != null) {
+					Envelope env = readEnvelope(values[i]);
+					if (env.isNull()) {
+						continue;
+					}
+					env.expandBy(distance);
+					items = tree.query(env);
+				} else {
+					items = decodeCandidates(i);
+				}
+				if (items.isEmpty()) {
+					continue;
+				}
+				candidates += items.size();
+				PreparedGeometry prepared = PreparedGeometryFactory
+						.prepare(read(values[i]));
+				for (Object o : items) {
+					Item item = (Item) o;
+					double d = 0;
+					if (predicate == null) {
+						d = distance(prepared, item.geometry);
+						if (Double.isInfinite(d)) {
+							continue;
+						}
+					} else if (!predicate.evaluate(prepared, item.geometry,
+							streamedFirst)) {
+						continue;
+					}
+					if (streamedFirst) {
+						addMatch(keys[i], item.key, d);
+					} else {
+						addMatch(item.key, keys[i], d);
+					}
+				}
+				values[i] = null;
+			}
+			return this;
+		}
+
+		private List<Item> decodeCandidates(int i) throws SQLException {
+			List<Item> items = new ArrayList<Item>(candidateKeys[i].length);
+			for (int j = 0; j < candidateKeys[i].length; j++) {
+				// a row deleted since the index was read has no value
+				if (candidateValues[i][j] != null) {
+					Geometry geom = read(candidateValues[i][j]);
+					if (!geom.isEmpty()) {
+						items.add(new Item(candidateKeys[i][j], geom));
+					}
+				}
+			}
+			candidateKeys[i] = null;
+			candidateValues[i] = null;
+			return items;
+		}
+
+		private void addMatch(long keyA, long keyB, double d) {
+			if (pairCount + 2 > pairs.length) {
+				long[] grown = new long[pairs.length * 2];
+				System.arraycopy(pairs, 0, grown, 0, pairCount);
+				pairs = grown;
+			}
+			if (distances != null) {
+				if (pairCount / 2 == distances.length) {
+					double[] grown = new double[distances.length * 2];
+					System.arraycopy(distances, 0, grown, 0, distances.length);
+					distances = grown;
+				}
+				distances[pairCount / 2] = d;
+			}
+			pairs[pairCount++] = keyA;
+			pairs[pairCount++] = keyB;
+		}
+	}
+}
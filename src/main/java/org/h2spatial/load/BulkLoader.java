@@ -0,0 +1,272 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.util.GeometryColumns;
+import org.h2spatial.util.ParallelExecutor;
+import org.h2spatial.util.SQLUtils;
+import org.h2spatial.util.SpatialSettings;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Loads the geometries of a text file into a table.
+ *
+ * The calling thread splits the stream into records and inserts the rows,
+ * the records are parsed and encoded by batches on the shared worker threads
+ * (each one reusing its codec buffers). The rows are inserted with JDBC
+ * batches and committed every commitSize rows.
+ *
+ * A load is not atomic: a failed load only rolls back the rows inserted since
+ * the last commit, the rows committed before it are kept. Loading all the
+ * rows in a single transaction takes a commitSize at least the number of
+ * records.
+ *
+ * A missing table is created with an auto-increment GID key. The column is
+ * registered in geometry_columns with the SRID, the common type of the
+ * loaded geometries and their coordinate dimension.
+ */
+public class BulkLoader {
+
+	private final Connection conn;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final int srid;
+
+	private int batchSize = (int) SpatialSettings
+			.get(SpatialSettings.LOAD_BATCH_SIZE);
+
+	private int commitSize = (int) SpatialSettings
+			.get(SpatialSettings.LOAD_COMMIT_SIZE);
+
+	public BulkLoader(Connection conn, String tableName, String columnName,
+			int srid) {
+		this.conn = conn;
+		this.tableName = SQLUtils.normalize(tableName);
+		this.columnName = SQLUtils.normalize(columnName);
+		this.srid = srid;
+	}
+
+	/**
+	 * @param batchSize
+	 *            number of records parsed by a task and inserted by a JDBC
+	 *            batch.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param commitSize
+	 *            number of rows inserted between two commits.
+	 */
+	public void setCommitSize(int commitSize) {
+		this.commitSize = commitSize;
+	}
+
+	/**
+	 * Loads an UTF-8 file.
+	 */
+	public LoadReport load(File file, GeometryFormat format)
+			throws SQLException {
+		try {
+			Reader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+			try {
+				return load(reader, format);
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new SQLException("Cannot read " + file + " : "
+					+ e.getMessage(), e);
+		}
+	}
+
+	public LoadReport load(Reader reader, GeometryFormat format)
+			throws SQLException {
+		long start = System.currentTimeMillis();
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			SQLUtils.execute(conn, "CREATE TABLE " + tableName
+					+ "(GID INT AUTO_INCREMENT PRIMARY KEY, " + columnName + " "
+					+ GeometryColumns.getColumnType(conn) + ")");
+		}
+		RecordReader records = format.open(reader);
+		int maxPending = 2 * ParallelExecutor.getParallelism();
+		LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+		Summary summary = new Summary();
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ tableName + "(" + columnName + ") VALUES(?)");
+		boolean done = false;
+		try {
+			long recordNumber = 1;
+			Batch batch = new Batch(format, recordNumber, batchSize);
+			String record;
+			while ((record = records.next()) != null) {
+				batch.records[batch.size++] = record;
+				recordNumber++;
+				if (batch.size == batchSize) {
+					pending.add(ParallelExecutor.submit(batch));
+					batch = new Batch(format, recordNumber, batchSize);
+					if (pending.size() >= maxPending) {
+						insert(insert, ParallelExecutor.get(pending.removeFirst()),
+								summary);
+					}
+				}
+			}
+			if (batch.size > 0) {
+				pending.add(ParallelExecutor.submit(batch));
+			}
+			while (!pending.isEmpty()) {
+				insert(insert, ParallelExecutor.get(pending.removeFirst()),
+						summary);
+			}
+			conn.commit();
+			done = true;
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		} finally {
+			for (Future<Batch> future : pending) {
+				future.cancel(false);
+			}
+			insert.close();
+			if (!done) {
+				// only the rows since the last commit, as the earlier chunks
+				// and the CREATE TABLE are committed
+				conn.rollback();
+			}
+			conn.setAutoCommit(autoCommit);
+		}
+		String type = summary.type == null ? "GEOMETRY" : summary.type;
+		GeometryColumns.register(conn, tableName, columnName, srid, type,
+				summary.dimension);
+		return new LoadReport(summary.rows, System.currentTimeMillis() - start,
+				type, summary.dimension);
+	}
+
+	private void insert(PreparedStatement insert, Batch batch, Summary summary)
+			throws SQLException {
+		for (int i = 0; i < batch.size; i++) {
+			if (batch.values[i] == null) {
+				insert.setNull(1, Types.BLOB);
+			} else {
+				insert.setBytes(1, batch.values[i]);
+			}
+			insert.addBatch();
+		}
+		insert.executeBatch();
+		long before = summary.rows;
+		summary.rows += batch.size;
+		if (summary.rows / commitSize != before / commitSize) {
+			conn.commit();
+		}
+		if (batch.type != null) {
+			if (summary.type == null) {
+				summary.type = batch.type;
+			} else if (!summary.type.equals(batch.type)) {
+				summary.type = "GEOMETRY";
+			}
+		}
+		summary.dimension = Math.max(summary.dimension, batch.dimension);
+	}
+
+	private static SQLException invalidRecord(long record, Exception e) {
+		return new SQLException("Invalid geometry in record " + record + " : "
+				+ e.getMessage(), e);
+	}
+
+	/**
+	 * What has been inserted so far.
+	 */
+	private static final class Summary {
+
+		long rows;
+
+		String type;
+
+		int dimension = 2;
+	}
+
+	/**
+	 * Records parsed and encoded by one task.
+	 */
+	final class Batch implements Callable<Batch> {
+
+		private final GeometryFormat format;
+
+		private final long firstRecord;
+
+		final String[] records;
+
+		final byte[][] values;
+
+		int size;
+
+		String type;
+
+		int dimension = 2;
+
+		Batch(GeometryFormat format, long firstRecord, int capacity) {
+			this.format = format;
+			this.firstRecord = firstRecord;
+			this.records = new String[capacity];
+			this.values = new byte[capacity][];
+		}
+
+		public Batch call() throws SQLException, IOException {
+			for (int i = 0; i < size; i++) {
+				Geometry geom;
+				try {
+					geom = format.parse(records[i]);
+				} catch (ParseException e) {
+					throw invalidRecord(firstRecord + i, e);
+				} catch (IllegalArgumentException e) {
+					throw invalidRecord(firstRecord + i, e);
+				}
+				records[i] = null;
+				if (geom == null) {
+					continue;
+				}
+				values[i] = GeometryCodec.write(geom, srid);
+				String geomType = geom.getGeometryType().toUpperCase();
+				if (type == null) {
+					type = geomType;
+				} else if (!type.equals(geomType)) {
+					type = "GEOMETRY";
+				}
+				Coordinate c = geom.getCoordinate();
+				if (c != null && !Double.isNaN(c.z)) {
+					dimension = 3;
+				}
+			}
+			return this;
+		}
+	}
+}
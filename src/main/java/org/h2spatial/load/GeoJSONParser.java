@@ -0,0 +1,330 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Reads the geometry of a GeoJSON Feature or geometry object. The
+ * properties of a feature are parsed but not used.
+ */
+class GeoJSONParser {
+
+	private final GeometryFactory factory;
+
+	private String text;
+
+	private int position;
+
+	GeoJSONParser(GeometryFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * @return the geometry, null for a feature without geometry.
+	 */
+	Geometry parse(String json) throws ParseException {
+		text = json;
+		position = 0;
+		Object value = readValue();
+		skipWhitespace();
+		if (position != text.length()) {
+			throw error("Unexpected content");
+		}
+		Map<?, ?> object = asObject(value);
+		if ("Feature".equals(object.get("type"))) {
+			Object geometry = object.get("geometry");
+			return geometry == null ? null : toGeometry(asObject(geometry));
+		}
+		return toGeometry(object);
+	}
+
+	private Geometry toGeometry(Map<?, ?> object) throws ParseException {
+		Object type = object.get("type");
+		if ("GeometryCollection".equals(type)) {
+			List<?> members = asList(object.get("geometries"));
+			Geometry[] geometries = new Geometry[members.size()];
+			for (int i = 0; i < geometries.length; i++) {
+				geometries[i] = toGeometry(asObject(members.get(i)));
+			}
+			return factory.createGeometryCollection(geometries);
+		}
+		Object coordinates = object.get("coordinates");
+		if ("Point".equals(type)) {
+			return toPoint(coordinates);
+		} else if ("LineString".equals(type)) {
+			return toLineString(coordinates);
+		} else if ("Polygon".equals(type)) {
+			return toPolygon(coordinates);
+		} else if ("MultiPoint".equals(type)) {
+			List<?> list = asList(coordinates);
+			Point[] points = new Point[list.size()];
+			for (int i = 0; i < points.length; i++) {
+				points[i] = toPoint(list.get(i));
+			}
+			return factory.createMultiPoint(points);
+		} else if ("MultiLineString".equals(type)) {
+			List<?> list = asList(coordinates);
+			LineString[] lines = new LineString[list.size()];
+			for (int i = 0; i < lines.length; i++) {
+				lines[i] = toLineString(list.get(i));
+			}
+			return factory.createMultiLineString(lines);
+		} else if ("MultiPolygon".equals(type)) {
+			List<?> list = asList(coordinates);
+			Polygon[] polygons = new Polygon[list.size()];
+			for (int i = 0; i < polygons.length; i++) {
+				polygons[i] = toPolygon(list.get(i));
+			}
+			return factory.createMultiPolygon(polygons);
+		}
+		throw new ParseException("Unknown GeoJSON geometry type : " + type);
+	}
+
+	private Point toPoint(Object value) throws ParseException {
+		List<?> list = asList(value);
+		return factory.createPoint(list.isEmpty() ? null : toCoordinate(list));
+	}
+
+	private LineString toLineString(Object value) throws ParseException {
+		return factory.createLineString(toCoordinates(value));
+	}
+
+	private Polygon toPolygon(Object value) throws ParseException {
+		List<?> rings = asList(value);
+		if (rings.isEmpty()) {
+			return factory.createPolygon(null, null);
+		}
+		LinearRing shell = factory.createLinearRing(toCoordinates(rings.get(0)));
+		LinearRing[] holes = new LinearRing[rings.size() - 1];
+		for (int i = 0; i < holes.length; i++) {
+			holes[i] = factory.createLinearRing(toCoordinates(rings.get(i + 1)));
+		}
+		return factory.createPolygon(shell, holes);
+	}
+
+	private Coordinate[] toCoordinates(Object value) throws ParseException {
+		List<?> list = asList(value);
+		Coordinate[] coordinates = new Coordinate[list.size()];
+		for (int i = 0; i < coordinates.length; i++) {
+			coordinates[i] = toCoordinate(asList(list.get(i)));
+		}
+		return coordinates;
+	}
+
+	private Coordinate toCoordinate(List<?> position) throws ParseException {
+		if (position.size() < 2) {
+			throw new ParseException("A GeoJSON position needs two numbers");
+		}
+		return new Coordinate(asNumber(position.get(0)),
+				asNumber(position.get(1)), position.size() > 2 ? asNumber(position
+						.get(2)) : Double.NaN);
+	}
+
+	private static Map<?, ?> asObject(Object value) throws ParseException {
+		if (value instanceof Map<?, ?>) {
+			return (Map<?, ?>) value;
+		}
+		throw new ParseException("GeoJSON object expected");
+	}
+
+	private static List<?> asList(Object value) throws ParseException {
+		if (value instanceof List<?>) {
+			return (List<?>) value;
+		}
+		throw new ParseException("GeoJSON array expected");
+	}
+
+	private static double asNumber(Object value) throws ParseException {
+		if (value instanceof Double) {
+			return ((Double) value).doubleValue();
+		}
+		throw new ParseException("GeoJSON number expected");
+	}
+
+	private Object readValue() throws ParseException {
+		skipWhitespace();
+		if (position >= text.length()) {
+			throw error("Unexpected end");
+		}
+		char ch = text.charAt(position);
+		switch (ch) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+			return readString();
+		case 't':
+			return readLiteral("true", Boolean.TRUE);
+		case 'f':
+			return readLiteral("false", Boolean.FALSE);
+		case 'n':
+			return readLiteral("null", null);
+		default:
+			return readNumber();
+		}
+	}
+
+	private Map<String, Object> readObject() throws ParseException {
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		position++;
+		skipWhitespace();
+		if (peek() == '}') {
+			position++;
+			return object;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') {
+				throw error("Object key expected");
+			}
+			String key = readString();
+			skipWhitespace();
+			expect(':');
+			object.put(key, readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> readArray() throws ParseException {
+		List<Object> array = new ArrayList<Object>();
+		position++;
+		skipWhitespace();
+		if (peek() == ']') {
+			position++;
+			return array;
+		}
+		while (true) {
+			array.add(readValue());
+			skipWhitespace();
+			if (peek() == ',') {
+				position++;
+			} else {
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String readString() throws ParseException {
+		StringBuilder sb = new StringBuilder();
+		position++;
+		while (position < text.length()) {
+			char ch = text.charAt(position++);
+			if (ch == '"') {
+				return sb.toString();
+			}
+			if (ch != '\\') {
+				sb.append(ch);
+				continue;
+			}
+			if (position >= text.length()) {
+				break;
+			}
+			ch = text.charAt(position++);
+			switch (ch) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (position + 4 > text.length()) {
+					throw error("Invalid escape");
+				}
+				try {
+					sb.append((char) Integer.parseInt(text.substring(position,
+							position + 4), 16));
+				} catch (NumberFormatException e) {
+					throw error("Invalid escape");
+				}
+				position += 4;
+				break;
+			default:
+				sb.append(ch);
+			}
+		}
+		throw error("Unterminated string");
+	}
+
+	private Object readLiteral(String literal, Object value)
+			throws ParseException {
+		if (!text.startsWith(literal, position)) {
+			throw error("Unexpected value");
+		}
+		position += literal.length();
+		return value;
+	}
+
+	private Double readNumber() throws ParseException {
+		int start = position;
+		while (position < text.length()
+				&& "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+			position++;
+		}
+		try {
+			return Double.valueOf(text.substring(start, position));
+		} catch (NumberFormatException e) {
+			throw error("Number expected");
+		}
+	}
+
+	private void skipWhitespace() {
+		while (position < text.length()
+				&& Character.isWhitespace(text.charAt(position))) {
+			position++;
+		}
+	}
+
+	private char peek() throws ParseException {
+		if (position >= text.length()) {
+			throw error("Unexpected end");
+		}
+		return text.charAt(position);
+	}
+
+	private void expect(char ch) throws ParseException {
+		if (peek() != ch) {
+			throw error("'" + ch + "' expected");
+		}
+		position++;
+	}
+
+	private ParseException error(String message) {
+		return new ParseException(message + " at position " + position);
+	}
+}
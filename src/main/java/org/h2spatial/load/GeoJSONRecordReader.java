@@ -0,0 +1,151 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a GeoJSON stream into features without parsing them.
+ *
+ * Each element of the "features" array of a FeatureCollection is a record.
+ * Any other top level object (a Feature or a geometry, possibly one per line)
+ * is a record by itself. Only the braces, brackets and strings are tracked,
+ * so the stream is read once and only the current feature is kept in memory.
+ */
+class GeoJSONRecordReader implements RecordReader {
+
+	private final Reader reader;
+
+	private final char[] buffer = new char[8192];
+
+	private int position;
+
+	private int limit;
+
+	private int depth;
+
+	private boolean inString;
+
+	private boolean escaped;
+
+	/**
+	 * Last string read in the top level object, and the key of the value
+	 * being read.
+	 */
+	private final StringBuilder string = new StringBuilder();
+
+	private String key;
+
+	private boolean inFeatures;
+
+	private boolean hasFeatures;
+
+	private final StringBuilder object = new StringBuilder();
+
+	private StringBuilder feature;
+
+	GeoJSONRecordReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	public String next() throws IOException {
+		int c;
+		while ((c = read()) >= 0) {
+			char ch = (char) c;
+			if (feature != null) {
+				feature.append(ch);
+			} else if (!inFeatures && (depth > 0 || ch == '{')) {
+				object.append(ch);
+			}
+			if (inString) {
+				if (escaped) {
+					escaped = false;
+				} else if (ch == '\\') {
+					escaped = true;
+				} else if (ch == '"') {
+					inString = false;
+				} else if (depth == 1) {
+					string.append(ch);
+				}
+				continue;
+			}
+			switch (ch) {
+			case '"':
+				inString = true;
+				string.setLength(0);
+				break;
+			case ':':
+				if (depth == 1) {
+					key = string.toString();
+				}
+				break;
+			case ',':
+				if (depth == 1) {
+					key = null;
+				}
+				break;
+			case '{':
+				depth++;
+				if (inFeatures && depth == 3) {
+					feature = new StringBuilder();
+					feature.append(ch);
+				}
+				break;
+			case '[':
+				depth++;
+				if (depth == 2 && "features".equals(key)) {
+					inFeatures = true;
+					hasFeatures = true;
+				}
+				break;
+			case '}':
+				depth--;
+				if (feature != null && depth == 2) {
+					String record = feature.toString();
+					feature = null;
+					return record;
+				}
+				if (depth == 0) {
+					String record = hasFeatures ? null : object.toString();
+					object.setLength(0);
+					hasFeatures = false;
+					key = null;
+					if (record != null) {
+						return record;
+					}
+				}
+				break;
+			case ']':
+				depth--;
+				if (inFeatures && depth == 1) {
+					inFeatures = false;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		if (depth != 0 || inString) {
+			throw new IOException("Unexpected end of the GeoJSON stream");
+		}
+		return null;
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = reader.read(buffer, 0, buffer.length);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++];
+	}
+}
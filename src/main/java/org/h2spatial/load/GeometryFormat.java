@@ -0,0 +1,94 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.io.Reader;
+import java.sql.SQLException;
+
+import org.h2spatial.codec.GeometryCodec;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+
+/**
+ * Text formats read by the bulk loader.
+ */
+public enum GeometryFormat {
+
+	/**
+	 * One WKT geometry per line.
+	 */
+	WKT {
+		@Override
+		RecordReader open(Reader reader) {
+			return new LineRecordReader(reader);
+		}
+
+		@Override
+		Geometry parse(String record) throws ParseException {
+			return GeometryCodec.readText(record);
+		}
+	},
+	/**
+	 * One hexadecimal WKB geometry per line.
+	 */
+	WKB {
+		@Override
+		RecordReader open(Reader reader) {
+			return new LineRecordReader(reader);
+		}
+
+		@Override
+		Geometry parse(String record) throws ParseException {
+			try {
+				return GeometryCodec.read(WKBReader.hexToBytes(record));
+			} catch (RuntimeException e) {
+				throw new ParseException("Invalid hexadecimal WKB : "
+						+ e.getMessage());
+			}
+		}
+	},
+	/**
+	 * A FeatureCollection, or Features and geometries one after the other.
+	 */
+	GEOJSON {
+		@Override
+		RecordReader open(Reader reader) {
+			return new GeoJSONRecordReader(reader);
+		}
+
+		@Override
+		Geometry parse(String record) throws ParseException {
+			return GEOJSON_PARSER.get().parse(record);
+		}
+	};
+
+	private static final ThreadLocal<GeoJSONParser> GEOJSON_PARSER = new ThreadLocal<GeoJSONParser>() {
+		@Override
+		protected GeoJSONParser initialValue() {
+			return new GeoJSONParser(new GeometryFactory());
+		}
+	};
+
+	abstract RecordReader open(Reader reader);
+
+	/**
+	 * @return the geometry of a record, null for a record without geometry.
+	 */
+	abstract Geometry parse(String record) throws ParseException;
+
+	public static GeometryFormat get(String name) throws SQLException {
+		try {
+			return valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new SQLException("Unsupported format : " + name);
+		}
+	}
+}
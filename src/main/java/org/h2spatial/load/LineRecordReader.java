@@ -0,0 +1,36 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * One record per line, blank lines are skipped.
+ */
+class LineRecordReader implements RecordReader {
+
+	private final BufferedReader reader;
+
+	LineRecordReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader
+				: new BufferedReader(reader);
+	}
+
+	public String next() throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.length() > 0) {
+				return line;
+			}
+		}
+		return null;
+	}
+}
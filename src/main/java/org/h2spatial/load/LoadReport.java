@@ -0,0 +1,59 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+/**
+ * Outcome of a bulk load.
+ */
+public class LoadReport {
+
+	private final long rows;
+
+	private final long millis;
+
+	private final String geometryType;
+
+	private final int dimension;
+
+	LoadReport(long rows, long millis, String geometryType, int dimension) {
+		this.rows = rows;
+		this.millis = millis;
+		this.geometryType = geometryType;
+		this.dimension = dimension;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public double getRowsPerSecond() {
+		return millis == 0 ? rows * 1000d : rows * 1000d / millis;
+	}
+
+	/**
+	 * @return the type registered in geometry_columns, GEOMETRY when the
+	 *         loaded geometries have different types.
+	 */
+	public String getGeometryType() {
+		return geometryType;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	@Override
+	public String toString() {
+		return rows + " rows in " + millis + " ms ("
+				+ Math.round(getRowsPerSecond()) + " rows/s)";
+	}
+}
@@ -0,0 +1,21 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import java.io.IOException;
+
+/**
+ * Splits a text stream into records, each holding one geometry.
+ */
+public interface RecordReader {
+
+	/**
+	 * @return the next record, null at the end of the stream.
+	 */
+	String next() throws IOException;
+}
@@ -0,0 +1,311 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.lod;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.util.GeometryColumns;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Simplified versions of a geometry column, stored in the same table so that
+ * a zoomed out map reads small values.
+ *
+ * Level 0 is the column itself, level i is the column COLUMN_LODi holding the
+ * geometries simplified by TopologyPreservingSimplifier with the i-th
+ * tolerance, in increasing order. The coordinates of a level are also rounded
+ * to a tenth of its tolerance, which the storage format encodes in a few
+ * bytes each.
+ *
+ * The levels are computed by a trigger before each insert and update, so
+ * they are always in sync with the column. The levels are described in the
+ * GEOMETRY_LEVELS table.
+ */
+public class GeometryLevels {
+
+	public static final String REGISTRY = "GEOMETRY_LEVELS";
+
+	public static final int MAX_LEVELS = 8;
+
+	/**
+	 * Size of a rendering pixel in meters, 0.28 mm as in the OGC SLD and WMTS
+	 * specifications, used to turn a scale into a resolution.
+	 */
+	public static final double PIXEL_SIZE = 0.00028;
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private final double[] tolerances;
+
+	GeometryLevels(String tableName, String columnName, double[] tolerances) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.tolerances = tolerances;
+	}
+
+	/**
+	 * Adds a column for each tolerance, computes the levels of the existing
+	 * rows and creates the trigger computing them from then on.
+	 */
+	public static GeometryLevels create(Connection conn, String tableName,
+			String columnName, double[] tolerances) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		if (find(conn, tableName, columnName) != null) {
+			throw new SQLException("The levels of " + tableName + "."
+					+ columnName + " already exist");
+		}
+		GeometryLevels levels = new GeometryLevels(tableName, columnName,
+				checkTolerances(tolerances));
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + REGISTRY
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR, LEVEL INT,"
+				+ " TOLERANCE DOUBLE,"
+				+ " PRIMARY KEY(TABLE_NAME, COLUMN_NAME, LEVEL))");
+		String type = GeometryColumns.getColumnType(conn);
+		for (int level = 1; level <= levels.getLevelCount(); level++) {
+			SQLUtils.execute(conn, "ALTER TABLE " + tableName + " ADD "
+					+ levels.getColumnName(level) + " " + type);
+		}
+		levels.insert(conn);
+		SQLUtils.execute(conn, "CREATE TRIGGER " + levels.getTriggerName()
+				+ " BEFORE INSERT, UPDATE ON " + tableName
+				+ " FOR EACH ROW CALL \""
+				+ GeometryLevelsTrigger.class.getName() + "\"");
+		// the trigger fills the empty levels of the updated rows
+		SQLUtils.execute(conn, "UPDATE " + tableName + " SET " + columnName
+				+ " = " + columnName);
+		return levels;
+	}
+
+	/**
+	 * Drops the trigger and the columns of the levels.
+	 */
+	public static void drop(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		GeometryLevels levels = get(conn, tableName, columnName);
+		SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS "
+				+ levels.getTriggerName());
+		for (int level = 1; level <= levels.getLevelCount(); level++) {
+			SQLUtils.execute(conn, "ALTER TABLE " + levels.tableName
+					+ " DROP COLUMN " + levels.getColumnName(level));
+		}
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ REGISTRY + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			delete.setString(1, levels.tableName);
+			delete.setString(2, levels.columnName);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+	}
+
+	/**
+	 * @return the levels of a column, or null if it has none.
+	 */
+	public static GeometryLevels find(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		if (!SQLUtils.tableExists(conn, REGISTRY)) {
+			return null;
+		}
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		PreparedStatement select = conn.prepareStatement("SELECT TOLERANCE"
+				+ " FROM " + REGISTRY + " WHERE TABLE_NAME = ?"
+				+ " AND COLUMN_NAME = ? ORDER BY LEVEL");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			List<Double> tolerances = new ArrayList<Double>();
+			while (rs.next()) {
+				tolerances.add(Double.valueOf(rs.getDouble(1)));
+			}
+			if (tolerances.isEmpty()) {
+				return null;
+			}
+			double[] values = new double[tolerances.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = tolerances.get(i).doubleValue();
+			}
+			return new GeometryLevels(tableName, columnName, values);
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * @return the levels of a column, an exception is thrown if it has none.
+	 */
+	public static GeometryLevels get(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		GeometryLevels levels = find(conn, tableName, columnName);
+		if (levels == null) {
+			throw new SQLException("No levels of detail on " + tableName
+					+ "." + columnName);
+		}
+		return levels;
+	}
+
+	/**
+	 * Parses a list of tolerances separated by commas, e.g. '1, 10, 100'.
+	 */
+	public static double[] parseTolerances(String list) throws SQLException {
+		String[] items = list.split(",");
+		double[] tolerances = new double[items.length];
+		try {
+			for (int i = 0; i < items.length; i++) {
+				tolerances[i] = Double.parseDouble(items[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new SQLException("Invalid tolerances : " + list);
+		}
+		return tolerances;
+	}
+
+	private static double[] checkTolerances(double[] tolerances)
+			throws SQLException {
+		double[] sorted = tolerances.clone();
+		Arrays.sort(sorted);
+		if (sorted.length == 0 || sorted.length > MAX_LEVELS) {
+			throw new SQLException("Between 1 and " + MAX_LEVELS
+					+ " tolerances are expected");
+		}
+		for (int i = 0; i < sorted.length; i++) {
+			if (!(sorted[i] > 0) || Double.isInfinite(sorted[i])
+					|| (i > 0 && sorted[i] == sorted[i - 1])) {
+				throw new SQLException("Invalid tolerances : "
+						+ Arrays.toString(tolerances));
+			}
+		}
+		return sorted;
+	}
+
+	private void insert(Connection conn) throws SQLException {
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ REGISTRY + " VALUES(?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			for (int level = 1; level <= tolerances.length; level++) {
+				insert.setInt(3, level);
+				insert.setDouble(4, getTolerance(level));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		} finally {
+			insert.close();
+		}
+	}
+
+	/**
+	 * Simplifies a stored value at each tolerance.
+	 *
+	 * @return the values of the levels 1 to n, null for a null value.
+	 */
+	public byte[][] simplify(byte[] value) throws SQLException {
+		byte[][] values = new byte[tolerances.length][];
+		if (value == null) {
+			return values;
+		}
+		try {
+			Geometry geom = GeometryCodec.read(value);
+			for (int level = 1; level <= tolerances.length; level++) {
+				double tolerance = getTolerance(level);
+				Geometry simplified = TopologyPreservingSimplifier.simplify(
+						geom, tolerance);
+				values[level - 1] = GeometryCodec.write(simplified, geom
+						.getSRID(), getScale(tolerance));
+			}
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+		return values;
+	}
+
+	/**
+	 * @return the power of ten rounding the coordinates to at most a tenth of
+	 *         the tolerance.
+	 */
+	static double getScale(double tolerance) {
+		return Math.pow(10, Math.ceil(Math.log10(10 / tolerance)));
+	}
+
+	/**
+	 * @return the coarsest level whose tolerance is at most the resolution,
+	 *         so that its simplification stays below a pixel.
+	 * @param unitsPerPixel
+	 *            the resolution of the map, in units of the coordinates.
+	 */
+	public int getLevel(double unitsPerPixel) {
+		int level = 0;
+		while (level < tolerances.length
+				&& tolerances[level] <= unitsPerPixel) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * @return the level for a map at the scale 1 / scaleDenominator, for
+	 *         coordinates in meters.
+	 */
+	public int getLevelForScale(double scaleDenominator) {
+		return getLevel(scaleDenominator * PIXEL_SIZE);
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	/**
+	 * @return the name of the column of a level, the geometry column for
+	 *         level 0.
+	 */
+	public String getColumnName(int level) {
+		return level == 0 ? columnName : columnName + "_LOD" + level;
+	}
+
+	/**
+	 * @return the number of levels, without the geometry column.
+	 */
+	public int getLevelCount() {
+		return tolerances.length;
+	}
+
+	/**
+	 * @return the tolerance of a level, 0 for level 0.
+	 */
+	public double getTolerance(int level) {
+		return level == 0 ? 0 : tolerances[level - 1];
+	}
+
+	public String getTriggerName() {
+		return tableName + "_" + columnName + "_LOD_TRG";
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.lod;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2.api.Trigger;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * Writes the simplified levels of the geometry into the row being inserted
+ * or updated. An update keeping the geometry keeps the stored levels.
+ */
+public class GeometryLevelsTrigger implements Trigger {
+
+	private GeometryLevels levels;
+
+	private int geometryPosition;
+
+	private int[] levelPositions;
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT DISTINCT"
+				+ " COLUMN_NAME FROM " + GeometryLevels.REGISTRY
+				+ " WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				GeometryLevels candidate = GeometryLevels.get(conn, tableName,
+						rs.getString(1));
+				if (candidate.getTriggerName().equals(triggerName)) {
+					levels = candidate;
+				}
+			}
+		} finally {
+			select.close();
+		}
+		if (levels == null) {
+			throw new SQLException("No levels of detail for the trigger "
+					+ triggerName);
+		}
+		geometryPosition = SQLUtils.getColumnPosition(conn, tableName, levels
+				.getColumnName(0));
+		levelPositions = new int[levels.getLevelCount()];
+		for (int level = 1; level <= levelPositions.length; level++) {
+			levelPositions[level - 1] = SQLUtils.getColumnPosition(conn,
+					tableName, levels.getColumnName(level));
+		}
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		// a value given as a stream can be read only once
+		byte[] value = SQLUtils.toBytes(newRow[geometryPosition]);
+		newRow[geometryPosition] = value;
+		if (oldRow != null && isComplete(oldRow, value)
+				&& Arrays.equals(SQLUtils.toBytes(oldRow[geometryPosition]),
+						value)) {
+			for (int position : levelPositions) {
+				newRow[position] = SQLUtils.toBytes(oldRow[position]);
+			}
+			return;
+		}
+		byte[][] values = levels.simplify(value);
+		for (int i = 0; i < levelPositions.length; i++) {
+			newRow[levelPositions[i]] = values[i];
+		}
+	}
+
+	/**
+	 * @return true if the row has all its levels, or none for a null
+	 *         geometry.
+	 */
+	private boolean isComplete(Object[] row, byte[] value) {
+		for (int position : levelPositions) {
+			if ((row[position] == null) != (value == null)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,104 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a spatial function: calls, calls that returned, calls that
+ * threw an exception, bytes decoded and the latencies of the decoding,
+ * computing and encoding phases of the calls that returned.
+ */
+public final class FunctionStats {
+
+	private final String name;
+
+	private final AtomicLong calls = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicLong bytesDecoded = new AtomicLong();
+
+	private final LatencyHistogram decode = new LatencyHistogram();
+
+	private final LatencyHistogram compute = new LatencyHistogram();
+
+	private final LatencyHistogram encode = new LatencyHistogram();
+
+	private final LatencyHistogram total = new LatencyHistogram();
+
+	FunctionStats(String name) {
+		this.name = name;
+	}
+
+	void enter() {
+		calls.incrementAndGet();
+	}
+
+	void exit(long totalNanos, long decodeNanos, long encodeNanos, long bytes) {
+		completed.incrementAndGet();
+		bytesDecoded.addAndGet(bytes);
+		total.record(totalNanos);
+		decode.record(decodeNanos);
+		encode.record(encodeNanos);
+		compute.record(totalNanos - decodeNanos - encodeNanos);
+	}
+
+	void error() {
+		errors.incrementAndGet();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getBytesDecoded() {
+		return bytesDecoded.get();
+	}
+
+	public LatencyHistogram getDecode() {
+		return decode;
+	}
+
+	public LatencyHistogram getCompute() {
+		return compute;
+	}
+
+	public LatencyHistogram getEncode() {
+		return encode;
+	}
+
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+
+	void reset() {
+		calls.set(0);
+		completed.set(0);
+		errors.set(0);
+		bytesDecoded.set(0);
+		decode.reset();
+		compute.reset();
+		encode.reset();
+		total.reset();
+	}
+}
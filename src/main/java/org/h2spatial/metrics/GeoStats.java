@@ -0,0 +1,129 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics of the calls of the spatial functions, shared by the sessions of
+ * the virtual machine.
+ *
+ * They are disabled by default: a function then reads a volatile flag and
+ * gets a probe that records nothing, without any allocation or clock read.
+ * When enabled each call reads the clock on entry and exit and the codec
+ * times the decoding and encoding of the values it handles for the function
+ * running on the thread.
+ */
+public final class GeoStats {
+
+	private static volatile boolean enabled;
+
+	private static final ConcurrentMap<String, FunctionStats> FUNCTIONS = new ConcurrentHashMap<String, FunctionStats>();
+
+	private static final ThreadLocal<Probe> CURRENT = new ThreadLocal<Probe>();
+
+	private GeoStats() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean value) {
+		enabled = value;
+		if (!value) {
+			CURRENT.remove();
+		}
+	}
+
+	/**
+	 * Starts the measure of a call of a function.
+	 */
+	public static Probe enter(String function) {
+		if (!enabled) {
+			return Probe.DISABLED;
+		}
+		FunctionStats stats = FUNCTIONS.get(function);
+		if (stats == null) {
+			FunctionStats created = new FunctionStats(function);
+			stats = FUNCTIONS.putIfAbsent(function, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		stats.enter();
+		Probe probe = new Probe(stats, CURRENT.get());
+		CURRENT.set(probe);
+		return probe;
+	}
+
+	static void exit(Probe probe) {
+		if (probe.parent == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(probe.parent);
+		}
+	}
+
+	/**
+	 * Adds the decoding of a value to the function running on the thread.
+	 */
+	public static void recordDecode(long nanos, int bytes) {
+		Probe probe = CURRENT.get();
+		if (probe != null) {
+			probe.addDecode(nanos, bytes);
+		}
+	}
+
+	/**
+	 * Adds the encoding of a value to the function running on the thread.
+	 */
+	public static void recordEncode(long nanos) {
+		Probe probe = CURRENT.get();
+		if (probe != null) {
+			probe.addEncode(nanos);
+		}
+	}
+
+	/**
+	 * @return the statistics of a function, null if it wasn't called since
+	 *         the last reset.
+	 */
+	public static FunctionStats get(String function) {
+		return FUNCTIONS.get(function);
+	}
+
+	/**
+	 * @return the statistics of the called functions, sorted by name.
+	 */
+	public static List<FunctionStats> getAll() {
+		List<FunctionStats> all = new ArrayList<FunctionStats>(FUNCTIONS
+				.values());
+		Collections.sort(all, new Comparator<FunctionStats>() {
+			public int compare(FunctionStats s0, FunctionStats s1) {
+				return s0.getName().compareTo(s1.getName());
+			}
+		});
+		return all;
+	}
+
+	/**
+	 * Sets the counters of the functions to zero, calls running meanwhile may
+	 * be partially counted.
+	 */
+	public static void reset() {
+		for (FunctionStats stats : FUNCTIONS.values()) {
+			stats.reset();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in buckets of powers of two nanoseconds, updated
+ * without locking by the concurrent sessions.
+ *
+ * Bucket i counts the durations d with 2^(i-1) <= d < 2^i, bucket 0 the
+ * durations of 0, so a percentile is known within a factor of two.
+ */
+public final class LatencyHistogram {
+
+	public static final int BUCKETS = 48;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	static int getBucket(long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * @return the smallest duration of a bucket, in nanoseconds.
+	 */
+	public static long getLowerBound(int bucket) {
+		return bucket == 0 ? 0 : 1L << (bucket - 1);
+	}
+
+	/**
+	 * @return the largest duration of a bucket, in nanoseconds.
+	 */
+	public static long getUpperBound(int bucket) {
+		return bucket == 0 ? 0 : (1L << bucket) - 1;
+	}
+
+	public void record(long nanos) {
+		counts.incrementAndGet(getBucket(nanos));
+		totalNanos.addAndGet(Math.max(0, nanos));
+	}
+
+	public long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * @param fraction
+	 *            between 0 and 1, e.g. 0.99
+	 * @return the upper bound of the bucket holding the percentile, in
+	 *         nanoseconds, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double fraction) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return getUpperBound(i);
+			}
+		}
+		return getUpperBound(BUCKETS - 1);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		totalNanos.set(0);
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.metrics;
+
+/**
+ * Measure of one call of a spatial function, given by GeoStats.enter. The
+ * exit methods record a call that returned, they return their argument so
+ * that a function ends with return probe.exit(result). The function calls
+ * close in a finally block, which records an error if exit wasn't called.
+ *
+ * The codec adds the time spent decoding and encoding to the probe of the
+ * current thread, the remaining time of the call is the computing time.
+ */
+public class Probe {
+
+	/**
+	 * Probe given when the statistics are disabled, it records nothing.
+	 */
+	static final Probe DISABLED = new Probe(null, null);
+
+	private final FunctionStats stats;
+
+	final Probe parent;
+
+	private final long start;
+
+	private long decodeNanos;
+
+	private long encodeNanos;
+
+	private long bytesDecoded;
+
+	private boolean closed;
+
+	Probe(FunctionStats stats, Probe parent) {
+		this.stats = stats;
+		this.parent = parent;
+		this.start = stats == null ? 0 : System.nanoTime();
+	}
+
+	void addDecode(long nanos, int bytes) {
+		decodeNanos += nanos;
+		bytesDecoded += bytes;
+	}
+
+	void addEncode(long nanos) {
+		encodeNanos += nanos;
+	}
+
+	public void exit() {
+		if (stats != null && !closed) {
+			closed = true;
+			stats.exit(System.nanoTime() - start, decodeNanos, encodeNanos,
+					bytesDecoded);
+			GeoStats.exit(this);
+		}
+	}
+
+	/**
+	 * Records an error if the call didn't exit.
+	 */
+	public void close() {
+		if (stats != null && !closed) {
+			closed = true;
+			stats.error();
+			GeoStats.exit(this);
+		}
+	}
+
+	public boolean exit(boolean value) {
+		exit();
+		return value;
+	}
+
+	public int exit(int value) {
+		exit();
+		return value;
+	}
+
+	public long exit(long value) {
+		exit();
+		return value;
+	}
+
+	public double exit(double value) {
+		exit();
+		return value;
+	}
+
+	public <T> T exit(T value) {
+		exit();
+		return value;
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.parallel;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.h2spatial.util.ParallelExecutor;
+import org.h2spatial.util.SpatialSettings;
+
+import com.vividsolutions.jts.algorithm.ConvexHull;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Buffer, union and convex hull of large geometries split between the worker
+ * threads.
+ *
+ * The parts of a multi geometry are sorted along x and cut into groups of
+ * about the same number of points, so that the groups cover separate areas.
+ * The groups are buffered or merged in parallel and their results are merged
+ * two by two, also in parallel. The convex hull is computed on slices of the
+ * coordinates, then on the points of the partial hulls, so a single large
+ * polygon is split too.
+ *
+ * A geometry with less points than the PARALLEL_THRESHOLD setting, or a
+ * session whose MAX_PARALLELISM is 1, is processed by the calling thread.
+ */
+public final class ParallelOperations {
+
+	/**
+	 * Number of groups per thread, so that a slow group doesn't leave the
+	 * other threads idle.
+	 */
+	static final int GROUPS_PER_THREAD = 4;
+
+	private ParallelOperations() {
+	}
+
+	/**
+	 * @return the number of threads to use for a geometry, 1 if it is
+	 *         processed sequentially.
+	 */
+	public static int getParallelism(Connection conn, int numPoints) {
+		if (numPoints < SpatialSettings.get(conn,
+				SpatialSettings.PARALLEL_THRESHOLD)) {
+			return 1;
+		}
+		return (int) Math.min(ParallelExecutor.getParallelism(), SpatialSettings
+				.get(conn, SpatialSettings.MAX_PARALLELISM));
+	}
+
+	/**
+	 * Buffer of a geometry, the buffers of groups of parts being merged when
+	 * the distance is positive.
+	 */
+	public static Geometry buffer(Geometry geom, final double distance,
+			int parallelism) throws SQLException {
+		List<Geometry> parts = getParts(geom);
+		if (parallelism < 2 || distance <= 0 || parts.size() < 2) {
+			return geom.buffer(distance);
+		}
+		final GeometryFactory factory = geom.getFactory();
+		List<Callable<Geometry>> tasks = new ArrayList<Callable<Geometry>>();
+		for (final List<Geometry> group : split(parts, parallelism
+				* GROUPS_PER_THREAD)) {
+			tasks.add(new Callable<Geometry>() {
+				public Geometry call() {
+					return factory.buildGeometry(group).buffer(distance);
+				}
+			});
+		}
+		return merge(ParallelExecutor.invokeAll(tasks, parallelism),
+				parallelism);
+	}
+
+	/**
+	 * Union of two geometries, their parts being merged by groups.
+	 */
+	public static Geometry union(Geometry geom0, Geometry geom1,
+			int parallelism) throws SQLException {
+		List<Geometry> parts = getParts(geom0);
+		parts.addAll(getParts(geom1));
+		if (parallelism < 2 || parts.size() < 3) {
+			return geom0.union(geom1);
+		}
+		List<Callable<Geometry>> tasks = new ArrayList<Callable<Geometry>>();
+		for (final List<Geometry> group : split(parts, parallelism
+				* GROUPS_PER_THREAD)) {
+			tasks.add(new Callable<Geometry>() {
+				public Geometry call() {
+					return UnaryUnionOp.union(group);
+				}
+			});
+		}
+		return merge(ParallelExecutor.invokeAll(tasks, parallelism),
+				parallelism);
+	}
+
+	/**
+	 * Convex hull of the points of the partial hulls of slices of the
+	 * coordinates.
+	 */
+	public static Geometry convexHull(Geometry geom, int parallelism)
+			throws SQLException {
+		final Coordinate[] coordinates = geom.getCoordinates();
+		if (parallelism < 2 || coordinates.length < 2 * parallelism) {
+			return geom.convexHull();
+		}
+		final GeometryFactory factory = geom.getFactory();
+		int slices = parallelism * GROUPS_PER_THREAD;
+		List<Callable<Coordinate[]>> tasks = new ArrayList<Callable<Coordinate[]>>();
+		for (int i = 0; i < slices; i++) {
+			final int start = (int) ((long) coordinates.length * i / slices);
+			final int end = (int) ((long) coordinates.length * (i + 1) / slices);
+			tasks.add(new Callable<Coordinate[]>() {
+				public Coordinate[] call() {
+					Coordinate[] slice = new Coordinate[end - start];
+					System.arraycopy(coordinates, start, slice, 0, slice.length);
+					return new ConvexHull(slice, factory).getConvexHull()
+							.getCoordinates();
+				}
+			});
+		}
+		List<Coordinate> points = new ArrayList<Coordinate>();
+		for (Coordinate[] hull : ParallelExecutor.invokeAll(tasks, parallelism)) {
+			Collections.addAll(points, hull);
+		}
+		return new ConvexHull(points.toArray(new Coordinate[points.size()]),
+				factory).getConvexHull();
+	}
+
+	/**
+	 * @return the parts of a geometry, its components for a collection.
+	 */
+	static List<Geometry> getParts(Geometry geom) {
+		List<Geometry> parts = new ArrayList<Geometry>(geom.getNumGeometries());
+		for (int i = 0; i < geom.getNumGeometries(); i++) {
+			Geometry part = geom.getGeometryN(i);
+			if (!part.isEmpty()) {
+				parts.add(part);
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Sorts the parts along x and cuts them into at most count groups of
+	 * about the same number of points.
+	 */
+	static List<List<Geometry>> split(List<Geometry> parts, int count) {
+		Collections.sort(parts, new Comparator<Geometry>() {
+			public int compare(Geometry g0, Geometry g1) {
+				Envelope e0 = g0.getEnvelopeInternal();
+				Envelope e1 = g1.getEnvelopeInternal();
+				return Double.compare(e0.getMinX() + e0.getMaxX(), e1
+						.getMinX()
+						+ e1.getMaxX());
+			}
+		});
+		long total = 0;
+		for (Geometry part : parts) {
+			total += part.getNumPoints();
+		}
+		long target = Math.max(1, total / count);
+		List<List<Geometry>> groups = new ArrayList<List<Geometry>>();
+		List<Geometry> group = new ArrayList<Geometry>();
+		long points = 0;
+		for (Geometry part : parts) {
+			group.add(part);
+			points += part.getNumPoints();
+			if (points >= target) {
+				groups.add(group);
+				group = new ArrayList<Geometry>();
+				points = 0;
+			}
+		}
+		if (!group.isEmpty()) {
+			groups.add(group);
+		}
+		return groups;
+	}
+
+	/**
+	 * Merges the geometries two by two, each round in parallel.
+	 */
+	static Geometry merge(List<Geometry> geometries, int parallelism)
+			throws SQLException {
+		while (geometries.size() > 1) {
+			List<Callable<Geometry>> tasks = new ArrayList<Callable<Geometry>>();
+			for (int i = 0; i + 1 < geometries.size(); i += 2) {
+				final List<Geometry> pair = geometries.subList(i, i + 2);
+				tasks.add(new Callable<Geometry>() {
+					public Geometry call() {
+						return UnaryUnionOp.union(pair);
+					}
+				});
+			}
+			List<Geometry> merged = ParallelExecutor.invokeAll(tasks,
+					parallelism);
+			if (geometries.size() % 2 == 1) {
+				merged.add(geometries.get(geometries.size() - 1));
+			}
+			geometries = merged;
+		}
+		return geometries.get(0);
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.predicate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2spatial.codec.WKBInspector;
+
+/**
+ * Decides binary spatial predicates from the envelopes of the two arguments
+ * when possible.
+ *
+ * The envelopes are streamed from the WKB values, no geometry is built. When
+ * they show that the predicate can't hold (e.g. disjoint envelopes for
+ * Intersects) canSkip returns true and the caller answers directly, true for
+ * Disjoint and false for the other predicates. Otherwise the pair falls through to the JTS predicate.
+ * Empty geometries and values that can't be inspected always fall through.
+ *
+ * Each predicate counts the pairs it evaluated and the pairs it eliminated.
+ */
+public enum EnvelopePrefilter {
+
+	INTERSECTS, CONTAINS, WITHIN, COVERS, COVERED_BY, TOUCHES, OVERLAPS, CROSSES, DISJOINT, IS_WITHIN_DISTANCE;
+
+	private static final ThreadLocal<double[][]> ENVELOPES = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return new double[2][4];
+		}
+	};
+
+	private final AtomicLong evaluations = new AtomicLong();
+
+	private final AtomicLong eliminations = new AtomicLong();
+
+	public boolean canSkip(byte[] arg0, byte[] arg1) {
+		return canSkip(arg0, arg1, 0);
+	}
+
+	/**
+	 * @param distance
+	 *            only used by IS_WITHIN_DISTANCE.
+	 * @return true if the envelopes are enough to answer.
+	 */
+	public boolean canSkip(byte[] arg0, byte[] arg1, double distance) {
+		evaluations.incrementAndGet();
+		if (!WKBInspector.canInspect(arg0) || !WKBInspector.canInspect(arg1)) {
+			return false;
+		}
+		double[][] envelopes = ENVELOPES.get();
+		double[] env0 = envelopes[0];
+		double[] env1 = envelopes[1];
+		if (!WKBInspector.getEnvelope(arg0, env0)
+				|| !WKBInspector.getEnvelope(arg1, env1)) {
+			return false;
+		}
+		if (isDecided(env0[0], env0[1], env0[2], env0[3], env1[0], env1[1],
+				env1[2], env1[3], distance)) {
+			eliminations.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Same as canSkip, for a first argument whose envelope was read once.
+	 *
+	 * @param env0
+	 *            the envelope of the first argument as minX, minY, maxX,
+	 *            maxY, null if it couldn't be read.
+	 */
+	public boolean canSkip(double[] env0, byte[] arg1, double distance) {
+		evaluations.incrementAndGet();
+		if (env0 == null || !WKBInspector.canInspect(arg1)) {
+			return false;
+		}
+		double[] env1 = ENVELOPES.get()[1];
+		if (!WKBInspector.getEnvelope(arg1, env1)) {
+			return false;
+		}
+		if (isDecided(env0[0], env0[1], env0[2], env0[3], env1[0], env1[1],
+				env1[2], env1[3], distance)) {
+			eliminations.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isDecided(double minX0, double minY0, double maxX0,
+			double maxY0, double minX1, double minY1, double maxX1,
+			double maxY1, double distance) {
+		switch (this) {
+		case CONTAINS:
+		case COVERS:
+			return !covers(minX0, minY0, maxX0, maxY0, minX1, minY1, maxX1, maxY1);
+		case WITHIN:
+		case COVERED_BY:
+			return !covers(minX1, minY1, maxX1, maxY1, minX0, minY0, maxX0, maxY0);
+		case IS_WITHIN_DISTANCE:
+			double dx = Math.max(0, Math.max(minX0 - maxX1, minX1 - maxX0));
+			double dy = Math.max(0, Math.max(minY0 - maxY1, minY1 - maxY0));
+			return distance < 0 || dx * dx + dy * dy > distance * distance;
+		default:
+			return maxX0 < minX1 || maxX1 < minX0 || maxY0 < minY1
+					|| maxY1 < minY0;
+		}
+	}
+
+	private static boolean covers(double minX0, double minY0, double maxX0,
+			double maxY0, double minX1, double minY1, double maxX1,
+			double maxY1) {
+		return minX0 <= minX1 && maxX0 >= maxX1 && minY0 <= minY1
+				&& maxY0 >= maxY1;
+	}
+
+	public long getEvaluations() {
+		return evaluations.get();
+	}
+
+	public long getEliminations() {
+		return eliminations.get();
+	}
+
+	public static void resetCounters() {
+		for (EnvelopePrefilter prefilter : values()) {
+			prefilter.evaluations.set(0);
+			prefilter.eliminations.set(0);
+		}
+	}
+}
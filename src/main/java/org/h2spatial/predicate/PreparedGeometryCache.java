@@ -0,0 +1,258 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.predicate;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.WKBInspector;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Bounded LRU cache of decoded and prepared geometries, keyed on the WKB
+ * content.
+ *
+ * A constant argument, e.g. Intersects(the_geom, GeomFromText('POLYGON(...)',
+ * 2154)), gives the same bytes for every row. A value is only admitted in the
+ * cache the second time it is seen, so the values that change on each row
+ * don't evict the ones that repeat. Entries are evicted when the number of
+ * entries or the estimated memory goes over the limits.
+ */
+public class PreparedGeometryCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	public static final long DEFAULT_MAX_MEMORY = 64L << 20;
+
+	/**
+	 * Number of recently seen values remembered for admission.
+	 */
+	static final int SEEN_SIZE = 256;
+
+	/**
+	 * Estimated size of a decoded and indexed coordinate.
+	 */
+	static final int BYTES_PER_POINT = 120;
+
+	private static final PreparedGeometryCache DEFAULT = new PreparedGeometryCache(
+			DEFAULT_MAX_ENTRIES, DEFAULT_MAX_MEMORY);
+
+	private final int maxEntries;
+
+	private final long maxMemory;
+
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private final LinkedHashMap<Long, Boolean> seen = new LinkedHashMap<Long, Boolean>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > SEEN_SIZE;
+		}
+	};
+
+	private long memory;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	public PreparedGeometryCache(int maxEntries, long maxMemory) {
+		this.maxEntries = maxEntries;
+		this.maxMemory = maxMemory;
+	}
+
+	/**
+	 * The cache shared by the spatial functions.
+	 */
+	public static PreparedGeometryCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @return the cached entry for this value, or null if it is not cached.
+	 *         A value seen for the second time is decoded, prepared and
+	 *         cached.
+	 */
+	public Entry get(byte[] wkb) throws ParseException {
+		Key key = new Key(wkb);
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits.incrementAndGet();
+				return entry;
+			}
+			misses.incrementAndGet();
+			Long fingerprint = Long.valueOf(((long) key.hash << 32)
+					| wkb.length);
+			if (seen.remove(fingerprint) == null) {
+				seen.put(fingerprint, Boolean.TRUE);
+				return null;
+			}
+		}
+		Entry entry = new Entry(GeometryCodec.read(wkb), estimateMemory(wkb));
+		synchronized (this) {
+			if (entry.memory > maxMemory) {
+				return entry;
+			}
+			Entry previous = entries.put(key, entry);
+			if (previous != null) {
+				memory -= previous.memory;
+			}
+			memory += entry.memory;
+			Iterator<Entry> it = entries.values().iterator();
+			while ((entries.size() > maxEntries || memory > maxMemory)
+					&& it.hasNext()) {
+				Entry eldest = it.next();
+				memory -= eldest.memory;
+				it.remove();
+				evictions.incrementAndGet();
+			}
+		}
+		return entry;
+	}
+
+	static long estimateMemory(byte[] wkb) {
+		long points = WKBInspector.canInspect(wkb) ? WKBInspector
+				.getNumPoints(wkb) : wkb.length / 16;
+		return wkb.length + points * BYTES_PER_POINT;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		seen.clear();
+		memory = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the estimated memory used by the cached geometries, in bytes.
+	 */
+	public synchronized long getMemoryUsage() {
+		return memory;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public void resetCounters() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * A decoded geometry and its prepared forms.
+	 *
+	 * JTS prepared geometries keep mutable state while evaluating a
+	 * predicate, so each thread prepares the shared geometry once for itself
+	 * and the evaluations run without a lock. The memory estimate counts one
+	 * prepared form.
+	 */
+	public static final class Entry {
+
+		private final Geometry geometry;
+
+		private final ThreadLocal<PreparedGeometry> prepared = new ThreadLocal<PreparedGeometry>() {
+			@Override
+			protected PreparedGeometry initialValue() {
+				return PreparedGeometryFactory.prepare(geometry);
+			}
+		};
+
+		final long memory;
+
+		Entry(Geometry geometry, long memory) {
+			this.geometry = geometry;
+			this.memory = memory;
+			// the lazy envelope of the shared geometry is computed once here
+			geometry.getEnvelopeInternal();
+		}
+
+		public Geometry getGeometry() {
+			return geometry;
+		}
+
+		public boolean intersects(Geometry geom) {
+			return prepared.get().intersects(geom);
+		}
+
+		public boolean contains(Geometry geom) {
+			return prepared.get().contains(geom);
+		}
+
+		public boolean within(Geometry geom) {
+			return prepared.get().within(geom);
+		}
+
+		public boolean covers(Geometry geom) {
+			return prepared.get().covers(geom);
+		}
+
+		public boolean coveredBy(Geometry geom) {
+			return prepared.get().coveredBy(geom);
+		}
+	}
+
+	/**
+	 * WKB content used as a map key.
+	 */
+	static final class Key {
+
+		final byte[] wkb;
+
+		final int hash;
+
+		Key(byte[] wkb) {
+			this.wkb = wkb;
+			this.hash = Arrays.hashCode(wkb);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Key && ((Key) obj).hash == hash
+					&& Arrays.equals(((Key) obj).wkb, wkb);
+		}
+	}
+}
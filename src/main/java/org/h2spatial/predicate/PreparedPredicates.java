@@ -0,0 +1,85 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.predicate;
+
+import org.h2spatial.codec.GeometryCodec;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Binary predicates evaluated with the prepared geometry of an argument that
+ * repeats from one call to the next.
+ *
+ * When neither argument is cached the predicate is evaluated on the decoded
+ * geometries as before. When the argument is on the other side of an
+ * asymmetric predicate, the converse predicate is used : Contains(a, b) is
+ * evaluated as b within a.
+ */
+public final class PreparedPredicates {
+
+	private PreparedPredicates() {
+	}
+
+	public static boolean intersects(byte[] arg0, byte[] arg1)
+			throws ParseException {
+		PreparedGeometryCache cache = PreparedGeometryCache.getDefault();
+		PreparedGeometryCache.Entry entry0 = cache.get(arg0);
+		PreparedGeometryCache.Entry entry1 = cache.get(arg1);
+		if (entry0 != null) {
+			return entry0.intersects(geometry(entry1, arg1));
+		}
+		if (entry1 != null) {
+			return entry1.intersects(GeometryCodec.read(arg0));
+		}
+		return GeometryCodec.read(arg0).intersects(GeometryCodec.read(arg1));
+	}
+
+	public static boolean contains(byte[] arg0, byte[] arg1)
+			throws ParseException {
+		PreparedGeometryCache cache = PreparedGeometryCache.getDefault();
+		PreparedGeometryCache.Entry entry0 = cache.get(arg0);
+		PreparedGeometryCache.Entry entry1 = cache.get(arg1);
+		if (entry0 != null) {
+			return entry0.contains(geometry(entry1, arg1));
+		}
+		if (entry1 != null) {
+			return entry1.within(GeometryCodec.read(arg0));
+		}
+		return GeometryCodec.read(arg0).contains(GeometryCodec.read(arg1));
+	}
+
+	public static boolean within(byte[] arg0, byte[] arg1)
+			throws ParseException {
+		return contains(arg1, arg0);
+	}
+
+	public static boolean covers(byte[] arg0, byte[] arg1)
+			throws ParseException {
+		PreparedGeometryCache cache = PreparedGeometryCache.getDefault();
+		PreparedGeometryCache.Entry entry0 = cache.get(arg0);
+		PreparedGeometryCache.Entry entry1 = cache.get(arg1);
+		if (entry0 != null) {
+			return entry0.covers(geometry(entry1, arg1));
+		}
+		if (entry1 != null) {
+			return entry1.coveredBy(GeometryCodec.read(arg0));
+		}
+		return GeometryCodec.read(arg0).covers(GeometryCodec.read(arg1));
+	}
+
+	public static boolean coveredBy(byte[] arg0, byte[] arg1)
+			throws ParseException {
+		return covers(arg1, arg0);
+	}
+
+	private static Geometry geometry(PreparedGeometryCache.Entry entry,
+			byte[] wkb) throws ParseException {
+		return entry != null ? entry.getGeometry() : GeometryCodec.read(wkb);
+	}
+}
@@ -0,0 +1,606 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.stats;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.WKBInspector;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Statistics of a geometry column : feature count, extent, vertex count, a
+ * spatial histogram and the distribution of the value sizes.
+ *
+ * The statistics are computed by a scan of the table when they are enabled
+ * or refreshed, then kept up to date by a trigger in the transaction of each
+ * insert, update and delete. They are stored in the LAYER_STATISTICS table,
+ * one row per column, and in LAYER_HISTOGRAMS, one row per bucket, so
+ * reading them doesn't depend on the size of the table.
+ *
+ * The extent grows with inserted geometries. A deleted geometry touching the
+ * extent may leave it larger than needed, EXTENT_EXACT is then false until
+ * the next refresh.
+ *
+ * The spatial histogram counts the geometries by the center of their
+ * envelope on a GRID_SIZE x GRID_SIZE grid covering the extent at the last
+ * refresh, geometries outside of the grid are counted in the border cells.
+ * The size histogram counts the values by power of two of their length.
+ */
+public class LayerStatistics {
+
+	public static final String REGISTRY = "LAYER_STATISTICS";
+
+	public static final String HISTOGRAMS = "LAYER_HISTOGRAMS";
+
+	public static final int GRID_SIZE = 16;
+
+	public static final int SIZE_BUCKETS = 32;
+
+	static final String SPATIAL = "SPATIAL";
+
+	static final String SIZE = "SIZE";
+
+	private final String tableName;
+
+	private final String columnName;
+
+	private long rowCount;
+
+	private Envelope extent = new Envelope();
+
+	private boolean exact = true;
+
+	private long totalPoints;
+
+	private long totalSize;
+
+	private Envelope grid = new Envelope();
+
+	private final long[] cells = new long[GRID_SIZE * GRID_SIZE];
+
+	private final long[] sizes = new long[SIZE_BUCKETS];
+
+	LayerStatistics(String tableName, String columnName) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+	}
+
+	/**
+	 * Computes the statistics of a column and creates the trigger maintaining
+	 * them.
+	 */
+	public static LayerStatistics enable(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (!SQLUtils.tableExists(conn, tableName)) {
+			throw new SQLException("Table not found : " + tableName);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		if (find(conn, tableName, columnName) != null) {
+			throw new SQLException("The statistics of " + tableName + "."
+					+ columnName + " are already enabled");
+		}
+		LayerStatistics stats = scan(conn, tableName, columnName);
+		stats.insert(conn);
+		SQLUtils.execute(conn, "CREATE TRIGGER " + stats.getTriggerName()
+				+ " AFTER INSERT, UPDATE, DELETE ON " + tableName
+				+ " FOR EACH ROW CALL \""
+				+ LayerStatisticsTrigger.class.getName() + "\"");
+		return stats;
+	}
+
+	/**
+	 * Computes again the statistics of a column, with an exact extent and a
+	 * new histogram grid.
+	 */
+	public static LayerStatistics refresh(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		LayerStatistics stats = get(conn, tableName, columnName);
+		stats.delete(conn);
+		stats = scan(conn, stats.tableName, stats.columnName);
+		stats.insert(conn);
+		return stats;
+	}
+
+	public static void disable(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		LayerStatistics stats = get(conn, tableName, columnName);
+		SQLUtils.execute(conn, "DROP TRIGGER IF EXISTS "
+				+ stats.getTriggerName());
+		stats.delete(conn);
+	}
+
+	/**
+	 * @return the statistics of the column with its histograms, or null if
+	 *         they aren't enabled.
+	 */
+	public static LayerStatistics find(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		LayerStatistics stats = findSummary(conn, tableName, columnName);
+		if (stats != null) {
+			stats.loadHistograms(conn);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the statistics of the column with its histograms, an exception
+	 *         is thrown if they aren't enabled.
+	 */
+	public static LayerStatistics get(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		LayerStatistics stats = find(conn, tableName, columnName);
+		if (stats == null) {
+			throw new SQLException("No statistics on " + tableName + "."
+					+ columnName);
+		}
+		return stats;
+	}
+
+	/**
+	 * @return the statistics of the column without the histograms, or null if
+	 *         they aren't enabled.
+	 */
+	public static LayerStatistics findSummary(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		if (!SQLUtils.tableExists(conn, REGISTRY)) {
+			return null;
+		}
+		return readSummary(conn, SQLUtils.normalize(tableName), SQLUtils
+				.normalize(columnName));
+	}
+
+	/**
+	 * @return the statistics of the column without the histograms, an
+	 *         exception is thrown if they aren't enabled.
+	 */
+	public static LayerStatistics getSummary(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		LayerStatistics stats = findSummary(conn, tableName, columnName);
+		if (stats == null) {
+			throw new SQLException("No statistics on " + tableName + "."
+					+ columnName);
+		}
+		return stats;
+	}
+
+	static LayerStatistics readSummary(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT ROW_COUNT,"
+				+ " MIN_X, MIN_Y, MAX_X, MAX_Y, EXTENT_EXACT, TOTAL_POINTS,"
+				+ " TOTAL_SIZE, GRID_MIN_X, GRID_MIN_Y, GRID_MAX_X, GRID_MAX_Y"
+				+ " FROM " + REGISTRY
+				+ " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			if (!rs.next()) {
+				return null;
+			}
+			LayerStatistics stats = new LayerStatistics(tableName, columnName);
+			stats.rowCount = rs.getLong(1);
+			stats.extent = readEnvelope(rs, 2);
+			stats.exact = rs.getBoolean(6);
+			stats.totalPoints = rs.getLong(7);
+			stats.totalSize = rs.getLong(8);
+			stats.grid = readEnvelope(rs, 9);
+			return stats;
+		} finally {
+			select.close();
+		}
+	}
+
+	static void createTables(Connection conn) throws SQLException {
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + REGISTRY
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR, ROW_COUNT BIGINT,"
+				+ " MIN_X DOUBLE, MIN_Y DOUBLE, MAX_X DOUBLE, MAX_Y DOUBLE,"
+				+ " EXTENT_EXACT BOOLEAN, TOTAL_POINTS BIGINT,"
+				+ " TOTAL_SIZE BIGINT, GRID_MIN_X DOUBLE, GRID_MIN_Y DOUBLE,"
+				+ " GRID_MAX_X DOUBLE, GRID_MAX_Y DOUBLE,"
+				+ " PRIMARY KEY(TABLE_NAME, COLUMN_NAME))");
+		SQLUtils.execute(conn, "CREATE TABLE IF NOT EXISTS " + HISTOGRAMS
+				+ "(TABLE_NAME VARCHAR, COLUMN_NAME VARCHAR, KIND VARCHAR,"
+				+ " BUCKET INT, ROW_COUNT BIGINT,"
+				+ " PRIMARY KEY(TABLE_NAME, COLUMN_NAME, KIND, BUCKET))");
+	}
+
+	private static Envelope readEnvelope(ResultSet rs, int column)
+			throws SQLException {
+		double minX = rs.getDouble(column);
+		if (rs.wasNull()) {
+			return new Envelope();
+		}
+		return new Envelope(minX, rs.getDouble(column + 2), rs
+				.getDouble(column + 1), rs.getDouble(column + 3));
+	}
+
+	private static void setEnvelope(PreparedStatement st, int index,
+			Envelope env) throws SQLException {
+		if (env.isNull()) {
+			for (int i = 0; i < 4; i++) {
+				st.setNull(index + i, Types.DOUBLE);
+			}
+		} else {
+			st.setDouble(index, env.getMinX());
+			st.setDouble(index + 1, env.getMinY());
+			st.setDouble(index + 2, env.getMaxX());
+			st.setDouble(index + 3, env.getMaxY());
+		}
+	}
+
+	/**
+	 * Computes the statistics with two scans, the first one giving the
+	 * extent used as histogram grid.
+	 */
+	private static LayerStatistics scan(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		LayerStatistics stats = new LayerStatistics(tableName, columnName);
+		String query = "SELECT " + columnName + " FROM " + tableName;
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery(query);
+			while (rs.next()) {
+				byte[] value = rs.getBytes(1);
+				if (value != null) {
+					stats.grid.expandToInclude(readEnvelope(value));
+				}
+			}
+			rs = st.executeQuery(query);
+			while (rs.next()) {
+				byte[] value = rs.getBytes(1);
+				if (value != null) {
+					stats.add(value);
+				}
+			}
+		} finally {
+			st.close();
+		}
+		return stats;
+	}
+
+	private static Envelope readEnvelope(byte[] value) throws SQLException {
+		try {
+			return GeometryCodec.readEnvelope(value);
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		}
+	}
+
+	private static int getNumPoints(byte[] value) throws SQLException {
+		if (WKBInspector.canInspect(value)) {
+			return WKBInspector.getNumPoints(value);
+		}
+		try {
+			Geometry geom = GeometryCodec.read(value);
+			return geom.getNumPoints();
+		} catch (ParseException e) {
+			throw new SQLException("Invalid geometry : " + e.getMessage());
+		}
+	}
+
+	static int getSizeBucket(int size) {
+		return 32 - Integer.numberOfLeadingZeros(size);
+	}
+
+	void add(byte[] value) throws SQLException {
+		Envelope env = readEnvelope(value);
+		if (rowCount == 0) {
+			extent = new Envelope();
+			exact = true;
+		}
+		rowCount++;
+		totalPoints += getNumPoints(value);
+		totalSize += value.length;
+		sizes[getSizeBucket(value.length)]++;
+		if (!env.isNull()) {
+			extent.expandToInclude(env);
+			if (!grid.isNull()) {
+				cells[getCell(env)]++;
+			}
+		}
+	}
+
+	void remove(byte[] value) throws SQLException {
+		Envelope env = readEnvelope(value);
+		rowCount--;
+		totalPoints -= getNumPoints(value);
+		totalSize -= value.length;
+		sizes[getSizeBucket(value.length)]--;
+		if (!env.isNull()) {
+			if (env.getMinX() <= extent.getMinX()
+					|| env.getMinY() <= extent.getMinY()
+					|| env.getMaxX() >= extent.getMaxX()
+					|| env.getMaxY() >= extent.getMaxY()) {
+				exact = false;
+			}
+			if (!grid.isNull()) {
+				cells[getCell(env)]--;
+			}
+		}
+		if (rowCount == 0) {
+			extent = new Envelope();
+			exact = true;
+		}
+	}
+
+	/**
+	 * @return the cell of the center of an envelope.
+	 */
+	int getCell(Envelope env) {
+		int col = getGridIndex((env.getMinX() + env.getMaxX()) / 2, grid
+				.getMinX(), grid.getWidth());
+		int row = getGridIndex((env.getMinY() + env.getMaxY()) / 2, grid
+				.getMinY(), grid.getHeight());
+		return row * GRID_SIZE + col;
+	}
+
+	private static int getGridIndex(double value, double min, double width) {
+		if (width <= 0) {
+			return 0;
+		}
+		int index = (int) ((value - min) / width * GRID_SIZE);
+		return Math.max(0, Math.min(GRID_SIZE - 1, index));
+	}
+
+	/**
+	 * @return the envelope of a cell of the histogram grid.
+	 */
+	public Envelope getCellEnvelope(int cell) {
+		double width = grid.getWidth() / GRID_SIZE;
+		double height = grid.getHeight() / GRID_SIZE;
+		double minX = grid.getMinX() + (cell % GRID_SIZE) * width;
+		double minY = grid.getMinY() + (cell / GRID_SIZE) * height;
+		return new Envelope(minX, minX + width, minY, minY + height);
+	}
+
+	/**
+	 * Estimated fraction of the features whose envelope center is in a
+	 * window, summing the histogram cells weighted by their overlap with the
+	 * window.
+	 */
+	public double estimateSelectivity(Envelope window) {
+		if (rowCount == 0 || window.isNull() || extent.isNull()
+				|| !window.intersects(extent)) {
+			return 0;
+		}
+		if (grid.isNull()) {
+			return 1;
+		}
+		double count = 0;
+		for (int cell = 0; cell < cells.length; cell++) {
+			if (cells[cell] > 0) {
+				Envelope env = getCellEnvelope(cell);
+				count += cells[cell]
+						* getOverlap(window.getMinX(), window.getMaxX(), env
+								.getMinX(), env.getMaxX())
+						* getOverlap(window.getMinY(), window.getMaxY(), env
+								.getMinY(), env.getMaxY());
+			}
+		}
+		return Math.min(1, count / rowCount);
+	}
+
+	/**
+	 * @return the fraction of the [cellMin, cellMax] interval covered by the
+	 *         [min, max] interval.
+	 */
+	private static double getOverlap(double min, double max, double cellMin,
+			double cellMax) {
+		if (cellMax <= cellMin) {
+			return min <= cellMin && cellMin <= max ? 1 : 0;
+		}
+		double overlap = Math.min(max, cellMax) - Math.max(min, cellMin);
+		return Math.max(0, overlap) / (cellMax - cellMin);
+	}
+
+	private void insert(Connection conn) throws SQLException {
+		createTables(conn);
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ REGISTRY + " VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			insert.setLong(3, rowCount);
+			setEnvelope(insert, 4, extent);
+			insert.setBoolean(8, exact);
+			insert.setLong(9, totalPoints);
+			insert.setLong(10, totalSize);
+			setEnvelope(insert, 11, grid);
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+		insert = conn.prepareStatement("INSERT INTO " + HISTOGRAMS
+				+ " VALUES(?, ?, ?, ?, ?)");
+		try {
+			insert.setString(1, tableName);
+			insert.setString(2, columnName);
+			insertBuckets(insert, SPATIAL, cells);
+			insertBuckets(insert, SIZE, sizes);
+			insert.executeBatch();
+		} finally {
+			insert.close();
+		}
+	}
+
+	private static void insertBuckets(PreparedStatement insert, String kind,
+			long[] counts) throws SQLException {
+		insert.setString(3, kind);
+		for (int i = 0; i < counts.length; i++) {
+			insert.setInt(4, i);
+			insert.setLong(5, counts[i]);
+			insert.addBatch();
+		}
+	}
+
+	private void delete(Connection conn) throws SQLException {
+		for (String table : new String[] { REGISTRY, HISTOGRAMS }) {
+			PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+					+ table + " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+			try {
+				delete.setString(1, tableName);
+				delete.setString(2, columnName);
+				delete.execute();
+			} finally {
+				delete.close();
+			}
+		}
+	}
+
+	private void loadHistograms(Connection conn) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT KIND,"
+				+ " BUCKET, ROW_COUNT FROM " + HISTOGRAMS
+				+ " WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			select.setString(2, columnName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				long[] counts = SPATIAL.equals(rs.getString(1)) ? cells : sizes;
+				counts[rs.getInt(2)] = rs.getLong(3);
+			}
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * Applies the changes of a row, the histogram counts of this object
+	 * being the differences to add to the stored ones.
+	 */
+	void applyChange(Connection conn, byte[] oldValue, byte[] newValue)
+			throws SQLException {
+		if (oldValue != null) {
+			remove(oldValue);
+		}
+		if (newValue != null) {
+			add(newValue);
+		}
+		PreparedStatement update = conn.prepareStatement("UPDATE " + REGISTRY
+				+ " SET ROW_COUNT = ?, MIN_X = ?, MIN_Y = ?, MAX_X = ?,"
+				+ " MAX_Y = ?, EXTENT_EXACT = ?, TOTAL_POINTS = ?,"
+				+ " TOTAL_SIZE = ? WHERE TABLE_NAME = ? AND COLUMN_NAME = ?");
+		try {
+			update.setLong(1, rowCount);
+			setEnvelope(update, 2, extent);
+			update.setBoolean(6, exact);
+			update.setLong(7, totalPoints);
+			update.setLong(8, totalSize);
+			update.setString(9, tableName);
+			update.setString(10, columnName);
+			update.execute();
+		} finally {
+			update.close();
+		}
+		update = conn.prepareStatement("UPDATE " + HISTOGRAMS
+				+ " SET ROW_COUNT = ROW_COUNT + ? WHERE TABLE_NAME = ?"
+				+ " AND COLUMN_NAME = ? AND KIND = ? AND BUCKET = ?");
+		try {
+			update.setString(2, tableName);
+			update.setString(3, columnName);
+			updateBuckets(update, SPATIAL, cells);
+			updateBuckets(update, SIZE, sizes);
+		} finally {
+			update.close();
+		}
+	}
+
+	private static void updateBuckets(PreparedStatement update, String kind,
+			long[] deltas) throws SQLException {
+		update.setString(4, kind);
+		for (int i = 0; i < deltas.length; i++) {
+			if (deltas[i] != 0) {
+				update.setLong(1, deltas[i]);
+				update.setInt(5, i);
+				update.execute();
+			}
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the extent of the geometries, a null envelope if there is none.
+	 */
+	public Envelope getExtent() {
+		return extent;
+	}
+
+	/**
+	 * @return false if deleted geometries may have left the extent larger
+	 *         than the geometries.
+	 */
+	public boolean isExtentExact() {
+		return exact;
+	}
+
+	public long getTotalPoints() {
+		return totalPoints;
+	}
+
+	public double getAveragePoints() {
+		return rowCount == 0 ? 0 : (double) totalPoints / rowCount;
+	}
+
+	public long getTotalSize() {
+		return totalSize;
+	}
+
+	public double getAverageSize() {
+		return rowCount == 0 ? 0 : (double) totalSize / rowCount;
+	}
+
+	/**
+	 * @return the extent covered by the histogram grid, a null envelope if
+	 *         the table was empty at the last refresh.
+	 */
+	public Envelope getGrid() {
+		return grid;
+	}
+
+	/**
+	 * @return the feature counts of the histogram cells, by row then column.
+	 */
+	public long[] getCells() {
+		return cells;
+	}
+
+	/**
+	 * @return the value counts by size, bucket i holding the values of 2^(i-1)
+	 *         to 2^i - 1 bytes.
+	 */
+	public long[] getSizes() {
+		return sizes;
+	}
+
+	public String getTriggerName() {
+		return tableName + "_" + columnName + "_STATS_TRG";
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.stats;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2.api.Trigger;
+import org.h2spatial.util.SQLUtils;
+
+/**
+ * Applies the rows changed in a table to the statistics of its geometry
+ * column.
+ */
+public class LayerStatisticsTrigger implements Trigger {
+
+	private String tableName;
+
+	private String columnName;
+
+	private int geometryPosition;
+
+	public void init(Connection conn, String schemaName, String triggerName,
+			String tableName) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT COLUMN_NAME FROM "
+				+ LayerStatistics.REGISTRY + " WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				LayerStatistics candidate = new LayerStatistics(tableName, rs
+						.getString(1));
+				if (candidate.getTriggerName().equals(triggerName)) {
+					this.columnName = candidate.getColumnName();
+				}
+			}
+		} finally {
+			select.close();
+		}
+		if (columnName == null) {
+			throw new SQLException("No layer statistics for the trigger "
+					+ triggerName);
+		}
+		this.tableName = tableName;
+		geometryPosition = SQLUtils.getColumnPosition(conn, tableName,
+				columnName);
+	}
+
+	public void fire(Connection conn, Object[] oldRow, Object[] newRow)
+			throws SQLException {
+		byte[] oldValue = oldRow == null ? null : SQLUtils
+				.toBytes(oldRow[geometryPosition]);
+		byte[] newValue = newRow == null ? null : SQLUtils
+				.toBytes(newRow[geometryPosition]);
+		if (Arrays.equals(oldValue, newValue)) {
+			return;
+		}
+		LayerStatistics stats = LayerStatistics.readSummary(conn, tableName,
+				columnName);
+		if (stats != null) {
+			stats.applyChange(conn, oldValue, newValue);
+		}
+	}
+}
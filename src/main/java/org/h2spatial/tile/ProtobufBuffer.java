@@ -0,0 +1,140 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.tile;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Growable buffer writing the fields of a protocol buffers message.
+ *
+ * Only the wire types used by the vector tiles are written : varints (0),
+ * 64 bit values (1) and length delimited values (2).
+ */
+final class ProtobufBuffer {
+
+	static final int VARINT = 0;
+
+	static final int FIXED64 = 1;
+
+	static final int LENGTH_DELIMITED = 2;
+
+	private byte[] data;
+
+	private int size;
+
+	ProtobufBuffer(int capacity) {
+		data = new byte[capacity];
+	}
+
+	private void ensureCapacity(int extra) {
+		if (size + extra > data.length) {
+			byte[] copy = new byte[Math.max(data.length * 2, size + extra)];
+			System.arraycopy(data, 0, copy, 0, size);
+			data = copy;
+		}
+	}
+
+	void writeVarint(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7FL) != 0) {
+			data[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[size++] = (byte) value;
+	}
+
+	void writeTag(int field, int wireType) {
+		writeVarint((field << 3) | wireType);
+	}
+
+	void writeVarintField(int field, long value) {
+		writeTag(field, VARINT);
+		writeVarint(value);
+	}
+
+	void writeDoubleField(int field, double value) {
+		writeTag(field, FIXED64);
+		ensureCapacity(8);
+		long bits = Double.doubleToLongBits(value);
+		for (int i = 0; i < 8; i++) {
+			data[size++] = (byte) (bits >>> (8 * i));
+		}
+	}
+
+	void writeBytesField(int field, byte[] value, int offset, int length) {
+		writeTag(field, LENGTH_DELIMITED);
+		writeVarint(length);
+		ensureCapacity(length);
+		System.arraycopy(value, offset, data, size, length);
+		size += length;
+	}
+
+	void writeStringField(int field, String value) {
+		try {
+			byte[] utf8 = value.getBytes("UTF-8");
+			writeBytesField(field, utf8, 0, utf8.length);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	void writeMessageField(int field, ProtobufBuffer message) {
+		writeBytesField(field, message.data, 0, message.size);
+	}
+
+	/**
+	 * Appends the fields already written in another buffer.
+	 */
+	void write(ProtobufBuffer fields) {
+		ensureCapacity(fields.size);
+		System.arraycopy(fields.data, 0, data, size, fields.size);
+		size += fields.size;
+	}
+
+	/**
+	 * Writes unsigned ints as a packed repeated field.
+	 */
+	void writePackedField(int field, int[] values, int count) {
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			length += getVarintSize(values[i] & 0xFFFFFFFFL);
+		}
+		writeTag(field, LENGTH_DELIMITED);
+		writeVarint(length);
+		for (int i = 0; i < count; i++) {
+			writeVarint(values[i] & 0xFFFFFFFFL);
+		}
+	}
+
+	static int getVarintSize(long value) {
+		int bytes = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			bytes++;
+		}
+		return bytes;
+	}
+
+	static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	int size() {
+		return size;
+	}
+
+	void reset() {
+		size = 0;
+	}
+
+	byte[] toByteArray() {
+		byte[] copy = new byte[size];
+		System.arraycopy(data, 0, copy, 0, size);
+		return copy;
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.tile;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.h2spatial.catalog.GeometryColumn;
+import org.h2spatial.catalog.SpatialCatalog;
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.index.IndexVisitor;
+import org.h2spatial.index.SpatialIndex;
+import org.h2spatial.lod.GeometryLevels;
+import org.h2spatial.util.SQLUtils;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateFilter;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Builds the vector tile z/x/y of a geometry column, in the Web Mercator
+ * tiling scheme.
+ *
+ * The rows are found by the spatial index of the column when it has one,
+ * otherwise by a scan comparing the stored envelopes to the tile. Each
+ * geometry is then moved to the tile coordinates, simplified to the tile
+ * unit, clipped to the tile and its buffer, and encoded before the next row
+ * is read. When the column has levels of detail, the coarsest level below
+ * the tile unit is read instead of the column.
+ *
+ * The coordinates must be in Web Mercator meters, or in degrees for the SRID
+ * 4326, which are projected on the fly.
+ */
+public final class VectorTile {
+
+	public static final double EARTH_RADIUS = 6378137;
+
+	/**
+	 * Half the width of the Web Mercator world, in meters.
+	 */
+	public static final double WORLD_HALF_SIZE = Math.PI * EARTH_RADIUS;
+
+	public static final int MAX_ZOOM = 30;
+
+	/**
+	 * Default width, in tile units, of the border around the tile in which
+	 * the geometries are kept, so that the clipped edges are not drawn.
+	 */
+	public static final int DEFAULT_BUFFER = 64;
+
+	/**
+	 * Latitude of the edges of the Web Mercator world, in degrees.
+	 */
+	static final double MAX_LATITUDE = 85.0511287798066;
+
+	/**
+	 * Number of keys read by a query when the rows are found by the index.
+	 */
+	static final int CHUNK_SIZE = 500;
+
+	private static final GeometryFactory FACTORY = new GeometryFactory();
+
+	private VectorTile() {
+	}
+
+	/**
+	 * @return the envelope of the tile in Web Mercator meters.
+	 */
+	public static Envelope getEnvelope(int z, int x, int y)
+			throws SQLException {
+		if (z < 0 || z > MAX_ZOOM) {
+			throw new SQLException("Invalid zoom level : " + z);
+		}
+		long tiles = 1L << z;
+		if (x < 0 || x >= tiles || y < 0 || y >= tiles) {
+			throw new SQLException("Invalid tile : " + z + "/" + x + "/" + y);
+		}
+		double size = 2 * WORLD_HALF_SIZE / tiles;
+		double minX = -WORLD_HALF_SIZE + x * size;
+		double maxY = WORLD_HALF_SIZE - y * size;
+		return new Envelope(minX, minX + size, maxY - size, maxY);
+	}
+
+	/**
+	 * Encodes the tile with the default extent and buffer.
+	 */
+	public static byte[] encode(Connection conn, String tableName,
+			String columnName, int z, int x, int y) throws SQLException {
+		return encode(conn, tableName, columnName, z, x, y,
+				VectorTileEncoder.DEFAULT_EXTENT, DEFAULT_BUFFER);
+	}
+
+	/**
+	 * @param extent
+	 *            the number of units across the tile.
+	 * @param buffer
+	 *            the number of units kept around the tile.
+	 * @return the tile holding a single layer named after the table, empty
+	 *         if no geometry crosses the tile.
+	 */
+	public static byte[] encode(Connection conn, String tableName,
+			String columnName, int z, int x, int y, int extent, int buffer)
+			throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		if (extent <= 0 || buffer < 0) {
+			throw new SQLException("Invalid tile extent : " + extent + ", "
+					+ buffer);
+		}
+		SQLUtils.getColumnPosition(conn, tableName, columnName);
+		GeometryColumn column = SpatialCatalog.getColumn(conn, tableName,
+				columnName);
+		boolean geographic = isGeographic(column == null ? 0 : column
+				.getSRID());
+		Envelope tile = getEnvelope(z, x, y);
+		double unit = tile.getWidth() / extent;
+		Envelope query = new Envelope(tile);
+		query.expandBy(buffer * unit);
+		if (geographic) {
+			query = new Envelope(toLongitude(query.getMinX()),
+					toLongitude(query.getMaxX()), toLatitude(query.getMinY()),
+					toLatitude(query.getMaxY()));
+		}
+		String geometryColumn = columnName;
+		GeometryLevels levels = GeometryLevels.find(conn, tableName,
+				columnName);
+		if (levels != null) {
+			geometryColumn = levels.getColumnName(levels.getLevel(query
+					.getWidth()
+					/ (extent + 2 * buffer)));
+		}
+		SpatialIndex index = null;
+		if (SQLUtils.tableExists(conn, SpatialIndex.REGISTRY)) {
+			index = SpatialIndex.find(conn, tableName, columnName);
+		}
+		String keyColumn = null;
+		if (index != null) {
+			keyColumn = index.getKeyColumn();
+		} else {
+			try {
+				keyColumn = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+			} catch (SQLException e) {
+				// the features have no id
+			}
+		}
+		String[] names = getAttributeNames(conn, tableName, columnName);
+		StringBuilder select = new StringBuilder("SELECT ");
+		select.append(keyColumn == null ? "NULL" : keyColumn);
+		select.append(", ").append(geometryColumn);
+		for (String name : names) {
+			select.append(", ").append(name);
+		}
+		select.append(" FROM ").append(tableName);
+
+		Writer writer = new Writer(tableName.toLowerCase(), tile, extent,
+				buffer, geographic, names);
+		Statement st = conn.createStatement();
+		try {
+			if (index == null) {
+				select.append(" WHERE ").append(geometryColumn).append(
+						" IS NOT NULL");
+				writer.write(st.executeQuery(select.toString()), query);
+			} else {
+				long[] keys = getKeys(conn, index, query);
+				select.append(" WHERE ").append(keyColumn).append(" IN (");
+				for (int start = 0; start < keys.length; start += CHUNK_SIZE) {
+					StringBuilder chunk = new StringBuilder(select);
+					int end = Math.min(keys.length, start + CHUNK_SIZE);
+					for (int i = start; i < end; i++) {
+						if (i > start) {
+							chunk.append(", ");
+						}
+						chunk.append(keys[i]);
+					}
+					chunk.append(")");
+					writer.write(st.executeQuery(chunk.toString()), null);
+				}
+			}
+		} finally {
+			st.close();
+		}
+		return writer.encoder.encode();
+	}
+
+	/**
+	 * @return true for coordinates in degrees, false for Web Mercator
+	 *         meters.
+	 */
+	static boolean isGeographic(int srid) throws SQLException {
+		switch (srid) {
+		case 4326:
+			return true;
+		case 0:
+		case 3857:
+		case 3785:
+		case 900913:
+		case 102100:
+		case 102113:
+			return false;
+		default:
+			throw new SQLException("Vector tiles need coordinates in Web"
+					+ " Mercator or in degrees, not in the SRID " + srid);
+		}
+	}
+
+	private static long[] getKeys(Connection conn, SpatialIndex index,
+			Envelope query) throws SQLException {
+		final long[][] keys = { new long[64] };
+		final int[] count = { 0 };
+		index.query(conn, query, new IndexVisitor() {
+			public void visit(long key) {
+				if (count[0] == keys[0].length) {
+					keys[0] = Arrays.copyOf(keys[0], count[0] * 2);
+				}
+				keys[0][count[0]++] = key;
+			}
+		});
+		long[] sorted = Arrays.copyOf(keys[0], count[0]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * @return the columns written as attributes: all the columns but the
+	 *         geometries and the binary or structured ones.
+	 */
+	private static String[] getAttributeNames(Connection conn,
+			String tableName, String columnName) throws SQLException {
+		List<String> names = new ArrayList<String>();
+		ResultSet rs = conn.getMetaData().getColumns(null, null, tableName,
+				null);
+		try {
+			while (rs.next()) {
+				String name = rs.getString("COLUMN_NAME");
+				switch (rs.getInt("DATA_TYPE")) {
+				case Types.BINARY:
+				case Types.VARBINARY:
+				case Types.LONGVARBINARY:
+				case Types.BLOB:
+				case Types.CLOB:
+				case Types.OTHER:
+				case Types.JAVA_OBJECT:
+				case Types.ARRAY:
+					continue;
+				}
+				if (!name.equals(columnName)) {
+					names.add(name);
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	static double toMercatorX(double longitude) {
+		return Math.toRadians(longitude) * EARTH_RADIUS;
+	}
+
+	static double toMercatorY(double latitude) {
+		latitude = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+		return Math.log(Math.tan(Math.PI / 4 + Math.toRadians(latitude) / 2))
+				* EARTH_RADIUS;
+	}
+
+	static double toLongitude(double x) {
+		return Math.toDegrees(x / EARTH_RADIUS);
+	}
+
+	static double toLatitude(double y) {
+		return Math.toDegrees(2 * Math.atan(Math.exp(y / EARTH_RADIUS))
+				- Math.PI / 2);
+	}
+
+	/**
+	 * Turns the rows read into features of the tile.
+	 */
+	static final class Writer implements CoordinateFilter {
+
+		final VectorTileEncoder encoder;
+
+		private final Envelope tile;
+
+		private final double scale;
+
+		private final boolean geographic;
+
+		private final String[] names;
+
+		private final Envelope clipEnvelope;
+
+		private final Geometry clip;
+
+		Writer(String layerName, Envelope tile, int extent, int buffer,
+				boolean geographic, String[] names) {
+			this.encoder = new VectorTileEncoder(layerName, extent);
+			this.tile = tile;
+			this.scale = extent / tile.getWidth();
+			this.geographic = geographic;
+			this.names = names;
+			this.clipEnvelope = new Envelope(-buffer, extent + buffer,
+					-buffer, extent + buffer);
+			this.clip = FACTORY.toGeometry(clipEnvelope);
+		}
+
+		/**
+		 * Encodes the rows of a result set, then closes it.
+		 *
+		 * @param query
+		 *            the envelope the stored values must intersect, null if
+		 *            the rows are already selected.
+		 */
+		void write(ResultSet rs, Envelope query) throws SQLException {
+			Object[] attributes = new Object[names.length];
+			try {
+				while (rs.next()) {
+					byte[] value = rs.getBytes(2);
+					if (value == null) {
+						continue;
+					}
+					if (query != null) {
+						Envelope env = GeometryCodec.readEnvelope(value);
+						if (env == null || !env.intersects(query)) {
+							continue;
+						}
+					}
+					Geometry geom = toTile(GeometryCodec.read(value));
+					if (geom == null) {
+						continue;
+					}
+					long id = rs.getLong(1);
+					if (rs.wasNull()) {
+						id = -1;
+					}
+					for (int i = 0; i < names.length; i++) {
+						attributes[i] = rs.getObject(i + 3);
+					}
+					encoder.addFeature(id, geom, names, attributes);
+				}
+			} catch (ParseException e) {
+				throw new SQLException("Invalid geometry : " + e.getMessage());
+			} finally {
+				rs.close();
+			}
+		}
+
+		/**
+		 * @return the geometry in tile units, simplified and clipped, null if
+		 *         nothing of it is left in the tile.
+		 */
+		Geometry toTile(Geometry geom) {
+			if (geom.isEmpty()) {
+				return null;
+			}
+			geom.apply(this);
+			geom.geometryChanged();
+			if (geom.getDimension() > 0) {
+				geom = DouglasPeuckerSimplifier.simplify(geom, 1);
+			}
+			if (!clipEnvelope.contains(geom.getEnvelopeInternal())) {
+				if (!clipEnvelope.intersects(geom.getEnvelopeInternal())) {
+					return null;
+				}
+				try {
+					geom = clip.intersection(geom);
+				} catch (TopologyException e) {
+					geom = clip.intersection(geom.buffer(0));
+				}
+			}
+			return geom.isEmpty() ? null : geom;
+		}
+
+		public void filter(Coordinate c) {
+			double x = c.x;
+			double y = c.y;
+			if (geographic) {
+				x = toMercatorX(x);
+				y = toMercatorY(y);
+			}
+			c.x = (x - tile.getMinX()) * scale;
+			c.y = (tile.getMaxY() - y) * scale;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.tile;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.util.LinearComponentExtracter;
+import com.vividsolutions.jts.geom.util.PointExtracter;
+import com.vividsolutions.jts.geom.util.PolygonExtracter;
+
+/**
+ * Writes the features of a single layer tile in the Mapbox Vector Tile 2.1
+ * protobuf format.
+ *
+ * The geometries are given in tile coordinates, y going down, and rounded to
+ * integers. Repeated points are removed, lines and rings reduced to less
+ * than two or three points are dropped, and the rings are oriented as the
+ * specification requires: exterior rings clockwise on screen, interior rings
+ * counter clockwise. Each feature is encoded when it is added, only the
+ * encoded bytes and the attribute dictionaries are kept.
+ */
+public class VectorTileEncoder {
+
+	public static final int DEFAULT_EXTENT = 4096;
+
+	static final int POINT = 1;
+
+	static final int LINESTRING = 2;
+
+	static final int POLYGON = 3;
+
+	static final int MOVE_TO = 1;
+
+	static final int LINE_TO = 2;
+
+	static final int CLOSE_PATH = 7;
+
+	private final String layerName;
+
+	private final int extent;
+
+	private final ProtobufBuffer features = new ProtobufBuffer(1 << 12);
+
+	private final ProtobufBuffer feature = new ProtobufBuffer(1 << 10);
+
+	private final Map<String, Integer> keys = new HashMap<String, Integer>();
+
+	private final Map<Object, Integer> values = new HashMap<Object, Integer>();
+
+	private int featureCount;
+
+	private int[] commands = new int[64];
+
+	private int commandCount;
+
+	private int[] tags = new int[16];
+
+	private int cursorX;
+
+	private int cursorY;
+
+	private int[] xs = new int[64];
+
+	private int[] ys = new int[64];
+
+	public VectorTileEncoder(String layerName, int extent) {
+		this.layerName = layerName;
+		this.extent = extent;
+	}
+
+	/**
+	 * Encodes a feature, the attributes with a null value are left out.
+	 *
+	 * @param id
+	 *            the feature id, negative for none.
+	 * @return false if nothing remained of the geometry after rounding.
+	 */
+	public boolean addFeature(long id, Geometry geom, String[] names,
+			Object[] attributes) {
+		commandCount = 0;
+		cursorX = 0;
+		cursorY = 0;
+		int type = encodeGeometry(geom);
+		if (commandCount == 0) {
+			return false;
+		}
+		int tagCount = 0;
+		for (int i = 0; i < names.length; i++) {
+			if (attributes[i] != null) {
+				if (tagCount + 2 > tags.length) {
+					int[] copy = new int[tags.length * 2];
+					System.arraycopy(tags, 0, copy, 0, tagCount);
+					tags = copy;
+				}
+				tags[tagCount++] = getIndex(keys, names[i]);
+				tags[tagCount++] = getIndex(values, attributes[i]);
+			}
+		}
+		feature.reset();
+		if (id >= 0) {
+			feature.writeVarintField(1, id);
+		}
+		if (tagCount > 0) {
+			feature.writePackedField(2, tags, tagCount);
+		}
+		feature.writeVarintField(3, type);
+		feature.writePackedField(4, commands, commandCount);
+		features.writeMessageField(2, feature);
+		featureCount++;
+		return true;
+	}
+
+	private static <T> int getIndex(Map<T, Integer> dictionary, T value) {
+		Integer index = dictionary.get(value);
+		if (index == null) {
+			index = Integer.valueOf(dictionary.size());
+			dictionary.put(value, index);
+		}
+		return index.intValue();
+	}
+
+	public int getFeatureCount() {
+		return featureCount;
+	}
+
+	/**
+	 * @return the tile holding the layer, empty if it has no feature.
+	 */
+	public byte[] encode() {
+		if (featureCount == 0) {
+			return new byte[0];
+		}
+		ProtobufBuffer layer = new ProtobufBuffer(features.size() + 1024);
+		layer.writeVarintField(15, 2);
+		layer.writeStringField(1, layerName);
+		layer.write(features);
+		for (Object key : sort(keys)) {
+			layer.writeStringField(3, (String) key);
+		}
+		ProtobufBuffer value = new ProtobufBuffer(64);
+		for (Object attribute : sort(values)) {
+			value.reset();
+			writeValue(value, attribute);
+			layer.writeMessageField(4, value);
+		}
+		layer.writeVarintField(5, extent);
+		ProtobufBuffer tile = new ProtobufBuffer(layer.size() + 8);
+		tile.writeMessageField(3, layer);
+		return tile.toByteArray();
+	}
+
+	/**
+	 * @return the entries of a dictionary in the order of their index.
+	 */
+	private static Object[] sort(Map<?, Integer> dictionary) {
+		Object[] sorted = new Object[dictionary.size()];
+		for (Map.Entry<?, Integer> entry : dictionary.entrySet()) {
+			sorted[entry.getValue().intValue()] = entry.getKey();
+		}
+		return sorted;
+	}
+
+	private static void writeValue(ProtobufBuffer value, Object attribute) {
+		if (attribute instanceof Long || attribute instanceof Integer
+				|| attribute instanceof Short || attribute instanceof Byte) {
+			long number = ((Number) attribute).longValue();
+			if (number >= 0) {
+				value.writeVarintField(5, number);
+			} else {
+				value.writeVarintField(6, (number << 1) ^ (number >> 63));
+			}
+		} else if (attribute instanceof Number) {
+			value.writeDoubleField(3, ((Number) attribute).doubleValue());
+		} else if (attribute instanceof Boolean) {
+			value.writeVarintField(7,
+					((Boolean) attribute).booleanValue() ? 1 : 0);
+		} else {
+			value.writeStringField(1, attribute.toString());
+		}
+	}
+
+	/**
+	 * @return the feature type of the geometry, by its dimension.
+	 */
+	private int encodeGeometry(Geometry geom) {
+		switch (geom.getDimension()) {
+		case 0:
+			encodePoints(PointExtracter.getPoints(geom));
+			return POINT;
+		case 1:
+			for (Object line : LinearComponentExtracter.getLines(geom)) {
+				encodeLine(((LineString) line).getCoordinates());
+			}
+			return LINESTRING;
+		default:
+			for (Object polygon : PolygonExtracter.getPolygons(geom)) {
+				encodePolygon((Polygon) polygon);
+			}
+			return POLYGON;
+		}
+	}
+
+	private void encodePoints(List<?> points) {
+		int count = 0;
+		ensureCommands(1 + 2 * points.size());
+		int start = commandCount++;
+		for (Object o : points) {
+			Point point = (Point) o;
+			if (!point.isEmpty()) {
+				addPoint((int) Math.round(point.getX()), (int) Math.round(point
+						.getY()));
+				count++;
+			}
+		}
+		if (count == 0) {
+			commandCount = 0;
+		} else {
+			commands[start] = command(MOVE_TO, count);
+		}
+	}
+
+	private void encodeLine(Coordinate[] coordinates) {
+		int n = round(coordinates);
+		if (n < 2) {
+			return;
+		}
+		ensureCommands(2 + 2 * n);
+		commands[commandCount++] = command(MOVE_TO, 1);
+		addPoint(xs[0], ys[0]);
+		commands[commandCount++] = command(LINE_TO, n - 1);
+		for (int i = 1; i < n; i++) {
+			addPoint(xs[i], ys[i]);
+		}
+	}
+
+	private void encodePolygon(Polygon polygon) {
+		if (!encodeRing(polygon.getExteriorRing().getCoordinates(), true)) {
+			return;
+		}
+		for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+			encodeRing(polygon.getInteriorRingN(i).getCoordinates(), false);
+		}
+	}
+
+	private boolean encodeRing(Coordinate[] coordinates, boolean exterior) {
+		int n = round(coordinates);
+		if (n > 1 && xs[0] == xs[n - 1] && ys[0] == ys[n - 1]) {
+			n--;
+		}
+		if (n < 3) {
+			return false;
+		}
+		long area = 0;
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			area += (long) xs[i] * ys[j] - (long) xs[j] * ys[i];
+		}
+		if (area == 0) {
+			return false;
+		}
+		boolean reverse = (area > 0) != exterior;
+		ensureCommands(3 + 2 * n);
+		commands[commandCount++] = command(MOVE_TO, 1);
+		int first = reverse ? n - 1 : 0;
+		addPoint(xs[first], ys[first]);
+		commands[commandCount++] = command(LINE_TO, n - 1);
+		for (int i = 1; i < n; i++) {
+			int k = reverse ? n - 1 - i : i;
+			addPoint(xs[k], ys[k]);
+		}
+		commands[commandCount++] = command(CLOSE_PATH, 1);
+		return true;
+	}
+
+	/**
+	 * Rounds the coordinates into xs and ys, without the repeated points.
+	 *
+	 * @return the number of points kept.
+	 */
+	private int round(Coordinate[] coordinates) {
+		if (xs.length < coordinates.length) {
+			xs = new int[coordinates.length];
+			ys = new int[coordinates.length];
+		}
+		int n = 0;
+		for (Coordinate c : coordinates) {
+			int x = (int) Math.round(c.x);
+			int y = (int) Math.round(c.y);
+			if (n == 0 || x != xs[n - 1] || y != ys[n - 1]) {
+				xs[n] = x;
+				ys[n] = y;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private void addPoint(int x, int y) {
+		commands[commandCount++] = ProtobufBuffer.zigZag(x - cursorX);
+		commands[commandCount++] = ProtobufBuffer.zigZag(y - cursorY);
+		cursorX = x;
+		cursorY = y;
+	}
+
+	private void ensureCommands(int extra) {
+		if (commandCount + extra > commands.length) {
+			int[] copy = new int[Math.max(commands.length * 2, commandCount
+					+ extra)];
+			System.arraycopy(commands, 0, copy, 0, commandCount);
+			commands = copy;
+		}
+	}
+
+	static int command(int id, int count) {
+		return (id & 0x7) | (count << 3);
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2spatial.catalog.SpatialCatalog;
+
+/**
+ * The geometry_columns table, one row per geometry column with its SRID,
+ * geometry type and coordinate dimension.
+ */
+public final class GeometryColumns {
+
+	public static final String TABLE = "GEOMETRY_COLUMNS";
+
+	private GeometryColumns() {
+	}
+
+	/**
+	 * Creates the table if needed, with the trigger keeping the spatial
+	 * catalog in sync.
+	 */
+	public static void createTable(Connection conn) throws SQLException {
+		if (!SQLUtils.tableExists(conn, TABLE)) {
+			SQLUtils.execute(conn, "CREATE TABLE " + TABLE
+					+ "(F_TABLE_CATALOG VARCHAR, F_TABLE_SCHEMA VARCHAR,"
+					+ " F_TABLE_NAME VARCHAR, F_GEOMETRY_COLUMN VARCHAR,"
+					+ " SRID INT, TYPE VARCHAR, COORD_DIMENSION INT)");
+		}
+		SpatialCatalog.installTrigger(conn);
+	}
+
+	/**
+	 * Adds or replaces the row of a column, the table is created if needed.
+	 */
+	public static void register(Connection conn, String tableName,
+			String columnName, int srid, String geomType, int geomDimension)
+			throws SQLException {
+		createTable(conn);
+		PreparedStatement delete = conn.prepareStatement("DELETE FROM "
+				+ TABLE + " WHERE F_TABLE_NAME = ? AND F_GEOMETRY_COLUMN = ?");
+		try {
+			delete.setString(1, tableName);
+			delete.setString(2, columnName);
+			delete.execute();
+		} finally {
+			delete.close();
+		}
+		PreparedStatement insert = conn.prepareStatement("INSERT INTO "
+				+ TABLE + " VALUES(?, ?, ?, ?, ?, ?, ?)");
+		try {
+			insert.setString(1, "");
+			insert.setString(2, "");
+			insert.setString(3, tableName);
+			insert.setString(4, columnName);
+			insert.setInt(5, srid);
+			insert.setString(6, geomType);
+			insert.setInt(7, geomDimension);
+			insert.execute();
+		} finally {
+			insert.close();
+		}
+	}
+
+	/**
+	 * @return the column type used for geometries, the GEOMETRY domain when
+	 *         it exists and BLOB otherwise.
+	 */
+	public static String getColumnType(Connection conn) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM"
+					+ " INFORMATION_SCHEMA.DOMAINS WHERE DOMAIN_NAME = 'GEOMETRY'");
+			rs.next();
+			return rs.getInt(1) > 0 ? "GEOMETRY" : "BLOB";
+		} finally {
+			st.close();
+		}
+	}
+}
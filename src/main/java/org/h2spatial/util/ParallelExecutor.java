@@ -0,0 +1,144 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker threads shared by the functions that split their work, one per
+ * available processor.
+ *
+ * The threads are daemons so that they never keep the JVM of an embedded
+ * database alive. A task submitted from a worker thread is run in the calling
+ * thread, so that nested parallel operations can't wait for each other.
+ */
+public final class ParallelExecutor {
+
+	private static final int PARALLELISM = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<Boolean>();
+
+	private static ExecutorService pool;
+
+	private ParallelExecutor() {
+	}
+
+	public static int getParallelism() {
+		return PARALLELISM;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(final Runnable r) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							WORKER.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "h2spatial-worker-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return pool;
+	}
+
+	public static boolean isWorkerThread() {
+		return WORKER.get() != null;
+	}
+
+	public static <T> Future<T> submit(Callable<T> task) {
+		if (isWorkerThread()) {
+			FutureTask<T> future = new FutureTask<T>(task);
+			future.run();
+			return future;
+		}
+		return getPool().submit(task);
+	}
+
+	/**
+	 * Runs the tasks and returns their results in the same order.
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+			throws SQLException {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> task : tasks) {
+			futures.add(submit(task));
+		}
+		List<T> results = new ArrayList<T>(tasks.size());
+		for (Future<T> future : futures) {
+			results.add(get(future));
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the tasks with at most parallelism of them at the same time and
+	 * returns their results in the same order. The tasks not yet finished
+	 * are cancelled if one fails.
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks,
+			int parallelism) throws SQLException {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				while (futures.size() < tasks.size()
+						&& futures.size() - i < parallelism) {
+					futures.add(submit(tasks.get(futures.size())));
+				}
+				results.add(get(futures.get(i)));
+			}
+		} finally {
+			for (int i = results.size(); i < futures.size(); i++) {
+				futures.get(i).cancel(false);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Waits for the result of a task, its failure is thrown as an
+	 * SQLException.
+	 */
+	public static <T> T get(Future<T> future) throws SQLException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+import org.h2.engine.Session;
+import org.h2.jdbc.JdbcConnection;
+
+/**
+ * Helpers shared by the functions that query the database.
+ */
+public final class SQLUtils {
+
+	private static final Field SESSION = getSessionField();
+
+	private SQLUtils() {
+	}
+
+	private static Field getSessionField() {
+		try {
+			Field field = JdbcConnection.class.getDeclaredField("session");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * H2 only passes a connection to the functions, this gives the session
+	 * it belongs to.
+	 *
+	 * @return the session of an embedded connection, null for a remote one.
+	 */
+	public static Session getSession(Connection conn) {
+		if (SESSION == null || !(conn instanceof JdbcConnection)) {
+			return null;
+		}
+		try {
+			Object session = SESSION.get(conn);
+			return session instanceof Session ? (Session) session : null;
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * H2 first calls a function returning a ResultSet with this connection
+	 * to get the column list. The function must then return an empty result
+	 * with the right columns, without doing the work.
+	 */
+	public static boolean isColumnListConnection(Connection conn)
+			throws SQLException {
+		return conn.getMetaData().getURL().startsWith("jdbc:columnlist:");
+	}
+
+	/**
+	 * Table and column names are stored in upper case by H2.
+	 */
+	public static String normalize(String identifier) {
+		return identifier.toUpperCase();
+	}
+
+	/**
+	 * Trigger rows give BLOB values as streams, queries as byte arrays.
+	 */
+	public static byte[] toBytes(Object value) throws SQLException {
+		if (value == null || value instanceof byte[]) {
+			return (byte[]) value;
+		}
+		try {
+			if (value instanceof Blob) {
+				Blob blob = (Blob) value;
+				return blob.getBytes(1, (int) blob.length());
+			}
+			if (value instanceof InputStream) {
+				InputStream in = (InputStream) value;
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+				return out.toByteArray();
+			}
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		}
+		throw new SQLException("Not a binary value : " + value.getClass().getName());
+	}
+
+	public static boolean tableExists(Connection conn, String tableName)
+			throws SQLException {
+		ResultSet rs = conn.getMetaData().getTables(null, null,
+				normalize(tableName), null);
+		try {
+			return rs.next();
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * @return the name of the single column primary key of the table, which
+	 *         must be an integer.
+	 */
+	public static String getIntegerPrimaryKey(Connection conn, String tableName)
+			throws SQLException {
+		DatabaseMetaData meta = conn.getMetaData();
+		ResultSet rs = meta.getPrimaryKeys(null, null, tableName);
+		String key = null;
+		int count = 0;
+		try {
+			while (rs.next()) {
+				key = rs.getString("COLUMN_NAME");
+				count++;
+			}
+		} finally {
+			rs.close();
+		}
+		if (count != 1) {
+			throw new SQLException("The table " + tableName
+					+ " must have a single column primary key");
+		}
+		rs = meta.getColumns(null, null, tableName, key);
+		try {
+			if (rs.next()) {
+				switch (rs.getInt("DATA_TYPE")) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					return key;
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		throw new SQLException("The primary key " + key + " of the table "
+				+ tableName + " must be an integer");
+	}
+
+	/**
+	 * @return the 0 based position of a column, as used in trigger rows.
+	 */
+	public static int getColumnPosition(Connection conn, String tableName,
+			String columnName) throws SQLException {
+		ResultSet rs = conn.getMetaData().getColumns(null, null, tableName,
+				columnName);
+		try {
+			if (!rs.next()) {
+				throw new SQLException("Column not found : " + tableName + "."
+						+ columnName);
+			}
+			return rs.getInt("ORDINAL_POSITION") - 1;
+		} finally {
+			rs.close();
+		}
+	}
+
+	public static void execute(Connection conn, String sql) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			st.execute(sql);
+		} finally {
+			st.close();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.h2.engine.Session;
+
+/**
+ * Numeric settings of the spatial extension, changed with
+ * CALL SetSpatialSetting('JOIN_MEMORY', 268435456).
+ *
+ * A session can override a setting for itself with
+ * CALL SetSessionSpatialSetting('MAX_PARALLELISM', 2), the value is dropped
+ * with the session.
+ */
+public final class SpatialSettings {
+
+	/**
+	 * Memory, in bytes, for the side of a spatial join loaded in memory.
+	 * Larger sides are processed in several partitions.
+	 */
+	public static final String JOIN_MEMORY = "JOIN_MEMORY";
+
+	/**
+	 * Number of records parsed by a task and inserted by a JDBC batch of the
+	 * bulk loader.
+	 */
+	public static final String LOAD_BATCH_SIZE = "LOAD_BATCH_SIZE";
+
+	/**
+	 * Number of rows inserted by the bulk loader between two commits.
+	 */
+	public static final String LOAD_COMMIT_SIZE = "LOAD_COMMIT_SIZE";
+
+	/**
+	 * Scale of the coordinates stored in the GEOMETRY columns, e.g. 1000
+	 * keeps millimetres on a metric projection. The default 0 keeps the
+	 * coordinates as doubles.
+	 */
+	public static final String STORAGE_PRECISION = "STORAGE_PRECISION";
+
+	/**
+	 * Number of points from which Buffer, GeomUnion and ConvexHull split
+	 * their input between worker threads.
+	 */
+	public static final String PARALLEL_THRESHOLD = "PARALLEL_THRESHOLD";
+
+	/**
+	 * Maximum number of worker threads used by one call, 1 disables the
+	 * parallel operations.
+	 */
+	public static final String MAX_PARALLELISM = "MAX_PARALLELISM";
+
+	/**
+	 * Number of elements from which the batch functions split their array
+	 * between worker threads.
+	 */
+	public static final String BATCH_PARALLEL_THRESHOLD = "BATCH_PARALLEL_THRESHOLD";
+
+	/**
+	 * Smallest accepted value of each setting, in declaration order.
+	 */
+	private static final Map<String, Long> MINIMUMS = new LinkedHashMap<String, Long>();
+
+	private static final Map<String, Long> VALUES = new ConcurrentHashMap<String, Long>();
+
+	private static final Map<Session, Map<String, Long>> SESSION_VALUES = new WeakHashMap<Session, Map<String, Long>>();
+
+	static {
+		define(JOIN_MEMORY, 64L << 20, 1);
+		define(LOAD_BATCH_SIZE, 1000, 1);
+		define(LOAD_COMMIT_SIZE, 20000, 1);
+		define(STORAGE_PRECISION, 0, 0);
+		define(PARALLEL_THRESHOLD, 100000, 0);
+		define(MAX_PARALLELISM, ParallelExecutor.getParallelism(), 1);
+		define(BATCH_PARALLEL_THRESHOLD, 1000, 0);
+	}
+
+	private SpatialSettings() {
+	}
+
+	private static void define(String name, long value, long minimum) {
+		MINIMUMS.put(name, Long.valueOf(minimum));
+		VALUES.put(name, Long.valueOf(value));
+	}
+
+	public static long get(String name) {
+		Long value = VALUES.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Unknown setting : " + name);
+		}
+		return value.longValue();
+	}
+
+	/**
+	 * @return the value set by the session of the connection, or the global
+	 *         value.
+	 */
+	public static long get(Connection conn, String name) {
+		Session session = SQLUtils.getSession(conn);
+		if (session != null) {
+			synchronized (SESSION_VALUES) {
+				Map<String, Long> values = SESSION_VALUES.get(session);
+				Long value = values == null ? null : values.get(name);
+				if (value != null) {
+					return value.longValue();
+				}
+			}
+		}
+		return get(name);
+	}
+
+	public static void set(String name, long value) throws SQLException {
+		name = check(name, value);
+		VALUES.put(name, Long.valueOf(value));
+	}
+
+	/**
+	 * Sets the value of a setting for the session of the connection only.
+	 */
+	public static void set(Connection conn, String name, long value)
+			throws SQLException {
+		name = check(name, value);
+		Session session = SQLUtils.getSession(conn);
+		if (session == null) {
+			throw new SQLException(
+					"Session settings need an embedded connection");
+		}
+		synchronized (SESSION_VALUES) {
+			Map<String, Long> values = SESSION_VALUES.get(session);
+			if (values == null) {
+				values = new HashMap<String, Long>();
+				SESSION_VALUES.put(session, values);
+			}
+			values.put(name, Long.valueOf(value));
+		}
+	}
+
+	/**
+	 * @return the normalized name of the setting.
+	 */
+	private static String check(String name, long value) throws SQLException {
+		name = SQLUtils.normalize(name);
+		Long minimum = MINIMUMS.get(name);
+		if (minimum == null) {
+			throw new SQLException("Unknown spatial setting : " + name);
+		}
+		if (value < minimum.longValue()) {
+			throw new SQLException("The value of " + name
+					+ " must be at least " + minimum);
+		}
+		return name;
+	}
+
+	public static Map<String, Long> getAll() {
+		Map<String, Long> all = new LinkedHashMap<String, Long>();
+		for (String name : MINIMUMS.keySet()) {
+			all.put(name, VALUES.get(name));
+		}
+		return Collections.unmodifiableMap(all);
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.codec.StorageFormat;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+
+/**
+ * Rewrites the legacy WKB values of a geometry column in the storage format.
+ */
+public final class StorageConverter {
+
+	private StorageConverter() {
+	}
+
+	/**
+	 * @param srid
+	 *            SRID given to the values that don't embed one, plain WKB
+	 *            doesn't store it.
+	 * @return the number of converted rows.
+	 */
+	public static int convert(Connection conn, String tableName,
+			String columnName, int srid) throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		columnName = SQLUtils.normalize(columnName);
+		String keyColumn = SQLUtils.getIntegerPrimaryKey(conn, tableName);
+		int commitSize = (int) SpatialSettings
+				.get(SpatialSettings.LOAD_COMMIT_SIZE);
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		Statement st = conn.createStatement();
+		PreparedStatement update = conn.prepareStatement("UPDATE " + tableName
+				+ " SET " + columnName + " = ? WHERE " + keyColumn + " = ?");
+		int converted = 0;
+		boolean done = false;
+		try {
+			ResultSet rs = st.executeQuery("SELECT " + keyColumn + ", "
+					+ columnName + " FROM " + tableName + " WHERE "
+					+ columnName + " IS NOT NULL");
+			while (rs.next()) {
+				byte[] value = rs.getBytes(2);
+				if (StorageFormat.isStorageFormat(value)) {
+					continue;
+				}
+				Geometry geom = GeometryCodec.read(value);
+				update.setBytes(1, GeometryCodec.write(geom,
+						geom.getSRID() != 0 ? geom.getSRID() : srid));
+				update.setLong(2, rs.getLong(1));
+				update.addBatch();
+				if (++converted % commitSize == 0) {
+					update.executeBatch();
+					conn.commit();
+				}
+			}
+			update.executeBatch();
+			conn.commit();
+			done = true;
+		} catch (ParseException e) {
+			throw new SQLException(e.getMessage(), e);
+		} catch (IOException e) {
+			throw new SQLException(e.getMessage(), e);
+		} finally {
+			update.close();
+			st.close();
+			if (!done) {
+				conn.rollback();
+			}
+			conn.setAutoCommit(autoCommit);
+		}
+		return converted;
+	}
+}
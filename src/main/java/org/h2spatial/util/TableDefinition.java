@@ -0,0 +1,260 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.h2.engine.Session;
+
+/**
+ * Definition of a table read from INFORMATION_SCHEMA, so that its rows can
+ * be written into a new table put in place of the old one : the columns,
+ * the primary key, the indexes, the constraints and the triggers of the
+ * table, and the views H2 drops with it.
+ *
+ * A table referenced by the foreign keys of another table can't be
+ * replaced, dropping it would drop or block the rows of the other table.
+ *
+ * Replacing a table needs exclusive access to the database: the rows are
+ * copied in several transactions and the table is briefly renamed without
+ * its primary key, so the rows another session changes meanwhile would be
+ * lost or duplicated. It fails when other sessions are connected.
+ */
+public final class TableDefinition {
+
+	private final String tableName;
+
+	private final String createSQL;
+
+	private final List<String> primaryKey = new ArrayList<String>();
+
+	private final List<String> statements = new ArrayList<String>();
+
+	private final Map<String, String> views = new LinkedHashMap<String, String>();
+
+	private TableDefinition(String tableName, String createSQL) {
+		this.tableName = tableName;
+		this.createSQL = createSQL;
+	}
+
+	public static TableDefinition read(Connection conn, String tableName)
+			throws SQLException {
+		tableName = SQLUtils.normalize(tableName);
+		checkReplaceable(conn, tableName);
+		ResultSet rs;
+		PreparedStatement select = conn.prepareStatement("SELECT SQL FROM"
+				+ " INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = ?"
+				+ " AND TABLE_TYPE = 'TABLE'");
+		TableDefinition definition;
+		try {
+			select.setString(1, tableName);
+			rs = select.executeQuery();
+			if (!rs.next()) {
+				throw new SQLException("Table not found : " + tableName);
+			}
+			definition = new TableDefinition(tableName, rs.getString(1));
+		} finally {
+			select.close();
+		}
+		definition.readIndexes(conn);
+		definition.readConstraints(conn);
+		definition.readTriggers(conn);
+		definition.readViews(conn);
+		return definition;
+	}
+
+	/**
+	 * Throws an exception if the table is referenced by the foreign keys of
+	 * another table, or if other sessions are connected.
+	 */
+	public static void checkReplaceable(Connection conn, String tableName)
+			throws SQLException {
+		checkExclusive(conn, tableName);
+		ResultSet rs = conn.getMetaData().getExportedKeys(null, null,
+				SQLUtils.normalize(tableName));
+		try {
+			while (rs.next()) {
+				String referencing = rs.getString("FKTABLE_NAME");
+				if (!referencing.equals(rs.getString("PKTABLE_NAME"))) {
+					throw new SQLException("The table " + tableName
+							+ " is referenced by a foreign key of "
+							+ referencing);
+				}
+			}
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static void checkExclusive(Connection conn, String tableName)
+			throws SQLException {
+		Session session = SQLUtils.getSession(conn);
+		if (session == null) {
+			throw new SQLException("The table " + tableName
+					+ " can only be replaced through an embedded connection");
+		}
+		int others = 0;
+		for (Session other : session.getDatabase().getSessions()) {
+			if (other != session) {
+				others++;
+			}
+		}
+		if (others > 0) {
+			throw new SQLException("The table " + tableName
+					+ " can't be replaced while other sessions are connected : "
+					+ others);
+		}
+	}
+
+	/**
+	 * The primary key, kept aside to be created once the rows are written,
+	 * and the indexes not created by a constraint.
+	 */
+	private void readIndexes(Connection conn) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT INDEX_NAME,"
+				+ " INDEX_TYPE_NAME, PRIMARY_KEY, COLUMN_NAME FROM"
+				+ " INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = ?"
+				+ " AND IS_GENERATED = FALSE"
+				+ " ORDER BY INDEX_NAME, ORDINAL_POSITION");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			Map<String, StringBuilder> indexes = new LinkedHashMap<String, StringBuilder>();
+			while (rs.next()) {
+				if (rs.getBoolean(3)) {
+					primaryKey.add(rs.getString(4));
+					continue;
+				}
+				StringBuilder sql = indexes.get(rs.getString(1));
+				if (sql == null) {
+					sql = new StringBuilder("CREATE " + rs.getString(2) + " "
+							+ rs.getString(1) + " ON " + tableName + "(");
+					indexes.put(rs.getString(1), sql);
+				} else {
+					sql.append(", ");
+				}
+				sql.append(rs.getString(4));
+			}
+			for (StringBuilder sql : indexes.values()) {
+				statements.add(sql.append(')').toString());
+			}
+		} finally {
+			select.close();
+		}
+	}
+
+	private void readConstraints(Connection conn) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT SQL FROM"
+				+ " INFORMATION_SCHEMA.CONSTRAINTS WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				// the constraint creates its index again, under a new name
+				String sql = rs.getString(1);
+				int index = sql.indexOf(" INDEX ");
+				if (index > 0) {
+					int end = sql.indexOf(' ', index + 7);
+					sql = sql.substring(0, index)
+							+ (end < 0 ? "" : sql.substring(end));
+				}
+				statements.add(sql);
+			}
+		} finally {
+			select.close();
+		}
+	}
+
+	private void readTriggers(Connection conn) throws SQLException {
+		PreparedStatement select = conn.prepareStatement("SELECT TRIGGER_NAME,"
+				+ " BEFORE, TRIGGER_TYPE, QUEUE_SIZE, NO_WAIT, JAVA_CLASS FROM"
+				+ " INFORMATION_SCHEMA.TRIGGERS WHERE TABLE_NAME = ?");
+		try {
+			select.setString(1, tableName);
+			ResultSet rs = select.executeQuery();
+			while (rs.next()) {
+				statements.add("CREATE TRIGGER " + rs.getString(1)
+						+ (rs.getBoolean(2) ? " BEFORE " : " AFTER ")
+						+ rs.getString(3) + " ON " + tableName
+						+ " FOR EACH ROW QUEUE " + rs.getInt(4)
+						+ (rs.getBoolean(5) ? " NOWAIT" : "") + " CALL \""
+						+ rs.getString(6) + "\"");
+			}
+		} finally {
+			select.close();
+		}
+	}
+
+	/**
+	 * Every view, H2 doesn't tell which ones depend on the table.
+	 */
+	private void readViews(Connection conn) throws SQLException {
+		Statement st = conn.createStatement();
+		try {
+			ResultSet rs = st.executeQuery("SELECT TABLE_NAME,"
+					+ " VIEW_DEFINITION FROM INFORMATION_SCHEMA.VIEWS");
+			while (rs.next()) {
+				views.put(rs.getString(1), rs.getString(2));
+			}
+		} finally {
+			st.close();
+		}
+	}
+
+	/**
+	 * Creates an empty table with the columns of this one, without its
+	 * keys, indexes, constraints and triggers.
+	 */
+	public void createCopy(Connection conn, String copyName)
+			throws SQLException {
+		SQLUtils.execute(conn, createSQL.substring(0, createSQL
+				.indexOf(" TABLE ") + 7)
+				+ copyName + createSQL.substring(createSQL.indexOf('(')));
+	}
+
+	/**
+	 * Drops the table, renames the copy after it and creates the keys,
+	 * indexes, constraints, triggers and views again. The triggers fire only
+	 * for the changes made after this call.
+	 */
+	public void replaceWith(Connection conn, String copyName)
+			throws SQLException {
+		checkExclusive(conn, tableName);
+		SQLUtils.execute(conn, "DROP TABLE " + tableName);
+		SQLUtils.execute(conn, "ALTER TABLE " + copyName + " RENAME TO "
+				+ tableName);
+		if (!primaryKey.isEmpty()) {
+			StringBuilder sql = new StringBuilder("CREATE PRIMARY KEY ON "
+					+ tableName + "(");
+			for (int i = 0; i < primaryKey.size(); i++) {
+				sql.append(i == 0 ? "" : ", ").append(primaryKey.get(i));
+			}
+			SQLUtils.execute(conn, sql.append(')').toString());
+		}
+		for (String sql : statements) {
+			SQLUtils.execute(conn, sql);
+		}
+		for (Map.Entry<String, String> view : views.entrySet()) {
+			if (!SQLUtils.tableExists(conn, view.getKey())) {
+				SQLUtils.execute(conn, view.getValue());
+			}
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+}
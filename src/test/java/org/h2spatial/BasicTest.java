@@ -10,8 +10,8 @@ package org.h2spatial;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.io.ParseException;
-import com.vividsolutions.jts.io.WKBReader;
 import com.vividsolutions.jts.io.WKTReader;
+import org.h2spatial.codec.GeometryCodec;
 import org.junit.Test;
 
 import java.sql.*;
@@ -58,14 +58,14 @@ public class BasicTest {
 
         ResultSet rs = stat.executeQuery("SELECT * from POINT2D;");
         ResultSetMetaData rsmd2 = rs.getMetaData();
-        WKBReader wkbReader = new WKBReader();
         byte valObj[] = (byte[]) null;
         Geometry geom = null;
         while (rs.next()) {
             String columnTypeName = rsmd2.getColumnTypeName(2);
             if (columnTypeName.equals("BLOB")) {
                 valObj = rs.getBytes(2);
-                geom = wkbReader.read(valObj);
+                geom = GeometryCodec.read(valObj);
+                assertTrue(geom.getSRID() == 27582);
                 Coordinate coord = geom.getCoordinates()[0];
                 assertTrue(coord.x == 0);
                 assertTrue(coord.y == 12);
@@ -95,14 +95,14 @@ public class BasicTest {
 
         ResultSet rs = stat.executeQuery("SELECT * from POINT3D;");
         ResultSetMetaData rsmd2 = rs.getMetaData();
-        WKBReader wkbReader = new WKBReader();
         byte valObj[] = (byte[]) null;
         Geometry geom = null;
         while (rs.next()) {
             String columnTypeName = rsmd2.getColumnTypeName(2);
             if (columnTypeName.equals("BLOB")) {
                 valObj = rs.getBytes(2);
-                geom = wkbReader.read(valObj);
+                geom = GeometryCodec.read(valObj);
+                assertTrue(geom.getSRID() == 27582);
                 Coordinate coord = geom.getCoordinates()[0];
                 assertTrue(coord.x == 0);
                 assertTrue(coord.y == 12);
@@ -131,14 +131,14 @@ public class BasicTest {
 
         ResultSet rs = stat.executeQuery("SELECT * from POINT3D;");
         ResultSetMetaData rsmd2 = rs.getMetaData();
-        WKBReader wkbReader = new WKBReader();
         byte valObj[] = (byte[]) null;
         Geometry geom = null;
         while (rs.next()) {
             String columnTypeName = rsmd2.getColumnTypeName(2);
             if (columnTypeName.equals("BLOB")) {
                 valObj = rs.getBytes(2);
-                geom = wkbReader.read(valObj);
+                geom = GeometryCodec.read(valObj);
+                assertTrue(geom.getSRID() == 27582);
                 Coordinate coord = geom.getCoordinates()[0];
 
                 assertTrue(coord.x == 0);
@@ -0,0 +1,115 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the function manifest and the incremental registration of the
+ * aliases.
+ */
+public class SQLCodegeneratorTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:codegenerator", "sa", "");
+        stat = con.createStatement();
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private int countAliases() throws SQLException {
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.FUNCTION_ALIASES");
+        rs.next();
+        return rs.getInt(1);
+    }
+
+    @Test
+    public void manifestListsTheFunctions() {
+        Set<String> methods = new HashSet<String>();
+        for (Method method : GeoSpatialFunctions.class.getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifiers()) && Modifier.isStatic(method.getModifiers())) {
+                methods.add(method.getName());
+            }
+        }
+        assertEquals(methods, new HashSet<String>(Arrays.asList(FunctionManifest.getFunctions())));
+    }
+
+    @Test
+    public void registerOnce() throws Exception {
+        int functions = FunctionManifest.getFunctions().length;
+        RegistrationReport report = SQLCodegenerator.addSpatialFunctions(stat);
+        assertNull(report.getInstalledVersion());
+        assertEquals(functions, report.getCreated());
+        assertEquals(functions, countAliases());
+
+        report = SQLCodegenerator.addSpatialFunctions(stat);
+        assertTrue(report.isUpToDate());
+        assertEquals(0, report.getCreated());
+        assertEquals(functions, countAliases());
+        assertTrue(con.getAutoCommit());
+    }
+
+    @Test
+    public void upgrade() throws Exception {
+        int functions = FunctionManifest.getFunctions().length;
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("DROP ALIAS Area");
+        stat.execute("DROP ALIAS Buffer");
+        stat.execute("CREATE ALIAS Buffer FOR \"java.lang.Math.abs\"");
+        stat.execute("CREATE ALIAS RemovedFunction FOR \"org.h2spatial.GeoSpatialFunctions.GeoVersion\"");
+        stat.execute("CREATE ALIAS UserFunction FOR \"java.lang.Math.abs\"");
+        stat.execute("UPDATE SPATIAL_METADATA SET VALUE = '1.0'");
+
+        RegistrationReport report = SQLCodegenerator.addSpatialFunctions(stat);
+        assertEquals("1.0", report.getInstalledVersion());
+        assertFalse(report.isUpToDate());
+        assertEquals(2, report.getCreated());
+        assertEquals(2, report.getDropped());
+        assertEquals(functions + 1, countAliases());
+        ResultSet rs = stat.executeQuery("CALL Area(GeomFromText('POLYGON((0 0, 2 0, 2 2, 0 2, 0 0))', 0))");
+        rs.next();
+        assertEquals(4, rs.getDouble(1), 0);
+    }
+
+    @Test
+    public void drop() throws Exception {
+        SQLCodegenerator.addSpatialFunctions(stat);
+        SQLCodegenerator.dropGenerator(stat);
+        assertEquals(0, countAliases());
+        assertEquals(FunctionManifest.getFunctions().length,
+                SQLCodegenerator.addSpatialFunctions(stat).getCreated());
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.aggregate;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the aggregates against the pairwise GeomUnion and the known layout
+ * of a grid.
+ */
+public class GeometryAggregateTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void createTable() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:aggregates", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE grid(gid INT PRIMARY KEY, the_geom BLOB)");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO grid VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < 1200; i++) {
+            double x = (i % 40) * 10;
+            double y = (i / 40) * 10;
+            insert.setInt(1, i);
+            insert.setString(2, "POLYGON((" + x + " " + y + ", " + (x + 10) + " " + y + ", " + (x + 10) + " "
+                    + (y + 10) + ", " + x + " " + (y + 10) + ", " + x + " " + y + "))");
+            insert.execute();
+        }
+        insert.close();
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private Geometry query(String sql) throws Exception {
+        ResultSet rs = stat.executeQuery(sql);
+        assertTrue(rs.next());
+        byte[] wkb = rs.getBytes(1);
+        rs.close();
+        return wkb == null ? null : GeometryCodec.read(wkb);
+    }
+
+    @Test
+    public void testUnion() throws Exception {
+        Geometry union = query("SELECT UnionAggregate('SELECT the_geom FROM grid')");
+        assertEquals("Polygon", union.getGeometryType());
+        assertEquals(400 * 300, union.getArea(), 1e-6);
+        Geometry parallel = query("SELECT ParallelUnionAggregate('SELECT the_geom FROM grid')");
+        assertTrue(parallel.equals(union));
+        Geometry half = query("SELECT UnionAggregate('SELECT the_geom FROM grid WHERE gid < 600')");
+        assertEquals(400 * 150, half.getArea(), 1e-6);
+    }
+
+    @Test
+    public void testUnionLevels() throws Exception {
+        Geometry expected = query("SELECT UnionAggregate('SELECT the_geom FROM grid WHERE gid < 100')");
+        Geometry chained = null;
+        ResultSet rs = stat.executeQuery("SELECT the_geom FROM grid WHERE gid < 100");
+        while (rs.next()) {
+            Geometry geom = GeometryCodec.read(rs.getBytes(1));
+            chained = chained == null ? geom : chained.union(geom);
+        }
+        rs.close();
+        for (boolean parallel : new boolean[] { false, true }) {
+            UnionAggregate aggregate = new UnionAggregate(parallel, 3);
+            assertTrue(expected.equals(GeometryCodec.read(aggregate.aggregate(con,
+                    "SELECT the_geom FROM grid WHERE gid < 100"))));
+        }
+        assertTrue(chained.equals(expected));
+    }
+
+    @Test
+    public void testExtent() throws Exception {
+        Geometry extent = query("SELECT Extent('SELECT the_geom FROM grid WHERE gid >= 40')");
+        assertEquals("POLYGON ((0 10, 0 300, 400 300, 400 10, 0 10))", extent.toText());
+        assertNull(query("SELECT Extent('SELECT the_geom FROM grid WHERE gid < 0')"));
+        assertEquals("POINT (0 10)",
+                query("SELECT Extent('SELECT GeomFromText(''POINT(0 10)'', 0)')").toText());
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        Geometry collection = query("SELECT Collect('SELECT the_geom FROM grid WHERE gid < 5')");
+        assertEquals("MultiPolygon", collection.getGeometryType());
+        assertEquals(5, collection.getNumGeometries());
+        collection = query("SELECT Collect('SELECT the_geom FROM grid WHERE gid < 2 UNION ALL "
+                + "SELECT GeomFromText(''POINT(1 2)'', 0)')");
+        assertEquals("GeometryCollection", collection.getGeometryType());
+        assertEquals(3, collection.getNumGeometries());
+        assertEquals(200, collection.getArea(), 1e-9);
+        assertNull(query("SELECT Collect('SELECT the_geom FROM grid WHERE gid < 0')"));
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.batch;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the batch functions with the functions called once per row,
+ * sequentially and split between threads.
+ */
+public class BatchOperationsTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    private Object[] values;
+
+    private byte[] query;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:batch", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE DOMAIN GEOMETRY AS BLOB");
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom GEOMETRY)");
+        for (int i = 0; i < 50; i++) {
+            String wkt = i % 3 == 0 ? "POINT(" + i + " " + i + ")" : "POLYGON((" + i + " 0, " + (i + 2) + " 0, "
+                    + (i + 2) + " " + i + ", " + i + " " + i + ", " + i + " 0))";
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", GeomFromText('" + wkt + "', 2154))");
+        }
+        stat.execute("INSERT INTO parcels VALUES(50, NULL)");
+        ResultSet rs = stat.executeQuery("SELECT the_geom FROM parcels ORDER BY gid");
+        values = new Object[51];
+        for (int i = 0; rs.next(); i++) {
+            values[i] = rs.getBytes(1);
+        }
+        query = GeometryCodec.write(GeometryCodec.readText("POLYGON((10 -1, 30 -1, 30 25, 10 25, 10 -1))"), 2154);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    /**
+     * @param call
+     *            the function called on a single value, e.g. Buffer(?, 2), its
+     *            first parameter being the query when it has two.
+     */
+    private Object single(String call, byte[] value) throws SQLException {
+        if (value == null) {
+            return null;
+        }
+        PreparedStatement prep = con.prepareStatement("SELECT " + call);
+        try {
+            if (call.contains("?, ?")) {
+                prep.setBytes(1, query);
+                prep.setBytes(2, value);
+            } else {
+                prep.setBytes(1, value);
+            }
+            ResultSet rs = prep.executeQuery();
+            rs.next();
+            return rs.getObject(1);
+        } finally {
+            prep.close();
+        }
+    }
+
+    private void assertSame(String call, Object[] results) throws Exception {
+        assertEquals(values.length, results.length);
+        for (int i = 0; i < values.length; i++) {
+            Object expected = single(call, (byte[]) values[i]);
+            if (expected instanceof byte[]) {
+                Geometry a = GeometryCodec.read((byte[]) expected);
+                Geometry b = GeometryCodec.read((byte[]) results[i]);
+                assertTrue(a.equalsExact(b));
+                assertEquals(a.getSRID(), b.getSRID());
+            } else {
+                assertEquals(call + " " + i, expected, results[i]);
+            }
+        }
+    }
+
+    @Test
+    public void sameResults() throws Exception {
+        for (int parallelism : new int[] { 1, 4 }) {
+            assertSame("Area(?)", BatchOperations.area(values, parallelism));
+            assertSame("GeoLength(?)", BatchOperations.length(values, parallelism));
+            assertSame("Intersects(?, ?)", BatchOperations.intersects(query, values, parallelism));
+            assertSame("Contains(?, ?)", BatchOperations.contains(query, values, parallelism));
+            assertSame("Within(?, ?)", BatchOperations.within(query, values, parallelism));
+            assertSame("IsWithinDistance(?, ?, 3)", BatchOperations.isWithinDistance(query, values, 3,
+                    parallelism));
+        }
+        Object[] buffers = BatchOperations.buffer(values, 2, 4);
+        assertSame("Buffer(?, 2)", buffers);
+        assertNull(buffers[50]);
+        Object[] within = BatchOperations.within(query, values, 1);
+        int count = 0;
+        for (Object value : BatchOperations.contains(query, values, 1)) {
+            if (Boolean.TRUE.equals(value)) {
+                count++;
+            }
+        }
+        assertTrue(count > 5);
+        assertEquals(Boolean.FALSE, within[20]);
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        ResultSet rs = stat.executeQuery("SELECT AreaBatch((the_geom, NULL, Buffer(the_geom, 1))) FROM parcels WHERE gid = 4");
+        rs.next();
+        Object[] areas = (Object[]) rs.getObject(1);
+        assertEquals(3, areas.length);
+        assertEquals(8.0, ((Number) areas[0]).doubleValue(), 0);
+        assertNull(areas[1]);
+        assertTrue(((Number) areas[2]).doubleValue() > 8);
+
+        PreparedStatement prep = con.prepareStatement("SELECT IntersectsBatch(?, ?)");
+        prep.setBytes(1, query);
+        prep.setObject(2, values);
+        rs = prep.executeQuery();
+        rs.next();
+        Object[] results = (Object[]) rs.getObject(1);
+        assertEquals(values.length, results.length);
+        assertEquals(Boolean.TRUE, results[12]);
+        assertEquals(Boolean.FALSE, results[40]);
+
+        stat.execute("CALL SetSessionSpatialSetting('BATCH_PARALLEL_THRESHOLD', 0)");
+        prep = con.prepareStatement("SELECT BufferBatch(?, 1)");
+        prep.setObject(1, values);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(values.length, ((Object[]) rs.getObject(1)).length);
+
+        prep.setObject(1, new Object[] { "POINT(1 2)" });
+        try {
+            prep.executeQuery();
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
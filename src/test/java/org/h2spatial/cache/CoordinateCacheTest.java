@@ -0,0 +1,220 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.cache;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the measures computed on the cached layer with the functions
+ * decoding each geometry, before and after the table is modified.
+ */
+public class CoordinateCacheTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:cache", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE DOMAIN GEOMETRY AS BLOB");
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom GEOMETRY)");
+        insert(1, "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 4 2, 4 4, 2 4, 2 2))");
+        insert(2, "MULTIPOLYGON(((20 0, 30 0, 30 5, 20 5, 20 0)), ((20 10, 25 10, 22 15, 20 10)))");
+        insert(3, "LINESTRING(0 20, 10 20, 10 30)");
+        insert(4, "MULTILINESTRING((0 40, 5 45), (6 40, 9 40))");
+        insert(5, "POINT(3 3)");
+        insert(6, "MULTIPOINT(1 1, 50 50)");
+        insert(7, "GEOMETRYCOLLECTION(POINT(40 40), POLYGON((40 0, 45 0, 45 3, 40 0)))");
+        stat.execute("INSERT INTO parcels VALUES(8, NULL)");
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private void insert(int gid, String wkt) throws SQLException {
+        stat.execute("INSERT INTO parcels VALUES(" + gid + ", GeomFromText('" + wkt + "', 2154))");
+    }
+
+    private double scalar(String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        rs.next();
+        return rs.getDouble(1);
+    }
+
+    private void assertMeasures() throws Exception {
+        assertEquals(scalar("SELECT SUM(Area(the_geom)) FROM parcels WHERE the_geom IS NOT NULL"),
+                scalar("CALL CachedArea('parcels', 'the_geom')"), 1e-9);
+        assertEquals(scalar("SELECT SUM(GeoLength(the_geom)) FROM parcels WHERE the_geom IS NOT NULL"),
+                scalar("CALL CachedLength('parcels', 'the_geom')"), 1e-9);
+        ResultSet rs = stat.executeQuery("SELECT m.KEY, m.AREA, Area(p.the_geom), m.LENGTH,"
+                + " GeoLength(p.the_geom), m.MIN_X, m.MAX_Y, p.the_geom"
+                + " FROM CachedMeasures('parcels', 'the_geom') m, parcels p WHERE p.gid = m.KEY");
+        int count = 0;
+        while (rs.next()) {
+            count++;
+            assertEquals(rs.getDouble(3), rs.getDouble(2), 1e-9);
+            assertEquals(rs.getDouble(5), rs.getDouble(4), 1e-9);
+            Envelope envelope = GeometryCodec.read(rs.getBytes(8)).getEnvelopeInternal();
+            assertEquals(envelope.getMinX(), rs.getDouble(6), 0);
+            assertEquals(envelope.getMaxY(), rs.getDouble(7), 0);
+        }
+        assertEquals(scalar("SELECT COUNT(*) FROM parcels WHERE the_geom IS NOT NULL"), count, 0);
+    }
+
+    @Test
+    public void measures() throws Exception {
+        stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+        assertMeasures();
+        assertEquals(11, CoordinateCache.get(con, "parcels", "the_geom").getLayer(con).getPartCount());
+        ResultSet rs = stat.executeQuery("CALL CachedExtent('parcels', 'the_geom')");
+        rs.next();
+        Geometry extent = GeometryCodec.read(rs.getBytes(1));
+        assertEquals(new Envelope(0, 50, 0, 50), extent.getEnvelopeInternal());
+        assertEquals(2154, extent.getSRID());
+    }
+
+    @Test
+    public void pointInPolygon() throws Exception {
+        stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+        Map<Long, Geometry> geometries = new HashMap<Long, Geometry>();
+        ResultSet rs = stat.executeQuery("SELECT gid, the_geom FROM parcels WHERE the_geom IS NOT NULL");
+        while (rs.next()) {
+            geometries.put(Long.valueOf(rs.getLong(1)), GeometryCodec.read(rs.getBytes(2)));
+        }
+        GeometryFactory factory = new GeometryFactory();
+        for (double x = -0.5; x < 46; x += 1.5) {
+            for (double y = -0.5; y < 16; y += 1.5) {
+                Point point = factory.createPoint(new Coordinate(x, y));
+                Set<Long> expected = new HashSet<Long>();
+                for (Map.Entry<Long, Geometry> entry : geometries.entrySet()) {
+                    Geometry geometry = entry.getValue();
+                    for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                        Geometry part = geometry.getGeometryN(i);
+                        if (part instanceof Polygon && part.contains(point)) {
+                            expected.add(entry.getKey());
+                        }
+                    }
+                }
+                Set<Long> keys = new HashSet<Long>();
+                rs = stat.executeQuery("SELECT KEY FROM CachedPointInPolygon('parcels', 'the_geom', " + x + ", "
+                        + y + ")");
+                while (rs.next()) {
+                    keys.add(Long.valueOf(rs.getLong(1)));
+                }
+                assertEquals(x + " " + y, expected, keys);
+            }
+        }
+        rs = stat.executeQuery("SELECT KEY FROM CachedPointInPolygon('parcels', 'the_geom', 3, 3)");
+        assertFalse(rs.next());
+    }
+
+    @Test
+    public void invalidation() throws Exception {
+        stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+        CoordinateCache cache = CoordinateCache.get(con, "parcels", "the_geom");
+        File file = cache.getLayer(con).getFile();
+        long builds = CoordinateCache.getBuildCount();
+        assertMeasures();
+        assertEquals(builds, CoordinateCache.getBuildCount());
+
+        insert(9, "POLYGON((100 100, 110 100, 110 110, 100 100))");
+        assertMeasures();
+        assertEquals(builds + 1, CoordinateCache.getBuildCount());
+        assertFalse(file.exists());
+
+        stat.execute("UPDATE parcels SET the_geom = Buffer(the_geom, 1) WHERE gid = 3");
+        assertMeasures();
+        stat.execute("DELETE FROM parcels WHERE gid = 1");
+        assertMeasures();
+        assertEquals(builds + 3, CoordinateCache.getBuildCount());
+
+        file = cache.getLayer(con).getFile();
+        stat.execute("CALL DropCoordinateCache('parcels', 'the_geom')");
+        assertFalse(file.exists());
+        assertNull(CoordinateCache.find(con, "parcels", "the_geom"));
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TRIGGERS"
+                + " WHERE TRIGGER_NAME = 'PARCELS_THE_GEOM_CACHE_TRG'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        insert(10, "POINT(0 0)");
+        try {
+            stat.execute("CALL CachedArea('parcels', 'the_geom')");
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void rollback() throws Exception {
+        stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+        double area = scalar("CALL CachedArea('parcels', 'the_geom')");
+        con.setAutoCommit(false);
+        try {
+            insert(9, "POLYGON((100 100, 110 100, 110 110, 100 110, 100 100))");
+            assertEquals(area + 100, scalar("CALL CachedArea('parcels', 'the_geom')"), 1e-9);
+            con.rollback();
+        } finally {
+            con.setAutoCommit(true);
+        }
+        assertMeasures();
+        assertEquals(area, scalar("CALL CachedArea('parcels', 'the_geom')"), 1e-9);
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        stat.execute("DELETE FROM parcels");
+        stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+        assertEquals(0, scalar("CALL CachedArea('parcels', 'the_geom')"), 0);
+        ResultSet rs = stat.executeQuery("CALL CachedExtent('parcels', 'the_geom')");
+        rs.next();
+        assertNull(rs.getBytes(1));
+        try {
+            stat.execute("CALL CreateCoordinateCache('parcels', 'the_geom')");
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        assertTrue(CoordinateCache.get(con, "parcels", "the_geom").getLayer(con).getMappedSize() > 0);
+    }
+}
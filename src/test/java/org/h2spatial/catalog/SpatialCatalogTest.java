@@ -0,0 +1,117 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.catalog;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.util.GeometryColumns;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the columns listed by the catalog and its invalidation on schema and
+ * geometry_columns changes.
+ */
+public class SpatialCatalogTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:catalog", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE DOMAIN GEOMETRY AS BLOB");
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom geometry)");
+        GeometryColumns.register(con, "PARCELS", "THE_GEOM", 2154, "POLYGON", 2);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    @Test
+    public void registeredColumn() throws Exception {
+        GeometryColumn column = SpatialCatalog.getColumn(con, "parcels", "the_geom");
+        assertEquals(2154, column.getSRID());
+        assertEquals("POLYGON", column.getGeometryType());
+        assertEquals(2, column.getDimension());
+        assertTrue(column.isRegistered());
+        assertNull(SpatialCatalog.getColumn(con, "parcels", "gid"));
+    }
+
+    @Test
+    public void detectedColumns() throws Exception {
+        stat.execute("CREATE TABLE roads(gid INT PRIMARY KEY, geom geometry, data BLOB)");
+        stat.execute("INSERT INTO roads VALUES(1, GeomFromText('LINESTRING(0 0 1, 1 1 2)', 27582), X'0102')");
+        GeometryColumn column = SpatialCatalog.getColumn(con, "roads", "geom");
+        assertFalse(column.isRegistered());
+        assertEquals(27582, column.getSRID());
+        assertEquals(3, column.getDimension());
+        assertNull(SpatialCatalog.getColumn(con, "roads", "data"));
+        assertEquals("[PARCELS, ROADS]", SpatialCatalog.getTableNames(con).toString());
+
+        // an empty column is sampled again once it holds a value
+        stat.execute("CREATE TABLE t3(id INT PRIMARY KEY, g BLOB)");
+        assertNull(SpatialCatalog.getColumn(con, "t3", "g"));
+        stat.execute("INSERT INTO t3 VALUES(1, GeomFromText('POINT(1 2)', 2154))");
+        assertEquals(2154, SpatialCatalog.getColumn(con, "t3", "g").getSRID());
+        List<GeometryColumn> columns = SpatialCatalog.getColumns(con);
+        assertSame(columns, SpatialCatalog.getColumns(con));
+    }
+
+    @Test
+    public void invalidation() throws Exception {
+        List<GeometryColumn> columns = SpatialCatalog.getColumns(con);
+        assertSame(columns, SpatialCatalog.getColumns(con));
+        assertEquals(1, columns.size());
+
+        stat.execute("UPDATE geometry_columns SET SRID = 4326");
+        assertEquals(4326, SpatialCatalog.getColumn(con, "parcels", "the_geom").getSRID());
+
+        stat.execute("ALTER TABLE parcels ADD centroid geometry");
+        GeometryColumns.register(con, "PARCELS", "CENTROID", 4326, "POINT", 2);
+        assertEquals(2, SpatialCatalog.getColumns(con).size());
+
+        stat.execute("DROP TABLE parcels");
+        assertTrue(SpatialCatalog.getColumns(con).isEmpty());
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        ResultSet rs = stat.executeQuery("SELECT * FROM SpatialCatalog()");
+        assertTrue(rs.next());
+        assertEquals("PARCELS", rs.getString("TABLE_NAME"));
+        assertEquals("THE_GEOM", rs.getString("COLUMN_NAME"));
+        assertEquals(2154, rs.getInt("SRID"));
+        assertEquals("POLYGON", rs.getString("TYPE"));
+        assertEquals(2, rs.getInt("DIMENSION"));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("CALL getSpatialTables()");
+        rs.next();
+        assertEquals("[PARCELS]", rs.getString(1));
+    }
+}
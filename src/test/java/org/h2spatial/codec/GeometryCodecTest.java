@@ -0,0 +1,103 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import org.h2spatial.GeoSpatialFunctions;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the codec gives the same results when it is used by many
+ * threads at the same time. The throughput for 1 to n threads is measured by
+ * CodecBenchmark in the benchmarks module.
+ */
+public class GeometryCodecTest {
+
+    private static final int NB_GEOMETRIES = 200;
+
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Geometry geom = new WKTReader().read("POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))");
+        byte[] wkb = GeometryCodec.write(geom, 27582);
+        Geometry result = GeometryCodec.read(wkb);
+        assertTrue(geom.equalsExact(result));
+        assertArrayEquals(wkb, GeometryCodec.write(result, 27582));
+    }
+
+    @Test
+    public void testBufferReuse() throws Exception {
+        WKBBuffer buffer = new WKBBuffer();
+        byte[] bytes = new byte[WKBBuffer.MAX_RETAINED_CAPACITY + 1];
+        buffer.write(bytes, bytes.length);
+        assertEquals(bytes.length, buffer.toByteArray().length);
+        buffer.reset();
+        assertEquals(0, buffer.size());
+        assertEquals(WKBBuffer.INITIAL_CAPACITY, buffer.capacity());
+    }
+
+    @Test
+    public void testConcurrentFunctions() throws Exception {
+        final List<byte[]> inputs = new ArrayList<byte[]>();
+        final List<Double> areas = new ArrayList<Double>();
+        final List<byte[]> buffers = new ArrayList<byte[]>();
+        for (int i = 0; i < NB_GEOMETRIES; i++) {
+            byte[] wkb = GeoSpatialFunctions.GeomFromText(polygon(i), i);
+            inputs.add(wkb);
+            areas.add(GeoSpatialFunctions.Area(wkb));
+            buffers.add(GeoSpatialFunctions.Buffer(null, wkb, 2));
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int nbThreads = 1; nbThreads <= maxThreads; nbThreads <<= 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < nbThreads; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (int k = 0; k < ITERATIONS; k++) {
+                            for (int i = 0; i < NB_GEOMETRIES; i++) {
+                                int index = (i + offset) % NB_GEOMETRIES;
+                                byte[] wkb = inputs.get(index);
+                                assertEquals(areas.get(index), GeoSpatialFunctions.Area(wkb), 0);
+                                assertArrayEquals(buffers.get(index), GeoSpatialFunctions.Buffer(null, wkb, 2));
+                                assertEquals("Polygon", GeoSpatialFunctions.GeometryType(wkb));
+                                assertTrue(GeoSpatialFunctions.Intersects(wkb, inputs.get(index)));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                // rethrows the failed assertions of the thread
+                future.get();
+            }
+            executor.shutdown();
+        }
+    }
+
+    private static String polygon(int i) {
+        double x = i * 20;
+        return "POLYGON((" + x + " 0, " + (x + 10) + " 0, " + (x + 10) + " " + (i + 1) + ", "
+                + x + " " + (i + 1) + ", " + x + " 0))";
+    }
+}
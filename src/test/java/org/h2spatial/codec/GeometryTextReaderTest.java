@@ -0,0 +1,224 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the text transcoded from the stored bytes with the text of the
+ * decoded JTS geometries.
+ */
+public class GeometryTextReaderTest {
+
+    private static final String[] GEOMETRIES = {
+            "POINT(1 2)",
+            "POINT(-0.000001 123456789.123456789)",
+            "LINESTRING(0.1 0.2, 1e20 -3.0000000000001, 0.000000001 12)",
+            "LINESTRING EMPTY",
+            "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 4 2, 4 4, 2 4, 2 2))",
+            "POLYGON EMPTY",
+            "MULTIPOINT(1 1, 50 50)",
+            "MULTILINESTRING((0 0, 1 1), (2 2, 3 3.5))",
+            "MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5), (5.1 5.1, 5.2 5.1, 5.2 5.2, 5.1 5.1)))",
+            "MULTIPOLYGON EMPTY",
+            "GEOMETRYCOLLECTION(POINT(40 40), LINESTRING EMPTY, MULTIPOINT(1 2, 3 4),"
+                    + " GEOMETRYCOLLECTION(POLYGON((40 0, 45 0, 45 3, 40 0))))",
+            "GEOMETRYCOLLECTION EMPTY" };
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:textreader", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    /**
+     * @return the value in each layout : legacy WKB, EWKB with a SRID, the
+     *         storage format with doubles and with a fixed precision.
+     */
+    private static byte[][] encodings(Geometry geom) throws Exception {
+        geom.setSRID(2154);
+        return new byte[][] { new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN).write(geom),
+                new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN, true).write(geom),
+                GeometryCodec.write(geom, 2154, 0), GeometryCodec.write(geom, 2154, 1000) };
+    }
+
+    @Test
+    public void wktLikeJTS() throws Exception {
+        for (String wkt : GEOMETRIES) {
+            for (byte[] value : encodings(GeometryCodec.readText(wkt))) {
+                assertEquals(GeometryCodec.read(value).toText(), GeometryTextReader.toString(value, TextFormat.WKT));
+            }
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder wkt = new StringBuilder("LINESTRING(");
+            for (int j = 0; j < 5; j++) {
+                wkt.append(j == 0 ? "" : ", ").append((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12)))
+                        .append(' ').append(random.nextGaussian());
+            }
+            for (byte[] value : encodings(GeometryCodec.readText(wkt.append(')').toString()))) {
+                assertEquals(GeometryCodec.read(value).toText(), GeometryTextReader.toString(value, TextFormat.WKT));
+            }
+        }
+    }
+
+    @Test
+    public void geoJSON() throws Exception {
+        byte[] value = GeometryCodec.write(GeometryCodec.readText(GEOMETRIES[10]), 0);
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\",\"coordinates\":[40,40]},"
+                + "{\"type\":\"LineString\",\"coordinates\":[]},"
+                + "{\"type\":\"MultiPoint\",\"coordinates\":[[1,2],[3,4]]},"
+                + "{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[40,0],[45,0],[45,3],[40,0]]]}]}]}", GeometryTextReader.toString(value, TextFormat.GEOJSON));
+        value = GeometryCodec.write(GeometryCodec.readText("MULTILINESTRING((0 0 1, 1 1 2), (2 2 3, 3 3.5 4))"), 0);
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0,1],[1,1,2]],[[2,2,3],[3,3.5,4]]]}",
+                GeometryTextReader.toString(value, TextFormat.GEOJSON));
+        value = GeometryCodec.write(GeometryCodec.readText("POLYGON EMPTY"), 0);
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":[]}", GeometryTextReader.toString(value, TextFormat.GEOJSON));
+    }
+
+    @Test
+    public void gml() throws Exception {
+        byte[] value = GeometryCodec.write(GeometryCodec.readText(GEOMETRIES[4]), 2154);
+        assertEquals("<gml:Polygon srsName=\"EPSG:2154\"><gml:outerBoundaryIs><gml:LinearRing><gml:coordinates>"
+                + "0,0 10,0 10,10 0,10 0,0</gml:coordinates></gml:LinearRing></gml:outerBoundaryIs>"
+                + "<gml:innerBoundaryIs><gml:LinearRing><gml:coordinates>2,2 4,2 4,4 2,4 2,2</gml:coordinates>"
+                + "</gml:LinearRing></gml:innerBoundaryIs></gml:Polygon>", GeometryTextReader.toString(value,
+                TextFormat.GML));
+        value = GeometryCodec.write(GeometryCodec.readText("MULTIPOINT(1 1, 50 50)"), 0);
+        assertEquals("<gml:MultiPoint><gml:pointMember><gml:Point><gml:coordinates>1,1</gml:coordinates></gml:Point>"
+                + "</gml:pointMember><gml:pointMember><gml:Point><gml:coordinates>50,50</gml:coordinates>"
+                + "</gml:Point></gml:pointMember></gml:MultiPoint>", GeometryTextReader.toString(value,
+                TextFormat.GML));
+    }
+
+    @Test
+    public void readerByChunks() throws Exception {
+        StringBuilder wkt = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < 20000; i++) {
+            wkt.append(i == 0 ? "" : ", ").append(i).append(' ').append(i * 0.5);
+        }
+        byte[] value = GeometryCodec.write(GeometryCodec.readText(wkt.append(')').toString()), 0);
+        Reader reader = new GeometryTextReader(value, TextFormat.GEOJSON);
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[7];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) > 0) {
+            text.append(buffer, 0, n);
+        }
+        assertEquals(-1, reader.read(buffer, 0, 1));
+        assertEquals(GeometryTextReader.toString(value, TextFormat.GEOJSON), text.toString());
+        StringWriter out = new StringWriter();
+        GeometryTextReader.write(value, TextFormat.GEOJSON, out);
+        assertEquals(text.toString(), out.toString());
+        try {
+            new GeometryTextReader(new byte[] { 1, 2, 3 }, TextFormat.WKT);
+            fail();
+        } catch (com.vividsolutions.jts.io.ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, name VARCHAR, area DOUBLE, the_geom BLOB)");
+        stat.execute("INSERT INTO parcels VALUES(1, 'a \"quoted\" name', 12.5,"
+                + " GeomFromText('POLYGON((0 0, 10 0, 10 10, 0 0))', 2154))");
+        stat.execute("INSERT INTO parcels VALUES(2, NULL, NULL, GeomFromText('POINT(3 4)', 2154))");
+        stat.execute("INSERT INTO parcels VALUES(3, 'none', 1, NULL)");
+        ResultSet rs = stat.executeQuery("SELECT CASEWHEN(the_geom IS NULL, NULL, AsText(the_geom)),"
+                + " AsGeoJSON(the_geom), AsGML(the_geom), AsClob(the_geom, 'geojson') FROM parcels ORDER BY gid");
+        rs.next();
+        assertEquals("POLYGON ((0 0, 10 0, 10 10, 0 0))", rs.getString(1));
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,0]]]}", rs.getString(2));
+        assertTrue(rs.getString(3).startsWith("<gml:Polygon srsName=\"EPSG:2154\">"));
+        assertEquals(rs.getString(2), rs.getString(4));
+        rs.next();
+        assertEquals("<gml:Point srsName=\"EPSG:2154\"><gml:coordinates>3,4</gml:coordinates></gml:Point>",
+                rs.getString(3));
+        rs.next();
+        assertNull(rs.getString(2));
+        assertNull(rs.getString(4));
+        try {
+            stat.executeQuery("SELECT AsClob(the_geom, 'svg') FROM parcels");
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+
+        File file = File.createTempFile("parcels", ".geojson");
+        try {
+            rs = stat.executeQuery("CALL ExportGeoJSON('parcels', 'the_geom', '" + file.getPath() + "')");
+            rs.next();
+            assertEquals(3, rs.getLong(1));
+            Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[4096];
+            int n;
+            while ((n = reader.read(buffer)) > 0) {
+                text.append(buffer, 0, n);
+            }
+            reader.close();
+            assertEquals("{\"type\":\"FeatureCollection\",\"features\":[\n"
+                    + "{\"type\":\"Feature\",\"id\":1,\"geometry\":{\"type\":\"Polygon\",\"coordinates\":"
+                    + "[[[0,0],[10,0],[10,10],[0,0]]]},\"properties\":{\"GID\":1,\"NAME\":\"a \\\"quoted\\\" name\","
+                    + "\"AREA\":12.5}},\n"
+                    + "{\"type\":\"Feature\",\"id\":2,\"geometry\":{\"type\":\"Point\",\"coordinates\":[3,4]},"
+                    + "\"properties\":{\"GID\":2,\"NAME\":null,\"AREA\":null}},\n"
+                    + "{\"type\":\"Feature\",\"id\":3,\"geometry\":null,\"properties\":{\"GID\":3,\"NAME\":\"none\","
+                    + "\"AREA\":1.0}}\n]}\n", text.toString());
+
+            rs = stat.executeQuery("SELECT ROWS FROM LoadGeometries('" + file.getPath()
+                    + "', 'geojson', 'copy', 'the_geom', 2154)");
+            rs.next();
+            assertEquals(3, rs.getLong(1));
+            rs = stat.executeQuery("SELECT COUNT(*) FROM copy c, parcels p WHERE c.gid = p.gid"
+                    + " AND p.the_geom IS NOT NULL AND AsText(c.the_geom) = AsText(p.the_geom)");
+            rs.next();
+            assertEquals(2, rs.getInt(1));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips through the storage format and reads of legacy WKB values.
+ */
+public class StorageFormatTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:storageformat", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("CALL SetSpatialSetting('STORAGE_PRECISION', 0)");
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private String queryString(String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        assertTrue(rs.next());
+        String value = rs.getString(1);
+        rs.close();
+        return value;
+    }
+
+    @Test
+    public void testSRIDRoundTrip() throws Exception {
+        assertEquals("2154", queryString("SELECT SRID(GeomFromText('POINT(1 2)', 2154))"));
+        assertEquals("2154", queryString("SELECT SRID(Buffer(GeomFromText('POINT(1 2)', 2154), 10))"));
+        Geometry geom = GeometryCodec.read(GeometryCodec.write(GeometryCodec.readText("POINT(1 2)"), 27582));
+        assertEquals(27582, geom.getSRID());
+    }
+
+    @Test
+    public void testDimensionAndSize() throws Exception {
+        Geometry line = GeometryCodec.readText("LINESTRING(0 0, 10 0, 10 10, 20 10, 20 20, 30 20, 30 30, 40 30, 40 40, 50 40)");
+        byte[] legacy = new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN).write(line);
+        byte[] value = GeometryCodec.write(line, 0, 0);
+        assertEquals(2, WKBInspector.getCoordinateDimension(value));
+        assertTrue(value.length < legacy.length);
+        assertTrue(Double.isNaN(GeometryCodec.read(value).getCoordinate().z));
+        Geometry line3D = GeometryCodec.readText("LINESTRING(0 0 1, 10 0 2)");
+        value = GeometryCodec.write(line3D, 0, 0);
+        assertEquals(3, WKBInspector.getCoordinateDimension(value));
+        assertEquals(2, GeometryCodec.read(value).getCoordinates()[1].z, 0);
+    }
+
+    @Test
+    public void testFixedPrecision() throws Exception {
+        StringBuilder wkt = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < 200; i++) {
+            wkt.append(i == 0 ? "" : ", ").append(600000 + i * 1.23456).append(' ').append(2400000 - i * 0.5);
+        }
+        Geometry line = GeometryCodec.readText(wkt.append(')').toString());
+        byte[] doubles = GeometryCodec.write(line, 2154, 0);
+        byte[] rounded = GeometryCodec.write(line, 2154, 1000);
+        assertTrue(rounded.length * 2 < doubles.length);
+        Geometry decoded = GeometryCodec.read(rounded);
+        assertEquals(2154, decoded.getSRID());
+        Coordinate[] expected = line.getCoordinates();
+        Coordinate[] actual = decoded.getCoordinates();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Math.round(expected[i].x * 1000) / 1000d, actual[i].x, 0);
+            assertEquals(Math.round(expected[i].y * 1000) / 1000d, actual[i].y, 0);
+        }
+        assertEquals(-1, StorageFormat.getWKBOffset(rounded));
+        assertTrue(decoded.equalsExact(new WKBReader().read(GeometryCodec.toWKB(rounded))));
+
+        Geometry far = GeometryCodec.readText("POINT(1e300 0)");
+        assertEquals(far, GeometryCodec.read(GeometryCodec.write(far, 0, 1000)));
+
+        stat.execute("CALL SetSpatialSetting('STORAGE_PRECISION', 100)");
+        assertEquals("POINT (1.23 4.57)", queryString("SELECT AsText(GeomFromText('POINT(1.2345 4.5678)', 0))"));
+
+        // the bounding box is the one of the rounded coordinates
+        Geometry square = GeometryCodec.readText("POLYGON((0.0004 0, 1 0, 1 1, 0.0004 1, 0.0004 0))");
+        byte[] value = GeometryCodec.write(square, 0, 1000);
+        assertEquals(GeometryCodec.read(value).getEnvelopeInternal(), WKBInspector.getEnvelope(value));
+        stat.execute("CALL SetSpatialSetting('STORAGE_PRECISION', 1000)");
+        assertEquals("TRUE", queryString("SELECT Intersects(GeomFromText('POLYGON((0.0004 0, 1 0, 1 1, 0.0004 1,"
+                + " 0.0004 0))', 0), GeomFromText('POINT(0 0.5)', 0))"));
+    }
+
+    @Test
+    public void testLegacyValues() throws Exception {
+        stat.execute("CREATE TABLE legacy(gid INT PRIMARY KEY, the_geom BLOB)");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO legacy VALUES(?, ?)");
+        WKBWriter writer = new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN);
+        for (int i = 0; i < 10; i++) {
+            insert.setInt(1, i);
+            insert.setBytes(2, writer.write(GeometryCodec.readText("POINT(" + i + " 1)")));
+            insert.execute();
+        }
+        insert.setInt(1, 10);
+        insert.setBytes(2, GeometryCodec.write(GeometryCodec.readText("POINT(10 1)"), 4326));
+        insert.execute();
+        insert.close();
+        assertEquals("POINT (3 1)", queryString("SELECT AsText(the_geom) FROM legacy WHERE gid = 3"));
+        assertEquals("0", queryString("SELECT SRID(the_geom) FROM legacy WHERE gid = 3"));
+        assertEquals("11", queryString("SELECT COUNT(*) FROM legacy WHERE Intersects(the_geom, GeomFromText('LINESTRING(0 1, 10 1)', 4326))"));
+
+        assertEquals("10", queryString("CALL ConvertGeometryColumn('legacy', 'the_geom', 4326)"));
+        assertEquals("11", queryString("SELECT COUNT(*) FROM legacy WHERE SRID(the_geom) = 4326"));
+        assertEquals("POINT (3 1)", queryString("SELECT AsText(the_geom) FROM legacy WHERE gid = 3"));
+        assertEquals("0", queryString("CALL ConvertGeometryColumn('legacy', 'the_geom', 4326)"));
+
+        ResultSet rs = stat.executeQuery("SELECT the_geom, AsBinary(the_geom) FROM legacy WHERE gid = 3");
+        assertTrue(rs.next());
+        assertTrue(StorageFormat.isStorageFormat(rs.getBytes(1)));
+        assertFalse(StorageFormat.isStorageFormat(rs.getBytes(2)));
+        assertEquals("POINT (3 1)", new WKBReader().read(rs.getBytes(2)).toText());
+        rs.close();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.codec;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ByteOrderValues;
+import com.vividsolutions.jts.io.WKBWriter;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the values read by WKBInspector with the decoded JTS geometries.
+ */
+public class WKBInspectorTest {
+
+    private static final String[] WKT = {
+            "POINT(1 2)",
+            "POINT(1 2 3)",
+            "LINESTRING(0 0, 1 1, 2 0)",
+            "LINESTRING EMPTY",
+            "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 3 2, 3 3, 2 2))",
+            "POLYGON EMPTY",
+            "MULTIPOINT((0 0), (1 1))",
+            "MULTILINESTRING((0 0, 1 1), (2 2, 3 3, 4 4))",
+            "MULTIPOLYGON(((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))",
+            "GEOMETRYCOLLECTION(POINT(1 1), LINESTRING(0 0, 1 1))",
+            "GEOMETRYCOLLECTION(POINT(1 1), GEOMETRYCOLLECTION(POLYGON((0 0, 1 0, 1 1, 0 0))))",
+            "GEOMETRYCOLLECTION EMPTY",
+            "GEOMETRYCOLLECTION(LINESTRING EMPTY)"
+    };
+
+    @Test
+    public void testAgainstJTS() throws Exception {
+        WKTReader reader = new WKTReader();
+        for (String wkt : WKT) {
+            Geometry geom = reader.read(wkt);
+            geom.setSRID(4326);
+            check(geom, new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN).write(geom), 0);
+            check(geom, new WKBWriter(2, ByteOrderValues.BIG_ENDIAN).write(geom), 0);
+            check(geom, new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN, true).write(geom), 4326);
+            check(geom, GeometryCodec.write(geom, 4326, 0), 4326);
+            check(geom, GeometryCodec.write(geom, 4326, 1000), 4326);
+        }
+    }
+
+    @Test
+    public void testByteBufferView() throws Exception {
+        Geometry geom = new WKTReader().read("MULTILINESTRING((0 0, 1 1), (2 2, 3 3, 4 4))");
+        byte[] wkb = new WKBWriter(3, ByteOrderValues.LITTLE_ENDIAN, true).write(geom);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(wkb.length + 3);
+        buffer.put(new byte[3]).put(wkb);
+        buffer.position(3);
+        assertTrue(WKBInspector.canInspect(buffer));
+        assertEquals(5, WKBInspector.getNumPoints(buffer));
+        assertEquals(2, WKBInspector.getNumGeometries(buffer));
+        assertEquals("MultiLineString", WKBInspector.getGeometryType(buffer));
+        assertEquals(1, WKBInspector.getDimension(buffer));
+        assertEquals(0, WKBInspector.getSRID(buffer));
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void testInvalidValues() throws Exception {
+        byte[] wkb = new WKBWriter().write(new WKTReader().read("LINESTRING(0 0, 1 1, 2 0)"));
+        byte[] truncated = new byte[wkb.length - 1];
+        System.arraycopy(wkb, 0, truncated, 0, truncated.length);
+        assertFalse(WKBInspector.canInspect(truncated));
+        assertFalse(WKBInspector.canInspect(new byte[] { 7, 1, 0, 0, 0 }));
+        assertFalse(WKBInspector.canInspect(new byte[0]));
+        byte[] value = GeometryCodec.write(new WKTReader().read("LINESTRING(0 0, 1 1, 2 0)"), 0, 100);
+        truncated = new byte[value.length - 1];
+        System.arraycopy(value, 0, truncated, 0, truncated.length);
+        assertTrue(WKBInspector.canInspect(value));
+        assertFalse(WKBInspector.canInspect(truncated));
+        value[1] = 9;
+        assertFalse(WKBInspector.canInspect(value));
+    }
+
+    private static void check(Geometry geom, byte[] wkb, int srid) {
+        String message = geom.toText();
+        assertTrue(message, WKBInspector.canInspect(wkb));
+        assertEquals(message, srid, WKBInspector.getSRID(wkb));
+        assertEquals(message, geom.getGeometryType(), WKBInspector.getGeometryType(wkb));
+        assertEquals(message, geom.getDimension(), WKBInspector.getDimension(wkb));
+        assertEquals(message, geom.isEmpty(), WKBInspector.isEmpty(wkb));
+        assertEquals(message, geom.getNumGeometries(), WKBInspector.getNumGeometries(wkb));
+        assertEquals(message, geom.getNumPoints(), WKBInspector.getNumPoints(wkb));
+        assertEquals(message, geom.getEnvelopeInternal(), WKBInspector.getEnvelope(wkb));
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.crs;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.catalog.SpatialCatalog;
+import org.h2spatial.util.GeometryColumns;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the projections against published coordinates, the round trips
+ * between systems, the cache of the transforms and the reprojection of a
+ * column.
+ */
+public class CoordinateTransformTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:crs", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private double[] transform(int source, int target, double x, double y) throws SQLException {
+        double[] p = { x, y };
+        SpatialRefSys.getTransform(con, source, target).transform(p, new double[3]);
+        return p;
+    }
+
+    private void assertTransform(int source, int target, double x, double y, double expectedX, double expectedY,
+            double tolerance) throws SQLException {
+        double[] p = transform(source, target, x, y);
+        assertEquals(expectedX, p[0], tolerance);
+        assertEquals(expectedY, p[1], tolerance);
+    }
+
+    @Test
+    public void projections() throws Exception {
+        // origins of Lambert 93, Lambert zone II on the Paris meridian and CC46
+        assertTransform(4326, 2154, 3, 46.5, 700000, 6600000, 1e-3);
+        assertTransform(4275, 27572, 2.337229166667, 46.8, 600000, 2200000, 1e-3);
+        assertTransform(4171, 3946, 3, 46, 1700000, 5200000, 1e-3);
+        // UTM zone 31 on its central meridian and on the equator
+        assertTransform(4326, 32631, 3, 45, 500000, 4982950.400, 1e-3);
+        assertTransform(4326, 32631, 0, 0, 166021.443, 0, 1e-3);
+        assertTransform(4326, 32731, 3, -45, 500000, 10000000 - 4982950.400, 1e-3);
+        // the square of Web Mercator
+        assertTransform(4326, 3857, 180, 85.0511287798066, 20037508.3428, 20037508.3428, 1e-3);
+        assertTransform(4326, 3395, 0, 45, 0, 5591295.918, 1e-3);
+        // the NTF datum is about a hundred meters away from WGS 84
+        double[] p = transform(4275, 4326, 2.337229166667, 46.8);
+        double shift = Math.hypot(p[0] - 2.337229166667, p[1] - 46.8);
+        assertTrue(shift > 5e-4 && shift < 3e-3);
+        try {
+            transform(4326, 3857, 0, 90);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("out of the domain") >= 0);
+        }
+    }
+
+    @Test
+    public void roundTrips() throws Exception {
+        Random random = new Random(11);
+        int[] systems = { 2154, 27572, 32631, 3857, 4275, 3944, 25831 };
+        for (int i = 0; i < 200; i++) {
+            double lon = -4 + random.nextDouble() * 12;
+            double lat = 42 + random.nextDouble() * 9;
+            int srid = systems[i % systems.length];
+            double[] p = transform(4326, srid, lon, lat);
+            double[] back = transform(srid, 4326, p[0], p[1]);
+            // a millimeter is about 1e-8 degree
+            assertEquals(lon, back[0], 1e-8);
+            assertEquals(lat, back[1], 1e-8);
+            double[] l93 = transform(srid, 2154, p[0], p[1]);
+            double[] direct = transform(4326, 2154, lon, lat);
+            assertEquals(direct[0], l93[0], 1e-3);
+            assertEquals(direct[1], l93[1], 1e-3);
+        }
+    }
+
+    @Test
+    public void spatialRefSys() throws Exception {
+        CoordinateTransform transform = SpatialRefSys.getTransform(con, 4326, 2154);
+        assertSame(transform, SpatialRefSys.getTransform(con, 4326, 2154));
+        ResultSet rs = stat.executeQuery("CALL CreateSpatialRefSys()");
+        rs.next();
+        assertEquals(SpatialRefSys.getKnownSystems().size(), rs.getInt(1));
+        rs = stat.executeQuery("CALL CreateSpatialRefSys()");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        assertNotSame(transform, SpatialRefSys.getTransform(con, 4326, 2154));
+
+        // a system added to the table, then changed
+        stat.execute("INSERT INTO spatial_ref_sys VALUES(99001, 'LOCAL', 1, 'Local grid', '+proj=tmerc +lat_0=46"
+                + " +lon_0=3 +k=1 +x_0=1000 +y_0=2000 +ellps=GRS80 +towgs84=0,0,0,0,0,0,0 +units=km')");
+        rs = stat.executeQuery("SELECT AsText(Transform(GeomFromText('POINT(3 46)', 4171), 99001))");
+        rs.next();
+        // the false easting and northing are in meters
+        assertEquals("POINT (1 2)", rs.getString(1));
+        stat.execute("UPDATE spatial_ref_sys SET PROJ4TEXT = '+proj=tmerc +lat_0=46 +lon_0=3 +k=1 +x_0=0 +y_0=0"
+                + " +ellps=GRS80 +towgs84=0,0,0,0,0,0,0' WHERE SRID = 99001");
+        rs = stat.executeQuery("SELECT AsText(Transform(GeomFromText('POINT(3 46)', 4171), 99001)),"
+                + " SRID(Transform(GeomFromText('POINT(3 46)', 4171), 99001))");
+        rs.next();
+        assertEquals("POINT (0 0)", rs.getString(1));
+        assertEquals(99001, rs.getInt(2));
+
+        // a definition read from a change rolled back isn't kept
+        con.setAutoCommit(false);
+        try {
+            stat.execute("UPDATE spatial_ref_sys SET PROJ4TEXT = '+proj=longlat +datum=WGS84' WHERE SRID = 2154");
+            assertTransform(4326, 2154, 3, 46.5, 3, 46.5, 1e-9);
+            con.rollback();
+        } finally {
+            con.setAutoCommit(true);
+        }
+        assertTransform(4326, 2154, 3, 46.5, 700000, 6600000, 1e-3);
+
+        rs = stat.executeQuery("SELECT Transform(NULL, 4326)");
+        rs.next();
+        assertNull(rs.getBytes(1));
+        String[] errors = { "SELECT Transform(GeomFromText('POINT(3 46)', 0), 4326)",
+                "SELECT Transform(GeomFromText('POINT(3 46)', 4326), 123456)" };
+        for (String sql : errors) {
+            try {
+                stat.executeQuery(sql);
+                fail(sql);
+            } catch (SQLException e) {
+                // no SRID, unknown SRID
+            }
+        }
+        try {
+            CoordinateSystem.parse("+proj=laea +lat_0=52 +lon_0=10");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("Unsupported projection") >= 0);
+        }
+    }
+
+    @Test
+    public void reprojectColumn() throws Exception {
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom BLOB)");
+        Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            double x = -2 + random.nextDouble() * 8;
+            double y = 43 + random.nextDouble() * 7;
+            String wkt = i % 2 == 0 ? "POINT(" + x + " " + y + ")" : "POLYGON((" + x + " " + y + ", " + (x + 0.01)
+                    + " " + y + ", " + x + " " + (y + 0.01) + ", " + x + " " + y + "))";
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", GeomFromText('" + wkt + "', 4326))");
+        }
+        stat.execute("INSERT INTO parcels VALUES(300, NULL)");
+        stat.execute("INSERT INTO parcels VALUES(301, GeomFromText('POINT(700000 6600000)', 2154))");
+        stat.execute("INSERT INTO parcels VALUES(302, GeomFromText('POINT(500000 4982950.4)', 32631))");
+        stat.execute("CREATE TABLE original AS SELECT * FROM parcels");
+        GeometryColumns.register(con, "PARCELS", "THE_GEOM", 4326, "GEOMETRY", 2);
+
+        stat.execute("CALL SetSessionSpatialSetting('LOAD_COMMIT_SIZE', 64)");
+        ResultSet rs = stat.executeQuery("CALL ReprojectColumn('parcels', 'the_geom', 2154)");
+        rs.next();
+        assertEquals(301, rs.getLong(1));
+        assertEquals(2154, SpatialCatalog.getColumn(con, "parcels", "the_geom").getSRID());
+
+        rs = stat.executeQuery("SELECT COUNT(*), MAX(Distance(p.the_geom, Transform(o.the_geom, 2154))),"
+                + " MIN(SRID(p.the_geom)), MAX(SRID(p.the_geom)) FROM parcels p, original o"
+                + " WHERE p.gid = o.gid AND p.the_geom IS NOT NULL");
+        rs.next();
+        assertEquals(302, rs.getInt(1));
+        assertEquals(0, rs.getDouble(2), 1e-6);
+        assertEquals(2154, rs.getInt(3));
+        assertEquals(2154, rs.getInt(4));
+        rs = stat.executeQuery("SELECT AsText(the_geom) FROM parcels WHERE gid = 301");
+        rs.next();
+        assertEquals("POINT (700000 6600000)", rs.getString(1));
+
+        // a second call finds every row in the target system
+        rs = stat.executeQuery("CALL ReprojectColumn('parcels', 'the_geom', 2154)");
+        rs.next();
+        assertEquals(0, rs.getLong(1));
+        stat.execute("INSERT INTO parcels VALUES(303, GeomFromText('POINT(1 1)', 0))");
+        try {
+            stat.execute("CALL ReprojectColumn('parcels', 'the_geom', 4326)");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("no SRID") >= 0);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.curve;
+
+import org.h2.api.Trigger;
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the curves, the ranges covering a box and the clustering of a table.
+ */
+public class CurveClusteringTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:curve", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    @Test
+    public void curves() {
+        int order = 5;
+        int side = 1 << order;
+        for (SpaceFillingCurve curve : SpaceFillingCurve.values()) {
+            long[] xs = new long[side * side];
+            long[] ys = new long[side * side];
+            Set<Long> keys = new HashSet<Long>();
+            for (int x = 0; x < side; x++) {
+                for (int y = 0; y < side; y++) {
+                    long key = curve.encode(x, y, order);
+                    assertTrue(key >= 0 && key < side * side);
+                    assertTrue(keys.add(Long.valueOf(key)));
+                    xs[(int) key] = x;
+                    ys[(int) key] = y;
+                    // the cells of a quadtree square share the high bits
+                    assertEquals(curve.encode(x >> 2, y >> 2, order - 2), key >> 4);
+                }
+            }
+            if (curve == SpaceFillingCurve.HILBERT) {
+                for (int key = 1; key < side * side; key++) {
+                    assertEquals(1, Math.abs(xs[key] - xs[key - 1]) + Math.abs(ys[key] - ys[key - 1]));
+                }
+            }
+        }
+        assertEquals(Long.MAX_VALUE >> 1, SpaceFillingCurve.ZORDER.encode((1L << 31) - 1, (1L << 31) - 1, 31));
+        long key = SpaceFillingCurve.HILBERT.encode((1L << 31) - 1, 0, 31);
+        assertEquals((1L << 62) - 1, key);
+    }
+
+    @Test
+    public void ranges() {
+        int order = 6;
+        int side = 1 << order;
+        Random random = new Random(5);
+        for (SpaceFillingCurve curve : SpaceFillingCurve.values()) {
+            for (int i = 0; i < 200; i++) {
+                long minX = random.nextInt(side);
+                long minY = random.nextInt(side);
+                long[] box = { minX, minY, minX + random.nextInt((int) (side - minX)),
+                        minY + random.nextInt((int) (side - minY)) };
+                int maxRanges = i % 2 == 0 ? Integer.MAX_VALUE : 1 + random.nextInt(8);
+                long[] ranges = curve.ranges(box, order, maxRanges);
+                assertTrue(ranges.length / 2 <= maxRanges);
+                for (int j = 2; j < ranges.length; j += 2) {
+                    assertTrue(ranges[j] > ranges[j - 1] + 1);
+                }
+                for (int x = 0; x < side; x++) {
+                    for (int y = 0; y < side; y++) {
+                        boolean inside = x >= box[0] && x <= box[2] && y >= box[1] && y <= box[3];
+                        boolean covered = covers(ranges, curve.encode(x, y, order));
+                        if (inside) {
+                            assertTrue(covered);
+                        } else if (maxRanges == Integer.MAX_VALUE) {
+                            assertFalse(covered);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean covers(long[] ranges, long key) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (key >= ranges[i] && key <= ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void grid() throws Exception {
+        CurveGrid grid = new CurveGrid(SpaceFillingCurve.ZORDER, 2, 0, 0, 100, 100);
+        assertEquals(0, grid.key(-50, -50));
+        assertEquals(0, grid.key(10, 10));
+        assertEquals(15, grid.key(99, 99));
+        assertEquals(15, grid.key(1000, 1000));
+        assertEquals(1, grid.key(30, 0));
+        assertEquals(2, grid.key(0, 30));
+        assertEquals(2, new CurveGrid(SpaceFillingCurve.ZORDER, 2, 5, 5, 5, 5).ranges(new Envelope(0, 10, 0, 10), 4).length);
+        try {
+            new CurveGrid(SpaceFillingCurve.HILBERT, 32, 0, 0, 1, 1);
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        ResultSet rs = stat.executeQuery("SELECT HilbertKey(GeomFromText('POLYGON((50 50, 100 50, 100 100, 50 100, 50 50))', 1),"
+                + " 0, 0, 100, 100, 1), ZOrderKey(GeomFromText('POINT(80 20)', 1), 0, 0, 100, 100, 1),"
+                + " ZOrderKey(GeomFromText('GEOMETRYCOLLECTION EMPTY', 1), 0, 0, 100, 100, 1)");
+        rs.next();
+        assertEquals(2, rs.getLong(1));
+        assertEquals(1, rs.getLong(2));
+        assertNull(rs.getObject(3));
+    }
+
+    private static void insertParcels(Statement stat, Random random) throws SQLException {
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, name VARCHAR, the_geom BLOB)");
+        for (int i = 0; i < 500; i++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            String wkt = i % 3 == 0 ? "POINT(" + x + " " + y + ")" : "POLYGON((" + x + " " + y + ", " + (x + 15) + " "
+                    + y + ", " + (x + 15) + " " + (y + 8) + ", " + x + " " + y + "))";
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", 'p" + i + "', GeomFromText('" + wkt + "', 2154))");
+        }
+        stat.execute("INSERT INTO parcels VALUES(500, 'none', NULL)");
+    }
+
+    /**
+     * The rows of a file database are scanned about in the order they were
+     * written.
+     */
+    @Test
+    public void physicalOrder() throws Exception {
+        File dir = File.createTempFile("curve", "");
+        dir.delete();
+        Connection file = DriverManager.getConnection("jdbc:h2:" + new File(dir, "db").getPath(), "sa", "");
+        try {
+            Statement st = file.createStatement();
+            SQLCodegenerator.addSpatialFunctions(st);
+            insertParcels(st, new Random(3));
+            ResultSet rs = st.executeQuery("CALL ClusterTable('parcels', 'the_geom', 'hilbert', 10)");
+            rs.next();
+            assertEquals(501, rs.getLong(1));
+            // the freed blocks are reused from where the file was left, so the
+            // keys come in a few sorted runs
+            rs = st.executeQuery("SELECT the_geom_curve_key FROM parcels");
+            long previous = Long.MIN_VALUE;
+            int runs = 1;
+            while (rs.next()) {
+                long key = rs.getLong(1);
+                if (rs.wasNull()) {
+                    key = Long.MIN_VALUE;
+                }
+                if (key < previous) {
+                    runs++;
+                }
+                previous = key;
+            }
+            assertTrue(runs <= 5);
+            st.execute("DROP ALL OBJECTS");
+        } finally {
+            file.close();
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void clusterTable() throws Exception {
+        Random random = new Random(7);
+        insertParcels(stat, random);
+        ResultSet rs = stat.executeQuery("CALL ClusterTable('parcels', 'the_geom', 'hilbert', 10)");
+        rs.next();
+        assertEquals(501, rs.getLong(1));
+        CurveClustering clustering = CurveClustering.get(con, "parcels", "the_geom");
+        assertEquals(7.5, clustering.getHalfWidth(), 1e-9);
+        assertEquals(4, clustering.getHalfHeight(), 1e-9);
+        assertEquals("THE_GEOM_CURVE_KEY", clustering.getKeyColumn());
+
+        rs = stat.executeQuery("SELECT gid, the_geom_curve_key, the_geom FROM parcels");
+        int rows = 0;
+        while (rs.next()) {
+            long key = rs.getLong(2);
+            if (rs.wasNull()) {
+                assertEquals(500, rs.getInt(1));
+            } else {
+                assertEquals(clustering.getGrid().key(rs.getBytes(3)).longValue(), key);
+            }
+            rows++;
+        }
+        assertEquals(501, rows);
+
+        // new rows are keyed by the trigger, a larger one widens the windows
+        stat.execute("INSERT INTO parcels(gid, name, the_geom) VALUES(501, 'big', GeomFromText('POLYGON((2000 2000, 2100 2000, 2100 2100,"
+                + " 2000 2000))', 2154))");
+        stat.execute("UPDATE parcels SET the_geom = GeomFromText('POINT(1 1)', 2154) WHERE gid = 1");
+        con.setAutoCommit(false);
+        stat.execute("INSERT INTO parcels(gid, name, the_geom) VALUES(502, 'rolled back', GeomFromText('POLYGON((0 0, 900 0, 900 900,"
+                + " 0 0))', 2154))");
+        con.rollback();
+        con.setAutoCommit(true);
+        clustering = CurveClustering.get(con, "parcels", "the_geom");
+        assertEquals(50, clustering.getHalfWidth(), 0);
+        rs = stat.executeQuery("SELECT the_geom_curve_key FROM parcels WHERE gid = 1");
+        rs.next();
+        assertEquals(clustering.getGrid().key(1, 1), rs.getLong(1));
+
+        // windows read through the ranges give the rows intersecting them
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextDouble() * 1100;
+            double y = random.nextDouble() * 1100;
+            String window = "GeomFromText('POLYGON((" + x + " " + y + ", " + (x + 150) + " " + y + ", " + (x + 150)
+                    + " " + (y + 100) + ", " + x + " " + (y + 100) + ", " + x + " " + y + "))', 2154)";
+            rs = stat.executeQuery("SELECT COUNT(*) FROM parcels WHERE the_geom IS NOT NULL AND Intersects(the_geom, "
+                    + window + ")");
+            rs.next();
+            int expected = rs.getInt(1);
+            rs = stat.executeQuery("SELECT COUNT(*) FROM CurveKeyRanges('parcels', 'the_geom', " + window + ", "
+                    + (1 + i) + ") r, parcels p WHERE p.the_geom_curve_key BETWEEN r.KEY_MIN AND r.KEY_MAX"
+                    + " AND Intersects(p.the_geom, " + window + ")");
+            rs.next();
+            assertEquals(expected, rs.getInt(1));
+        }
+
+        // clustering again keeps the column and its index
+        rs = stat.executeQuery("CALL ClusterTable('parcels', 'the_geom', 'zorder', 8)");
+        rs.next();
+        assertEquals(502, rs.getLong(1));
+        assertEquals(SpaceFillingCurve.ZORDER, CurveClustering.get(con, "parcels", "the_geom").getGrid().getCurve());
+
+        stat.execute("CALL DropClustering('parcels', 'the_geom')");
+        assertNull(CurveClustering.find(con, "parcels", "the_geom"));
+        stat.execute("INSERT INTO parcels(gid, name, the_geom) VALUES(503, 'after', NULL)");
+        rs = stat.executeQuery("SELECT * FROM parcels WHERE gid = 503");
+        assertEquals(3, rs.getMetaData().getColumnCount());
+    }
+
+    /**
+     * Counts the rows going through the trigger.
+     */
+    public static class CountingTrigger implements Trigger {
+
+        static int count;
+
+        public void init(Connection conn, String schemaName, String triggerName, String tableName) {
+        }
+
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) {
+            count++;
+        }
+    }
+
+    @Test
+    public void clusterKeepsDefinition() throws Exception {
+        insertParcels(stat, new Random(9));
+        stat.execute("CALL ClusterTable('parcels', 'the_geom', 'zorder', 10)");
+        stat.execute("CREATE INDEX parcels_name ON parcels(name)");
+        stat.execute("CREATE VIEW named AS SELECT gid, name FROM parcels");
+        stat.execute("CALL CreateSpatialIndex('parcels', 'the_geom')");
+        stat.execute("CREATE TRIGGER parcels_count BEFORE INSERT, UPDATE, DELETE ON parcels FOR EACH ROW CALL \""
+                + CountingTrigger.class.getName() + "\"");
+        CountingTrigger.count = 0;
+        stat.execute("CALL ClusterTable('parcels', 'the_geom', 'hilbert', 10)");
+        assertEquals(0, CountingTrigger.count);
+
+        // the trigger, the primary key, the index, the view and the spatial index are kept
+        stat.execute("INSERT INTO parcels(gid, name, the_geom) VALUES(600, 'new', GeomFromText('POINT(-5 -5)', 2154))");
+        assertEquals(1, CountingTrigger.count);
+        try {
+            stat.execute("INSERT INTO parcels(gid, name) VALUES(1, 'twice')");
+            fail();
+        } catch (SQLException e) {
+            // primary key violation
+        }
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM named");
+        rs.next();
+        assertEquals(502, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'PARCELS_NAME'");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        rs = stat.executeQuery("SELECT KEY FROM SpatialIndexLookup('parcels', 'the_geom',"
+                + " GeomFromText('POLYGON((-10 -10, 0 -10, 0 0, -10 0, -10 -10))', 2154))");
+        assertTrue(rs.next());
+        assertEquals(600, rs.getInt(1));
+
+        // nor while another session is connected
+        Connection other = DriverManager.getConnection("jdbc:h2:mem:curve", "sa", "");
+        try {
+            stat.execute("CALL ClusterTable('parcels', 'the_geom', 'zorder', 8)");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("other sessions are connected") >= 0);
+        } finally {
+            other.close();
+        }
+
+        // a table referenced by a foreign key isn't written again
+        stat.execute("CREATE TABLE owners(id INT PRIMARY KEY, gid INT,"
+                + " FOREIGN KEY(gid) REFERENCES parcels(gid) ON DELETE CASCADE)");
+        stat.execute("INSERT INTO owners VALUES(1, 1)");
+        stat.execute("INSERT INTO owners VALUES(2, 2)");
+        try {
+            stat.execute("CALL ClusterTable('parcels', 'the_geom', 'zorder', 8)");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("foreign key of OWNERS") >= 0);
+        }
+        rs = stat.executeQuery("SELECT COUNT(*) FROM owners");
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        assertEquals(SpaceFillingCurve.HILBERT, CurveClustering.get(con, "parcels", "the_geom").getGrid().getCurve());
+    }
+}
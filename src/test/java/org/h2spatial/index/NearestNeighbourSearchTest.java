@@ -0,0 +1,168 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the nearest neighbours found in the trees with the distances to
+ * every row.
+ */
+public class NearestNeighbourSearchTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void createTable() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:knn", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE hydrants(gid INT PRIMARY KEY, the_geom BLOB)");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO hydrants VALUES(?, GeomFromText(?, 0))");
+        Random random = new Random(20);
+        for (int i = 0; i < 3000; i++) {
+            double x = random.nextInt(100000) / 100.0;
+            double y = random.nextInt(100000) / 100.0;
+            insert.setInt(1, i);
+            if (i % 10 == 0) {
+                insert.setString(2, "LINESTRING(" + x + " " + y + ", " + (x + 15) + " " + (y + 7) + ")");
+            } else {
+                insert.setString(2, "POINT(" + x + " " + y + ")");
+            }
+            insert.execute();
+        }
+        insert.close();
+        stat.execute("INSERT INTO hydrants VALUES(3000, NULL)");
+        stat.execute("INSERT INTO hydrants VALUES(3001, GeomFromText('GEOMETRYCOLLECTION EMPTY', 0))");
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        stat.close();
+        con.close();
+    }
+
+    private List<double[]> search(NearestNeighbourSearch search, Geometry query, int k) throws SQLException {
+        final List<double[]> neighbours = new ArrayList<double[]>();
+        search.search(con, query, k, new NeighbourVisitor() {
+            public void visit(long key, double distance) {
+                neighbours.add(new double[] { key, distance });
+            }
+        });
+        return neighbours;
+    }
+
+    private void assertNearest(NearestNeighbourSearch search, Geometry query, int k) throws Exception {
+        Map<Long, Double> distances = new HashMap<Long, Double>();
+        ResultSet rs = stat.executeQuery("SELECT gid, the_geom FROM hydrants WHERE the_geom IS NOT NULL");
+        while (rs.next()) {
+            Geometry geom = GeometryCodec.read(rs.getBytes(2));
+            if (!geom.isEmpty()) {
+                distances.put(Long.valueOf(rs.getLong(1)), Double.valueOf(query.distance(geom)));
+            }
+        }
+        List<Double> expected = new ArrayList<Double>(distances.values());
+        Collections.sort(expected);
+        List<double[]> neighbours = search(search, query, k);
+        assertEquals(Math.min(k, expected.size()), neighbours.size());
+        for (int i = 0; i < neighbours.size(); i++) {
+            double[] neighbour = neighbours.get(i);
+            assertEquals(expected.get(i).doubleValue(), neighbour[1], 0);
+            assertEquals(distances.get(Long.valueOf((long) neighbour[0])).doubleValue(), neighbour[1], 0);
+        }
+    }
+
+    private void assertQueries(NearestNeighbourSearch search) throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            double x = random.nextInt(1200) - 100;
+            double y = random.nextInt(1200) - 100;
+            String wkt = i % 2 == 0 ? "POINT(" + x + " " + y + ")" : "POLYGON((" + x + " " + y + ", " + (x + 30)
+                    + " " + y + ", " + x + " " + (y + 30) + ", " + x + " " + y + "))";
+            assertNearest(search, GeometryCodec.readText(wkt), 1 + i);
+        }
+    }
+
+    @Test
+    public void inMemoryTree() throws Exception {
+        NearestNeighbourSearch search = new NearestNeighbourSearch(con, "hydrants", "the_geom");
+        assertFalse(search.isIndexed());
+        assertQueries(search);
+        assertTrue(search(search, GeometryCodec.readText("GEOMETRYCOLLECTION EMPTY"), 5).isEmpty());
+        assertEquals(3000, search(search, GeometryCodec.readText("POINT(500 500)"), 10000).size());
+    }
+
+    @Test
+    public void spatialIndex() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('hydrants', 'the_geom')");
+        NearestNeighbourSearch search = new NearestNeighbourSearch(con, "hydrants", "the_geom");
+        assertTrue(search.isIndexed());
+        assertQueries(search);
+
+        search(search, GeometryCodec.readText("POINT(500 500)"), 10);
+        assertTrue(search.getNodeReads() < 10);
+        assertTrue(search.getRefinements() < 100);
+
+        // rows changed after the build are read from the delta table
+        stat.execute("INSERT INTO hydrants VALUES(5000, GeomFromText('POINT(500.5 500)', 0))");
+        stat.execute("UPDATE hydrants SET the_geom = GeomFromText('POINT(499 500)', 0) WHERE gid = 17");
+        stat.execute("DELETE FROM hydrants WHERE gid = 18");
+        assertQueries(search);
+        List<double[]> neighbours = search(search, GeometryCodec.readText("POINT(500 500)"), 2);
+        assertEquals(5000, (long) neighbours.get(0)[0]);
+        assertEquals(17, (long) neighbours.get(1)[0]);
+    }
+
+    @Test
+    public void sqlFunction() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('hydrants', 'the_geom')");
+        stat.execute("INSERT INTO hydrants VALUES(5000, GeomFromText('POINT(500.5 500)', 0))");
+        ResultSet rs = stat.executeQuery("SELECT n.KEY, n.DISTANCE, Distance(h.the_geom, GeomFromText('POINT(500 500)', 0))"
+                + " FROM NearestNeighbours('hydrants', 'the_geom', GeomFromText('POINT(500 500)', 0), 5) n,"
+                + " hydrants h WHERE h.gid = n.KEY ORDER BY n.DISTANCE");
+        int count = 0;
+        double previous = 0;
+        while (rs.next()) {
+            if (count == 0) {
+                assertEquals(5000, rs.getLong(1));
+            }
+            assertEquals(rs.getDouble(3), rs.getDouble(2), 0);
+            assertTrue(rs.getDouble(2) >= previous);
+            previous = rs.getDouble(2);
+            count++;
+        }
+        assertEquals(5, count);
+    }
+}
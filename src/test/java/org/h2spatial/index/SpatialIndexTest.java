@@ -0,0 +1,183 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.index;
+
+import org.h2spatial.GeoSpatialFunctions;
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the spatial index lookups with a full scan.
+ */
+public class SpatialIndexTest {
+
+    private static final String WINDOW = "GeomFromText('POLYGON((100 100, 350 100, 350 260, 100 260, 100 100))', 0)";
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void createTable() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:spatialindex", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE grid(gid INT PRIMARY KEY, the_geom BLOB)");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO grid VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < 2000; i++) {
+            double x = (i % 50) * 10;
+            double y = (i / 50) * 10;
+            insert.setInt(1, i);
+            insert.setString(2, "POLYGON((" + x + " " + y + ", " + (x + 5) + " " + y + ", " + (x + 5) + " "
+                    + (y + 5) + ", " + x + " " + (y + 5) + ", " + x + " " + y + "))");
+            insert.execute();
+        }
+        insert.close();
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        stat.close();
+        con.close();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        SpatialIndex index = SpatialIndex.find(con, "GRID", "THE_GEOM");
+        assertNotNull(index);
+        assertEquals(2000, index.size());
+        assertTrue(index.getHeight() > 1);
+        assertEquals(fullScan(), lookup());
+    }
+
+    @Test
+    public void testChangesAfterBuild() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        stat.execute("INSERT INTO grid VALUES(5000, GeomFromText('POINT(200 200)', 0))");
+        stat.execute("DELETE FROM grid WHERE gid = 1020");
+        stat.execute("UPDATE grid SET the_geom = GeomFromText('POINT(0 0)', 0) WHERE gid = 1021");
+        stat.execute("UPDATE grid SET gid = 6000 WHERE gid = 1022");
+        Set<Long> keys = lookup();
+        assertEquals(fullScan(), keys);
+        assertTrue(keys.contains(5000L));
+        assertTrue(keys.contains(6000L));
+        assertFalse(keys.contains(1021L));
+        stat.execute("CALL RebuildSpatialIndex('grid', 'the_geom')");
+        assertEquals(keys, lookup());
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM GRID_THE_GEOM_RTREE_DELTA");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+    }
+
+    @Test
+    public void testAutomaticRebuild() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO grid VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < SpatialIndex.DELTA_REBUILD_ROWS + 100; i++) {
+            insert.setInt(1, 5000 + i);
+            insert.setString(2, "POINT(" + (i % 400) + " " + (i / 4) + ")");
+            insert.execute();
+        }
+        insert.close();
+        SpatialIndex index = SpatialIndex.find(con, "GRID", "THE_GEOM");
+        assertTrue(index.size() > 2000);
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM GRID_THE_GEOM_RTREE_DELTA");
+        rs.next();
+        assertEquals(2000 + SpatialIndex.DELTA_REBUILD_ROWS + 100, index.size() + rs.getInt(1));
+        assertEquals(fullScan(), lookup());
+    }
+
+    @Test
+    public void testLimitAfterManualRebuild() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        SpatialIndex index = SpatialIndex.find(con, "GRID", "THE_GEOM");
+        SpatialIndexTrigger trigger = new SpatialIndexTrigger();
+        trigger.init(con, "PUBLIC", index.getTriggerName(), "GRID");
+        stat.execute("DROP TRIGGER " + index.getTriggerName());
+        PreparedStatement insert = con.prepareStatement("INSERT INTO grid VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < 18000; i++) {
+            insert.setInt(1, 10000 + i);
+            insert.setString(2, "POINT(" + (i % 400) + " " + (i / 400) + ")");
+            insert.execute();
+        }
+        insert.close();
+        stat.execute("CALL RebuildSpatialIndex('grid', 'the_geom')");
+        // the limit of the rebuilt tree of 20000 rows is above the changes
+        byte[] point = GeoSpatialFunctions.GeomFromText("POINT(1 1)", 0);
+        int changes = SpatialIndex.DELTA_REBUILD_ROWS + 100;
+        for (int i = 0; i < changes; i++) {
+            trigger.fire(con, null, new Object[] { 100000 + i, point });
+        }
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM GRID_THE_GEOM_RTREE_DELTA");
+        rs.next();
+        assertEquals(changes, rs.getInt(1));
+        assertEquals(20000, SpatialIndex.find(con, "GRID", "THE_GEOM").size());
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        stat.execute("CALL DropSpatialIndex('grid', 'the_geom')");
+        assertEquals(null, SpatialIndex.find(con, "GRID", "THE_GEOM"));
+        stat.execute("INSERT INTO grid VALUES(5000, GeomFromText('POINT(200 200)', 0))");
+    }
+
+    @Test
+    public void testLookupInTransaction() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('grid', 'the_geom')");
+        con.setAutoCommit(false);
+        try {
+            stat.execute("INSERT INTO grid VALUES(5000, GeomFromText('POINT(200 200)', 0))");
+            assertTrue(lookup().contains(5000L));
+            con.rollback();
+        } finally {
+            con.setAutoCommit(true);
+        }
+        Set<Long> keys = lookup();
+        assertFalse(keys.contains(5000L));
+        assertEquals(fullScan(), keys);
+    }
+
+    private Set<Long> lookup() throws SQLException {
+        Set<Long> keys = new TreeSet<Long>();
+        ResultSet rs = stat.executeQuery("SELECT g.gid FROM SpatialIndexLookup('grid', 'the_geom', " + WINDOW
+                + ") i, grid g WHERE g.gid = i.KEY");
+        while (rs.next()) {
+            keys.add(rs.getLong(1));
+        }
+        return keys;
+    }
+
+    private Set<Long> fullScan() throws SQLException {
+        Set<Long> keys = new TreeSet<Long>();
+        ResultSet rs = stat.executeQuery("SELECT gid FROM grid WHERE Intersects(Envelope(the_geom), " + WINDOW + ")");
+        while (rs.next()) {
+            keys.add(rs.getLong(1));
+        }
+        return keys;
+    }
+}
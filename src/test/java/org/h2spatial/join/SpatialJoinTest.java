@@ -0,0 +1,252 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.join;
+
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the spatial joins with a nested loop on the SQL predicates, and
+ * the distance joins with a nested loop on IsWithinDistance.
+ */
+public class SpatialJoinTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void createTables() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:spatialjoin", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE cells(gid INT PRIMARY KEY, the_geom BLOB)");
+        stat.execute("CREATE TABLE zones(id INT PRIMARY KEY, the_geom BLOB)");
+        PreparedStatement insert = con.prepareStatement("INSERT INTO cells VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < 900; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, square((i % 30) * 10, (i / 30) * 10, 6));
+            insert.execute();
+        }
+        insert.close();
+        insert = con.prepareStatement("INSERT INTO zones VALUES(?, GeomFromText(?, 0))");
+        for (int i = 0; i < 40; i++) {
+            insert.setInt(1, i);
+            insert.setString(2, square((i % 8) * 37 + 3, (i / 8) * 55 + 2, 45));
+            insert.execute();
+        }
+        insert.setInt(1, 40);
+        insert.setString(2, "POINT(1000 1000)");
+        insert.execute();
+        insert.setInt(1, 41);
+        insert.setString(2, "POLYGON EMPTY");
+        insert.execute();
+        insert.close();
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private static String square(double x, double y, double size) {
+        return "POLYGON((" + x + " " + y + ", " + (x + size) + " " + y + ", " + (x + size) + " " + (y + size)
+                + ", " + x + " " + (y + size) + ", " + x + " " + y + "))";
+    }
+
+    private Set<String> pairs(String sql) throws SQLException {
+        Set<String> pairs = new TreeSet<String>();
+        ResultSet rs = stat.executeQuery(sql);
+        while (rs.next()) {
+            pairs.add(rs.getLong(1) + "-" + rs.getLong(2));
+        }
+        rs.close();
+        return pairs;
+    }
+
+    private void assertSameAsNestedLoop(String predicate, String tableA, String tableB) throws SQLException {
+        String keyA = tableA.equals("cells") ? "gid" : "id";
+        String keyB = tableB.equals("cells") ? "gid" : "id";
+        Set<String> expected = pairs("SELECT a." + keyA + ", b." + keyB + " FROM " + tableA + " a, " + tableB
+                + " b WHERE " + predicate + "(a.the_geom, b.the_geom)");
+        Set<String> joined = pairs("SELECT KEY_A, KEY_B FROM SpatialJoin('" + tableA + "', 'the_geom', '" + tableB
+                + "', 'the_geom', '" + predicate + "')");
+        assertEquals(predicate, expected, joined);
+    }
+
+    @Test
+    public void testPredicates() throws Exception {
+        for (String predicate : new String[] { "Intersects", "Contains", "Within", "Touches", "Overlaps" }) {
+            assertSameAsNestedLoop(predicate, "cells", "zones");
+            assertSameAsNestedLoop(predicate, "zones", "cells");
+        }
+        assertFalse(pairs("SELECT * FROM SpatialJoin('cells', 'the_geom', 'zones', 'the_geom', 'within')").isEmpty());
+    }
+
+    @Test
+    public void testPartitions() throws Exception {
+        Set<String> expected = pairs("SELECT KEY_A, KEY_B FROM SpatialJoin('cells', 'the_geom', 'zones', 'the_geom', 'intersects')");
+        SpatialJoin join = new SpatialJoin(con, "zones", "the_geom", "cells", "the_geom", JoinPredicate.INTERSECTS, 1000);
+        final Set<String> joined = new TreeSet<String>();
+        join.run(con, new JoinVisitor() {
+            public void visit(long keyA, long keyB) {
+                joined.add(keyB + "-" + keyA);
+            }
+        });
+        assertEquals(expected, joined);
+        assertTrue(join.getPartitions() > 1);
+        assertEquals(expected.size(), join.getMatches());
+        assertTrue(join.getCandidates() >= join.getMatches());
+    }
+
+    @Test
+    public void testSettings() throws Exception {
+        stat.execute("CALL SetSpatialSetting('join_memory', 2048)");
+        ResultSet rs = stat.executeQuery("SELECT VALUE FROM GetSpatialSettings() WHERE NAME = 'JOIN_MEMORY'");
+        assertTrue(rs.next());
+        assertEquals(2048, rs.getLong(1));
+        rs.close();
+        try {
+            assertSameAsNestedLoop("Intersects", "cells", "zones");
+        } finally {
+            stat.execute("CALL SetSpatialSetting('JOIN_MEMORY', 67108864)");
+        }
+    }
+
+    /**
+     * @return the pairs within the distance, mapped to their distance.
+     */
+    private Map<String, Double> distances(String sql) throws SQLException {
+        Map<String, Double> pairs = new TreeMap<String, Double>();
+        ResultSet rs = stat.executeQuery(sql);
+        while (rs.next()) {
+            pairs.put(rs.getLong(1) + "-" + rs.getLong(2), Double.valueOf(rs.getDouble(3)));
+        }
+        rs.close();
+        return pairs;
+    }
+
+    private void assertSameAsDistanceLoop(String tableA, String tableB, double distance) throws SQLException {
+        String keyA = tableA.equals("cells") ? "gid" : "id";
+        String keyB = tableB.equals("cells") ? "gid" : "id";
+        Map<String, Double> expected = distances("SELECT a." + keyA + ", b." + keyB + ", Distance(a.the_geom, b.the_geom)"
+                + " FROM " + tableA + " a, " + tableB + " b WHERE NOT IsEmpty(a.the_geom) AND NOT IsEmpty(b.the_geom)"
+                + " AND IsWithinDistance(a.the_geom, b.the_geom, " + distance + ")");
+        Map<String, Double> joined = distances("SELECT * FROM DistanceJoin('" + tableA + "', 'the_geom', '" + tableB
+                + "', 'the_geom', " + distance + ")");
+        assertEquals(expected.keySet(), joined.keySet());
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().doubleValue(), joined.get(entry.getKey()).doubleValue(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testDistanceJoin() throws Exception {
+        assertSameAsDistanceLoop("cells", "zones", 0);
+        assertSameAsDistanceLoop("cells", "zones", 7.5);
+        assertSameAsDistanceLoop("zones", "cells", 30);
+        assertFalse(distances("SELECT * FROM DistanceJoin('cells', 'the_geom', 'zones', 'the_geom', 2)").containsValue(
+                Double.valueOf(3)));
+
+        final Map<String, Double> joined = new TreeMap<String, Double>();
+        SpatialJoin join = new SpatialJoin(con, "zones", "the_geom", "cells", "the_geom", 12.5, 1000);
+        join.run(con, new DistanceJoinVisitor() {
+            public void visit(long keyA, long keyB, double distance) {
+                joined.put(keyB + "-" + keyA, Double.valueOf(distance));
+            }
+        });
+        assertTrue(join.getPartitions() > 1);
+        assertFalse(join.isIndexed());
+        assertEquals(distances("SELECT * FROM DistanceJoin('cells', 'the_geom', 'zones', 'the_geom', 12.5)"), joined);
+        try {
+            join.run(con, new JoinVisitor() {
+                public void visit(long keyA, long keyB) {
+                }
+            });
+        } catch (NullPointerException e) {
+            fail();
+        } catch (SQLException e) {
+            // the predicate join has no use of the distances
+        }
+        try {
+            stat.executeQuery("SELECT * FROM DistanceJoin('cells', 'the_geom', 'zones', 'the_geom', -1)");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("Invalid distance") >= 0);
+        }
+    }
+
+    @Test
+    public void testIndexedDistanceJoin() throws Exception {
+        stat.execute("CREATE TABLE wells(id INT PRIMARY KEY, the_geom BLOB)");
+        stat.execute("INSERT INTO wells VALUES(1, GeomFromText('POINT(55 55)', 0))");
+        stat.execute("INSERT INTO wells VALUES(2, GeomFromText('LINESTRING(120 10, 200 90)', 0))");
+        stat.execute("INSERT INTO wells VALUES(3, GeomFromText('POINT(2000 2000)', 0))");
+        stat.execute("CALL CreateSpatialIndex('cells', 'the_geom')");
+        stat.execute("DELETE FROM cells WHERE gid = 35");
+        for (String[] tables : new String[][] { { "wells", "cells" }, { "cells", "wells" } }) {
+            Map<String, Double> expected = distances("SELECT a.id, b.gid, Distance(a.the_geom, b.the_geom) FROM wells a,"
+                    + " cells b WHERE IsWithinDistance(a.the_geom, b.the_geom, 9)");
+            final Map<String, Double> joined = new TreeMap<String, Double>();
+            final boolean wellsFirst = tables[0].equals("wells");
+            SpatialJoin join = new SpatialJoin(con, tables[0], "the_geom", tables[1], "the_geom", 9, 1 << 20);
+            join.run(con, new DistanceJoinVisitor() {
+                public void visit(long keyA, long keyB, double distance) {
+                    joined.put(wellsFirst ? keyA + "-" + keyB : keyB + "-" + keyA, Double.valueOf(distance));
+                }
+            });
+            assertTrue(join.isIndexed());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.keySet(), joined.keySet());
+            for (Map.Entry<String, Double> entry : expected.entrySet()) {
+                assertEquals(entry.getValue().doubleValue(), joined.get(entry.getKey()).doubleValue(), 1e-9);
+            }
+            // the index gives the candidates near the wells only, out of 900 cells
+            assertTrue(join.getCandidates() < 200);
+        }
+        SpatialJoin join = new SpatialJoin(con, "wells", "the_geom", "cells", "the_geom", JoinPredicate.INTERSECTS, 1 << 20);
+        final Set<String> joined = new TreeSet<String>();
+        join.run(con, new JoinVisitor() {
+            public void visit(long keyA, long keyB) {
+                joined.add(keyA + "-" + keyB);
+            }
+        });
+        assertTrue(join.isIndexed());
+        assertEquals(pairs("SELECT a.id, b.gid FROM wells a, cells b WHERE Intersects(a.the_geom, b.the_geom)"), joined);
+    }
+
+    @Test
+    public void testUnsupportedPredicate() throws Exception {
+        try {
+            stat.executeQuery("SELECT * FROM SpatialJoin('cells', 'the_geom', 'zones', 'the_geom', 'disjoint')");
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().indexOf("Unsupported join predicate") >= 0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.load;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKBWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Loads small files in each format and checks the rows and geometry_columns.
+ */
+public class BulkLoaderTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    private File file;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:bulkloader", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        file = File.createTempFile("h2spatial", ".txt");
+    }
+
+    @After
+    public void close() throws SQLException {
+        file.delete();
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private void write(String content) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(content);
+        writer.close();
+    }
+
+    private static String square(int i) {
+        return "POLYGON((" + i + " 0, " + (i + 1) + " 0, " + (i + 1) + " 1, " + i + " 1, " + i + " 0))";
+    }
+
+    private double queryDouble(String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        assertTrue(rs.next());
+        double value = rs.getDouble(1);
+        rs.close();
+        return value;
+    }
+
+    private Geometry queryGeometry(String sql) throws Exception {
+        ResultSet rs = stat.executeQuery(sql);
+        assertTrue(rs.next());
+        Geometry geom = GeometryCodec.read(rs.getBytes(1));
+        rs.close();
+        return geom;
+    }
+
+    private void assertRegistered(String table, int srid, String type, int dimension) throws SQLException {
+        ResultSet rs = stat.executeQuery("SELECT SRID, TYPE, COORD_DIMENSION FROM geometry_columns WHERE F_TABLE_NAME = '"
+                + table + "'");
+        assertTrue(rs.next());
+        assertEquals(srid, rs.getInt(1));
+        assertEquals(type, rs.getString(2));
+        assertEquals(dimension, rs.getInt(3));
+        rs.close();
+    }
+
+    @Test
+    public void testWKTProcedure() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            sb.append(square(i)).append('\n');
+            if (i % 100 == 0) {
+                sb.append('\n');
+            }
+        }
+        write(sb.toString());
+        ResultSet rs = stat.executeQuery("CALL LoadGeometries('" + file.getPath()
+                + "', 'wkt', 'squares', 'the_geom', 2154)");
+        assertTrue(rs.next());
+        assertEquals(2500, rs.getLong("ROWS"));
+        assertTrue(rs.getDouble("ROWS_PER_SECOND") > 0);
+        rs.close();
+        assertEquals(2500, queryDouble("SELECT SUM(Area(the_geom)) FROM squares"), 1e-9);
+        assertEquals(2500, queryDouble("SELECT MAX(gid) FROM squares"), 0);
+        assertEquals(10, queryGeometry("SELECT the_geom FROM squares WHERE gid = 11").getEnvelopeInternal().getMinX(), 0);
+        assertRegistered("SQUARES", 2154, "POLYGON", 2);
+    }
+
+    @Test
+    public void testWKBIntoExistingTable() throws Exception {
+        stat.execute("CREATE TABLE mixed(id INT AUTO_INCREMENT PRIMARY KEY, geom BLOB)");
+        stat.execute("INSERT INTO mixed(geom) VALUES(GeomFromText('POINT(0 0)', 4326))");
+        WKBWriter writer = new WKBWriter(3);
+        String content = WKBWriter.toHex(writer.write(GeometryCodec.readText("POINT(1 2 3)"))) + "\n"
+                + WKBWriter.toHex(writer.write(GeometryCodec.readText("LINESTRING(0 0, 3 4)"))) + "\n";
+        write(content);
+        BulkLoader loader = new BulkLoader(con, "mixed", "geom", 4326);
+        loader.setBatchSize(1);
+        loader.setCommitSize(1);
+        LoadReport report = loader.load(file, GeometryFormat.WKB);
+        assertEquals(2, report.getRows());
+        assertEquals(3, queryDouble("SELECT COUNT(*) FROM mixed"), 0);
+        assertEquals(5, queryDouble("SELECT GeoLength(geom) FROM mixed WHERE id = 3"), 1e-9);
+        assertRegistered("MIXED", 4326, "GEOMETRY", 3);
+    }
+
+    @Test
+    public void testGeoJSON() throws Exception {
+        String json = "{\"type\": \"FeatureCollection\", \"name\": \"a {tricky] \\\"name\\\"\", \"features\": [\n"
+                + "{\"type\": \"Feature\", \"properties\": {\"label\": \"}]\"}, \"geometry\": "
+                + "{\"type\": \"Polygon\", \"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 10], [0, 0]],"
+                + " [[1, 1], [2, 1], [2, 2], [1, 1]]]}},\n"
+                + "{\"type\": \"Feature\", \"properties\": null, \"geometry\": null},\n"
+                + "{\"type\": \"Feature\", \"geometry\": {\"type\": \"MultiPoint\", \"coordinates\": [[1e2, -2.5], [3, 4]]}}\n"
+                + "]}";
+        BulkLoader loader = new BulkLoader(con, "features", "the_geom", 0);
+        LoadReport report = loader.load(new StringReader(json), GeometryFormat.GEOJSON);
+        assertEquals(3, report.getRows());
+        assertEquals("GEOMETRY", report.getGeometryType());
+        assertEquals(99.5, queryDouble("SELECT Area(the_geom) FROM features WHERE gid = 1"), 1e-9);
+        ResultSet rs = stat.executeQuery("SELECT the_geom FROM features WHERE gid = 2");
+        assertTrue(rs.next());
+        assertNull(rs.getBytes(1));
+        rs.close();
+        assertEquals(2, queryDouble("SELECT NumGeometries(the_geom) FROM features WHERE gid = 3"), 0);
+        assertEquals(100, queryGeometry("SELECT the_geom FROM features WHERE gid = 3").getEnvelopeInternal().getMaxX(), 0);
+
+        String lines = "{\"type\": \"Point\", \"coordinates\": [1, 2, 3]}\n"
+                + "{\"type\": \"GeometryCollection\", \"geometries\": [{\"type\": \"LineString\", \"coordinates\": [[0, 0], [1, 1]]}]}\n";
+        report = new BulkLoader(con, "lines", "the_geom", 0).load(new StringReader(lines), GeometryFormat.GEOJSON);
+        assertEquals(2, report.getRows());
+        assertEquals(3, report.getDimension());
+    }
+
+    @Test
+    public void testInvalidRecord() throws Exception {
+        stat.execute("CREATE TABLE bad(gid INT AUTO_INCREMENT PRIMARY KEY, the_geom BLOB)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sb.append(square(i)).append('\n');
+        }
+        sb.append("POLYGON((0 0, 1 1)\n");
+        BulkLoader loader = new BulkLoader(con, "bad", "the_geom", 0);
+        loader.setBatchSize(4);
+        try {
+            loader.load(new StringReader(sb.toString()), GeometryFormat.WKT);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("record 11") >= 0);
+        }
+        assertEquals(0, queryDouble("SELECT COUNT(*) FROM bad"), 0);
+        assertTrue(con.getAutoCommit());
+        loader.setCommitSize(8);
+        try {
+            loader.load(new StringReader(sb.toString()), GeometryFormat.WKT);
+            fail();
+        } catch (SQLException e) {
+            assertTrue(e.getMessage(), e.getMessage().indexOf("record 11") >= 0);
+        }
+        // the rows committed before the failure are kept
+        assertEquals(8, queryDouble("SELECT COUNT(*) FROM bad"), 0);
+    }
+}
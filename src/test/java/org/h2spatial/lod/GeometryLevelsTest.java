@@ -0,0 +1,143 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.lod;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the levels of detail computed for the existing rows, their sync on
+ * write and the choice of a level for a scale.
+ */
+public class GeometryLevelsTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:levels", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE DOMAIN GEOMETRY AS BLOB");
+        stat.execute("CREATE TABLE lakes(gid INT PRIMARY KEY, name VARCHAR, the_geom GEOMETRY)");
+        for (int i = 0; i < 5; i++) {
+            stat.execute("INSERT INTO lakes VALUES(" + i + ", 'lake" + i + "', Buffer(GeomFromText('POINT("
+                    + (i * 1000) + " 0)', 2154), 400))");
+        }
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private Geometry read(String column, int gid) throws Exception {
+        ResultSet rs = stat.executeQuery("SELECT " + column + " FROM lakes WHERE gid = " + gid);
+        rs.next();
+        byte[] value = rs.getBytes(1);
+        return value == null ? null : GeometryCodec.read(value);
+    }
+
+    private long size(String column) throws SQLException {
+        ResultSet rs = stat.executeQuery("SELECT SUM(LENGTH(" + column + ")) FROM lakes");
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    @Test
+    public void create() throws Exception {
+        GeometryLevels levels = GeometryLevels.create(con, "lakes", "the_geom", new double[] { 100, 1, 10 });
+        assertEquals(3, levels.getLevelCount());
+        assertEquals(10, levels.getTolerance(2), 0);
+        assertEquals("THE_GEOM_LOD3", levels.getColumnName(3));
+        Geometry geom = read("the_geom", 2);
+        int points = geom.getNumPoints();
+        long size = size("the_geom");
+        for (int level = 1; level <= 3; level++) {
+            Geometry simplified = read(levels.getColumnName(level), 2);
+            assertTrue(simplified.isValid());
+            assertEquals(2154, simplified.getSRID());
+            assertTrue(simplified.getNumPoints() <= points);
+            assertEquals(geom.getArea(), simplified.getArea(), geom.getArea() * 0.2);
+            long levelSize = size(levels.getColumnName(level));
+            assertTrue(levelSize < size);
+            points = simplified.getNumPoints();
+            size = levelSize;
+        }
+        assertTrue(size * 4 < size("the_geom"));
+    }
+
+    @Test
+    public void sync() throws Exception {
+        GeometryLevels.create(con, "lakes", "the_geom", new double[] { 1, 10 });
+        stat.execute("INSERT INTO lakes(gid, the_geom) VALUES(10, GeomFromText('LINESTRING(0 0, 5 2, 10 0)', 0))");
+        assertEquals(2, read("the_geom_lod2", 10).getNumPoints());
+        assertEquals(3, read("the_geom_lod1", 10).getNumPoints());
+
+        byte[] before = GeometryCodec.write(read("the_geom_lod1", 0), 2154);
+        stat.execute("UPDATE lakes SET name = 'renamed', the_geom_lod1 = NULL WHERE gid = 0");
+        assertEquals(read("the_geom_lod1", 0), GeometryCodec.read(before));
+
+        stat.execute("UPDATE lakes SET the_geom = GeomFromText('POINT(1 2)', 2154) WHERE gid = 1");
+        assertEquals("POINT (1 2)", read("the_geom_lod2", 1).toText());
+        stat.execute("UPDATE lakes SET the_geom = NULL WHERE gid = 1");
+        assertNull(read("the_geom_lod1", 1));
+    }
+
+    @Test
+    public void levelForScale() throws Exception {
+        GeometryLevels levels = GeometryLevels.create(con, "lakes", "the_geom", new double[] { 1, 10, 100 });
+        assertEquals(0, levels.getLevel(0.5));
+        assertEquals(1, levels.getLevel(1));
+        assertEquals(2, levels.getLevel(50));
+        assertEquals(3, levels.getLevel(1000));
+        assertEquals(2, levels.getLevelForScale(250000));
+        assertEquals(0, levels.getLevelForScale(1000));
+        assertEquals(100, GeometryLevels.getScale(0.5), 0);
+        assertEquals(1, GeometryLevels.getScale(10), 0);
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        stat.execute("CALL CreateGeometryLevels('lakes', 'the_geom', '5, 50')");
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM GeometryLevels('lakes', 'the_geom')");
+        rs.next();
+        assertEquals(3, rs.getInt(1));
+        rs = stat.executeQuery("CALL LevelColumnForScale('lakes', 'the_geom', 50000)");
+        rs.next();
+        assertEquals("THE_GEOM_LOD1", rs.getString(1));
+        rs = stat.executeQuery("CALL LevelColumnForResolution('lakes', 'the_geom', 0.1)");
+        rs.next();
+        assertEquals("THE_GEOM", rs.getString(1));
+
+        stat.execute("CALL DropGeometryLevels('lakes', 'the_geom')");
+        assertNull(GeometryLevels.find(con, "lakes", "the_geom"));
+        rs = con.getMetaData().getColumns(null, null, "LAKES", "THE_GEOM_LOD%");
+        assertTrue(!rs.next());
+        stat.execute("INSERT INTO lakes VALUES(10, 'new', GeomFromText('POINT(1 2)', 2154))");
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.metrics;
+
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the statistics collected for the spatial functions and the GeoStats
+ * table function.
+ */
+public class GeoStatsTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:geostats", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom BLOB)");
+        for (int i = 0; i < 10; i++) {
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", GeomFromText('POLYGON((" + i + " 0, " + (i + 1)
+                    + " 0, " + (i + 1) + " 1, " + i + " 1, " + i + " 0))', 2154))");
+        }
+        stat.execute("CALL ResetGeoStats()");
+    }
+
+    @After
+    public void close() throws SQLException {
+        GeoStats.setEnabled(false);
+        GeoStats.reset();
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        assertSame(Probe.DISABLED, GeoStats.enter("Area"));
+        stat.executeQuery("SELECT Area(the_geom) FROM parcels");
+        FunctionStats area = GeoStats.get("Area");
+        assertTrue(area == null || area.getCalls() == 0);
+    }
+
+    @Test
+    public void phases() throws Exception {
+        stat.execute("CALL EnableGeoStats(true)");
+        ResultSet rs = stat.executeQuery("SELECT SUM(Area(Buffer(the_geom, 0.1))) FROM parcels");
+        rs.next();
+        FunctionStats area = GeoStats.get("Area");
+        FunctionStats buffer = GeoStats.get("Buffer");
+        assertEquals(10, area.getCalls());
+        assertEquals(0, area.getErrors());
+        assertEquals(10, buffer.getTotal().getCount());
+        assertEquals(10, buffer.getEncode().getCount());
+        assertTrue(buffer.getBytesDecoded() > 10 * 5 * 16);
+        assertTrue(area.getBytesDecoded() > buffer.getBytesDecoded());
+        assertTrue(buffer.getTotal().getTotalNanos() >= buffer.getDecode().getTotalNanos()
+                + buffer.getEncode().getTotalNanos());
+        assertTrue(buffer.getTotal().getPercentile(0.99) >= buffer.getTotal().getPercentile(0.5));
+    }
+
+    @Test
+    public void errors() throws Exception {
+        GeoStats.setEnabled(true);
+        try {
+            stat.executeQuery("CALL LayerExtent('parcels', 'the_geom')");
+            fail();
+        } catch (SQLException e) {
+            // no statistics
+        }
+        stat.execute("CALL EnableLayerStatistics('parcels', 'the_geom')");
+        stat.executeQuery("CALL LayerExtent('parcels', 'the_geom')");
+        FunctionStats extent = GeoStats.get("LayerExtent");
+        assertEquals(2, extent.getCalls());
+        assertEquals(1, extent.getCompleted());
+        assertEquals(1, extent.getErrors());
+        // the failed call isn't the parent of the next one
+        Probe next = GeoStats.enter("next");
+        assertNull(next.parent);
+        next.exit();
+        next.close();
+        assertEquals(1, GeoStats.get("next").getCompleted());
+        assertEquals(0, GeoStats.get("next").getErrors());
+    }
+
+    @Test
+    public void nested() throws Exception {
+        GeoStats.setEnabled(true);
+        Probe outer = GeoStats.enter("outer");
+        Probe inner = GeoStats.enter("inner");
+        GeoStats.recordDecode(5, 100);
+        inner.exit();
+        GeoStats.recordDecode(7, 10);
+        outer.exit();
+        assertEquals(100, GeoStats.get("inner").getBytesDecoded());
+        assertEquals(10, GeoStats.get("outer").getBytesDecoded());
+        GeoStats.recordDecode(1, 1000);
+        assertEquals(10, GeoStats.get("outer").getBytesDecoded());
+    }
+
+    @Test
+    public void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+        histogram.record(0);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1023, histogram.getPercentile(0.5));
+        assertEquals(LatencyHistogram.getUpperBound(LatencyHistogram.getBucket(1000000)),
+                histogram.getPercentile(0.995));
+        assertEquals(0, histogram.getPercentile(0.001));
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        stat.execute("CALL EnableGeoStats(true)");
+        stat.executeQuery("SELECT COUNT(*) FROM parcels WHERE Intersects(the_geom, GeomFromText('POINT(20 20)', 2154))");
+        ResultSet rs = stat.executeQuery("SELECT CALLS, ERRORS, P99_US FROM GeoStats() WHERE NAME = 'Intersects'");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getLong(1));
+        assertEquals(0, rs.getLong(2));
+        assertTrue(rs.getDouble(3) > 0);
+        rs = stat.executeQuery("SELECT CALLS, HIT_RATE FROM GeoStats() WHERE NAME = 'EnvelopePrefilter.INTERSECTS'");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getLong(1));
+        assertEquals(1, rs.getDouble(2), 0);
+        rs = stat.executeQuery("SELECT SUM(CALLS) FROM GeoStatsHistogram('Intersects') WHERE PHASE = 'TOTAL'");
+        rs.next();
+        assertEquals(10, rs.getLong(1));
+
+        stat.execute("CALL ResetGeoStats()");
+        assertEquals(0, GeoStats.get("Intersects").getCalls());
+        rs = stat.executeQuery("SELECT CALLS FROM GeoStats() WHERE NAME = 'EnvelopePrefilter.INTERSECTS'");
+        rs.next();
+        assertEquals(0, rs.getLong(1));
+        stat.execute("CALL EnableGeoStats(false)");
+        stat.executeQuery("SELECT COUNT(*) FROM parcels WHERE Intersects(the_geom, the_geom)");
+        assertEquals(0, GeoStats.get("Intersects").getCalls());
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.parallel;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.h2spatial.util.SpatialSettings;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the parallel operations with their sequential JTS result.
+ */
+public class ParallelOperationsTest {
+
+    private final GeometryFactory factory = new GeometryFactory();
+
+    private Geometry squares(int count, double size, double offset) {
+        Polygon[] polygons = new Polygon[count * count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < count; j++) {
+                double x = i * 2 + offset;
+                double y = j * 2 + offset;
+                polygons[i * count + j] = factory.createPolygon(factory.createLinearRing(new Coordinate[] {
+                        new Coordinate(x, y), new Coordinate(x + size, y), new Coordinate(x + size, y + size),
+                        new Coordinate(x, y + size), new Coordinate(x, y) }), null);
+            }
+        }
+        return factory.createMultiPolygon(polygons);
+    }
+
+    private static void assertSameArea(Geometry expected, Geometry actual) {
+        assertEquals(expected.getArea(), actual.getArea(), expected.getArea() * 1e-9);
+        assertEquals(0, expected.symDifference(actual).getArea(), expected.getArea() * 1e-6);
+    }
+
+    @Test
+    public void buffer() throws Exception {
+        Geometry geom = squares(12, 1, 0);
+        assertSameArea(geom.buffer(0.6), ParallelOperations.buffer(geom, 0.6, 4));
+        assertSameArea(geom.buffer(-0.2), ParallelOperations.buffer(geom, -0.2, 4));
+    }
+
+    @Test
+    public void union() throws Exception {
+        Geometry geom0 = squares(10, 1.5, 0);
+        Geometry geom1 = squares(10, 1.5, 1);
+        assertSameArea(geom0.union(geom1), ParallelOperations.union(geom0, geom1, 4));
+    }
+
+    @Test
+    public void convexHull() throws Exception {
+        Random random = new Random(1);
+        Coordinate[] coordinates = new Coordinate[10000];
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] = new Coordinate(random.nextGaussian(), random.nextGaussian());
+        }
+        Geometry geom = factory.createMultiPoint(coordinates);
+        assertTrue(geom.convexHull().equals(ParallelOperations.convexHull(geom, 4)));
+    }
+
+    @Test
+    public void sessionSettings() throws Exception {
+        Class.forName("org.h2.Driver");
+        Connection con = DriverManager.getConnection("jdbc:h2:mem:parallel", "sa", "");
+        Connection other = DriverManager.getConnection("jdbc:h2:mem:parallel", "sa", "");
+        try {
+            Statement stat = con.createStatement();
+            SQLCodegenerator.addSpatialFunctions(stat);
+            stat.execute("CALL SetSessionSpatialSetting('parallel_threshold', 0)");
+            stat.execute("CALL SetSessionSpatialSetting('MAX_PARALLELISM', 1)");
+            assertEquals(0, SpatialSettings.get(con, SpatialSettings.PARALLEL_THRESHOLD));
+            assertEquals(1, ParallelOperations.getParallelism(con, 1000000));
+            assertEquals(SpatialSettings.get(SpatialSettings.PARALLEL_THRESHOLD),
+                    SpatialSettings.get(other, SpatialSettings.PARALLEL_THRESHOLD));
+            assertEquals(1, ParallelOperations.getParallelism(other, 10));
+
+            stat.execute("CALL SetSessionSpatialSetting('MAX_PARALLELISM', 4)");
+            ResultSet rs = stat.executeQuery("CALL Buffer(GeomFromText('MULTIPOINT(0 0, 10 0, 20 0)', 2154), 1)");
+            rs.next();
+            Geometry buffer = GeometryCodec.read(rs.getBytes(1));
+            assertEquals(3, buffer.getNumGeometries());
+            assertEquals(2154, buffer.getSRID());
+            stat.execute("DROP ALL OBJECTS");
+        } finally {
+            other.close();
+            con.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.predicate;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import org.h2spatial.GeoSpatialFunctions;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the prefiltered predicates give the JTS answer.
+ */
+public class EnvelopePrefilterTest {
+
+    private static final String[] WKT = {
+            "POINT(5 5)",
+            "POINT(50 50)",
+            "LINESTRING(0 0, 10 10)",
+            "LINESTRING(10 0, 20 0)",
+            "POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))",
+            "POLYGON((2 2, 4 2, 4 4, 2 4, 2 2))",
+            "POLYGON((100 100, 110 100, 110 110, 100 110, 100 100))",
+            "MULTIPOINT((1 1), (200 200))",
+            "LINESTRING EMPTY"
+    };
+
+    @Test
+    public void testSameResultsAsJTS() throws Exception {
+        WKTReader reader = new WKTReader();
+        for (String wkt0 : WKT) {
+            for (String wkt1 : WKT) {
+                Geometry g0 = reader.read(wkt0);
+                Geometry g1 = reader.read(wkt1);
+                byte[] wkb0 = GeometryCodec.write(g0, 0);
+                byte[] wkb1 = GeometryCodec.write(g1, 0);
+                String message = wkt0 + " / " + wkt1;
+                assertEquals(message, g0.intersects(g1), GeoSpatialFunctions.Intersects(wkb0, wkb1));
+                assertEquals(message, g0.disjoint(g1), GeoSpatialFunctions.Disjoint(wkb0, wkb1));
+                assertEquals(message, g0.contains(g1), GeoSpatialFunctions.Contains(wkb0, wkb1));
+                assertEquals(message, g0.within(g1), GeoSpatialFunctions.Within(wkb0, wkb1));
+                assertEquals(message, g0.touches(g1), GeoSpatialFunctions.Touches(wkb0, wkb1));
+                assertEquals(message, g0.overlaps(g1), GeoSpatialFunctions.Overlaps(wkb0, wkb1));
+                assertEquals(message, g0.crosses(g1), GeoSpatialFunctions.Crosses(wkb0, wkb1));
+                assertEquals(message, g0.isWithinDistance(g1, 5),
+                        GeoSpatialFunctions.IsWithinDistance(wkb0, wkb1, 5));
+            }
+        }
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        byte[] wkb0 = GeoSpatialFunctions.GeomFromText("POINT(0 0)", 0);
+        byte[] wkb1 = GeoSpatialFunctions.GeomFromText("POINT(100 100)", 0);
+        long evaluations = EnvelopePrefilter.INTERSECTS.getEvaluations();
+        long eliminations = EnvelopePrefilter.INTERSECTS.getEliminations();
+        assertTrue(!GeoSpatialFunctions.Intersects(wkb0, wkb1));
+        assertTrue(GeoSpatialFunctions.Intersects(wkb0, wkb0));
+        assertEquals(evaluations + 2, EnvelopePrefilter.INTERSECTS.getEvaluations());
+        assertEquals(eliminations + 1, EnvelopePrefilter.INTERSECTS.getEliminations());
+    }
+}
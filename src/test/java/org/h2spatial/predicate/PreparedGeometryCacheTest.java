@@ -0,0 +1,112 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.predicate;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.h2spatial.GeoSpatialFunctions;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the admission, eviction and results of the prepared geometry cache.
+ */
+public class PreparedGeometryCacheTest {
+
+    @Test
+    public void testAdmissionAndEviction() throws Exception {
+        PreparedGeometryCache cache = new PreparedGeometryCache(2, Long.MAX_VALUE);
+        byte[] a = GeoSpatialFunctions.GeomFromText("POINT(1 1)", 0);
+        byte[] b = GeoSpatialFunctions.GeomFromText("POINT(2 2)", 0);
+        byte[] c = GeoSpatialFunctions.GeomFromText("POINT(3 3)", 0);
+        assertNull(cache.get(a));
+        assertNotNull(cache.get(a));
+        assertNotNull(cache.get(a.clone()));
+        assertEquals(1, cache.getHits());
+        cache.get(b);
+        cache.get(b);
+        cache.get(c);
+        cache.get(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getMemoryUsage() > 0);
+    }
+
+    @Test
+    public void testMemoryLimit() throws Exception {
+        byte[] a = GeoSpatialFunctions.GeomFromText("LINESTRING(0 0, 1 1, 2 2, 3 3)", 0);
+        PreparedGeometryCache cache = new PreparedGeometryCache(10,
+                PreparedGeometryCache.estimateMemory(a) - 1);
+        cache.get(a);
+        assertNotNull(cache.get(a));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMemoryUsage());
+    }
+
+    @Test
+    public void testRepeatedConstant() throws Exception {
+        byte[] polygon = GeoSpatialFunctions.GeomFromText(
+                "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0), (40 40, 60 40, 60 60, 40 60, 40 40))", 0);
+        for (int i = 0; i < 120; i += 3) {
+            byte[] point = GeoSpatialFunctions.GeomFromText("POINT(" + i + " 50)", 0);
+            Geometry p = GeometryCodec.read(point);
+            Geometry poly = GeometryCodec.read(polygon);
+            assertEquals(poly.intersects(p), GeoSpatialFunctions.Intersects(polygon.clone(), point));
+            assertEquals(poly.contains(p), GeoSpatialFunctions.Contains(polygon.clone(), point));
+            assertEquals(p.within(poly), GeoSpatialFunctions.Within(point, polygon.clone()));
+            assertEquals(poly.covers(p), GeoSpatialFunctions.Covers(polygon.clone(), point));
+            assertEquals(p.coveredBy(poly), GeoSpatialFunctions.CoveredBy(point, polygon.clone()));
+            assertEquals(p.disjoint(poly), GeoSpatialFunctions.Disjoint(point, polygon.clone()));
+        }
+        assertTrue(PreparedGeometryCache.getDefault().getHits() > 0);
+    }
+
+    @Test
+    public void testSharedEntry() throws Exception {
+        PreparedGeometryCache cache = new PreparedGeometryCache(10, Long.MAX_VALUE);
+        byte[] polygon = GeoSpatialFunctions.GeomFromText(
+                "POLYGON((0 0, 100 0, 100 100, 0 100, 0 0), (40 40, 60 40, 60 60, 40 60, 40 40))", 0);
+        cache.get(polygon);
+        final PreparedGeometryCache.Entry entry = cache.get(polygon);
+        final Geometry poly = GeometryCodec.read(polygon);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int matches = 0;
+                        for (int i = 0; i < 2000; i++) {
+                            Geometry p = GeometryCodec.readText("POINT(" + (i % 120) + " 50)");
+                            assertEquals(poly.contains(p), entry.contains(p));
+                            assertEquals(poly.intersects(p), entry.intersects(p));
+                            matches += entry.contains(p) ? 1 : 0;
+                        }
+                        return matches;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertTrue(future.get() > 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.stats;
+
+import org.h2spatial.SQLCodegenerator;
+import org.h2spatial.codec.GeometryCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the statistics computed when enabled and their maintenance by the
+ * trigger.
+ */
+public class LayerStatisticsTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:layerstats", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, name VARCHAR, the_geom BLOB)");
+        for (int i = 0; i < 10; i++) {
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", 'p" + i + "', GeomFromText('POLYGON(("
+                    + i + " 0, " + (i + 1) + " 0, " + (i + 1) + " 1, " + i + " 1, " + i + " 0))', 2154))");
+        }
+        stat.execute("INSERT INTO parcels VALUES(10, 'none', NULL)");
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    @Test
+    public void enable() throws Exception {
+        LayerStatistics.enable(con, "parcels", "the_geom");
+        LayerStatistics stats = LayerStatistics.get(con, "parcels", "the_geom");
+        assertEquals(10, stats.getRowCount());
+        assertEquals(new Envelope(0, 10, 0, 1), stats.getExtent());
+        assertTrue(stats.isExtentExact());
+        assertEquals(5, stats.getAveragePoints(), 0);
+        assertEquals(10, sum(stats.getCells()));
+        assertEquals(10, sum(stats.getSizes()));
+        assertEquals(0.5, stats.estimateSelectivity(new Envelope(0, 5, 0, 1)), 0.1);
+        assertEquals(0, stats.estimateSelectivity(new Envelope(20, 30, 0, 1)), 0);
+    }
+
+    @Test
+    public void maintenance() throws Exception {
+        LayerStatistics.enable(con, "parcels", "the_geom");
+        stat.execute("INSERT INTO parcels VALUES(11, 'far', GeomFromText('POINT(20 5)', 2154))");
+        LayerStatistics stats = LayerStatistics.get(con, "parcels", "the_geom");
+        assertEquals(11, stats.getRowCount());
+        assertEquals(new Envelope(0, 20, 0, 5), stats.getExtent());
+        assertEquals(11, sum(stats.getCells()));
+        assertEquals(51, stats.getTotalPoints());
+
+        stat.execute("UPDATE parcels SET name = 'renamed'");
+        assertTrue(LayerStatistics.get(con, "parcels", "the_geom").isExtentExact());
+
+        stat.execute("DELETE FROM parcels WHERE gid = 11");
+        stats = LayerStatistics.get(con, "parcels", "the_geom");
+        assertEquals(10, stats.getRowCount());
+        assertFalse(stats.isExtentExact());
+        assertEquals(10, sum(stats.getCells()));
+
+        stats = LayerStatistics.refresh(con, "parcels", "the_geom");
+        assertTrue(stats.isExtentExact());
+        assertEquals(new Envelope(0, 10, 0, 1), stats.getExtent());
+    }
+
+    @Test
+    public void rollback() throws Exception {
+        LayerStatistics.enable(con, "parcels", "the_geom");
+        con.setAutoCommit(false);
+        stat.execute("DELETE FROM parcels WHERE gid < 5");
+        assertEquals(5, LayerStatistics.getSummary(con, "parcels", "the_geom").getRowCount());
+        con.rollback();
+        con.setAutoCommit(true);
+        assertEquals(10, LayerStatistics.getSummary(con, "parcels", "the_geom").getRowCount());
+    }
+
+    @Test
+    public void sqlFunctions() throws Exception {
+        stat.execute("CALL EnableLayerStatistics('parcels', 'the_geom')");
+        ResultSet rs = stat.executeQuery("SELECT * FROM LayerStatistics('parcels', 'the_geom')");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getLong("ROW_COUNT"));
+        assertEquals(10, rs.getDouble("MAX_X"), 0);
+        rs = stat.executeQuery("CALL LayerExtent('parcels', 'the_geom')");
+        rs.next();
+        assertEquals(new Envelope(0, 10, 0, 1), GeometryCodec.read(rs.getBytes(1)).getEnvelopeInternal());
+        rs = stat.executeQuery("SELECT SUM(ROW_COUNT) FROM LayerHistogram('parcels', 'the_geom')");
+        rs.next();
+        assertEquals(10, rs.getLong(1));
+        rs = stat.executeQuery("SELECT SUM(ROW_COUNT) FROM LayerSizeHistogram('parcels', 'the_geom')");
+        rs.next();
+        assertEquals(10, rs.getLong(1));
+        stat.execute("CALL DisableLayerStatistics('parcels', 'the_geom')");
+        stat.execute("INSERT INTO parcels VALUES(11, 'far', GeomFromText('POINT(20 5)', 2154))");
+        assertEquals(null, LayerStatistics.find(con, "parcels", "the_geom"));
+    }
+}
@@ -0,0 +1,647 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.stress;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import org.h2spatial.SQLCodegenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of the spatial functions, N sessions of an embedded file
+ * database running a mixed workload at the same time.
+ *
+ * Each client thread has its own connection and draws its operations from a
+ * random generator seeded with the seed of the suite and its rank, so a run
+ * gives the same sequences of operations:
+ * <ul>
+ * <li>INSERT writes a triangle through GeomFromText into a table with a
+ * spatial index, then reads back its area and SRID,</li>
+ * <li>WINDOW counts the squares of a static grid intersecting a window, by a
+ * scan or through SpatialIndexLookup,</li>
+ * <li>BUFFER computes the area of the buffer of a point,</li>
+ * <li>PREDICATE evaluates Intersects, Contains, Within and IsWithinDistance
+ * on two squares.</li>
+ * </ul>
+ * Every answer is compared with the one computed by JTS in the client
+ * thread, or with the number of squares known from the grid, so a race in
+ * the shared state of the functions shows up as a wrong result. Once the
+ * threads are done, the inserted rows are counted, by a scan and through
+ * the spatial index.
+ *
+ * Run from the test classpath, e.g. with the thread counts, the duration of
+ * each run in seconds and an optional directory for the database files :
+ *
+ * java org.h2spatial.stress.StressSuite 1,2,4,8 10 /tmp/stress
+ */
+public class StressSuite {
+
+    public enum Operation {
+        INSERT(25), WINDOW(35), BUFFER(15), PREDICATE(25);
+
+        private final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+
+        static Operation draw(Random random) {
+            int n = random.nextInt(100);
+            for (Operation operation : values()) {
+                n -= operation.weight;
+                if (n < 0) {
+                    return operation;
+                }
+            }
+            return PREDICATE;
+        }
+    }
+
+    /**
+     * Number of squares on each side of the static grid, one every 10 units,
+     * of side 8.
+     */
+    static final int GRID = 40;
+
+    static final int SRID = 2154;
+
+    /**
+     * Failures kept with their message, the others are only counted.
+     */
+    static final int MAX_MESSAGES = 20;
+
+    private final File directory;
+
+    private final long seed;
+
+    /**
+     * Duration of a run in milliseconds, used when operationsPerThread is 0.
+     */
+    private long durationMillis = 10000;
+
+    private int operationsPerThread;
+
+    public StressSuite(File directory, long seed) {
+        this.directory = directory;
+        this.seed = seed;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Runs a fixed number of operations per thread instead of a duration.
+     */
+    public void setOperationsPerThread(int operationsPerThread) {
+        this.operationsPerThread = operationsPerThread;
+    }
+
+    String getURL() {
+        return "jdbc:h2:" + new File(directory, "stress").getPath();
+    }
+
+    /**
+     * Creates the database, deleting the files of a previous suite.
+     */
+    public void setUp() throws SQLException {
+        deleteFiles();
+        directory.mkdirs();
+        Connection conn = DriverManager.getConnection(getURL(), "sa", "");
+        try {
+            Statement st = conn.createStatement();
+            SQLCodegenerator.addSpatialFunctions(st);
+            st.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, the_geom BLOB)");
+            PreparedStatement insert = conn.prepareStatement("INSERT INTO parcels VALUES(?, GeomFromText(?, " + SRID
+                    + "))");
+            for (int i = 0; i < GRID * GRID; i++) {
+                insert.setInt(1, i);
+                insert.setString(2, square((i % GRID) * 10, (i / GRID) * 10, 8));
+                insert.execute();
+            }
+            insert.close();
+            st.execute("CALL CreateSpatialIndex('parcels', 'the_geom')");
+            st.execute("CREATE TABLE features(id INT PRIMARY KEY, client INT, the_geom BLOB)");
+            st.execute("CALL CreateSpatialIndex('features', 'the_geom')");
+            st.close();
+        } finally {
+            conn.close();
+        }
+    }
+
+    public void tearDown() {
+        deleteFiles();
+    }
+
+    private void deleteFiles() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith("stress.")) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the workload once for each thread count, from an empty features
+     * table.
+     */
+    public List<Result> run(int[] threadCounts) throws Exception {
+        List<Result> results = new ArrayList<Result>();
+        for (int threads : threadCounts) {
+            results.add(run(threads));
+        }
+        return results;
+    }
+
+    public Result run(int threads) throws Exception {
+        Connection conn = DriverManager.getConnection(getURL(), "sa", "");
+        try {
+            Statement st = conn.createStatement();
+            st.execute("DELETE FROM features");
+            st.close();
+            final Result result = new Result(threads);
+            final AtomicInteger ids = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            final long deadline = operationsPerThread > 0 ? Long.MAX_VALUE : System.currentTimeMillis()
+                    + durationMillis;
+            List<Client> clients = new ArrayList<Client>();
+            for (int i = 0; i < threads; i++) {
+                clients.add(new Client(i, DriverManager.getConnection(getURL(), "sa", ""), result, ids, start,
+                        deadline));
+            }
+            for (Client client : clients) {
+                client.start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Client client : clients) {
+                client.join();
+            }
+            result.elapsedNanos = System.nanoTime() - begin;
+            for (Client client : clients) {
+                result.merge(client);
+            }
+            checkFeatures(conn, result);
+            return result;
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Counts the inserted rows by a scan and through the spatial index.
+     */
+    private void checkFeatures(Connection conn, Result result) throws SQLException {
+        int inserted = result.getCount(Operation.INSERT) - result.getErrors(Operation.INSERT);
+        Statement st = conn.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM features");
+            rs.next();
+            if (rs.getInt(1) != inserted) {
+                result.fail(null, "features holds " + rs.getInt(1) + " rows, " + inserted + " were inserted");
+            }
+            rs = st.executeQuery("SELECT COUNT(*) FROM SpatialIndexLookup('features', 'the_geom', GeomFromText('"
+                    + square(-100000, -100000, 200000) + "', " + SRID + "))");
+            rs.next();
+            if (rs.getInt(1) != inserted) {
+                result.fail(null, "the index of features holds " + rs.getInt(1) + " rows, " + inserted
+                        + " were inserted");
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    static String square(double x, double y, double side) {
+        return "POLYGON((" + x + " " + y + ", " + (x + side) + " " + y + ", " + (x + side) + " " + (y + side) + ", " + x
+                + " " + (y + side) + ", " + x + " " + y + "))";
+    }
+
+    /**
+     * @return the number of squares of the grid crossing [min, max] along
+     *         one axis.
+     */
+    static int crossing(int min, int max) {
+        int count = 0;
+        for (int i = 0; i < GRID; i++) {
+            if (i * 10 <= max && i * 10 + 8 >= min) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A client session, running its operations until the deadline or its
+     * number of operations.
+     */
+    private final class Client extends Thread {
+
+        private final int rank;
+
+        private final Connection conn;
+
+        private final Result result;
+
+        private final AtomicInteger ids;
+
+        private final CountDownLatch start;
+
+        private final long deadline;
+
+        private final Random random;
+
+        private final WKTReader reader = new WKTReader();
+
+        private final PreparedStatement insert;
+
+        private final PreparedStatement readBack;
+
+        private final PreparedStatement scan;
+
+        private final Statement lookup;
+
+        private final PreparedStatement buffer;
+
+        private final PreparedStatement predicates;
+
+        private final int[] counts = new int[Operation.values().length];
+
+        private final int[] errors = new int[Operation.values().length];
+
+        private long[] latencies = new long[1024];
+
+        private int[] kinds = new int[1024];
+
+        private int size;
+
+        Client(int rank, Connection conn, Result result, AtomicInteger ids, CountDownLatch start, long deadline)
+                throws SQLException {
+            super("stress-client-" + rank);
+            this.rank = rank;
+            this.conn = conn;
+            this.result = result;
+            this.ids = ids;
+            this.start = start;
+            this.deadline = deadline;
+            this.random = new Random(seed * 31 + rank);
+            insert = conn.prepareStatement("INSERT INTO features VALUES(?, ?, GeomFromText(?, " + SRID + "))");
+            readBack = conn.prepareStatement("SELECT Area(the_geom), SRID(the_geom) FROM features WHERE id = ?");
+            scan = conn.prepareStatement("SELECT COUNT(*) FROM parcels WHERE Intersects(the_geom, GeomFromText(?, "
+                    + SRID + "))");
+            // the arguments of a table function are read when it is prepared
+            lookup = conn.createStatement();
+            buffer = conn.prepareStatement("SELECT Area(Buffer(GeomFromText(?, " + SRID + "), ?))");
+            predicates = conn.prepareStatement("SELECT Intersects(GeomFromText(?, " + SRID + "), GeomFromText(?, "
+                    + SRID + ")), Contains(GeomFromText(?, " + SRID + "), GeomFromText(?, " + SRID + ")),"
+                    + " Within(GeomFromText(?, " + SRID + "), GeomFromText(?, " + SRID + ")),"
+                    + " IsWithinDistance(GeomFromText(?, " + SRID + "), GeomFromText(?, " + SRID + "), 5)");
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                for (int i = 0; operationsPerThread == 0 || i < operationsPerThread; i++) {
+                    if (System.currentTimeMillis() >= deadline) {
+                        break;
+                    }
+                    Operation operation = Operation.draw(random);
+                    try {
+                        execute(operation);
+                    } catch (Exception e) {
+                        errors[operation.ordinal()]++;
+                        result.fail(operation, getName() + " : " + e);
+                    }
+                    counts[operation.ordinal()]++;
+                }
+            } catch (InterruptedException e) {
+                result.fail(null, getName() + " interrupted");
+            } finally {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    result.fail(null, getName() + " : " + e);
+                }
+            }
+        }
+
+        /**
+         * Draws the arguments of an operation, computes its expected answer,
+         * then times its SQL statements.
+         */
+        private void execute(Operation operation) throws SQLException, ParseException {
+            long begin;
+            String wrong = null;
+            switch (operation) {
+            case INSERT: {
+                int x = random.nextInt(1000);
+                int y = random.nextInt(1000);
+                int w = 1 + random.nextInt(50);
+                int h = 1 + random.nextInt(50);
+                String wkt = "POLYGON((" + x + " " + y + ", " + (x + w) + " " + y + ", " + x + " " + (y + h) + ", " + x
+                        + " " + y + "))";
+                int id = ids.incrementAndGet();
+                begin = System.nanoTime();
+                insert.setInt(1, id);
+                insert.setInt(2, rank);
+                insert.setString(3, wkt);
+                insert.execute();
+                readBack.setInt(1, id);
+                ResultSet rs = readBack.executeQuery();
+                if (!rs.next()) {
+                    wrong = "row " + id + " not found";
+                } else if (rs.getDouble(1) != w * h / 2.0 || rs.getInt(2) != SRID) {
+                    wrong = "row " + id + " read as area " + rs.getDouble(1) + ", SRID " + rs.getInt(2) + " for " + wkt;
+                }
+                rs.close();
+                break;
+            }
+            case WINDOW: {
+                int x = random.nextInt(GRID * 10);
+                int y = random.nextInt(GRID * 10);
+                int w = 1 + random.nextInt(60);
+                int h = 1 + random.nextInt(60);
+                String window = "POLYGON((" + x + " " + y + ", " + (x + w) + " " + y + ", " + (x + w) + " " + (y + h) + ", "
+                        + x + " " + (y + h) + ", " + x + " " + y + "))";
+                int expected = crossing(x, x + w) * crossing(y, y + h);
+                boolean indexed = random.nextBoolean();
+                begin = System.nanoTime();
+                ResultSet rs;
+                if (indexed) {
+                    String geom = "GeomFromText('" + window + "', " + SRID + ")";
+                    rs = lookup.executeQuery("SELECT COUNT(*) FROM SpatialIndexLookup('parcels', 'the_geom', " + geom
+                            + ") i, parcels p WHERE p.gid = i.KEY AND Intersects(p.the_geom, " + geom + ")");
+                } else {
+                    scan.setString(1, window);
+                    rs = scan.executeQuery();
+                }
+                rs.next();
+                if (rs.getInt(1) != expected) {
+                    wrong = (indexed ? "lookup" : "scan") + " of " + window + " gave " + rs.getInt(1) + " squares, "
+                            + expected + " expected";
+                }
+                rs.close();
+                break;
+            }
+            case BUFFER: {
+                String wkt = "POINT(" + random.nextInt(1000) + " " + random.nextInt(1000) + ")";
+                int distance = 1 + random.nextInt(20);
+                double expected = reader.read(wkt).buffer(distance).getArea();
+                begin = System.nanoTime();
+                buffer.setString(1, wkt);
+                buffer.setDouble(2, distance);
+                ResultSet rs = buffer.executeQuery();
+                rs.next();
+                if (Math.abs(rs.getDouble(1) - expected) > 1e-6 * expected) {
+                    wrong = "buffer of " + wkt + " by " + distance + " has an area of " + rs.getDouble(1) + ", "
+                            + expected + " expected";
+                }
+                rs.close();
+                break;
+            }
+            default: {
+                int x = random.nextInt(1000);
+                int y = random.nextInt(1000);
+                String a = square(x, y, 1 + random.nextInt(20));
+                String b = square(x - 20 + random.nextInt(40), y - 20 + random.nextInt(40), 1 + random.nextInt(20));
+                Geometry ga = reader.read(a);
+                Geometry gb = reader.read(b);
+                boolean[] expected = { ga.intersects(gb), ga.contains(gb), gb.within(ga), ga.isWithinDistance(gb, 5) };
+                begin = System.nanoTime();
+                String[] args = { a, b, a, b, b, a, a, b };
+                for (int i = 0; i < args.length; i++) {
+                    predicates.setString(i + 1, args[i]);
+                }
+                ResultSet rs = predicates.executeQuery();
+                rs.next();
+                for (int i = 0; i < expected.length; i++) {
+                    if (rs.getBoolean(i + 1) != expected[i]) {
+                        wrong = "predicate " + (i + 1) + " of " + a + " and " + b + " gave " + rs.getBoolean(i + 1);
+                    }
+                }
+                rs.close();
+                break;
+            }
+            }
+            record(operation, System.nanoTime() - begin);
+            if (wrong != null) {
+                result.wrong(operation, getName() + " : " + wrong);
+            }
+        }
+
+        private void record(Operation operation, long nanos) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            latencies[size] = nanos;
+            kinds[size] = operation.ordinal();
+            size++;
+        }
+    }
+
+    /**
+     * Throughput, latencies and failures of the run with a number of
+     * threads.
+     */
+    public static final class Result {
+
+        private final int threads;
+
+        private long elapsedNanos;
+
+        private final int[] counts = new int[Operation.values().length];
+
+        private final int[] errors = new int[Operation.values().length];
+
+        private final int[] wrongResults = new int[Operation.values().length];
+
+        private int otherFailures;
+
+        private final List<String> messages = new ArrayList<String>();
+
+        /**
+         * Latencies of each operation, then of all of them at the end.
+         */
+        private final long[][] latencies = new long[Operation.values().length + 1][];
+
+        Result(int threads) {
+            this.threads = threads;
+        }
+
+        synchronized void fail(Operation operation, String message) {
+            if (operation == null) {
+                otherFailures++;
+            }
+            if (messages.size() < MAX_MESSAGES) {
+                messages.add(message);
+            }
+        }
+
+        synchronized void wrong(Operation operation, String message) {
+            wrongResults[operation.ordinal()]++;
+            if (messages.size() < MAX_MESSAGES) {
+                messages.add(message);
+            }
+        }
+
+        void merge(Client client) {
+            for (int i = 0; i < latencies.length; i++) {
+                boolean all = i == Operation.values().length;
+                long[] previous = latencies[i] == null ? new long[0] : latencies[i];
+                long[] merged = Arrays.copyOf(previous, previous.length + client.size);
+                int n = previous.length;
+                for (int j = 0; j < client.size; j++) {
+                    if (all || client.kinds[j] == i) {
+                        merged[n++] = client.latencies[j];
+                    }
+                }
+                merged = Arrays.copyOf(merged, n);
+                Arrays.sort(merged);
+                latencies[i] = merged;
+            }
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += client.counts[i];
+                errors[i] += client.errors[i];
+            }
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getCount() {
+            int count = 0;
+            for (int c : counts) {
+                count += c;
+            }
+            return count;
+        }
+
+        public int getCount(Operation operation) {
+            return counts[operation.ordinal()];
+        }
+
+        public int getErrors(Operation operation) {
+            return errors[operation.ordinal()];
+        }
+
+        /**
+         * @return the number of answers different from the expected ones,
+         *         the failed statements and the failed checks of the features
+         *         table.
+         */
+        public synchronized int getFailures() {
+            int failures = otherFailures;
+            for (int i = 0; i < counts.length; i++) {
+                failures += errors[i] + wrongResults[i];
+            }
+            return failures;
+        }
+
+        public synchronized List<String> getMessages() {
+            return Collections.unmodifiableList(new ArrayList<String>(messages));
+        }
+
+        /**
+         * @return the number of operations per second.
+         */
+        public double getThroughput() {
+            return getCount() * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return the latency of the percentile in nanoseconds, of all the
+         *         operations if operation is null.
+         */
+        public long getPercentile(Operation operation, double fraction) {
+            long[] sorted = latencies[operation == null ? Operation.values().length : operation.ordinal()];
+            if (sorted == null || sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+        }
+
+        private String line(String name, int count, Operation operation, int failures) {
+            return String.format("%-10s %8d %10.3f %10.3f %8d%n", name, count, getPercentile(operation, 0.5) / 1e6,
+                    getPercentile(operation, 0.99) / 1e6, failures);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d threads, %.0f operations/s%n", threads, getThroughput()));
+            sb.append(String.format("%-10s %8s %10s %10s %8s%n", "operation", "count", "p50 ms", "p99 ms", "failures"));
+            for (Operation operation : Operation.values()) {
+                int i = operation.ordinal();
+                sb.append(line(operation.name(), counts[i], operation, errors[i] + wrongResults[i]));
+            }
+            sb.append(line("ALL", getCount(), null, getFailures()));
+            for (String message : getMessages()) {
+                sb.append("  ").append(message).append(String.format("%n"));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Arguments : thread counts separated by commas, duration of each run in
+     * seconds, directory of the database files. The exit status is 1 if a
+     * failure was flagged.
+     */
+    public static void main(String[] args) throws Exception {
+        Class.forName("org.h2.Driver");
+        String[] counts = (args.length > 0 ? args[0] : "1,2,4,8").split(",");
+        int[] threadCounts = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            threadCounts[i] = Integer.parseInt(counts[i].trim());
+        }
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        File directory = args.length > 2 ? new File(args[2]) : createTempDirectory();
+        StressSuite suite = new StressSuite(directory, 1);
+        suite.setDurationMillis(seconds * 1000);
+        suite.setUp();
+        int failures = 0;
+        try {
+            for (Result result : suite.run(threadCounts)) {
+                System.out.println(result);
+                failures += result.getFailures();
+            }
+        } finally {
+            suite.tearDown();
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    static File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("stress", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+}
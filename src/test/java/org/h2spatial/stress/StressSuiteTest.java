@@ -0,0 +1,71 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.stress;
+
+import org.h2spatial.stress.StressSuite.Operation;
+import org.h2spatial.stress.StressSuite.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a short stress suite with one and several sessions, none of their
+ * answers may be wrong.
+ */
+public class StressSuiteTest {
+
+    private File directory;
+
+    private StressSuite suite;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        directory = StressSuite.createTempDirectory();
+        suite = new StressSuite(directory, 7);
+        suite.setUp();
+    }
+
+    @After
+    public void close() {
+        suite.tearDown();
+        directory.delete();
+    }
+
+    @Test
+    public void concurrentSessions() throws Exception {
+        suite.setOperationsPerThread(150);
+        List<Result> results = suite.run(new int[] { 1, 4 });
+        for (Result result : results) {
+            assertEquals(result.toString(), 0, result.getFailures());
+            assertEquals(150 * result.getThreads(), result.getCount());
+            for (Operation operation : Operation.values()) {
+                assertTrue(result.getCount(operation) > 0);
+            }
+            assertTrue(result.getThroughput() > 0);
+            assertTrue(result.getPercentile(null, 0.5) > 0);
+            assertTrue(result.getPercentile(null, 0.99) >= result.getPercentile(null, 0.5));
+        }
+    }
+
+    @Test
+    public void sameOperations() throws Exception {
+        suite.setOperationsPerThread(60);
+        Result first = suite.run(2);
+        Result second = suite.run(2);
+        for (Operation operation : Operation.values()) {
+            assertEquals(first.getCount(operation), second.getCount(operation));
+        }
+    }
+}
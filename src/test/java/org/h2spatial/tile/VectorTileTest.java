@@ -0,0 +1,428 @@
+/**
+ *  CeCILL FREE SOFTWARE LICENSE AGREEMENT
+ *
+ * Version 2.1 dated 2013-06-21
+ *
+ * http://www.cecill.info/licences/Licence_CeCILL_V2.1-en.txt
+ */
+package org.h2spatial.tile;
+
+import org.h2spatial.SQLCodegenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes the tiles to check their layer, the features found with and
+ * without an index, the clipping and the orientation of the rings.
+ */
+public class VectorTileTest {
+
+    private Connection con;
+
+    private Statement stat;
+
+    @Before
+    public void open() throws Exception {
+        Class.forName("org.h2.Driver");
+        con = DriverManager.getConnection("jdbc:h2:mem:tiles", "sa", "");
+        stat = con.createStatement();
+        SQLCodegenerator.addSpatialFunctions(stat);
+        stat.execute("CREATE DOMAIN GEOMETRY AS BLOB");
+        stat.execute("CREATE TABLE parcels(gid INT PRIMARY KEY, name VARCHAR, area DOUBLE, the_geom GEOMETRY)");
+        for (int i = 0; i < 10; i++) {
+            int x = 100 + i * 300;
+            stat.execute("INSERT INTO parcels VALUES(" + i + ", 'p" + i + "', " + (i * 1.5)
+                    + ", GeomFromText('POLYGON((" + x + " 100, " + (x + 200) + " 100, " + (x + 200) + " 300, "
+                    + x + " 300, " + x + " 100))', 3857))");
+        }
+        // far from the tile
+        stat.execute("INSERT INTO parcels VALUES(10, 'far', 0, GeomFromText('POINT(-500000 -500000)', 3857))");
+    }
+
+    @After
+    public void close() throws SQLException {
+        stat.execute("DROP ALL OBJECTS");
+        con.close();
+    }
+
+    @Test
+    public void envelope() throws Exception {
+        Envelope world = VectorTile.getEnvelope(0, 0, 0);
+        assertEquals(-VectorTile.WORLD_HALF_SIZE, world.getMinX(), 1e-6);
+        assertEquals(VectorTile.WORLD_HALF_SIZE, world.getMaxY(), 1e-6);
+        Envelope tile = VectorTile.getEnvelope(12, 2048, 2047);
+        assertEquals(0, tile.getMinX(), 1e-6);
+        assertEquals(0, tile.getMinY(), 1e-6);
+        assertEquals(2 * VectorTile.WORLD_HALF_SIZE / 4096, tile.getWidth(), 1e-6);
+        try {
+            VectorTile.getEnvelope(2, 4, 0);
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        ResultSet rs = stat.executeQuery("SELECT SRID(TileEnvelope(1, 1, 0)), Area(TileEnvelope(1, 1, 0))");
+        rs.next();
+        assertEquals(3857, rs.getInt(1));
+        assertEquals(VectorTile.WORLD_HALF_SIZE * VectorTile.WORLD_HALF_SIZE, rs.getDouble(2), 1e3);
+    }
+
+    @Test
+    public void scan() throws Exception {
+        checkLayer(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+    }
+
+    @Test
+    public void index() throws Exception {
+        stat.execute("CALL CreateSpatialIndex('parcels', 'the_geom')");
+        checkLayer(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+        // the rows written after the index are found in its delta
+        stat.execute("INSERT INTO parcels VALUES(11, 'new', 1, GeomFromText('POINT(5000 5000)', 3857))");
+        Layer layer = read(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+        assertEquals(11, layer.features.size());
+        for (Feature feature : layer.features) {
+            assertEquals(feature.id == 11 ? VectorTileEncoder.POINT : VectorTileEncoder.POLYGON, feature.type);
+        }
+    }
+
+    private void checkLayer(byte[] tile) throws Exception {
+        Layer layer = read(tile);
+        assertEquals("parcels", layer.name);
+        assertEquals(VectorTileEncoder.DEFAULT_EXTENT, layer.extent);
+        assertEquals(2, layer.version);
+        assertEquals(10, layer.features.size());
+        assertTrue(layer.keys.contains("NAME"));
+        assertTrue(layer.keys.contains("GID"));
+        assertTrue(!layer.keys.contains("THE_GEOM"));
+        double unit = VectorTile.getEnvelope(12, 0, 0).getWidth() / 4096;
+        for (Feature feature : layer.features) {
+            assertEquals(VectorTileEncoder.POLYGON, feature.type);
+            assertEquals(1, feature.rings.size());
+            int[] ring = feature.rings.get(0);
+            assertEquals(8, ring.length);
+            assertTrue(area(ring) > 0);
+            int x = (int) Math.round((100 + feature.id * 300) / unit);
+            assertEquals(x, ring[0], 1);
+            assertEquals(4096 - Math.round(300 / unit), ring[1], 1);
+            int name = layer.keys.indexOf("NAME");
+            for (int i = 0; i < feature.tags.length; i += 2) {
+                if (feature.tags[i] == name) {
+                    assertEquals("p" + feature.id, layer.values.get(feature.tags[i + 1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clip() throws Exception {
+        stat.execute("DELETE FROM parcels");
+        stat.execute("INSERT INTO parcels VALUES(1, 'big', 1, Buffer(GeomFromText('POINT(5000 5000)', 3857), 20000))");
+        stat.execute("INSERT INTO parcels VALUES(2, 'line', 1, GeomFromText('LINESTRING(-20000 100, 20000 100)', 3857))");
+        Layer layer = read(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+        assertEquals(2, layer.features.size());
+        for (Feature feature : layer.features) {
+            int[] ring = feature.rings.get(0);
+            if (feature.id == 1) {
+                assertEquals(VectorTileEncoder.POLYGON, feature.type);
+                assertEquals(8, ring.length);
+                assertTrue(area(ring) > 0);
+            } else {
+                assertEquals(VectorTileEncoder.LINESTRING, feature.type);
+                assertEquals(4, ring.length);
+            }
+            for (int c : ring) {
+                assertTrue(c >= -VectorTile.DEFAULT_BUFFER);
+                assertTrue(c <= 4096 + VectorTile.DEFAULT_BUFFER);
+            }
+        }
+
+        // a hole is oriented the other way
+        stat.execute("DELETE FROM parcels");
+        stat.execute("INSERT INTO parcels VALUES(1, 'ring', 1, GeomFromText('POLYGON((0 0, 9000 0, 9000 9000, 0 9000, 0 0),"
+                + " (1000 1000, 2000 1000, 2000 2000, 1000 2000, 1000 1000))', 3857))");
+        layer = read(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+        List<int[]> rings = layer.features.get(0).rings;
+        assertEquals(2, rings.size());
+        assertTrue(area(rings.get(0)) > 0);
+        assertTrue(area(rings.get(1)) < 0);
+    }
+
+    @Test
+    public void geographic() throws Exception {
+        stat.execute("CREATE TABLE places(gid INT PRIMARY KEY, the_geom GEOMETRY)");
+        stat.execute("INSERT INTO places VALUES(1, GeomFromText('POINT(90 0)', 4326))");
+        stat.execute("INSERT INTO places VALUES(2, GeomFromText('POINT(-90 60)', 4326))");
+        Layer layer = read(VectorTile.encode(con, "places", "the_geom", 0, 0, 0));
+        assertEquals(2, layer.features.size());
+        int[] point = layer.features.get(0).rings.get(0);
+        assertEquals(3072, point[0]);
+        assertEquals(2048, point[1]);
+        point = layer.features.get(1).rings.get(0);
+        assertEquals(1024, point[0]);
+        double y = Math.log(Math.tan(Math.PI / 4 + Math.toRadians(60) / 2)) / Math.PI;
+        assertEquals(Math.round(2048 * (1 - y)), point[1]);
+
+        layer = read(VectorTile.encode(con, "places", "the_geom", 1, 0, 1));
+        assertEquals(0, layer.features.size());
+        layer = read(VectorTile.encode(con, "places", "the_geom", 1, 1, 0));
+        assertEquals(1, layer.features.size());
+        assertEquals(1, layer.features.get(0).id);
+
+        stat.execute("CREATE TABLE lambert(gid INT PRIMARY KEY, the_geom GEOMETRY)");
+        stat.execute("INSERT INTO lambert VALUES(1, GeomFromText('POINT(1 1)', 2154))");
+        try {
+            VectorTile.encode(con, "lambert", "the_geom", 0, 0, 0);
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void levels() throws Exception {
+        stat.execute("CALL CreateGeometryLevels('parcels', 'the_geom', '1000')");
+        // without the trigger, the level can be told apart from the column
+        stat.execute("DROP TRIGGER PARCELS_THE_GEOM_LOD_TRG");
+        stat.execute("UPDATE parcels SET the_geom_lod1 = NULL");
+        stat.execute("UPDATE parcels SET the_geom_lod1 = GeomFromText('POINT(5000000 5000000)', 3857) WHERE gid = 0");
+        // the tolerance is below the 2446 m unit of the tiles at zoom 2
+        Layer layer = read(VectorTile.encode(con, "parcels", "the_geom", 2, 2, 1));
+        assertEquals(1, layer.features.size());
+        assertEquals(VectorTileEncoder.POINT, layer.features.get(0).type);
+        assertTrue(!layer.keys.contains("THE_GEOM_LOD1"));
+        layer = read(VectorTile.encode(con, "parcels", "the_geom", 12, 2048, 2047));
+        assertEquals(10, layer.features.size());
+    }
+
+    @Test
+    public void sqlFunction() throws Exception {
+        ResultSet rs = stat.executeQuery("CALL AsVectorTile('parcels', 'the_geom', 12, 2048, 2047)");
+        rs.next();
+        assertEquals(10, read(rs.getBytes(1)).features.size());
+        rs = stat.executeQuery("CALL AsVectorTile('parcels', 'the_geom', 12, 0, 0)");
+        rs.next();
+        assertEquals(0, rs.getBytes(1).length);
+    }
+
+    /**
+     * @return twice the signed area of a ring in tile coordinates, positive
+     *         for a clockwise ring on screen.
+     */
+    private static long area(int[] ring) {
+        long area = 0;
+        int n = ring.length / 2;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            area += (long) ring[2 * i] * ring[2 * j + 1] - (long) ring[2 * j] * ring[2 * i + 1];
+        }
+        return area;
+    }
+
+    static final class Layer {
+        String name;
+        int version;
+        int extent;
+        List<Feature> features = new ArrayList<Feature>();
+        List<String> keys = new ArrayList<String>();
+        List<Object> values = new ArrayList<Object>();
+    }
+
+    static final class Feature {
+        long id = -1;
+        int type;
+        int[] tags = new int[0];
+        List<int[]> rings = new ArrayList<int[]>();
+    }
+
+    /**
+     * Reads the single layer of a tile, an empty layer for an empty tile.
+     */
+    private static Layer read(byte[] tile) throws Exception {
+        Layer layer = new Layer();
+        if (tile.length == 0) {
+            return layer;
+        }
+        Message message = new Message(tile, 0, tile.length);
+        assertEquals(3, message.next());
+        message = message.message();
+        int field;
+        while ((field = message.next()) >= 0) {
+            switch (field) {
+            case 1:
+                layer.name = message.string();
+                break;
+            case 2:
+                layer.features.add(readFeature(message.message()));
+                break;
+            case 3:
+                layer.keys.add(message.string());
+                break;
+            case 4:
+                Message value = message.message();
+                int type = value.next();
+                layer.values.add(type == 1 ? value.string() : type == 3 ? (Object) Double.valueOf(Double
+                        .longBitsToDouble(value.fixed64())) : Long.valueOf(value.varint()));
+                break;
+            case 5:
+                layer.extent = (int) message.varint();
+                break;
+            case 15:
+                layer.version = (int) message.varint();
+                break;
+            default:
+                fail("field " + field);
+            }
+        }
+        return layer;
+    }
+
+    private static Feature readFeature(Message message) {
+        Feature feature = new Feature();
+        int[] commands = null;
+        int field;
+        while ((field = message.next()) >= 0) {
+            switch (field) {
+            case 1:
+                feature.id = message.varint();
+                break;
+            case 2:
+                feature.tags = message.message().packed();
+                break;
+            case 3:
+                feature.type = (int) message.varint();
+                break;
+            case 4:
+                commands = message.message().packed();
+                break;
+            default:
+                fail("field " + field);
+            }
+        }
+        int x = 0;
+        int y = 0;
+        int i = 0;
+        int[] ring = null;
+        int size = 0;
+        while (i < commands.length) {
+            int id = commands[i] & 0x7;
+            int count = commands[i] >>> 3;
+            i++;
+            if (id == VectorTileEncoder.CLOSE_PATH) {
+                continue;
+            }
+            if (id == VectorTileEncoder.MOVE_TO && feature.type != VectorTileEncoder.POINT) {
+                ring = new int[2];
+                size = 0;
+            } else if (ring == null) {
+                ring = new int[2 * count];
+            } else {
+                int[] grown = new int[size + 2 * count];
+                System.arraycopy(ring, 0, grown, 0, size);
+                ring = grown;
+            }
+            for (int k = 0; k < count; k++) {
+                x += unZigZag(commands[i++]);
+                y += unZigZag(commands[i++]);
+                ring[size++] = x;
+                ring[size++] = y;
+            }
+            if (id == VectorTileEncoder.MOVE_TO && feature.type != VectorTileEncoder.POINT) {
+                feature.rings.add(ring);
+            } else if (id == VectorTileEncoder.LINE_TO) {
+                feature.rings.set(feature.rings.size() - 1, ring);
+            } else {
+                feature.rings.add(ring);
+            }
+        }
+        return feature;
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Minimal protocol buffers reader.
+     */
+    static final class Message {
+        final byte[] data;
+        final int start;
+        final int end;
+        int pos;
+        int wireType;
+
+        Message(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            this.pos = start;
+        }
+
+        int next() {
+            if (pos >= end) {
+                return -1;
+            }
+            long tag = varint();
+            wireType = (int) (tag & 0x7);
+            return (int) (tag >>> 3);
+        }
+
+        long varint() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        long fixed64() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (data[pos++] & 0xFF) << (8 * i);
+            }
+            return value;
+        }
+
+        Message message() {
+            int length = (int) varint();
+            Message message = new Message(data, pos, pos + length);
+            pos += length;
+            return message;
+        }
+
+        String string() throws Exception {
+            Message m = message();
+            return new String(data, m.start, m.end - m.start, "UTF-8");
+        }
+
+        int[] packed() {
+            List<Integer> values = new ArrayList<Integer>();
+            while (pos < end) {
+                values.add(Integer.valueOf((int) varint()));
+            }
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i).intValue();
+            }
+            return result;
+        }
+    }
+}